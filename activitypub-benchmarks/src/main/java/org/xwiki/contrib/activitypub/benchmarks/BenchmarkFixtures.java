@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.context.internal.DefaultExecution;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubObjectReferenceSerializer;
+import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonSerializer;
+import org.xwiki.contrib.activitypub.internal.json.JSONLDContextDeserializer;
+import org.xwiki.contrib.activitypub.internal.json.NestedObjectsPersister;
+import org.xwiki.contrib.activitypub.internal.json.ObjectMapperConfiguration;
+
+/**
+ * Provide the components and the JSON fixtures used by the benchmarks.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public final class BenchmarkFixtures
+{
+    /**
+     * A Create activity with an expanded Document, as sent when a page is created.
+     */
+    public static final String CREATE = "create";
+
+    /**
+     * A Person as served by Mastodon, with its JSON-LD context, public key and endpoints.
+     */
+    public static final String PERSON = "person";
+
+    /**
+     * A followers collection with {@link #FOLLOWERS_COUNT} items.
+     */
+    public static final String FOLLOWERS = "followers";
+
+    /**
+     * An inbox with a hundred of activities.
+     */
+    public static final String INBOX = "inbox";
+
+    private static final int FOLLOWERS_COUNT = 10000;
+
+    private static final List<Class<?>> COMPONENTS = Arrays.asList(
+        DefaultActivityPubJsonParser.class,
+        DefaultActivityPubJsonSerializer.class,
+        ObjectMapperConfiguration.class,
+        ActivityPubObjectReferenceSerializer.class,
+        JSONLDContextDeserializer.class,
+        NestedObjectsPersister.class,
+        ActivityPubUnitOfWork.class,
+        DefaultExecution.class
+    );
+
+    private BenchmarkFixtures()
+    {
+    }
+
+    /**
+     * @return a component manager containing the actual parser and serializer, with their dependencies.
+     * @throws Exception in case of error when registering the components.
+     */
+    public static EmbeddableComponentManager createComponentManager() throws Exception
+    {
+        EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+        ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+        for (Class<?> componentClass : COMPONENTS) {
+            for (ComponentDescriptor<?> descriptor : loader.getComponentsDescriptors(componentClass)) {
+                componentManager.registerComponent(descriptor);
+            }
+        }
+        return componentManager;
+    }
+
+    /**
+     * @param fixture the name of the fixture.
+     * @return the JSON of the fixture.
+     * @throws IOException in case of error when reading the fixture.
+     */
+    public static String getJson(String fixture) throws IOException
+    {
+        switch (fixture) {
+            case CREATE:
+                return readResource("create-document.json");
+            case PERSON:
+                return readResource("person-mastodon.json");
+            case FOLLOWERS:
+                return createFollowersJson();
+            case INBOX:
+                return readResource("inbox.json");
+            default:
+                throw new IllegalArgumentException(String.format("Unknown fixture [%s].", fixture));
+        }
+    }
+
+    private static String readResource(String name) throws IOException
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            BenchmarkFixtures.class.getResourceAsStream("/fixtures/" + name), StandardCharsets.UTF_8)))
+        {
+            return reader.lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    private static String createFollowersJson()
+    {
+        StringBuilder builder = new StringBuilder()
+            .append("{\"@context\":\"https://www.w3.org/ns/activitystreams\",")
+            .append("\"id\":\"https://wiki.example/xwiki/activitypub/OrderedCollection/alice-followers\",")
+            .append("\"type\":\"OrderedCollection\",")
+            .append("\"attributedTo\":[\"https://wiki.example/xwiki/activitypub/Person/alice\"],")
+            .append("\"totalItems\":").append(FOLLOWERS_COUNT).append(',')
+            .append("\"orderedItems\":[");
+        for (int i = 0; i < FOLLOWERS_COUNT; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("\"https://instance").append(i % 100).append(".example/users/user").append(i).append('"');
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.Create;
+
+/**
+ * Benchmark of {@link org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonSerializer#serialize}.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializerBenchmark
+{
+    /**
+     * The fixture to serialize.
+     */
+    @Param({ BenchmarkFixtures.CREATE, BenchmarkFixtures.PERSON, BenchmarkFixtures.FOLLOWERS,
+        BenchmarkFixtures.INBOX })
+    public String fixture;
+
+    private ActivityPubJsonSerializer serializer;
+
+    private ActivityPubObject entity;
+
+    /**
+     * Prepare the serializer and the entity to serialize.
+     *
+     * @throws Exception in case of error when initializing the components or parsing the fixture.
+     */
+    @Setup
+    public void setup() throws Exception
+    {
+        ComponentManager componentManager = BenchmarkFixtures.createComponentManager();
+        this.serializer = componentManager.getInstance(ActivityPubJsonSerializer.class);
+        this.entity = componentManager.<ActivityPubJsonParser>getInstance(ActivityPubJsonParser.class)
+            .parse(BenchmarkFixtures.getJson(this.fixture));
+        if (this.entity instanceof Create) {
+            // The created document is sent along with the activity.
+            ((Create) this.entity).getObject().setExpand(true);
+        }
+    }
+
+    /**
+     * @return the serialized fixture.
+     * @throws ActivityPubException in case of serialization error.
+     */
+    @Benchmark
+    public String serialize() throws ActivityPubException
+    {
+        return this.serializer.serialize(this.entity);
+    }
+}
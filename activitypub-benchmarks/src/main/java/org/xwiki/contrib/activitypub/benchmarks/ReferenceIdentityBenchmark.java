@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Person;
+
+/**
+ * Benchmark of the hash set operations on the {@link ActivityPubObjectReference}, as performed on the items of the
+ * collections. The references are compared with their identifiers, and with the string representation of their
+ * objects, as they were before, to compare both.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReferenceIdentityBenchmark
+{
+    private static final String ACTOR_FORMAT = "https://remote%s.example/users/actor%s";
+
+    private static final int DOMAINS = 100;
+
+    /**
+     * The number of items of the collection.
+     */
+    @Param({ "10000" })
+    public int size;
+
+    /**
+     * The identity of the references: {@code uri} for the identifier of the referred object, {@code toString} for
+     * the string representation of the resolved object, as it was before.
+     */
+    @Param({ "uri", "toString" })
+    public String identity;
+
+    private List<Object> items;
+
+    private List<Object> lookups;
+
+    private Set<Object> itemSet;
+
+    /**
+     * Prepare the resolved references of the collection, and unresolved references to the same actors to look for.
+     */
+    @Setup
+    public void setup()
+    {
+        this.items = new ArrayList<>(this.size);
+        this.lookups = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            URI id = URI.create(String.format(ACTOR_FORMAT, i % DOMAINS, i));
+            Person actor = new Person()
+                .setPreferredUsername("actor" + i)
+                .setName("Actor " + i)
+                .setId(id);
+            this.items.add(wrap(actor.getReference()));
+            // The lookups are performed with the references of another instance of the same actor.
+            this.lookups.add(wrap(new Person().setPreferredUsername("actor" + i).setName("Actor " + i).setId(id)
+                .getReference()));
+        }
+        this.itemSet = new HashSet<>(this.items);
+    }
+
+    private Object wrap(ActivityPubObjectReference<?> reference)
+    {
+        return ("uri".equals(this.identity)) ? reference : new StringIdentity(reference);
+    }
+
+    /**
+     * @return the set of the items.
+     */
+    @Benchmark
+    public Set<Object> add()
+    {
+        return new HashSet<>(this.items);
+    }
+
+    /**
+     * @return the number of items found in the set.
+     */
+    @Benchmark
+    public int contains()
+    {
+        int result = 0;
+        for (Object lookup : this.lookups) {
+            if (this.itemSet.contains(lookup)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The identity of the references before they were compared with their identifiers: the string representation of
+     * the resolved objects was computed for each comparison and each hash.
+     */
+    private static final class StringIdentity
+    {
+        private final ActivityPubObjectReference<?> reference;
+
+        StringIdentity(ActivityPubObjectReference<?> reference)
+        {
+            this.reference = reference;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ActivityPubObjectReference<?> rhs = ((StringIdentity) o).reference;
+            return this.reference.isLink() == rhs.isLink()
+                && Objects.equals(this.reference.getLink(), rhs.getLink())
+                && Objects.equals(getObjectString(this.reference), getObjectString(rhs));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.reference.getLink(), this.reference.isLink(), getObjectString(this.reference));
+        }
+
+        private static String getObjectString(ActivityPubObjectReference<?> reference)
+        {
+            return (reference.getObject() != null) ? reference.getObject().toString() : null;
+        }
+    }
+}
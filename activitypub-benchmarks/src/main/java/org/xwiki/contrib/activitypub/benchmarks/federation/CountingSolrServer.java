@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks.federation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * An embedded Solr server counting the requests it receives, so that the load harness can report how many documents
+ * have been written and how many commits they cost.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class CountingSolrServer extends EmbeddedSolrServer
+{
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicLong addedDocuments = new AtomicLong();
+
+    private final AtomicLong updateRequests = new AtomicLong();
+
+    private final AtomicLong softCommits = new AtomicLong();
+
+    private final AtomicLong hardCommits = new AtomicLong();
+
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * @param solrHome the Solr home containing the core.
+     * @param coreName the name of the core.
+     */
+    public CountingSolrServer(Path solrHome, String coreName)
+    {
+        super(solrHome, coreName);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public NamedList<Object> request(SolrRequest request, String coreName) throws SolrServerException, IOException
+    {
+        if (request instanceof AbstractUpdateRequest) {
+            AbstractUpdateRequest updateRequest = (AbstractUpdateRequest) request;
+            if (updateRequest.getAction() == AbstractUpdateRequest.ACTION.COMMIT) {
+                if (updateRequest.getParams().getBool(UpdateParams.SOFT_COMMIT, false)) {
+                    this.softCommits.incrementAndGet();
+                } else {
+                    this.hardCommits.incrementAndGet();
+                }
+            } else {
+                this.updateRequests.incrementAndGet();
+                if (request instanceof UpdateRequest && ((UpdateRequest) request).getDocuments() != null) {
+                    this.addedDocuments.addAndGet(((UpdateRequest) request).getDocuments().size());
+                }
+            }
+        } else {
+            this.queries.incrementAndGet();
+        }
+        return super.request(request, coreName);
+    }
+
+    /**
+     * @return a snapshot of the counters.
+     */
+    public Counters getCounters()
+    {
+        return new Counters(this.addedDocuments.get(), this.updateRequests.get(), this.softCommits.get(),
+            this.hardCommits.get(), this.queries.get());
+    }
+
+    /**
+     * The number of requests received by the server at a given time.
+     */
+    public static final class Counters
+    {
+        private final long addedDocuments;
+
+        private final long updateRequests;
+
+        private final long softCommits;
+
+        private final long hardCommits;
+
+        private final long queries;
+
+        private Counters(long addedDocuments, long updateRequests, long softCommits, long hardCommits, long queries)
+        {
+            this.addedDocuments = addedDocuments;
+            this.updateRequests = updateRequests;
+            this.softCommits = softCommits;
+            this.hardCommits = hardCommits;
+            this.queries = queries;
+        }
+
+        /**
+         * @param previous counters taken earlier.
+         * @return the requests received since the previous counters have been taken.
+         */
+        public Counters since(Counters previous)
+        {
+            return new Counters(this.addedDocuments - previous.addedDocuments,
+                this.updateRequests - previous.updateRequests, this.softCommits - previous.softCommits,
+                this.hardCommits - previous.hardCommits, this.queries - previous.queries);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d documents added in %d update requests, %d soft commits, %d hard commits, "
+                + "%d queries", this.addedDocuments, this.updateRequests, this.softCommits, this.hardCommits,
+                this.queries);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks.federation;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.inject.Provider;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.context.internal.DefaultExecution;
+import org.xwiki.contrib.activitypub.ActivityHandler;
+import org.xwiki.contrib.activitypub.ActivityPubConfiguration;
+import org.xwiki.contrib.activitypub.ActivityPubNotifier;
+import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.ActorHandler;
+import org.xwiki.contrib.activitypub.SignatureService;
+import org.xwiki.contrib.activitypub.entities.AbstractActivity;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
+import org.xwiki.contrib.activitypub.entities.Inbox;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.Outbox;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.internal.ActivityPubHttpClientManager;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
+import org.xwiki.contrib.activitypub.internal.DefaultActivityPubClient;
+import org.xwiki.contrib.activitypub.internal.DefaultActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.internal.DefaultURLHandler;
+import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
+import org.xwiki.contrib.activitypub.internal.activities.CreateActivityHandler;
+import org.xwiki.contrib.activitypub.internal.delivery.ActivityDeliveryService;
+import org.xwiki.contrib.activitypub.internal.filters.CollectionFilter;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubBinaryCodec;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubObjectReferenceSerializer;
+import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonSerializer;
+import org.xwiki.contrib.activitypub.internal.json.JSONLDContextDeserializer;
+import org.xwiki.contrib.activitypub.internal.json.NestedObjectsPersister;
+import org.xwiki.contrib.activitypub.internal.json.ObjectMapperConfiguration;
+import org.xwiki.contrib.activitypub.internal.resource.ActivityPubResourceReferenceHandler;
+import org.xwiki.contrib.activitypub.internal.storage.ActivityPubSolrInitializer;
+import org.xwiki.contrib.activitypub.internal.storage.ActivityPubSolrWriter;
+import org.xwiki.contrib.activitypub.internal.storage.ActorDirectory;
+import org.xwiki.contrib.activitypub.internal.storage.ActorDirectoryBackfill;
+import org.xwiki.contrib.activitypub.internal.storage.DefaultActivityPubStorage;
+import org.xwiki.contrib.activitypub.internal.storage.IndexedEntityFields;
+import org.xwiki.contrib.activitypub.internal.storage.LegacyEntityMigration;
+import org.xwiki.contrib.activitypub.internal.storage.RemoteEntityRefresher;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonSerializer;
+import org.xwiki.resource.ResourceReferenceHandler;
+import org.xwiki.resource.ResourceReferenceHandlerChain;
+import org.xwiki.resource.ResourceReferenceSerializer;
+import org.xwiki.resource.ResourceType;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.mockito.MockitoComponentManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Boot the actual storage, delivery and request handling components of the ActivityPub server against an embedded
+ * Solr core, along with local instances standing for the remote servers.
+ * <p>
+ * Only the services of the XWiki platform are replaced by mocks: the servlet container, the URL of the wiki, the
+ * notifications and the HTTP signatures, which are neither generated nor verified.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class FederationEnvironment implements AutoCloseable
+{
+    /**
+     * The URL of the wiki under test: it's never requested, since all its entities are stored locally.
+     */
+    public static final String LOCAL_SERVER = "http://wiki.local";
+
+    private static final String CORE_NAME = "activitypub";
+
+    private static final String WIKI = "xwiki";
+
+    private static final String SIGNER_ATTRIBUTE = "federation.signer";
+
+    private static final String ACTIVITY_JSON = "application/activity+json";
+
+    private static final List<Class<?>> COMPONENTS = Arrays.asList(
+        DefaultActivityPubJsonParser.class,
+        DefaultActivityPubJsonSerializer.class,
+        ActivityPubBinaryCodec.class,
+        NestedObjectsPersister.class,
+        ObjectMapperConfiguration.class,
+        ActivityPubObjectReferenceSerializer.class,
+        JSONLDContextDeserializer.class,
+        ActivityPubObjectCache.class,
+        ActivityPubUnitOfWork.class,
+        DefaultActivityPubObjectReferenceResolver.class,
+        DefaultExecution.class,
+        ActivityPubHttpClientManager.class,
+        DefaultActivityPubClient.class,
+        DefaultActivityPubStorage.class,
+        RemoteEntityRefresher.class,
+        ActorDirectory.class,
+        ActorDirectoryBackfill.class,
+        LegacyEntityMigration.class,
+        IndexedEntityFields.class,
+        ActivityPubSolrWriter.class,
+        ActivityDeliveryService.class,
+        CreateActivityHandler.class,
+        ActivityPubResourceReferenceHandler.class
+    );
+
+    private final MockitoComponentManager componentManager = new MockitoComponentManager();
+
+    private final ThreadLocal<ServletRequest> currentRequest = new ThreadLocal<>();
+
+    private final ThreadLocal<ServletResponse> currentResponse = new ThreadLocal<>();
+
+    private final List<RemoteInstance> remoteInstances = new ArrayList<>();
+
+    private final List<AbstractActor> localActors = new ArrayList<>();
+
+    private Path solrHome;
+
+    private CountingSolrServer solrServer;
+
+    private ActivityPubStorage storage;
+
+    private ActivityPubUnitOfWork unitOfWork;
+
+    private Execution execution;
+
+    private ResourceReferenceHandler<ResourceType> resourceReferenceHandler;
+
+    private ActivityHandler<Create> createActivityHandler;
+
+    /**
+     * Start the embedded Solr core, the remote instances and the components.
+     *
+     * @param remotes the number of remote instances to start.
+     * @param latency the latency of the remote instances, in milliseconds.
+     * @param errorRate the rate of activities rejected by the remote instances.
+     * @param listener notified of the activities accepted by the remote instances.
+     * @throws Exception in case of error during the startup.
+     */
+    public void start(int remotes, long latency, double errorRate, RemoteInstance.DeliveryListener listener)
+        throws Exception
+    {
+        startSolr();
+        for (int i = 0; i < remotes; i++) {
+            this.remoteInstances.add(new RemoteInstance(latency, errorRate, listener));
+        }
+        registerMocks();
+        ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+        for (Class<?> componentClass : COMPONENTS) {
+            for (ComponentDescriptor<?> descriptor : loader.getComponentsDescriptors(componentClass)) {
+                this.componentManager.registerComponent(descriptor);
+            }
+        }
+        this.storage = this.componentManager.getInstance(ActivityPubStorage.class);
+        this.unitOfWork = this.componentManager.getInstance(ActivityPubUnitOfWork.class);
+        this.execution = this.componentManager.getInstance(Execution.class);
+        this.resourceReferenceHandler = this.componentManager.getInstance(
+            new DefaultParameterizedType(null, ResourceReferenceHandler.class, ResourceType.class), CORE_NAME);
+        this.createActivityHandler = this.componentManager.getInstance(
+            new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
+    }
+
+    private void startSolr() throws Exception
+    {
+        // Solr needs actual files: the configuration of the core is copied in a temporary home.
+        this.solrHome = Files.createTempDirectory("activitypub-federation");
+        for (String resource : Arrays.asList("solr.xml", "activitypub/core.properties",
+            "activitypub/conf/solrconfig.xml", "activitypub/conf/managed-schema"))
+        {
+            Path target = this.solrHome.resolve(resource);
+            Files.createDirectories(target.getParent());
+            try (InputStream inputStream = getClass().getResourceAsStream("/federation/solr/" + resource)) {
+                Files.copy(inputStream, target);
+            }
+        }
+        this.solrServer = new CountingSolrServer(this.solrHome, CORE_NAME);
+        new ActivityPubSolrInitializer().initialize(this.solrServer);
+    }
+
+    private void registerMocks() throws Exception
+    {
+        this.componentManager.registerComponent(ComponentManager.class, "context", this.componentManager);
+
+        Solr solr = this.componentManager.registerMockComponent(Solr.class);
+        when(solr.getClient(CORE_NAME)).thenReturn(this.solrServer);
+
+        DefaultURLHandler urlHandler = this.componentManager.registerMockComponent(DefaultURLHandler.class);
+        when(urlHandler.getServerUrl()).thenReturn(new URL(LOCAL_SERVER));
+        when(urlHandler.belongsToCurrentInstance(any()))
+            .then(invocation -> isLocal(invocation.getArgument(0)));
+
+        ResourceReferenceSerializer<ActivityPubResourceReference, URI> resourceReferenceSerializer =
+            this.componentManager.registerMockComponent(new DefaultParameterizedType(null,
+                ResourceReferenceSerializer.class, ActivityPubResourceReference.class, URI.class));
+        when(resourceReferenceSerializer.serialize(any())).then(invocation -> {
+            ActivityPubResourceReference reference = invocation.getArgument(0);
+            return URI.create(String.format("%s/xwiki/activitypub/%s/%s", LOCAL_SERVER, reference.getEntityType(),
+                reference.getUuid()));
+        });
+
+        ActorHandler actorHandler = this.componentManager.registerMockComponent(ActorHandler.class);
+        when(actorHandler.isLocalActor(any()))
+            .then(invocation -> isLocal(invocation.<AbstractActor>getArgument(0).getId()));
+
+        SignatureService signatureService = this.componentManager.registerMockComponent(SignatureService.class);
+        when(signatureService.verifySignature(any())).then(
+            invocation -> invocation.<HttpServletRequest>getArgument(0).getAttribute(SIGNER_ATTRIBUTE));
+
+        // The configuration is left to its default values.
+        ConfigurationSource configuration =
+            this.componentManager.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(any(), any(Object.class))).then(invocation -> invocation.getArgument(1));
+
+        Container container = this.componentManager.registerMockComponent(Container.class);
+        when(container.getRequest()).then(invocation -> this.currentRequest.get());
+        when(container.getResponse()).then(invocation -> this.currentResponse.get());
+
+        this.componentManager.registerMockComponent(WebfingerJsonParser.class);
+        this.componentManager.registerMockComponent(WebfingerJsonSerializer.class);
+        this.componentManager.registerMockComponent(ActivityPubNotifier.class);
+        this.componentManager.registerMockComponent(ActivityPubConfiguration.class);
+        this.componentManager.registerMockComponent(XWikiUserBridge.class);
+        this.componentManager.registerMockComponent(new DefaultParameterizedType(null, CollectionFilter.class,
+            new DefaultParameterizedType(null, OrderedCollection.class, AbstractActivity.class)));
+
+        // The background workers initialize their own execution context, in a single wiki without XWiki context.
+        ExecutionContextManager executionContextManager =
+            this.componentManager.registerMockComponent(ExecutionContextManager.class);
+        doAnswer(invocation -> {
+            this.componentManager.<Execution>getInstance(Execution.class).setContext(invocation.getArgument(0));
+            return null;
+        }).when(executionContextManager).initialize(any());
+        this.componentManager.registerMockComponent(new DefaultParameterizedType(null, Provider.class,
+            XWikiContext.class));
+        WikiDescriptorManager wikiDescriptorManager =
+            this.componentManager.registerMockComponent(WikiDescriptorManager.class);
+        when(wikiDescriptorManager.getCurrentWikiId()).thenReturn(WIKI);
+        when(wikiDescriptorManager.getMainWikiId()).thenReturn(WIKI);
+    }
+
+    private boolean isLocal(URI id)
+    {
+        return id != null && id.toASCIIString().startsWith(LOCAL_SERVER);
+    }
+
+    /**
+     * Create and store a local actor, along with its collections, in the same way than the actor handler does.
+     *
+     * @param username the name of the actor.
+     * @param followers the actors following the new actor.
+     * @return the new actor.
+     * @throws Exception in case of error when storing the actor.
+     */
+    public AbstractActor createLocalActor(String username, List<URI> followers) throws Exception
+    {
+        return call(() -> {
+            Person actor = new Person().setPreferredUsername(username);
+            actor.setName(username);
+
+            Inbox inbox = new Inbox();
+            inbox.setAttributedTo(
+                Collections.singletonList(new ActivityPubObjectReference<AbstractActor>().setObject(actor)));
+            this.storage.storeEntity(inbox);
+            actor.setInbox(new ActivityPubObjectReference<Inbox>().setObject(inbox));
+
+            Outbox outbox = new Outbox();
+            outbox.setAttributedTo(
+                Collections.singletonList(new ActivityPubObjectReference<AbstractActor>().setObject(actor)));
+            this.storage.storeEntity(outbox);
+            actor.setOutbox(new ActivityPubObjectReference<Outbox>().setObject(outbox));
+
+            OrderedCollection<AbstractActor> following = new OrderedCollection<>();
+            this.storage.storeEntity(following);
+            actor.setFollowing(
+                new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(following));
+
+            OrderedCollection<AbstractActor> followersCollection = new OrderedCollection<>();
+            this.storage.storeEntity(followersCollection);
+            actor.setFollowers(
+                new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(followersCollection));
+            for (URI follower : followers) {
+                this.storage.appendItem(followersCollection.getId(), follower);
+            }
+
+            actor.setEndpoints(new Endpoints().setSharedInbox(
+                URI.create(LOCAL_SERVER + "/xwiki/activitypub/sharedInbox/xwiki")));
+            this.storage.storeEntity(actor);
+            this.localActors.add(actor);
+            return actor;
+        });
+    }
+
+    /**
+     * Call the given task in a new execution context and unit of work, as it's done for each request.
+     *
+     * @param task the task to call.
+     * @param <T> the type of the result.
+     * @return the result of the task.
+     * @throws Exception in case of error in the task.
+     */
+    public <T> T call(Callable<T> task) throws Exception
+    {
+        this.execution.setContext(new ExecutionContext());
+        try {
+            this.unitOfWork.begin();
+            try {
+                return task.call();
+            } finally {
+                this.unitOfWork.end();
+            }
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * Post the given activity to the shared inbox of the wiki, as if it was sent by a remote server.
+     *
+     * @param activity the JSON of the activity.
+     * @param signer the actor who signed the request.
+     * @return the status code of the response.
+     * @throws Exception in case of error when handling the request.
+     */
+    public int postToSharedInbox(String activity, URI signer) throws Exception
+    {
+        String path = "/xwiki/activitypub/sharedInbox/xwiki";
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getContentType()).thenReturn(ACTIVITY_JSON);
+        when(request.getRequestURI()).thenReturn(path);
+        when(request.getRequestURL()).thenReturn(new StringBuffer(LOCAL_SERVER + path));
+        // The posted activities are read as raw bytes, to check their digest.
+        ByteArrayInputStream body = new ByteArrayInputStream(activity.getBytes(StandardCharsets.UTF_8));
+        when(request.getContentLengthLong()).thenReturn((long) body.available());
+        when(request.getInputStream()).thenReturn(new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return body.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+            {
+                return body.read(buffer, offset, length);
+            }
+
+            @Override
+            public boolean isFinished()
+            {
+                return body.available() == 0;
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener)
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+        when(request.getAttribute(SIGNER_ATTRIBUTE)).thenReturn(signer);
+        ServletRequest servletRequest = mock(ServletRequest.class);
+        when(servletRequest.getHttpServletRequest()).thenReturn(request);
+
+        AtomicInteger status = new AtomicInteger();
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        doAnswer(invocation -> {
+            status.set(invocation.getArgument(0));
+            return null;
+        }).when(response).setStatus(anyInt());
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        ServletResponse servletResponse = mock(ServletResponse.class);
+        when(servletResponse.getHttpServletResponse()).thenReturn(response);
+
+        this.currentRequest.set(servletRequest);
+        this.currentResponse.set(servletResponse);
+        this.execution.setContext(new ExecutionContext());
+        try {
+            this.resourceReferenceHandler.handle(
+                new ActivityPubResourceReference(ActivityPubResourceReference.SHARED_INBOX_TYPE, WIKI),
+                mock(ResourceReferenceHandlerChain.class));
+        } finally {
+            this.execution.removeContext();
+            this.currentRequest.remove();
+            this.currentResponse.remove();
+        }
+        return status.get();
+    }
+
+    /**
+     * @return the handler of the {@link Create} activities.
+     */
+    public ActivityHandler<Create> getCreateActivityHandler()
+    {
+        return this.createActivityHandler;
+    }
+
+    /**
+     * @return the storage of the entities.
+     */
+    public ActivityPubStorage getStorage()
+    {
+        return this.storage;
+    }
+
+    /**
+     * @return the embedded Solr server.
+     */
+    public CountingSolrServer getSolrServer()
+    {
+        return this.solrServer;
+    }
+
+    /**
+     * @return the instances standing for the remote servers.
+     */
+    public List<RemoteInstance> getRemoteInstances()
+    {
+        return this.remoteInstances;
+    }
+
+    /**
+     * @return the actors created with {@link #createLocalActor(String, List)}.
+     */
+    public List<AbstractActor> getLocalActors()
+    {
+        return this.localActors;
+    }
+
+    /**
+     * Write and commit the documents queued in the Solr writer.
+     *
+     * @throws Exception in case of error when retrieving the writer.
+     */
+    public void flushStorage() throws Exception
+    {
+        this.componentManager.<ActivityPubSolrWriter>getInstance(ActivityPubSolrWriter.class).flush();
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        this.componentManager.dispose();
+        for (RemoteInstance remoteInstance : this.remoteInstances) {
+            remoteInstance.close();
+        }
+        if (this.solrServer != null) {
+            this.solrServer.close();
+        }
+        if (this.solrHome != null) {
+            try (Stream<Path> paths = Files.walk(this.solrHome)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
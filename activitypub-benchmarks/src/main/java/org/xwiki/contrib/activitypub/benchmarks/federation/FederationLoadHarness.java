@@ -0,0 +1,295 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks.federation;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.contrib.activitypub.ActivityRequest;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.ProxyActor;
+
+/**
+ * Load harness of the federation: it boots the ActivityPub server components against an embedded Solr core and local
+ * instances standing for the remote servers (see {@link FederationEnvironment}), then runs two phases.
+ * <ul>
+ * <li>Inbound: the remote actors post {@code Create} activities to the shared inbox of the wiki, through
+ * {@code ActivityPubResourceReferenceHandler}.</li>
+ * <li>Outbound: the local actors publish {@code Create} activities through {@code CreateActivityHandler}, which are
+ * delivered to their followers on the remote instances.</li>
+ * </ul>
+ * For each phase the throughput, the p50 and p99 latencies and the Solr requests are reported. The options are given
+ * as {@code --name=value}, e.g.
+ * {@code java -cp target/benchmarks.jar org.xwiki.contrib.activitypub.benchmarks.federation.FederationLoadHarness
+ * --remotes=8 --latency=50 --errorRate=0.01}.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public final class FederationLoadHarness
+{
+    private static final Map<String, String> DEFAULT_OPTIONS = new HashMap<>();
+
+    static {
+        // The number of remote instances, and of users of each of them following each local actor.
+        DEFAULT_OPTIONS.put("remotes", "4");
+        DEFAULT_OPTIONS.put("followers", "25");
+        DEFAULT_OPTIONS.put("localActors", "10");
+        // The number of activities received and published.
+        DEFAULT_OPTIONS.put("inbound", "2000");
+        DEFAULT_OPTIONS.put("outbound", "200");
+        // The number of concurrent requests.
+        DEFAULT_OPTIONS.put("concurrency", "8");
+        // The latency of the remote instances, in milliseconds, and the rate of deliveries they reject.
+        DEFAULT_OPTIONS.put("latency", "20");
+        DEFAULT_OPTIONS.put("errorRate", "0");
+        // The maximum time to wait for the deliveries, in seconds: rejected deliveries are retried after 30s.
+        DEFAULT_OPTIONS.put("timeout", "120");
+    }
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final Map<String, String> options;
+
+    private final FederationEnvironment environment = new FederationEnvironment();
+
+    private final Queue<Map.Entry<String, Long>> deliveries = new ConcurrentLinkedQueue<>();
+
+    private FederationLoadHarness(Map<String, String> options)
+    {
+        this.options = options;
+    }
+
+    /**
+     * @param args the options of the harness, as {@code --name=value}.
+     * @throws Exception in case of error during the load test.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>(DEFAULT_OPTIONS);
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2 || !DEFAULT_OPTIONS.containsKey(option[0])) {
+                throw new IllegalArgumentException(String.format("Unknown option [%s], the options are %s.", arg,
+                    DEFAULT_OPTIONS));
+            }
+            options.put(option[0], option[1]);
+        }
+        new FederationLoadHarness(options).run();
+        // The components of the platform might have started non daemon threads.
+        System.exit(0);
+    }
+
+    private int getInt(String option)
+    {
+        return Integer.parseInt(this.options.get(option));
+    }
+
+    private void run() throws Exception
+    {
+        System.out.printf("Options: %s%n", this.options);
+        try {
+            this.environment.start(getInt("remotes"), getInt("latency"),
+                Double.parseDouble(this.options.get("errorRate")),
+                (activityId, arrivalTime) -> this.deliveries.add(
+                    new AbstractMap.SimpleImmutableEntry<>(activityId, arrivalTime)));
+            for (int i = 0; i < getInt("localActors"); i++) {
+                this.environment.createLocalActor("local" + i, getFollowers());
+            }
+            this.environment.flushStorage();
+
+            runInbound();
+            runOutbound();
+        } finally {
+            this.environment.close();
+        }
+    }
+
+    private List<URI> getFollowers()
+    {
+        List<URI> result = new ArrayList<>();
+        for (RemoteInstance remoteInstance : this.environment.getRemoteInstances()) {
+            for (int i = 0; i < getInt("followers"); i++) {
+                result.add(remoteInstance.getActor("user" + i));
+            }
+        }
+        return result;
+    }
+
+    private void runInbound() throws Exception
+    {
+        List<RemoteInstance> remoteInstances = this.environment.getRemoteInstances();
+        List<AbstractActor> localActors = this.environment.getLocalActors();
+        int count = getInt("inbound");
+        List<Map.Entry<URI, String>> activities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            URI remoteActor = remoteInstances.get(i % remoteInstances.size())
+                .getActor("user" + (i / remoteInstances.size()) % getInt("followers"));
+            URI localActor = localActors.get(i % localActors.size()).getId();
+            activities.add(new AbstractMap.SimpleImmutableEntry<>(remoteActor,
+                String.format("{\"@context\":\"https://www.w3.org/ns/activitystreams\",\"id\":\"%1$s/activities/%2$d\","
+                    + "\"type\":\"Create\",\"actor\":\"%1$s\",\"to\":[\"%3$s\"],\"object\":{\"id\":\"%1$s/notes/%2$d\","
+                    + "\"type\":\"Note\",\"attributedTo\":[\"%1$s\"],\"to\":[\"%3$s\"],"
+                    + "\"content\":\"<p>Inbound note %2$d</p>\"}}", remoteActor, i, localActor)));
+        }
+
+        LatencyRecorder latencies = new LatencyRecorder();
+        AtomicInteger errors = new AtomicInteger();
+        CountingSolrServer.Counters solrBefore = this.environment.getSolrServer().getCounters();
+        long start = System.nanoTime();
+        runConcurrently(activities, activity -> {
+            long requestStart = System.nanoTime();
+            int status = this.environment.postToSharedInbox(activity.getValue(), activity.getKey());
+            latencies.record(System.nanoTime() - requestStart);
+            if (status < 200 || status >= 300) {
+                errors.incrementAndGet();
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        this.environment.flushStorage();
+
+        System.out.printf("%nInbound: %d activities posted to the shared inbox, %d errors%n", count, errors.get());
+        System.out.printf("  throughput %.1f requests/s, latency %s%n", getThroughput(count, elapsed), latencies);
+        System.out.printf("  Solr: %s%n", this.environment.getSolrServer().getCounters().since(solrBefore));
+    }
+
+    private void runOutbound() throws Exception
+    {
+        List<AbstractActor> localActors = this.environment.getLocalActors();
+        int count = getInt("outbound");
+        List<Integer> indexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indexes.add(i);
+        }
+
+        LatencyRecorder latencies = new LatencyRecorder();
+        Map<String, Long> publications = new ConcurrentHashMap<>();
+        long acceptedBefore = getAcceptedActivities();
+        long rejectedBefore = getRejectedActivities();
+        this.deliveries.clear();
+        CountingSolrServer.Counters solrBefore = this.environment.getSolrServer().getCounters();
+        long start = System.nanoTime();
+        runConcurrently(indexes, index -> {
+            URI actorId = localActors.get(index % localActors.size()).getId();
+            long requestStart = System.nanoTime();
+            Create create = this.environment.call(() -> {
+                AbstractActor actor = this.environment.getStorage().retrieveEntity(actorId);
+                List<ProxyActor> followers = Collections.singletonList(new ProxyActor(actor.getFollowers().getLink()));
+                Note note = new Note().setContent(String.format("<p>Outbound note %d</p>", index));
+                note.setAttributedTo(
+                    Collections.singletonList(new ActivityPubObjectReference<AbstractActor>().setObject(actor)));
+                note.setTo(followers);
+                Create activity = new Create().setActor(actor).setObject(note);
+                activity.setTo(followers);
+                this.environment.getCreateActivityHandler().handleOutboxRequest(new ActivityRequest<>(actor, activity));
+                return activity;
+            });
+            latencies.record(System.nanoTime() - requestStart);
+            publications.put(create.getId().toASCIIString(), requestStart);
+        });
+        long elapsed = System.nanoTime() - start;
+
+        // Each local actor is followed on every remote instance: the activity is delivered once to each of them.
+        long expected = (getInt("followers") > 0) ? (long) count * this.environment.getRemoteInstances().size() : 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(getInt("timeout"));
+        while (getAcceptedActivities() - acceptedBefore < expected && System.nanoTime() < deadline) {
+            Thread.sleep(POLL_INTERVAL);
+        }
+        long deliveryElapsed = System.nanoTime() - start;
+        long delivered = getAcceptedActivities() - acceptedBefore;
+        this.environment.flushStorage();
+
+        LatencyRecorder deliveryLatencies = new LatencyRecorder();
+        for (Map.Entry<String, Long> delivery : this.deliveries) {
+            Long publication = publications.get(delivery.getKey());
+            if (publication != null) {
+                deliveryLatencies.record(delivery.getValue() - publication);
+            }
+        }
+
+        System.out.printf("%nOutbound: %d activities published by %d local actors%n", count, localActors.size());
+        System.out.printf("  throughput %.1f publications/s, latency %s%n", getThroughput(count, elapsed), latencies);
+        System.out.printf("  %d/%d deliveries accepted, %d rejected attempts, throughput %.1f deliveries/s, "
+            + "end to end latency %s%n", delivered, expected, getRejectedActivities() - rejectedBefore,
+            getThroughput(delivered, deliveryElapsed), deliveryLatencies);
+        System.out.printf("  Solr: %s%n", this.environment.getSolrServer().getCounters().since(solrBefore));
+    }
+
+    private <T> void runConcurrently(List<T> items, Task<T> task) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(getInt("concurrency"));
+        try {
+            List<Future<Object>> futures = new ArrayList<>(items.size());
+            for (T item : items) {
+                futures.add(executor.submit(() -> {
+                    task.run(item);
+                    return null;
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private double getThroughput(long count, long elapsed)
+    {
+        return count / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private long getAcceptedActivities()
+    {
+        return this.environment.getRemoteInstances().stream().mapToLong(RemoteInstance::getAcceptedActivities).sum();
+    }
+
+    private long getRejectedActivities()
+    {
+        return this.environment.getRemoteInstances().stream().mapToLong(RemoteInstance::getRejectedActivities).sum();
+    }
+
+    /**
+     * A task run for each item of a phase.
+     *
+     * @param <T> the type of the items.
+     */
+    @FunctionalInterface
+    private interface Task<T>
+    {
+        void run(T item) throws Exception;
+    }
+}
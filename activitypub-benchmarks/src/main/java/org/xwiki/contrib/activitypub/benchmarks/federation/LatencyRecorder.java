@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks.federation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record the latencies of the operations of a phase of the load harness, and compute their percentiles.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class LatencyRecorder
+{
+    private static final double P50 = 0.5;
+
+    private static final double P99 = 0.99;
+
+    private final List<Long> latencies = new ArrayList<>();
+
+    /**
+     * @param latency the latency of an operation, in nanoseconds.
+     */
+    public synchronized void record(long latency)
+    {
+        this.latencies.add(latency);
+    }
+
+    /**
+     * @return the number of recorded operations.
+     */
+    public synchronized int getCount()
+    {
+        return this.latencies.size();
+    }
+
+    /**
+     * @param percentile the percentile to compute, between 0 and 1.
+     * @return the latency at the given percentile, in milliseconds.
+     */
+    public synchronized double getPercentile(double percentile)
+    {
+        double result = 0;
+        if (!this.latencies.isEmpty()) {
+            List<Long> sorted = new ArrayList<>(this.latencies);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+            long latency = sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+            result = latency / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("p50 %.2f ms, p99 %.2f ms", getPercentile(P50), getPercentile(P99));
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.benchmarks.federation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing for a remote fediverse instance: it serves the WebFinger descriptors and the actor
+ * documents of its users, and accepts the activities posted in their inboxes or in its shared inbox. Each answer is
+ * delayed by a configurable latency, and a configurable rate of the posted activities are rejected with a 503 error.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class RemoteInstance implements Closeable
+{
+    private static final String ACTIVITY_JSON = "application/activity+json";
+
+    private static final String USERS_PATH = "/users/";
+
+    private static final String INBOX_PATH = "/inbox";
+
+    private static final String GET = "GET";
+
+    private static final String POST = "POST";
+
+    private static final int OK = 200;
+
+    private static final int ACCEPTED = 202;
+
+    private static final int NOT_FOUND = 404;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private static final int THREADS = 32;
+
+    private static final int BACKLOG = 512;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Notified each time an activity is accepted by a remote instance.
+     */
+    @FunctionalInterface
+    public interface DeliveryListener
+    {
+        /**
+         * @param activityId the identifier of the delivered activity.
+         * @param arrivalTime the {@link System#nanoTime()} of the delivery.
+         */
+        void onDelivery(String activityId, long arrivalTime);
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final long latency;
+
+    private final double errorRate;
+
+    private final DeliveryListener listener;
+
+    private final ExecutorService executor;
+
+    private final HttpServer server;
+
+    private final URI baseURI;
+
+    private final AtomicLong acceptedActivities = new AtomicLong();
+
+    private final AtomicLong rejectedActivities = new AtomicLong();
+
+    private final AtomicLong actorRequests = new AtomicLong();
+
+    /**
+     * Start a new instance on a free port of the loopback interface.
+     *
+     * @param latency the delay in milliseconds before answering each request.
+     * @param errorRate the rate, between 0 and 1, of the posted activities which are rejected.
+     * @param listener notified of each accepted activity.
+     * @throws IOException in case of error when starting the server.
+     */
+    public RemoteInstance(long latency, double errorRate, DeliveryListener listener) throws IOException
+    {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.listener = listener;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.server = HttpServer.create(new InetSocketAddress(loopback, 0), BACKLOG);
+        // The latency is simulated by sleeping: the answers must not wait for each other.
+        this.executor = Executors.newFixedThreadPool(THREADS);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/.well-known/webfinger", this::handleWebfinger);
+        this.server.createContext(USERS_PATH, this::handleUser);
+        this.server.createContext(INBOX_PATH, this::handleSharedInbox);
+        this.server.start();
+        this.baseURI = URI.create(String.format("http://%s:%s", loopback.getHostAddress(),
+            this.server.getAddress().getPort()));
+    }
+
+    /**
+     * @param username the name of a user of this instance.
+     * @return the identifier of the actor of this user.
+     */
+    public URI getActor(String username)
+    {
+        return this.baseURI.resolve(USERS_PATH + username);
+    }
+
+    /**
+     * @return the number of activities accepted so far.
+     */
+    public long getAcceptedActivities()
+    {
+        return this.acceptedActivities.get();
+    }
+
+    /**
+     * @return the number of activities rejected so far.
+     */
+    public long getRejectedActivities()
+    {
+        return this.rejectedActivities.get();
+    }
+
+    /**
+     * @return the number of actor documents and WebFinger descriptors served so far.
+     */
+    public long getActorRequests()
+    {
+        return this.actorRequests.get();
+    }
+
+    @Override
+    public void close()
+    {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handleWebfinger(HttpExchange exchange) throws IOException
+    {
+        delay();
+        String resource = StringUtils.substringAfter(exchange.getRequestURI().getQuery(), "resource=acct:");
+        String username = StringUtils.substringBefore(resource, "@");
+        if (!GET.equals(exchange.getRequestMethod()) || StringUtils.isEmpty(username)) {
+            answer(exchange, NOT_FOUND, null, null);
+        } else {
+            this.actorRequests.incrementAndGet();
+            String descriptor = String.format("{\"subject\":\"acct:%s\",\"links\":[{\"rel\":\"self\","
+                + "\"type\":\"%s\",\"href\":\"%s\"}]}", resource, ACTIVITY_JSON, getActor(username));
+            answer(exchange, OK, "application/jrd+json", descriptor);
+        }
+    }
+
+    private void handleUser(HttpExchange exchange) throws IOException
+    {
+        delay();
+        String path = exchange.getRequestURI().getPath();
+        String username = StringUtils.substringBefore(StringUtils.substringAfter(path, USERS_PATH), "/");
+        if (POST.equals(exchange.getRequestMethod()) && path.endsWith(INBOX_PATH)) {
+            receive(exchange);
+        } else if (GET.equals(exchange.getRequestMethod()) && path.equals(USERS_PATH + username)) {
+            this.actorRequests.incrementAndGet();
+            answer(exchange, OK, ACTIVITY_JSON, getActorDocument(username));
+        } else {
+            answer(exchange, NOT_FOUND, null, null);
+        }
+    }
+
+    private void handleSharedInbox(HttpExchange exchange) throws IOException
+    {
+        delay();
+        if (POST.equals(exchange.getRequestMethod())) {
+            receive(exchange);
+        } else {
+            answer(exchange, NOT_FOUND, null, null);
+        }
+    }
+
+    private String getActorDocument(String username)
+    {
+        URI actor = getActor(username);
+        return String.format("{\"@context\":\"https://www.w3.org/ns/activitystreams\",\"id\":\"%1$s\","
+            + "\"type\":\"Person\",\"preferredUsername\":\"%2$s\",\"name\":\"%2$s\",\"inbox\":\"%1$s/inbox\","
+            + "\"outbox\":\"%1$s/outbox\",\"followers\":\"%1$s/followers\",\"following\":\"%1$s/following\","
+            + "\"endpoints\":{\"sharedInbox\":\"%3$s\"}}", actor, username, this.baseURI.resolve(INBOX_PATH));
+    }
+
+    private void receive(HttpExchange exchange) throws IOException
+    {
+        String body = read(exchange.getRequestBody());
+        if (ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+            this.rejectedActivities.incrementAndGet();
+            answer(exchange, SERVICE_UNAVAILABLE, null, null);
+        } else {
+            long arrivalTime = System.nanoTime();
+            this.acceptedActivities.incrementAndGet();
+            this.listener.onDelivery(this.objectMapper.readTree(body).path("id").asText(), arrivalTime);
+            answer(exchange, ACCEPTED, ACTIVITY_JSON, null);
+        }
+    }
+
+    private String read(InputStream inputStream) throws IOException
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void answer(HttpExchange exchange, int statusCode, String contentType, String body) throws IOException
+    {
+        try {
+            if (contentType != null) {
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+            }
+            if (body == null) {
+                exchange.sendResponseHeaders(statusCode, -1);
+            } else {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(statusCode, bytes.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(bytes);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay()
+    {
+        if (this.latency > 0) {
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Hold the HTTP client shared by all the outbound requests of ActivityPub and WebFinger.
+ * <p>
+ * The connections are kept alive and pooled, with a bounded number of connections per remote host, and every request
+ * is bounded by strict timeouts: a dead or hanging remote server makes the requests fail instead of blocking the
+ * calling thread indefinitely. The response bodies are read through {@link #getResponseBodyAsStream(HttpMethod)}, which
+ * aborts the request as soon as the body exceeds the size configured with the
+ * {@value #MAX_RESPONSE_BODY_SIZE_PROPERTY} property of {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityPubHttpClientManager.class)
+@Singleton
+public class ActivityPubHttpClientManager implements Initializable, Disposable
+{
+    /**
+     * The maximum number of connections opened to a same remote host.
+     */
+    static final int MAX_CONNECTIONS_PER_HOST = 20;
+
+    /**
+     * The maximum number of connections opened to all the remote hosts.
+     */
+    static final int MAX_TOTAL_CONNECTIONS = 200;
+
+    /**
+     * The maximum time to establish a connection, in milliseconds.
+     */
+    static final int CONNECTION_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The maximum time to wait for data on an established connection, in milliseconds.
+     */
+    static final int SOCKET_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The maximum time to wait for a connection to be available in the pool, in milliseconds.
+     */
+    static final long CONNECTION_MANAGER_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The name of the property defining the maximum size, in bytes, of the response bodies.
+     */
+    static final String MAX_RESPONSE_BODY_SIZE_PROPERTY = "activitypub.http.maxResponseBodySize";
+
+    /**
+     * The maximum size of the response bodies when it's not configured: 10MB.
+     */
+    static final long DEFAULT_MAX_RESPONSE_BODY_SIZE = 10L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final long IDLE_CONNECTION_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long IDLE_CONNECTION_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private MultiThreadedHttpConnectionManager connectionManager;
+
+    private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
+    private HttpClient httpClient;
+
+    private long maxResponseBodySize;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.maxResponseBodySize =
+            this.configuration.getProperty(MAX_RESPONSE_BODY_SIZE_PROPERTY, DEFAULT_MAX_RESPONSE_BODY_SIZE);
+
+        this.connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = this.connectionManager.getParams();
+        params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setConnectionTimeout(CONNECTION_TIMEOUT);
+        params.setSoTimeout(SOCKET_TIMEOUT);
+        params.setStaleCheckingEnabled(true);
+
+        this.httpClient = new HttpClient(this.connectionManager);
+        this.httpClient.getParams().setConnectionManagerTimeout(CONNECTION_MANAGER_TIMEOUT);
+
+        // Close the connections kept alive which are not used anymore.
+        this.idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        this.idleConnectionTimeoutThread.setName("ActivityPub idle HTTP connections");
+        this.idleConnectionTimeoutThread.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+        this.idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CONNECTION_CHECK_INTERVAL);
+        this.idleConnectionTimeoutThread.addConnectionManager(this.connectionManager);
+        this.idleConnectionTimeoutThread.start();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.idleConnectionTimeoutThread.shutdown();
+        this.connectionManager.shutdown();
+    }
+
+    /**
+     * @return the shared HTTP client.
+     */
+    public HttpClient getHttpClient()
+    {
+        return this.httpClient;
+    }
+
+    /**
+     * Retrieve the body of the response of the given method as a stream, bounded to the maximum response body size.
+     * The request is aborted as soon as the body is known to exceed that size: either from its {@code Content-Length}
+     * header, or while reading it. The body is never buffered in memory.
+     *
+     * @param method an executed method.
+     * @return the stream of the response body, empty if the response has no body.
+     * @throws IOException in case of error while reading the response, or if the body exceeds the maximum size.
+     */
+    public InputStream getResponseBodyAsStream(HttpMethod method) throws IOException
+    {
+        if (method instanceof HttpMethodBase
+            && ((HttpMethodBase) method).getResponseContentLength() > this.maxResponseBodySize)
+        {
+            throw BoundedResponseInputStream.abort(method, this.maxResponseBodySize);
+        }
+        InputStream responseBody = method.getResponseBodyAsStream();
+        if (responseBody == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return new BoundedResponseInputStream(method, responseBody, this.maxResponseBodySize);
+    }
+
+    /**
+     * Retrieve the body of the response of the given method as a string, bounded to the maximum response body size.
+     *
+     * @param method an executed method.
+     * @return the response body, empty if the response has no body.
+     * @throws IOException in case of error while reading the response, or if the body exceeds the maximum size.
+     * @see #getResponseBodyAsStream(HttpMethod)
+     */
+    public String getResponseBodyAsString(HttpMethod method) throws IOException
+    {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream inputStream = getResponseBodyAsStream(method)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        }
+        // Same default charset than HttpMethod#getResponseBodyAsString().
+        String charset = "ISO-8859-1";
+        if (method instanceof HttpMethodBase) {
+            charset = ((HttpMethodBase) method).getResponseCharSet();
+        }
+        try {
+            return result.toString(charset);
+        } catch (UnsupportedEncodingException e) {
+            return result.toString();
+        }
+    }
+}
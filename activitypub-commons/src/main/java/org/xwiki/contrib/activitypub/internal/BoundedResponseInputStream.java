@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.URIException;
+
+/**
+ * Stream of a response body which aborts the request as soon as more than a given number of bytes have been read.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+class BoundedResponseInputStream extends FilterInputStream
+{
+    private final HttpMethod method;
+
+    private final long maxSize;
+
+    private long readSize;
+
+    /**
+     * @param method the method whose response body is read.
+     * @param inputStream the stream of the response body.
+     * @param maxSize the maximum number of bytes which can be read.
+     */
+    BoundedResponseInputStream(HttpMethod method, InputStream inputStream, long maxSize)
+    {
+        super(inputStream);
+        this.method = method;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int result = super.read();
+        if (result != -1) {
+            count(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        int result = super.read(buffer, offset, length);
+        if (result > 0) {
+            count(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long length) throws IOException
+    {
+        long result = super.skip(length);
+        count(result);
+        return result;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        // Resetting the stream would make the count wrong.
+        return false;
+    }
+
+    private void count(long size) throws IOException
+    {
+        this.readSize += size;
+        if (this.readSize > this.maxSize) {
+            throw abort(this.method, this.maxSize);
+        }
+    }
+
+    /**
+     * Abort the given method, so that the rest of its response body is not read when the connection is released.
+     *
+     * @param method the method to abort.
+     * @param maxSize the maximum size of the response body.
+     * @return the exception to throw.
+     */
+    static IOException abort(HttpMethod method, long maxSize)
+    {
+        method.abort();
+        String uri;
+        try {
+            uri = method.getURI().toString();
+        } catch (URIException e) {
+            uri = method.getPath();
+        }
+        return new IOException(
+            String.format("The response body of [%s] exceeds the maximum size of [%s] bytes.", uri, maxSize));
+    }
+}
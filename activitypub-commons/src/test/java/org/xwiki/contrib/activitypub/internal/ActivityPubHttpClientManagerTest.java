@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.inject.Named;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test of {@link ActivityPubHttpClientManager}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActivityPubHttpClientManagerTest
+{
+    private static final long MAX_SIZE = 10;
+
+    @InjectMockComponents
+    private ActivityPubHttpClientManager httpClientManager;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private GetMethod method;
+
+    @BeforeComponent
+    void beforeComponent()
+    {
+        when(this.configuration.getProperty(ActivityPubHttpClientManager.MAX_RESPONSE_BODY_SIZE_PROPERTY,
+            ActivityPubHttpClientManager.DEFAULT_MAX_RESPONSE_BODY_SIZE)).thenReturn(MAX_SIZE);
+    }
+
+    @BeforeEach
+    void setup() throws Exception
+    {
+        this.method = mock(GetMethod.class);
+        when(this.method.getURI()).thenReturn(new URI("http://remote.org/actor", false));
+        when(this.method.getResponseCharSet()).thenReturn("UTF-8");
+        when(this.method.getResponseContentLength()).thenReturn(-1L);
+    }
+
+    private void setResponseBody(String body) throws IOException
+    {
+        when(this.method.getResponseBodyAsStream())
+            .thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void getHttpClient()
+    {
+        HttpClient httpClient = this.httpClientManager.getHttpClient();
+        assertSame(httpClient, this.httpClientManager.getHttpClient());
+        assertEquals(ActivityPubHttpClientManager.CONNECTION_MANAGER_TIMEOUT,
+            httpClient.getParams().getConnectionManagerTimeout());
+
+        assertTrue(httpClient.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager);
+        HttpConnectionManagerParams params = httpClient.getHttpConnectionManager().getParams();
+        assertEquals(ActivityPubHttpClientManager.MAX_TOTAL_CONNECTIONS, params.getMaxTotalConnections());
+        assertEquals(ActivityPubHttpClientManager.MAX_CONNECTIONS_PER_HOST, params.getDefaultMaxConnectionsPerHost());
+        assertEquals(ActivityPubHttpClientManager.CONNECTION_TIMEOUT, params.getConnectionTimeout());
+        assertEquals(ActivityPubHttpClientManager.SOCKET_TIMEOUT, params.getSoTimeout());
+    }
+
+    @Test
+    void getResponseBodyAsString() throws Exception
+    {
+        setResponseBody("{\"id\":1}");
+        assertEquals("{\"id\":1}", this.httpClientManager.getResponseBodyAsString(this.method));
+        verify(this.method, never()).abort();
+    }
+
+    @Test
+    void getResponseBodyWithoutBody() throws Exception
+    {
+        assertEquals("", this.httpClientManager.getResponseBodyAsString(this.method));
+    }
+
+    @Test
+    void getResponseBodyTooLongContentLength() throws Exception
+    {
+        when(this.method.getResponseContentLength()).thenReturn(MAX_SIZE + 1);
+
+        IOException exception =
+            assertThrows(IOException.class, () -> this.httpClientManager.getResponseBodyAsStream(this.method));
+        assertEquals("The response body of [http://remote.org/actor] exceeds the maximum size of [10] bytes.",
+            exception.getMessage());
+        verify(this.method).abort();
+        verify(this.method, never()).getResponseBodyAsStream();
+    }
+
+    @Test
+    void getResponseBodyTooLongStream() throws Exception
+    {
+        setResponseBody("{\"id\":\"http://remote.org/actor\"}");
+
+        InputStream inputStream = this.httpClientManager.getResponseBodyAsStream(this.method);
+        byte[] buffer = new byte[(int) MAX_SIZE];
+        assertEquals(MAX_SIZE, inputStream.read(buffer));
+        verify(this.method, never()).abort();
+
+        assertThrows(IOException.class, () -> inputStream.read(buffer));
+        verify(this.method).abort();
+    }
+}
@@ -20,7 +20,9 @@
 package org.xwiki.contrib.activitypub;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.Map;
 
 import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Role;
@@ -105,6 +107,16 @@ public interface ActivityPubClient
      */
     HttpMethod get(URI uri) throws IOException;
 
+    /**
+     * Performs an HTTP GET on the given URI with additional request headers, e.g. to perform a conditional request.
+     * @param uri the URI to retrieve.
+     * @param headers the additional headers of the request.
+     * @return an {@link HttpMethod} which contains the answer.
+     * @throws IOException in case of error with the HTTP request.
+     * @since 1.2
+     */
+    HttpMethod get(URI uri, Map<String, String> headers) throws IOException;
+
     /**
      * Ensure that the {@link HttpMethod}:
      *   1. has been sent
@@ -114,4 +126,15 @@ public interface ActivityPubClient
      * @throws ActivityPubException in case one of the check is not satisfied.
      */
     void checkAnswer(HttpMethod method) throws ActivityPubException;
+
+    /**
+     * Retrieve the body of the response of the given method as a stream. The stream is bounded to the maximum
+     * response body size accepted for remote resources: the request is aborted as soon as the body exceeds it.
+     *
+     * @param method an executed method.
+     * @return the stream of the response body.
+     * @throws IOException in case of error while reading the response, or if the body is too large.
+     * @since 1.2
+     */
+    InputStream getResponseBodyAsStream(HttpMethod method) throws IOException;
 }
@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub;
+
+import java.util.Date;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The version of a stored entity, used to answer the conditional requests performed on it.
+ *
+ * @since 1.2
+ * @version $Id$
+ */
+@Unstable
+public class ActivityPubEntityVersion
+{
+    private final String entityTag;
+
+    private final Date lastModified;
+
+    /**
+     * Default constructor.
+     * @param entityTag the strong entity tag of the entity, including its surrounding quotes.
+     * @param lastModified the date of the last modification of the entity.
+     */
+    public ActivityPubEntityVersion(String entityTag, Date lastModified)
+    {
+        this.entityTag = entityTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the strong entity tag of the entity, to be used as {@code ETag} header.
+     */
+    public String getEntityTag()
+    {
+        return this.entityTag;
+    }
+
+    /**
+     * @return the date of the last modification of the entity, to be used as {@code Last-Modified} header.
+     */
+    public Date getLastModified()
+    {
+        return this.lastModified;
+    }
+}
@@ -19,7 +19,10 @@
  */
 package org.xwiki.contrib.activitypub;
 
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.activitypub.entities.AbstractCollection;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.stability.Unstable;
@@ -44,4 +47,34 @@ public interface ActivityPubObjectReferenceResolver
      */
     <T extends ActivityPubObject> T resolveReference(ActivityPubObjectReference<T> reference)
         throws ActivityPubException;
+
+    /**
+     * Resolve all the given references at once: the objects which are not already loaded are retrieved from the
+     * storage with a single request, and only the missing ones are retrieved one by one from their server.
+     * Contrary to {@link #resolveReference(ActivityPubObjectReference)}, an error when resolving one reference doesn't
+     * prevent to resolve the others: the error is logged and the reference is resolved to {@code null}.
+     *
+     * @param references the references to resolve.
+     * @param <T> the concrete type of the objects pointed by the references.
+     * @return the resolved objects, in the same order as the references, with {@code null} for the references which
+     *         cannot be resolved.
+     * @since 1.2
+     */
+    @Unstable
+    <T extends ActivityPubObject> List<T> resolveReferences(List<ActivityPubObjectReference<T>> references);
+
+    /**
+     * Retrieve the references to the items of the given collection. The items of the stored ordered collections are
+     * not loaded with the collection: they are retrieved from the storage by this method, so only the callers which
+     * need to iterate the items pay for it.
+     *
+     * @param collection the collection whose items to retrieve.
+     * @param <T> the concrete type of the items.
+     * @return the references to the items of the collection, in their order.
+     * @throws ActivityPubException in case of error when retrieving the items.
+     * @since 1.2
+     */
+    @Unstable
+    <T extends ActivityPubObject> List<ActivityPubObjectReference<T>> resolveItems(AbstractCollection<T> collection)
+        throws ActivityPubException;
 }
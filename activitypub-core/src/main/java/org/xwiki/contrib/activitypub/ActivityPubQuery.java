@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub;
+
+import java.net.URI;
+import java.util.Date;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Criteria of a query on the stored entities, see {@link ActivityPubStorage#query(ActivityPubQuery)}. All the given
+ * criteria must match: the ones left to {@code null} are ignored. The results are ordered by publication date, the
+ * most recent first by default.
+ *
+ * @since 1.2
+ * @version $Id$
+ */
+@Unstable
+public class ActivityPubQuery
+{
+    /**
+     * The default maximum number of results of a query.
+     */
+    public static final int DEFAULT_LIMIT = 20;
+
+    private String type;
+
+    private URI actor;
+
+    private URI attributedTo;
+
+    private URI object;
+
+    private URI inReplyTo;
+
+    private URI audience;
+
+    private boolean publicOnly;
+
+    private Date publishedAfter;
+
+    private Date publishedBefore;
+
+    private boolean ascending;
+
+    private int offset;
+
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * @return the type of the entities to look for, e.g. {@code Create}.
+     */
+    public String getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * @param type the type of the entities to look for, e.g. {@code Create}.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setType(String type)
+    {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * @return the actor of the activities to look for.
+     */
+    public URI getActor()
+    {
+        return this.actor;
+    }
+
+    /**
+     * @param actor the actor of the activities to look for.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setActor(URI actor)
+    {
+        this.actor = actor;
+        return this;
+    }
+
+    /**
+     * @return one of the actors the entities to look for are attributed to.
+     */
+    public URI getAttributedTo()
+    {
+        return this.attributedTo;
+    }
+
+    /**
+     * @param attributedTo one of the actors the entities to look for are attributed to.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setAttributedTo(URI attributedTo)
+    {
+        this.attributedTo = attributedTo;
+        return this;
+    }
+
+    /**
+     * @return the object of the activities to look for.
+     */
+    public URI getObject()
+    {
+        return this.object;
+    }
+
+    /**
+     * @param object the object of the activities to look for.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setObject(URI object)
+    {
+        this.object = object;
+        return this;
+    }
+
+    /**
+     * @return the entity the entities to look for are replies to.
+     */
+    public URI getInReplyTo()
+    {
+        return this.inReplyTo;
+    }
+
+    /**
+     * @param inReplyTo the entity the entities to look for are replies to.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setInReplyTo(URI inReplyTo)
+    {
+        this.inReplyTo = inReplyTo;
+        return this;
+    }
+
+    /**
+     * @return one of the actors the entities to look for are addressed to.
+     */
+    public URI getAudience()
+    {
+        return this.audience;
+    }
+
+    /**
+     * @param audience one of the actors the entities to look for are addressed to.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setAudience(URI audience)
+    {
+        this.audience = audience;
+        return this;
+    }
+
+    /**
+     * @return {@code true} to only look for the entities addressed to the public actor.
+     */
+    public boolean isPublicOnly()
+    {
+        return this.publicOnly;
+    }
+
+    /**
+     * @param publicOnly {@code true} to only look for the entities addressed to the public actor.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setPublicOnly(boolean publicOnly)
+    {
+        this.publicOnly = publicOnly;
+        return this;
+    }
+
+    /**
+     * @return the date after which the entities to look for have been published (excluded).
+     */
+    public Date getPublishedAfter()
+    {
+        return this.publishedAfter;
+    }
+
+    /**
+     * @param publishedAfter the date after which the entities to look for have been published (excluded).
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setPublishedAfter(Date publishedAfter)
+    {
+        this.publishedAfter = publishedAfter;
+        return this;
+    }
+
+    /**
+     * @return the date before which the entities to look for have been published (excluded).
+     */
+    public Date getPublishedBefore()
+    {
+        return this.publishedBefore;
+    }
+
+    /**
+     * @param publishedBefore the date before which the entities to look for have been published (excluded).
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setPublishedBefore(Date publishedBefore)
+    {
+        this.publishedBefore = publishedBefore;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the oldest entities are returned first.
+     */
+    public boolean isAscending()
+    {
+        return this.ascending;
+    }
+
+    /**
+     * @param ascending {@code true} to return the oldest entities first.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setAscending(boolean ascending)
+    {
+        this.ascending = ascending;
+        return this;
+    }
+
+    /**
+     * @return the index of the first result to return.
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @param offset the index of the first result to return.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setOffset(int offset)
+    {
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of results to return ({@value #DEFAULT_LIMIT} by default).
+     */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    /**
+     * @param limit the maximum number of results to return.
+     * @return the current query for fluent API.
+     */
+    public ActivityPubQuery setLimit(int limit)
+    {
+        this.limit = limit;
+        return this;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A page of results of {@link ActivityPubStorage#query(ActivityPubQuery)}. The identifiers of the entities are known
+ * right away, but the entities are only parsed when they are accessed.
+ *
+ * @param <T> the type of the entities.
+ * @since 1.2
+ * @version $Id$
+ */
+@Unstable
+public class ActivityPubQueryResult<T extends ActivityPubObject>
+{
+    /**
+     * Parse the entity at the given index of the page.
+     *
+     * @param <T> the type of the entities.
+     */
+    @FunctionalInterface
+    public interface EntityLoader<T extends ActivityPubObject>
+    {
+        /**
+         * @param index the index of the entity in the page.
+         * @return the parsed entity.
+         * @throws ActivityPubException in case of error when parsing the entity.
+         */
+        T load(int index) throws ActivityPubException;
+    }
+
+    private final long totalCount;
+
+    private final List<URI> ids;
+
+    private final EntityLoader<T> loader;
+
+    private final List<T> entities;
+
+    /**
+     * Default constructor.
+     * @param totalCount the total number of entities matching the query, including the ones outside of this page.
+     * @param ids the identifiers of the entities of this page.
+     * @param loader the function parsing the entities of this page.
+     */
+    public ActivityPubQueryResult(long totalCount, List<URI> ids, EntityLoader<T> loader)
+    {
+        this.totalCount = totalCount;
+        this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+        this.loader = loader;
+        this.entities = new ArrayList<>(Collections.nCopies(ids.size(), null));
+    }
+
+    /**
+     * @return the total number of entities matching the query, including the ones outside of this page.
+     */
+    public long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    /**
+     * @return the identifiers of the entities of this page.
+     */
+    public List<URI> getIds()
+    {
+        return this.ids;
+    }
+
+    /**
+     * @return the number of entities of this page.
+     */
+    public int size()
+    {
+        return this.ids.size();
+    }
+
+    /**
+     * Parse the entity at the given index, if it has not been parsed before.
+     *
+     * @param index the index of the entity in the page.
+     * @return the entity.
+     * @throws ActivityPubException in case of error when parsing the entity.
+     */
+    public synchronized T get(int index) throws ActivityPubException
+    {
+        T result = this.entities.get(index);
+        if (result == null) {
+            result = this.loader.load(index);
+            this.entities.set(index, result);
+        }
+        return result;
+    }
+
+    /**
+     * Parse all the entities of the page.
+     *
+     * @return the entities of this page.
+     * @throws ActivityPubException in case of error when parsing an entity.
+     */
+    public List<T> getAll() throws ActivityPubException
+    {
+        List<T> result = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            result.add(get(i));
+        }
+        return result;
+    }
+}
@@ -38,6 +38,14 @@ public class ActivityPubResourceReference extends AbstractResourceReference
      */
     public static final ResourceType TYPE = new ResourceType("activitypub");
 
+    /**
+     * The entity type used to reference the shared inbox of a wiki: it's not a stored entity, but the endpoint where
+     * the activities addressed to several actors of the wiki can be posted at once.
+     *
+     * @since 1.2
+     */
+    public static final String SHARED_INBOX_TYPE = "sharedInbox";
+
     private String entityType;
     private String uuid;
 
@@ -20,6 +20,8 @@
 package org.xwiki.contrib.activitypub;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import org.xwiki.component.annotation.Role;
@@ -52,6 +54,8 @@ public interface ActivityPubStorage
      *   2. if the entity does not have an id, and is an Inbox or an Outbox,
      *   we expect it to have an attributedTo attribute, so we can link it to an actor,
      *   we throw an exception if it's not the case.
+     * Note that the items of the {@link org.xwiki.contrib.activitypub.entities.OrderedCollection} are not stored
+     * with this method: they need to be appended with {@link #appendItem(URI, URI)}.
      *
      * @param entity the entity to persist.
      * @return the URI corresponding to the genered or existing ID of this entity.
@@ -61,6 +65,8 @@ public interface ActivityPubStorage
 
     /**
      * Extract an entity from its UUID.
+     * The items of an {@link org.xwiki.contrib.activitypub.entities.OrderedCollection} are not loaded with it: they
+     * are retrieved with {@link #retrieveItems(URI)}, or by pages with {@link #retrieveItems(URI, URI, URI, int)}.
      *
      * @param id the unique identifier of the entity as given by {@link #storeEntity(ActivityPubObject)}.
      * @param <T> the concrete type of the entity to retrieve.
@@ -69,6 +75,137 @@ public interface ActivityPubStorage
      */
     <T extends ActivityPubObject> T retrieveEntity(URI id) throws ActivityPubException;
 
+    /**
+     * Store several entities at once: the identifiers are assigned as in {@link #storeEntity(ActivityPubObject)},
+     * but all the entities are written together.
+     *
+     * @param entities the entities to persist.
+     * @return the identifiers of the entities, in the same order as the given entities.
+     * @throws ActivityPubException in case one of the check failed or the storing failed for some reason: in that
+     *         case none of the entities is stored.
+     * @since 1.2
+     */
+    @Unstable
+    List<URI> storeEntities(Collection<? extends ActivityPubObject> entities) throws ActivityPubException;
+
+    /**
+     * Retrieve several entities at once: the entities which are not already loaded are read with a single request.
+     *
+     * @param ids the unique identifiers of the entities.
+     * @param <T> the concrete type of the entities to retrieve.
+     * @return the stored entities, in the same order as the given identifiers, with {@code null} for the entities
+     *         which have not been found.
+     * @throws ActivityPubException in case of problem when reading or parsing the entities.
+     * @since 1.2
+     */
+    @Unstable
+    <T extends ActivityPubObject> List<T> retrieveEntities(Collection<URI> ids) throws ActivityPubException;
+
+    /**
+     * Retrieve the version of a stored entity without loading it, to answer the conditional requests performed on
+     * it. For an ordered collection, the version also takes into account its items.
+     *
+     * @param id the unique identifier of the entity.
+     * @return the version of the entity, or {@code null} if it's not stored or if its version is not known yet.
+     * @throws ActivityPubException in case of problem when retrieving the version.
+     * @since 1.2
+     */
+    @Unstable
+    ActivityPubEntityVersion retrieveEntityVersion(URI id) throws ActivityPubException;
+
+    /**
+     * Append an item to an ordered collection.
+     * The item is stored as a separate record of the collection: appending an item never implies to rewrite the
+     * whole collection.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @param item the identifier of the item to append.
+     * @throws ActivityPubException in case of problem during the storage.
+     * @since 1.2
+     */
+    @Unstable
+    void appendItem(URI collection, URI item) throws ActivityPubException;
+
+    /**
+     * Retrieve the identifiers of the items of an ordered collection, in the order they have been appended.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @return the identifiers of the items of the collection.
+     * @throws ActivityPubException in case of problem when retrieving the items.
+     * @since 1.2
+     */
+    @Unstable
+    List<URI> retrieveItems(URI collection) throws ActivityPubException;
+
+    /**
+     * Retrieve a page of the identifiers of the items of an ordered collection, the most recently appended items
+     * coming first. The bounds are items of the collection used as cursors: this allows to browse the collection
+     * without loading it entirely.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @param maxItem if not {@code null}, only the items appended before this one are returned.
+     * @param minItem if not {@code null}, only the items appended after this one are returned: if {@code maxItem}
+     *                is {@code null}, the items directly following this one are returned.
+     * @param limit the maximum number of items to return.
+     * @return the identifiers of the items of the page, or an empty list if one of the bounds does not belong to the
+     *         collection.
+     * @throws ActivityPubException in case of problem when retrieving the items.
+     * @since 1.2
+     */
+    @Unstable
+    List<URI> retrieveItems(URI collection, URI maxItem, URI minItem, int limit) throws ActivityPubException;
+
+    /**
+     * Count the items of an ordered collection, without retrieving them. Only the items which have been committed
+     * are counted.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @param publicOnly {@code true} to count only the items which are addressed to the public.
+     * @return the number of items of the collection.
+     * @throws ActivityPubException in case of problem when counting the items.
+     * @since 1.2
+     */
+    @Unstable
+    long countItems(URI collection, boolean publicOnly) throws ActivityPubException;
+
+    /**
+     * Check if an item belongs to an ordered collection. The item records of the collection are looked up directly by
+     * the pair of identifiers: the cost of this check doesn't depend on the size of the collection.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @param item the identifier of the item.
+     * @return {@code true} if the item has been appended to the collection and not removed since then.
+     * @throws ActivityPubException in case of problem when retrieving the item.
+     * @since 1.2
+     */
+    @Unstable
+    boolean containsItem(URI collection, URI item) throws ActivityPubException;
+
+    /**
+     * Remove an item from an ordered collection. This does nothing if the item doesn't belong to the collection.
+     *
+     * @param collection the identifier of the ordered collection.
+     * @param item the identifier of the item to remove.
+     * @throws ActivityPubException in case of problem during the storage.
+     * @since 1.2
+     */
+    @Unstable
+    void removeItem(URI collection, URI item) throws ActivityPubException;
+
+    /**
+     * Query the stored entities on their indexed fields: the actor, the object, the authors, the audience, the
+     * publication date and the entity they reply to. Only the entities stored since these fields are indexed can be
+     * found, and the entities are parsed only when they are accessed in the returned page.
+     *
+     * @param query the criteria of the query.
+     * @param <T> the type of the entities.
+     * @return a page of the matching entities.
+     * @throws ActivityPubException in case of problem when performing the query.
+     * @since 1.2
+     */
+    @Unstable
+    <T extends ActivityPubObject> ActivityPubQueryResult<T> query(ActivityPubQuery query) throws ActivityPubException;
+
     /**
      * Store information about WebFinger.
      *
@@ -79,9 +216,22 @@ public interface ActivityPubStorage
     @Unstable
     void storeWebFinger(JSONResourceDescriptor jsonResourceDescriptor) throws ActivityPubException;
 
+    /**
+     * Retrieve a stored WebFinger record.
+     *
+     * @param subject the exact subject of the record (e.g. {@code acct:user@domain}).
+     * @param updatedSince the oldest acceptable storage date of the record, or {@code null} to accept any record.
+     * @return the record or {@code null} if it's not stored or if it has been stored before the given date.
+     * @throws ActivityPubException in case of problem when retrieving the record.
+     * @since 1.2
+     */
+    @Unstable
+    JSONResourceDescriptor retrieveWebFinger(String subject, Date updatedSince) throws ActivityPubException;
+
     /**
      * Perform a search in the DB for WebFinger records.
-     * Only the WebFinger identifiers will be used to perform the search.
+     * Only the WebFinger identifiers will be used to perform the search: the records are looked up in the actor
+     * directory (see {@link #searchActors(String, int, int)}).
      *
      * @param query the string to look for.
      * @param limit the maximum number of results to return.
@@ -91,4 +241,19 @@ public interface ActivityPubStorage
      */
     @Unstable
     List<JSONResourceDescriptor> searchWebFinger(String query, int limit) throws ActivityPubException;
+
+    /**
+     * Search the actors known by the current instance, whose handle, name or domain contain words starting with the
+     * words of the given query. The actors are added to the directory when they are stored, or when their WebFinger
+     * record is stored.
+     *
+     * @param query the words to look for, e.g. the beginning of a handle.
+     * @param offset the index of the first result to return, to page the results.
+     * @param limit the maximum number of results to return.
+     * @return the matching actors, the most relevant first.
+     * @throws ActivityPubException in case of problem when performing the query.
+     * @since 1.2
+     */
+    @Unstable
+    List<ActorDirectoryEntry> searchActors(String query, int offset, int limit) throws ActivityPubException;
 }
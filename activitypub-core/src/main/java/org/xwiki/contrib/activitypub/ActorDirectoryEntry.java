@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub;
+
+import java.net.URI;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * An actor known by the current instance, as returned by the actor directory searches.
+ *
+ * @since 1.2
+ * @version $Id$
+ */
+@Unstable
+public class ActorDirectoryEntry
+{
+    private final String handle;
+
+    private final String displayName;
+
+    private final URI actor;
+
+    /**
+     * Default constructor.
+     * @param handle the WebFinger handle of the actor, e.g. {@code user@domain}.
+     * @param displayName the name of the actor, or {@code null} if it's not known.
+     * @param actor the identifier of the actor.
+     */
+    public ActorDirectoryEntry(String handle, String displayName, URI actor)
+    {
+        this.handle = handle;
+        this.displayName = displayName;
+        this.actor = actor;
+    }
+
+    /**
+     * @return the WebFinger handle of the actor, e.g. {@code user@domain}.
+     */
+    public String getHandle()
+    {
+        return this.handle;
+    }
+
+    /**
+     * @return the name of the actor, or {@code null} if it's not known.
+     */
+    public String getDisplayName()
+    {
+        return this.displayName;
+    }
+
+    /**
+     * @return the identifier of the actor.
+     */
+    public URI getActor()
+    {
+        return this.actor;
+    }
+}
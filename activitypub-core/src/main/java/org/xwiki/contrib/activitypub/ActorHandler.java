@@ -21,6 +21,7 @@ package org.xwiki.contrib.activitypub;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
 import org.xwiki.contrib.activitypub.entities.Person;
 import org.xwiki.contrib.activitypub.entities.PublicKey;
 import org.xwiki.contrib.activitypub.entities.Service;
@@ -172,4 +173,15 @@ public interface ActorHandler
      * @since 1.2
      */
     PublicKey initPublicKey(AbstractActor actor) throws ActivityPubException;
+
+    /**
+     * Builds the endpoints of the actor, i.e. the shared inbox of its wiki.
+     *
+     * @param actor An XWiki actor.
+     * @return The endpoints of this actor.
+     * @throws ActivityPubException In case of error when resolving the wiki of the actor or its shared inbox.
+     * @since 1.2
+     */
+    @Unstable
+    Endpoints initEndpoints(AbstractActor actor) throws ActivityPubException;
 }
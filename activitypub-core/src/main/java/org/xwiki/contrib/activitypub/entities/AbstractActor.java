@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.activitypub.entities;
 
+import java.net.URI;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.stability.Unstable;
@@ -46,6 +48,7 @@ public abstract class AbstractActor extends ActivityPubObject
     private ActivityPubObjectReference<OrderedCollection<AbstractActor>> followers;
     private ActivityPubObjectReference<OrderedCollection<AbstractActor>> following;
     private PublicKey publicKey;
+    private Endpoints endpoints;
 
     /**
      * @return the username of the actor.
@@ -172,6 +175,41 @@ public abstract class AbstractActor extends ActivityPubObject
         return this;
     }
 
+    /**
+     * @return the endpoints of the actor, such as its shared inbox.
+     * @since 1.2
+     */
+    public Endpoints getEndpoints()
+    {
+        return this.endpoints;
+    }
+
+    /**
+     * @param endpoints the endpoints of the actor, such as its shared inbox.
+     * @param <T> the type of the actor.
+     * @return the current object for fluent API.
+     * @since 1.2
+     */
+    public <T extends AbstractActor> T setEndpoints(Endpoints endpoints)
+    {
+        this.endpoints = endpoints;
+        return (T) this;
+    }
+
+    /**
+     * @return the shared inbox of the actor if it has one, else {@code null}.
+     * @since 1.2
+     */
+    @JsonIgnore
+    public URI getSharedInbox()
+    {
+        URI result = null;
+        if (this.endpoints != null) {
+            result = this.endpoints.getSharedInbox();
+        }
+        return result;
+    }
+
     @Override
     public String toString()
     {
@@ -201,7 +239,8 @@ public abstract class AbstractActor extends ActivityPubObject
             .append(outbox, object.outbox)
             .append(followers, object.followers)
             .append(following, object.following)
-            .append(publicKey, object.publicKey).build();
+            .append(publicKey, object.publicKey)
+            .append(endpoints, object.endpoints).build();
     }
 
     @Override
@@ -214,7 +253,8 @@ public abstract class AbstractActor extends ActivityPubObject
             .append(outbox)
             .append(followers)
             .append(following)
-            .append(publicKey).build();
+            .append(publicKey)
+            .append(endpoints).build();
     }
 
     /**
@@ -58,6 +58,12 @@ public class ActivityPubObject extends JSONLDObjects
 
     private List<ProxyActor> to;
 
+    private List<ProxyActor> cc;
+
+    private List<ProxyActor> bto;
+
+    private List<ProxyActor> audience;
+
     private String content;
 
     private List<ActivityPubObjectReference<AbstractActor>> attributedTo;
@@ -66,6 +72,8 @@ public class ActivityPubObject extends JSONLDObjects
 
     private ActivityPubObjectReference<OrderedCollection<Announce>> shares;
 
+    private ActivityPubObjectReference<ActivityPubObject> inReplyTo;
+
     /**
      * The type is not stored as a property but instead we rely on the class name to return it.
      *
@@ -213,6 +221,75 @@ public class ActivityPubObject extends JSONLDObjects
         return (T) this;
     }
 
+    /**
+     * @return the references of the actors the object is targeted to in copy.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-cc">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public List<ProxyActor> getCc()
+    {
+        return this.cc;
+    }
+
+    /**
+     * @param cc the list of references of the actors the object is targeted to in copy.
+     * @param <T> the type of the object.
+     * @return the current object for fluent API.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-cc">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public <T extends ActivityPubObject> T setCc(List<ProxyActor> cc)
+    {
+        this.cc = cc;
+        return (T) this;
+    }
+
+    /**
+     * @return the references of the actors the object is privately targeted to.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-bto">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public List<ProxyActor> getBto()
+    {
+        return this.bto;
+    }
+
+    /**
+     * @param bto the list of references of the actors the object is privately targeted to.
+     * @param <T> the type of the object.
+     * @return the current object for fluent API.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-bto">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public <T extends ActivityPubObject> T setBto(List<ProxyActor> bto)
+    {
+        this.bto = bto;
+        return (T) this;
+    }
+
+    /**
+     * @return the references of the actors the object is intended for.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-audience">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public List<ProxyActor> getAudience()
+    {
+        return this.audience;
+    }
+
+    /**
+     * @param audience the list of references of the actors the object is intended for.
+     * @param <T> the type of the object.
+     * @return the current object for fluent API.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-audience">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public <T extends ActivityPubObject> T setAudience(List<ProxyActor> audience)
+    {
+        this.audience = audience;
+        return (T) this;
+    }
+
     /**
      * @return the list of references of the actors the object is attributed to.
      * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-attributedto">ActivityStream definition</a>
@@ -283,6 +360,29 @@ public class ActivityPubObject extends JSONLDObjects
         return this;
     }
 
+    /**
+     * @return the reference of the object this object is a reply to.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-inreplyto">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public ActivityPubObjectReference<ActivityPubObject> getInReplyTo()
+    {
+        return this.inReplyTo;
+    }
+
+    /**
+     * @param inReplyTo the reference of the object this object is a reply to.
+     * @param <T> the type of the object.
+     * @return the current object for fluent API.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-inreplyto">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public <T extends ActivityPubObject> T setInReplyTo(ActivityPubObjectReference<ActivityPubObject> inReplyTo)
+    {
+        this.inReplyTo = inReplyTo;
+        return (T) this;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -302,10 +402,14 @@ public class ActivityPubObject extends JSONLDObjects
                 .append(published, object.published)
                 .append(summary, object.summary)
                 .append(to, object.to)
+                .append(cc, object.cc)
+                .append(bto, object.bto)
+                .append(audience, object.audience)
                 .append(content, object.content)
                 .append(attributedTo, object.attributedTo)
                 .append(url, object.url)
                 .append(shares, object.shares)
+                .append(inReplyTo, object.inReplyTo)
                 .isEquals();
     }
 
@@ -319,10 +423,14 @@ public class ActivityPubObject extends JSONLDObjects
                 .append(published)
                 .append(summary)
                 .append(to)
+                .append(cc)
+                .append(bto)
+                .append(audience)
                 .append(content)
                 .append(attributedTo)
                 .append(url)
                 .append(shares)
+                .append(inReplyTo)
                 .toHashCode();
     }
 
@@ -336,6 +444,7 @@ public class ActivityPubObject extends JSONLDObjects
             .append("published", getPublished())
             .append("summary", getSummary())
             .append("to", getTo())
+            .append("cc", getCc())
             .append("attributedTo", getAttributedTo()).build();
     }
 }
@@ -20,9 +20,8 @@
 package org.xwiki.contrib.activitypub.entities;
 
 import java.net.URI;
+import java.util.Objects;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.activitypub.internal.json.ActivityPubObjectReferenceDeserializer;
 import org.xwiki.stability.Unstable;
 import org.xwiki.text.XWikiToStringBuilder;
@@ -130,45 +129,53 @@ public class ActivityPubObjectReference<T extends ActivityPubObject>
         return this;
     }
 
+    /**
+     * Two references are equal if they refer to the same identifier, whether the object is resolved or not, so that
+     * the references can be compared and hashed cheaply. The references to objects which don't have an identifier
+     * yet, e.g. before being stored, are compared with the string representation of these objects: comparing the
+     * objects themselves might loop on the references between them.
+     *
+     * @param o the object to compare with.
+     * @return {@code true} if the given object is a reference to the same object.
+     */
     @Override
     public boolean equals(Object o)
     {
         if (this == o) {
             return true;
         }
-        if (o == null || getClass() != o.getClass()) {
+        if (!(o instanceof ActivityPubObjectReference)) {
             return false;
         }
 
         ActivityPubObjectReference<?> rhs = (ActivityPubObjectReference<?>) o;
-        EqualsBuilder equalsBuilder = new EqualsBuilder()
-            .append(link, rhs.link)
-            .append(isLink, rhs.isLink);
-
-        // TODO: Improve this piece of code. We cannot really do an equals on the objects since it might lead to
-        // stackoverflow exceptions
-        if (object == null && rhs.object == null) {
-            return equalsBuilder.build();
-        } else if (object != null && rhs.object != null) {
-            return equalsBuilder.append(object.toString(), rhs.object.toString()).build();
+        URI uri = getLink();
+        URI rhsURI = rhs.getLink();
+        boolean result;
+        if (uri != null || rhsURI != null) {
+            result = Objects.equals(uri, rhsURI);
         } else {
-            return false;
+            result = Objects.equals(getUnidentifiedObjectString(), rhs.getUnidentifiedObjectString());
         }
+        return result;
     }
 
     @Override
     public int hashCode()
     {
-        HashCodeBuilder hashCodeBuilder = new HashCodeBuilder()
-            .append(link)
-            .append(isLink);
-
-        // TODO: Improve this piece of code. We cannot really do an hashCode on the objects since it might lead to
-        // stackoverflow exceptions
-        if (object != null) {
-            hashCodeBuilder.append(object.toString());
+        URI uri = getLink();
+        int result;
+        if (uri != null) {
+            result = uri.hashCode();
+        } else {
+            result = Objects.hashCode(getUnidentifiedObjectString());
         }
-        return hashCodeBuilder.build();
+        return result;
+    }
+
+    private String getUnidentifiedObjectString()
+    {
+        return (this.object != null) ? this.object.toString() : null;
     }
 
     @Override
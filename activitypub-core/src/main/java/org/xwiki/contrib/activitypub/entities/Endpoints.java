@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.entities;
+
+import java.net.URI;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.stability.Unstable;
+import org.xwiki.text.XWikiToStringBuilder;
+
+/**
+ * The endpoints of an ActivityPub actor: URLs which are useful for the actor but which are not specific to it.
+ *
+ * @see <a href="https://www.w3.org/TR/activitypub/#actor-objects">ActivityPub Actor definition</a>
+ * @version $Id$
+ * @since 1.2
+ */
+@Unstable
+public class Endpoints
+{
+    private URI sharedInbox;
+
+    /**
+     * @return the URI of an inbox shared by all the actors of a server, to which activities can be delivered once
+     *          for all its recipients.
+     * @see <a href="https://www.w3.org/TR/activitypub/#shared-inbox-delivery">ActivityPub shared inbox</a>
+     */
+    public URI getSharedInbox()
+    {
+        return this.sharedInbox;
+    }
+
+    /**
+     * @param sharedInbox the URI of an inbox shared by all the actors of a server.
+     * @return the current object for fluent API.
+     * @see <a href="https://www.w3.org/TR/activitypub/#shared-inbox-delivery">ActivityPub shared inbox</a>
+     */
+    public Endpoints setSharedInbox(URI sharedInbox)
+    {
+        this.sharedInbox = sharedInbox;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new XWikiToStringBuilder(this)
+            .append("sharedInbox", this.getSharedInbox())
+            .build();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+
+        Endpoints endpoints = (Endpoints) o;
+
+        return new EqualsBuilder()
+            .append(this.sharedInbox, endpoints.sharedInbox)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37)
+            .append(this.sharedInbox)
+            .toHashCode();
+    }
+}
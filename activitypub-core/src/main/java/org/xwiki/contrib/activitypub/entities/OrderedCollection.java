@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.activitypub.entities;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -28,6 +29,8 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.stability.Unstable;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 /**
@@ -46,6 +49,10 @@ public class OrderedCollection<T extends ActivityPubObject> extends AbstractColl
 {
     private List<ActivityPubObjectReference<T>> orderedItems;
 
+    private Integer totalItems;
+
+    private URI first;
+
     /**
      * Default constructor to initialize the internal {@link ArrayList}.
      */
@@ -58,6 +65,7 @@ public class OrderedCollection<T extends ActivityPubObject> extends AbstractColl
      * @return the list of references to all items.
      * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-items">ActivityStream definition</a>
      */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public List<ActivityPubObjectReference<T>> getOrderedItems()
     {
         return orderedItems;
@@ -73,10 +81,54 @@ public class OrderedCollection<T extends ActivityPubObject> extends AbstractColl
         return this;
     }
 
+    /**
+     * {@inheritDoc}
+     * If the total number of items has been given with {@link #setTotalItems(int)}, this number is returned instead
+     * of the number of items actually contained in the collection.
+     */
     @Override
+    @JsonProperty
     public int getTotalItems()
     {
-        return this.orderedItems.size();
+        return (this.totalItems != null) ? this.totalItems : this.orderedItems.size();
+    }
+
+    /**
+     * Set the total number of items of the collection, when the collection does not contain all its items: e.g. when
+     * the items are served by pages. Note that this value is not stored, since the items of the stored collections
+     * are stored separately.
+     *
+     * @param totalItems the total number of items of the collection.
+     * @param <O> the type of the collection.
+     * @return the current collection for fluent API.
+     * @since 1.2
+     */
+    public <O extends OrderedCollection<T>> O setTotalItems(int totalItems)
+    {
+        this.totalItems = totalItems;
+        return (O) this;
+    }
+
+    /**
+     * @return the link to the first page of the collection.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-first">ActivityStream definition</a>
+     * @since 1.2
+     */
+    public URI getFirst()
+    {
+        return this.first;
+    }
+
+    /**
+     * @param first the link to the first page of the collection.
+     * @param <O> the type of the collection.
+     * @return the current collection for fluent API.
+     * @since 1.2
+     */
+    public <O extends OrderedCollection<T>> O setFirst(URI first)
+    {
+        this.first = first;
+        return (O) this;
     }
 
     @Override
@@ -115,7 +167,9 @@ public class OrderedCollection<T extends ActivityPubObject> extends AbstractColl
         OrderedCollection<?> object = (OrderedCollection<?>) o;
         return new EqualsBuilder()
             .appendSuper(super.equals(o))
-            .append(orderedItems, object.orderedItems).build();
+            .append(orderedItems, object.orderedItems)
+            .append(getTotalItems(), object.getTotalItems())
+            .append(first, object.first).build();
     }
 
     @Override
@@ -123,6 +177,8 @@ public class OrderedCollection<T extends ActivityPubObject> extends AbstractColl
     {
         return new HashCodeBuilder()
             .appendSuper(super.hashCode())
-            .append(orderedItems).build();
+            .append(orderedItems)
+            .append(getTotalItems())
+            .append(first).build();
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.entities;
+
+import java.net.URI;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.stability.Unstable;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * Represents a page of an {@link OrderedCollection} as defined by ActivityStream.
+ *
+ * @param <T> the type of {@link ActivityPubObject} contained in the page.
+ * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-orderedcollectionpage">ActivityStream
+ * definition</a>
+ * @version $Id$
+ * @since 1.2
+ */
+@Unstable
+@JsonDeserialize(as = OrderedCollectionPage.class)
+public class OrderedCollectionPage<T extends ActivityPubObject> extends OrderedCollection<T>
+{
+    private URI partOf;
+
+    private URI next;
+
+    private URI prev;
+
+    /**
+     * @return the link to the collection this page belongs to.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-partof">ActivityStream definition</a>
+     */
+    public URI getPartOf()
+    {
+        return this.partOf;
+    }
+
+    /**
+     * @param partOf the link to the collection this page belongs to.
+     * @param <O> the type of the page.
+     * @return the current page for fluent API.
+     */
+    public <O extends OrderedCollectionPage<T>> O setPartOf(URI partOf)
+    {
+        this.partOf = partOf;
+        return (O) this;
+    }
+
+    /**
+     * @return the link to the next page, containing older items.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-next">ActivityStream definition</a>
+     */
+    public URI getNext()
+    {
+        return this.next;
+    }
+
+    /**
+     * @param next the link to the next page, containing older items.
+     * @param <O> the type of the page.
+     * @return the current page for fluent API.
+     */
+    public <O extends OrderedCollectionPage<T>> O setNext(URI next)
+    {
+        this.next = next;
+        return (O) this;
+    }
+
+    /**
+     * @return the link to the previous page, containing more recent items.
+     * @see <a href="https://www.w3.org/TR/activitystreams-vocabulary/#dfn-prev">ActivityStream definition</a>
+     */
+    public URI getPrev()
+    {
+        return this.prev;
+    }
+
+    /**
+     * @param prev the link to the previous page, containing more recent items.
+     * @param <O> the type of the page.
+     * @return the current page for fluent API.
+     */
+    public <O extends OrderedCollectionPage<T>> O setPrev(URI prev)
+    {
+        this.prev = prev;
+        return (O) this;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        OrderedCollectionPage<?> object = (OrderedCollectionPage<?>) o;
+        return new EqualsBuilder()
+            .appendSuper(super.equals(o))
+            .append(partOf, object.partOf)
+            .append(next, object.next)
+            .append(prev, object.prev).build();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder()
+            .appendSuper(super.hashCode())
+            .append(partOf)
+            .append(next)
+            .append(prev).build();
+    }
+}
@@ -23,7 +23,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collections;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
 import org.xwiki.stability.Unstable;
@@ -85,7 +84,7 @@ public class ProxyActor extends ActivityPubObjectReference<ActivityPubObject>
      */
     public boolean isPublic()
     {
-        return this.equals(getPublicActor());
+        return publicActorURI.equals(getLink());
     }
 
     /**
@@ -107,29 +106,10 @@ public class ProxyActor extends ActivityPubObjectReference<ActivityPubObject>
             result = Collections.singletonList(object.getReference());
         } else if (object instanceof AbstractCollection) {
             AbstractCollection<AbstractActor> actorList = (AbstractCollection<AbstractActor>) object;
-            result = actorList.getAllItems();
+            result = resolver.resolveItems(actorList);
         } else {
             throw new ActivityPubException(String.format("The given element cannot be processed here: [%s]", object));
         }
         return result;
     }
-
-    @Override
-    public boolean equals(Object object)
-    {
-        if (object != null && ActivityPubObjectReference.class.isAssignableFrom(object.getClass())) {
-            ActivityPubObjectReference<ActivityPubObject> objectReference = (ActivityPubObjectReference) object;
-            return new EqualsBuilder()
-                .append(isLink(), objectReference.isLink())
-                .append(getLink(), objectReference.getLink()).build();
-        } else {
-            return super.equals(object);
-        }
-    }
-
-    @Override
-    public int hashCode()
-    {
-        return super.hashCode();
-    }
 }
@@ -0,0 +1,314 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.AbstractCollection;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.internal.json.ObjectMapperConfiguration;
+
+/**
+ * In-heap cache of the parsed {@link ActivityPubObject}, indexed by their identifiers.
+ * <p>
+ * The cache is bounded by the total size of the binary snapshots of its entries rather than by their number, so that a
+ * few big objects cannot fill the heap. The least recently used entries are evicted first. Each entry also expires
+ * after a time depending on its type and on its origin: the remote actors are the most likely to change without us
+ * being notified, while the local entities are explicitly invalidated when they are stored.
+ * <p>
+ * Each entry keeps a binary snapshot of the object, and the instance decoded from it the first time it's needed. That
+ * instance is shared by all the callers of {@link #get(URI)}: it must only be read. The callers which might modify the
+ * object, i.e. the ones running in a {@link ActivityPubUnitOfWork}, get their own copy with {@link #getCopy(URI)}
+ * instead. An object modified after being retrieved must still be stored again to invalidate its entry.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityPubObjectCache.class)
+@Singleton
+public class ActivityPubObjectCache
+{
+    /**
+     * The maximum total size of the snapshots, in bytes. The decoded instances kept next to them take several times
+     * more heap.
+     */
+    private static final long MAX_WEIGHT = 16L * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final long LOCAL_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+
+    private static final long REMOTE_ACTOR_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(15);
+
+    private static final long REMOTE_COLLECTION_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long REMOTE_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+
+    @Inject
+    private DefaultURLHandler urlHandler;
+
+    @Inject
+    private ObjectMapperConfiguration objectMapperConfiguration;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<URI, CacheEntry> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private long weight;
+
+    /**
+     * Retrieve a cached object, shared with the other callers: it must not be modified.
+     *
+     * @param id the identifier of the object.
+     * @param <T> the type of the object.
+     * @return the cached object or {@code null} if it's not cached or if its entry expired.
+     */
+    public <T extends ActivityPubObject> T get(URI id)
+    {
+        CacheEntry entry = this.getEntry(id);
+        T result = null;
+        if (entry != null) {
+            result = (T) entry.object;
+            if (result == null) {
+                // Decoded outside of the lock: decoding the same snapshot twice is harmless.
+                result = decode(id, entry.snapshot);
+                entry.object = result;
+            }
+        }
+        this.count(result);
+        return result;
+    }
+
+    /**
+     * Retrieve a copy of a cached object.
+     *
+     * @param id the identifier of the object.
+     * @param <T> the type of the object.
+     * @return a new copy of the cached object, which can be modified without affecting the cache nor the other
+     *         callers, or {@code null} if it's not cached or if its entry expired.
+     */
+    public <T extends ActivityPubObject> T getCopy(URI id)
+    {
+        CacheEntry entry = this.getEntry(id);
+        // Decoded outside of the lock: the snapshots are never modified.
+        T result = (entry != null) ? decode(id, entry.snapshot) : null;
+        this.count(result);
+        return result;
+    }
+
+    private synchronized CacheEntry getEntry(URI id)
+    {
+        CacheEntry result = this.entries.get(id);
+        if (result != null && result.expirationTime < System.currentTimeMillis()) {
+            this.remove(id);
+            result = null;
+        }
+        return result;
+    }
+
+    private void count(ActivityPubObject result)
+    {
+        if (result != null) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cache a snapshot of the given object, replacing any object cached with the same identifier. The object can be
+     * modified afterwards without affecting the cache.
+     *
+     * @param object the object to cache: it's ignored if it doesn't have any identifier.
+     */
+    public void put(ActivityPubObject object)
+    {
+        if (object != null && object.getId() != null) {
+            URI id = object.getId();
+            // Computed outside of the lock since it might need the context to know if the object is local.
+            long expirationTime = System.currentTimeMillis() + this.getTimeToLive(object);
+            byte[] snapshot = encode(object);
+            synchronized (this) {
+                this.remove(id);
+                if (snapshot != null) {
+                    CacheEntry entry = new CacheEntry(snapshot, expirationTime);
+                    if (entry.weight <= MAX_WEIGHT) {
+                        this.entries.put(id, entry);
+                        this.weight += entry.weight;
+                        this.evict();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove an object from the cache: this must be called each time an object is modified.
+     *
+     * @param id the identifier of the object.
+     */
+    public synchronized void invalidate(URI id)
+    {
+        this.remove(id);
+    }
+
+    /**
+     * Remove all the objects from the cache.
+     */
+    public synchronized void invalidateAll()
+    {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    private void remove(URI id)
+    {
+        CacheEntry entry = this.entries.remove(id);
+        if (entry != null) {
+            this.weight -= entry.weight;
+        }
+    }
+
+    private void evict()
+    {
+        Iterator<CacheEntry> iterator = this.entries.values().iterator();
+        while (this.weight > MAX_WEIGHT && iterator.hasNext()) {
+            this.weight -= iterator.next().weight;
+            iterator.remove();
+            this.evictionCount.incrementAndGet();
+        }
+    }
+
+    private byte[] encode(ActivityPubObject object)
+    {
+        try {
+            return this.objectMapperConfiguration.getSnapshotObjectMapper().writeValueAsBytes(object);
+        } catch (IOException e) {
+            this.logger.error("Error while caching the object [{}].", object.getId(), e);
+            return null;
+        }
+    }
+
+    private <T extends ActivityPubObject> T decode(URI id, byte[] snapshot)
+    {
+        try {
+            return (T) this.objectMapperConfiguration.getSnapshotObjectMapper().readValue(snapshot,
+                ActivityPubObject.class);
+        } catch (IOException e) {
+            this.logger.error("Error while reading the cached object [{}].", id, e);
+            this.invalidate(id);
+            return null;
+        }
+    }
+
+    private long getTimeToLive(ActivityPubObject object)
+    {
+        long result;
+        if (this.urlHandler.belongsToCurrentInstance(object.getId())) {
+            result = LOCAL_TIME_TO_LIVE;
+        } else if (object instanceof AbstractActor) {
+            result = REMOTE_ACTOR_TIME_TO_LIVE;
+        } else if (object instanceof AbstractCollection) {
+            result = REMOTE_COLLECTION_TIME_TO_LIVE;
+        } else {
+            result = REMOTE_TIME_TO_LIVE;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of lookups which returned a cached object.
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups which didn't return any object.
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    /**
+     * @return the number of entries evicted to keep the cache under its maximum weight.
+     */
+    public long getEvictionCount()
+    {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * @return the number of cached objects.
+     */
+    public synchronized int getSize()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the total size of the snapshots of the cached objects, in bytes.
+     */
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+
+    private static final class CacheEntry
+    {
+        private final byte[] snapshot;
+
+        private final long weight;
+
+        private final long expirationTime;
+
+        private volatile ActivityPubObject object;
+
+        CacheEntry(byte[] snapshot, long expirationTime)
+        {
+            this.snapshot = snapshot;
+            this.weight = snapshot.length;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
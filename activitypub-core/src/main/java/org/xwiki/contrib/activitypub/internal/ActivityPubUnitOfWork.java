@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+
+/**
+ * Unit of work scoped to the handling of one request or one job.
+ * <p>
+ * While a unit of work is running in the current execution context, it acts as an identity map: the same instance is
+ * returned each time an entity with a given identifier is resolved, so that all the changes are performed on the same
+ * object. The entities stored during the unit of work are only kept as dirty, and written together once when the
+ * outermost unit of work ends, or when {@link #flush()} is called explicitly, e.g. before another thread needs to read
+ * them.
+ * <p>
+ * Outside of a unit of work, all the methods are no-ops and the entities are stored immediately.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityPubUnitOfWork.class)
+@Singleton
+public class ActivityPubUnitOfWork
+{
+    private static final String CONTEXT_PROPERTY = "activitypub.unitOfWork";
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Provider<ActivityPubStorage> storageProvider;
+
+    /**
+     * Start a unit of work in the current execution context, or join the one which is already running.
+     * Each call must be followed by a call to {@link #end()}.
+     */
+    public void begin()
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context != null) {
+            State state = (State) context.getProperty(CONTEXT_PROPERTY);
+            if (state == null) {
+                state = new State();
+                context.setProperty(CONTEXT_PROPERTY, state);
+            }
+            state.depth++;
+        }
+    }
+
+    /**
+     * End the current unit of work: if it's the outermost one, the dirty entities are stored and the identity map is
+     * discarded.
+     *
+     * @throws ActivityPubException in case of error when storing the dirty entities.
+     */
+    public void end() throws ActivityPubException
+    {
+        State state = this.getState();
+        if (state != null) {
+            state.depth--;
+        }
+        if (state != null && state.depth == 0) {
+            try {
+                this.flush(state);
+            } finally {
+                this.execution.getContext().removeProperty(CONTEXT_PROPERTY);
+            }
+        }
+    }
+
+    /**
+     * Store the entities which have been modified so far in the current unit of work.
+     *
+     * @throws ActivityPubException in case of error when storing the dirty entities.
+     */
+    public void flush() throws ActivityPubException
+    {
+        State state = this.getState();
+        if (state != null) {
+            this.flush(state);
+        }
+    }
+
+    private void flush(State state) throws ActivityPubException
+    {
+        if (!state.dirtyEntities.isEmpty()) {
+            List<ActivityPubObject> entities = new ArrayList<>(state.dirtyEntities.values());
+            state.dirtyEntities.clear();
+            // The storage must write the entities instead of deferring them again.
+            state.flushing = true;
+            try {
+                this.storageProvider.get().storeEntities(entities);
+            } finally {
+                state.flushing = false;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a unit of work is running in the current execution context.
+     */
+    public boolean isActive()
+    {
+        return this.getState() != null;
+    }
+
+    /**
+     * Retrieve the instance of an entity which has already been loaded in the current unit of work.
+     *
+     * @param id the identifier of the entity.
+     * @param <T> the type of the entity.
+     * @return the loaded instance or {@code null} if the entity has not been loaded or if there's no unit of work.
+     */
+    public <T extends ActivityPubObject> T get(URI id)
+    {
+        State state = this.getState();
+        return (state != null) ? (T) state.identityMap.get(id) : null;
+    }
+
+    /**
+     * Register an entity loaded in the current unit of work, so that the same instance is returned by
+     * {@link #get(URI)}.
+     *
+     * @param entity the loaded entity: it's ignored if it doesn't have any identifier.
+     */
+    public void register(ActivityPubObject entity)
+    {
+        State state = this.getState();
+        if (state != null && entity != null && entity.getId() != null) {
+            state.identityMap.putIfAbsent(entity.getId(), entity);
+        }
+    }
+
+    /**
+     * Mark an entity as dirty so that it's stored at the end of the current unit of work.
+     *
+     * @param entity the entity to store, it must have an identifier.
+     * @return {@code true} if the storing is deferred, {@code false} if the entity must be stored immediately since
+     *         there's no unit of work.
+     */
+    public boolean defer(ActivityPubObject entity)
+    {
+        State state = this.getState();
+        boolean result = false;
+        if (state != null && !state.flushing) {
+            state.identityMap.put(entity.getId(), entity);
+            state.dirtyEntities.put(entity.getId(), entity);
+            result = true;
+        }
+        return result;
+    }
+
+    private State getState()
+    {
+        ExecutionContext context = this.execution.getContext();
+        return (context != null) ? (State) context.getProperty(CONTEXT_PROPERTY) : null;
+    }
+
+    /**
+     * The entities of a unit of work.
+     */
+    private static final class State
+    {
+        private final Map<URI, ActivityPubObject> identityMap = new HashMap<>();
+
+        private final Map<URI, ActivityPubObject> dirtyEntities = new LinkedHashMap<>();
+
+        private int depth;
+
+        private boolean flushing;
+    }
+}
@@ -20,24 +20,42 @@
 package org.xwiki.contrib.activitypub.internal;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.httpclient.HttpMethod;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubClient;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.AbstractCollection;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 
 /**
  * Default implementation of {@link ActivityPubObjectReferenceResolver}.
- * 
+ * <p>
+ * The resolved objects are kept at two levels: in the reference itself, and in the {@link ActivityPubObjectCache}
+ * shared by all the references, so that the same entity is not retrieved and parsed again each time it's referred to.
+ * Only the objects which are not cached are looked for in the storage and then retrieved from their server. During a
+ * {@link ActivityPubUnitOfWork}, the same instance is returned each time the same link is resolved, and it's a copy
+ * of the cached one. Outside of a unit of work, the cached instances are returned as is: they must only be read.
+ * When several references are resolved at once, the objects which are not cached are retrieved from the storage with a
+ * single request. The items of the stored ordered collections are only retrieved from the storage when they are
+ * resolved with {@link #resolveItems(AbstractCollection)}.
+ *
  * @version $Id$
  */
 @Component
@@ -53,6 +71,15 @@ public class DefaultActivityPubObjectReferenceResolver implements ActivityPubObj
     @Inject
     private Provider<ActivityPubStorage> activityPubStorageProvider;
 
+    @Inject
+    private ActivityPubObjectCache objectCache;
+
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @Inject
+    private Logger logger;
+
     @Override
     public <T extends ActivityPubObject> T resolveReference(ActivityPubObjectReference<T> reference)
         throws ActivityPubException
@@ -64,26 +91,174 @@ public class DefaultActivityPubObjectReferenceResolver implements ActivityPubObj
         if (!reference.isLink() && result == null) {
             throw new ActivityPubException("The reference property is null and does not have any ID to follow.");
         }
+        if (result == null) {
+            URI link = reference.getLink();
+            result = this.unitOfWork.get(link);
+            if (result != null) {
+                reference.setObject(result);
+            } else {
+                // In a unit of work, the resolved object is either a copy of a cached one, or a newly loaded one: it
+                // can be registered.
+                result = this.resolveSharedReference(reference);
+                if (result != null && link.equals(result.getId())) {
+                    this.unitOfWork.register(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T extends ActivityPubObject> List<T> resolveReferences(List<ActivityPubObjectReference<T>> references)
+    {
+        List<T> result = new ArrayList<>(Collections.nCopies(references.size(), null));
+        // The positions of the references which are neither resolved nor cached, by link.
+        Map<URI, List<Integer>> missingLinks = new LinkedHashMap<>();
+        for (int i = 0; i < references.size(); i++) {
+            ActivityPubObjectReference<T> reference = references.get(i);
+            T object = (reference != null) ? reference.getObject() : null;
+            if (object == null && reference != null && reference.isLink()) {
+                object = this.getLoadedObject(reference);
+                if (object == null) {
+                    missingLinks.computeIfAbsent(reference.getLink(), link -> new ArrayList<>()).add(i);
+                }
+            } else if (object == null) {
+                this.logger.error("Cannot resolve the reference [{}]: it does not have any ID to follow.", reference);
+            }
+            result.set(i, object);
+        }
+        if (!missingLinks.isEmpty()) {
+            List<T> storedObjects = this.retrieveStoredObjects(new ArrayList<>(missingLinks.keySet()));
+            int linkIndex = 0;
+            for (List<Integer> positions : missingLinks.values()) {
+                T object = storedObjects.get(linkIndex++);
+                if (object == null) {
+                    // Each missing link is retrieved only once from its server, even if it's referred several times.
+                    object = this.resolveRemoteReference(references.get(positions.get(0)));
+                }
+                for (int position : positions) {
+                    references.get(position).setObject(object);
+                    result.set(position, object);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T extends ActivityPubObject> List<ActivityPubObjectReference<T>> resolveItems(
+        AbstractCollection<T> collection) throws ActivityPubException
+    {
+        List<ActivityPubObjectReference<T>> result = new ArrayList<>(collection.getAllItems());
+        // The stored ordered collections don't contain their items: they are kept in the storage as separate records.
+        if (result.isEmpty() && collection instanceof OrderedCollection && collection.getId() != null) {
+            for (URI item : this.activityPubStorageProvider.get().retrieveItems(collection.getId())) {
+                result.add(new ActivityPubObjectReference<T>().setLink(item));
+            }
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T getLoadedObject(ActivityPubObjectReference<T> reference)
+    {
+        URI link = reference.getLink();
+        T result = this.unitOfWork.get(link);
+        if (result == null) {
+            result = this.getCachedObject(link);
+            if (result != null && link.equals(result.getId())) {
+                this.unitOfWork.register(result);
+            }
+        }
+        reference.setObject(result);
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T getCachedObject(URI link)
+    {
+        T result;
+        if (this.unitOfWork.isActive()) {
+            // The objects of a unit of work might be modified: the registered object is never shared with another
+            // request. It's copied only once since the next resolutions get it from the unit of work.
+            result = this.objectCache.getCopy(link);
+        } else {
+            result = this.objectCache.get(link);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> List<T> retrieveStoredObjects(List<URI> links)
+    {
+        List<T> result;
+        try {
+            // The storage registers the retrieved entities in the current unit of work.
+            result = this.activityPubStorageProvider.get().retrieveEntities(links);
+            for (T object : result) {
+                if (object != null) {
+                    this.objectCache.put(object);
+                }
+            }
+        } catch (ActivityPubException e) {
+            this.logger.error("Error while retrieving [{}] entities from the storage.", links.size(), e);
+            result = Collections.nCopies(links.size(), null);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T resolveRemoteReference(ActivityPubObjectReference<T> reference)
+    {
+        T result = null;
+        try {
+            result = this.retrieveRemoteObject(reference);
+            if (result != null && reference.getLink().equals(result.getId())) {
+                this.unitOfWork.register(result);
+            }
+        } catch (ActivityPubException e) {
+            this.logger.error("Error while resolving the reference [{}].", reference, e);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T resolveSharedReference(ActivityPubObjectReference<T> reference)
+        throws ActivityPubException
+    {
+        T result = this.getCachedObject(reference.getLink());
+        reference.setObject(result);
         if (result == null) {
             result = this.activityPubStorageProvider.get().retrieveEntity(reference.getLink());
             reference.setObject(result);
+            this.objectCache.put(result);
         }
         if (result == null) {
+            result = this.retrieveRemoteObject(reference);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T retrieveRemoteObject(ActivityPubObjectReference<T> reference)
+        throws ActivityPubException
+    {
+        URI link = reference.getLink();
+        try {
+            ActivityPubClient activityPubClient = this.activityPubClientProvider.get();
+            HttpMethod getMethod = activityPubClient.get(link);
+            T result;
             try {
-                HttpMethod getMethod = this.activityPubClientProvider.get().get(reference.getLink());
-                try {
-                    this.activityPubClientProvider.get().checkAnswer(getMethod);
-                    result = this.activityPubJsonParser.parse(getMethod.getResponseBodyAsString());
-                } finally {
-                    getMethod.releaseConnection();
-                }
-                reference.setObject(result);
-            } catch (IOException e) {
+                activityPubClient.checkAnswer(getMethod);
+                result = this.activityPubJsonParser.parse(activityPubClient.getResponseBodyAsStream(getMethod));
+            } finally {
+                getMethod.releaseConnection();
+            }
+            // A remote server must not be able to provide the object of another identifier.
+            if (result != null && !link.equals(result.getId())) {
                 throw new ActivityPubException(
-                    String.format("Error when retrieving the ActivityPub information from [%s]", reference.getLink()),
-                    e);
+                    String.format("The object retrieved from [%s] has another identifier [%s].", link, result.getId()));
             }
+            reference.setObject(result);
+            this.objectCache.put(result);
+            return result;
+        } catch (IOException e) {
+            throw new ActivityPubException(
+                String.format("Error when retrieving the ActivityPub information from [%s]", link), e);
         }
-        return result;
     }
 }
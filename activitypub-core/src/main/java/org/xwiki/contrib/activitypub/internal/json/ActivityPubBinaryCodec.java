@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+
+/**
+ * Encode the entities in a compact binary format to store them.
+ * The encoded content starts with a byte giving the version of the format, followed by the entity encoded with
+ * {@link ObjectMapperConfiguration#getBinaryStorageObjectMapper()}.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityPubBinaryCodec.class)
+@Singleton
+public class ActivityPubBinaryCodec
+{
+    /**
+     * The version of the format produced by {@link #encode(ActivityPubObject)}: Smile, using the storage profile.
+     */
+    public static final byte FORMAT_VERSION = 1;
+
+    @Inject
+    private ObjectMapperConfiguration objectMapperConfiguration;
+
+    @Inject
+    private NestedObjectsPersister nestedObjectsPersister;
+
+    /**
+     * @param object the entity to encode.
+     * @return the encoded entity, prefixed by the format version.
+     * @throws ActivityPubException in case of error while encoding the entity.
+     */
+    public byte[] encode(ActivityPubObject object) throws ActivityPubException
+    {
+        this.nestedObjectsPersister.persist(object);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(FORMAT_VERSION);
+        try {
+            this.objectMapperConfiguration.getBinaryStorageObjectMapper().writeValue(stream, object);
+        } catch (IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while encoding the entity of type [%s]", object.getClass()), e);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * @param content an entity encoded with {@link #encode(ActivityPubObject)}.
+     * @param <T> the type of the entity.
+     * @return the decoded entity.
+     * @throws ActivityPubException if the format of the content is not supported, or in case of error while decoding.
+     */
+    public <T extends ActivityPubObject> T decode(byte[] content) throws ActivityPubException
+    {
+        if (content.length == 0 || content[0] != FORMAT_VERSION) {
+            throw new ActivityPubException(String.format("Unsupported format version [%s].",
+                (content.length > 0) ? content[0] : null));
+        }
+        try {
+            return (T) this.objectMapperConfiguration.getBinaryStorageObjectMapper()
+                .readValue(content, 1, content.length - 1, ActivityPubObject.class);
+        } catch (IOException e) {
+            throw new ActivityPubException("Error while decoding an entity.", e);
+        }
+    }
+}
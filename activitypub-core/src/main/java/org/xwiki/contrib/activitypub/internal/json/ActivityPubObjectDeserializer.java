@@ -20,24 +20,50 @@
 package org.xwiki.contrib.activitypub.internal.json;
 
 import java.io.IOException;
+import java.lang.reflect.Modifier;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.xwiki.contrib.activitypub.entities.Accept;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.Announce;
+import org.xwiki.contrib.activitypub.entities.Collection;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Document;
+import org.xwiki.contrib.activitypub.entities.Follow;
+import org.xwiki.contrib.activitypub.entities.Inbox;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.OrderedCollectionPage;
+import org.xwiki.contrib.activitypub.entities.Outbox;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.entities.Reject;
+import org.xwiki.contrib.activitypub.entities.Service;
+import org.xwiki.contrib.activitypub.entities.Update;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * A custom Jackson deserializer for {@link ActivityPubObject}.
- * The main role of this deserializer is to check the type property of a JSON to create the right objects. Some utility
- * methods are provided to allow finding the POJO in various packages.
+ * The main role of this deserializer is to check the type property of a JSON to create the right objects. The JSON is
+ * streamed: the properties found before the type are buffered as tokens, and the remaining ones are directly read from
+ * the parser by the deserializer of the right class, so no intermediate tree is built. The types are resolved using a
+ * precomputed registry of the known entities, some utility methods are provided to allow finding the POJO in various
+ * packages for other types.
  * @version $Id$
  */
 public class ActivityPubObjectDeserializer extends JsonDeserializer<ActivityPubObject>
@@ -49,49 +75,141 @@ public class ActivityPubObjectDeserializer extends JsonDeserializer<ActivityPubO
         "org.xwiki.contrib.activitypub.entities"
     );
 
+    private static final String TYPE_PROPERTY = "type";
+
+    /**
+     * The classes of the known entities indexed by their type.
+     */
+    private static final Map<String, Class<? extends ActivityPubObject>> KNOWN_TYPES;
+
+    static {
+        Map<String, Class<? extends ActivityPubObject>> knownTypes = new HashMap<>();
+        for (Class<? extends ActivityPubObject> entityClass : Arrays.asList(Accept.class, ActivityPubObject.class,
+            Announce.class, Collection.class, Create.class, Document.class, Follow.class, Inbox.class, Note.class,
+            OrderedCollection.class, OrderedCollectionPage.class, Outbox.class, Person.class, Reject.class,
+            Service.class, Update.class)) {
+            knownTypes.put(entityClass.getSimpleName(), entityClass);
+        }
+        KNOWN_TYPES = Collections.unmodifiableMap(knownTypes);
+    }
+
+    /**
+     * The classes found in {@link #PACKAGES_ENTITIES} for types which are not part of {@link #KNOWN_TYPES}. Only the
+     * types which have been found are cached, so that this map cannot be filled with arbitrary type names.
+     */
+    private final Map<String, Class<? extends ActivityPubObject>> foundTypes = new ConcurrentHashMap<>();
+
+    /**
+     * The bean deserializers of the classes which would otherwise be deserialized by this deserializer.
+     */
+    private final Map<Class<?>, JsonDeserializer<Object>> beanDeserializers = new ConcurrentHashMap<>();
+
     /**
      * {@inheritDoc}
-     * Deserialize the current object based on the given "type" property. If the type attribute does not exist, or  if
-     * no class is found with the same type name, then the object is deserialized using {@link ActivityPubObject} as
-     * fallback.
+     * Deserialize the current object based on the given "type" property. If the type attribute does not exist, then
+     * the object is deserialized using {@link ActivityPubObject} as fallback.
      */
     @Override
     public ActivityPubObject deserialize(JsonParser jsonParser, DeserializationContext deserializationContext)
         throws IOException, JsonProcessingException
     {
-        ObjectMapper mapper = (ObjectMapper) jsonParser.getCodec();
-        ObjectNode root = mapper.readTree(jsonParser);
-
-        JsonNode type = root.get("type");
-        Class<? extends ActivityPubObject> instanceClass;
-        if (type != null) {
-            instanceClass = findClass(type.asText());
-        } else {
-            instanceClass = ActivityPubObject.class;
+        JsonToken token = jsonParser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jsonParser.nextToken();
+        } else if (token != JsonToken.FIELD_NAME) {
+            return (ActivityPubObject) deserializationContext.handleUnexpectedToken(ActivityPubObject.class,
+                jsonParser);
+        }
+
+        TokenBuffer buffer = new TokenBuffer(jsonParser, deserializationContext);
+        for (; token == JsonToken.FIELD_NAME; token = jsonParser.nextToken()) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            if (TYPE_PROPERTY.equals(fieldName) && jsonParser.currentToken() == JsonToken.VALUE_STRING) {
+                String type = jsonParser.getText();
+                buffer.writeFieldName(fieldName);
+                buffer.writeString(type);
+                // The buffered properties are replayed before the ones remaining in the parser.
+                jsonParser.clearCurrentToken();
+                JsonParser sequence = JsonParserSequence.createFlattened(false, buffer.asParser(jsonParser),
+                    jsonParser);
+                sequence.nextToken();
+                return deserialize(sequence, deserializationContext, findClass(type));
+            }
+            buffer.writeFieldName(fieldName);
+            buffer.copyCurrentStructure(jsonParser);
+        }
+
+        // No type has been found: the whole object has been buffered.
+        buffer.writeEndObject();
+        JsonParser bufferParser = buffer.asParser(jsonParser);
+        bufferParser.nextToken();
+        return deserialize(bufferParser, deserializationContext, ActivityPubObject.class);
+    }
+
+    private ActivityPubObject deserialize(JsonParser jsonParser, DeserializationContext deserializationContext,
+        Class<? extends ActivityPubObject> instanceClass) throws IOException
+    {
+        JsonDeserializer<Object> deserializer =
+            deserializationContext.findRootValueDeserializer(deserializationContext.constructType(instanceClass));
+        if (deserializer instanceof ActivityPubObjectDeserializer) {
+            // The class doesn't specify its own deserializer: we need the bean one to avoid an infinite recursion.
+            deserializer = getBeanDeserializer(deserializationContext, instanceClass);
         }
-        return mapper.treeToValue(root, instanceClass);
+        return (ActivityPubObject) deserializer.deserialize(jsonParser, deserializationContext);
+    }
+
+    private JsonDeserializer<Object> getBeanDeserializer(DeserializationContext deserializationContext,
+        Class<?> instanceClass) throws IOException
+    {
+        JsonDeserializer<Object> deserializer = this.beanDeserializers.get(instanceClass);
+        if (deserializer == null) {
+            JavaType javaType = deserializationContext.constructType(instanceClass);
+            BeanDescription beanDescription = deserializationContext.getConfig().introspect(javaType);
+            deserializer =
+                deserializationContext.getFactory().createBeanDeserializer(deserializationContext, javaType,
+                    beanDescription);
+            if (deserializer instanceof ResolvableDeserializer) {
+                ((ResolvableDeserializer) deserializer).resolve(deserializationContext);
+            }
+            this.beanDeserializers.put(instanceClass, deserializer);
+        }
+        return deserializer;
     }
 
     private Class<? extends ActivityPubObject> findClass(String type)
     {
-        Class<? extends ActivityPubObject> classInPackage;
-        for (String packageExtension : PACKAGES_ENTITIES) {
-            classInPackage = findClassInPackage(packageExtension, type);
-            if (classInPackage != null) {
-                return classInPackage;
+        Class<? extends ActivityPubObject> result = KNOWN_TYPES.get(type);
+        if (result == null) {
+            result = this.foundTypes.get(type);
+        }
+        if (result == null) {
+            for (String packageExtension : PACKAGES_ENTITIES) {
+                result = findClassInPackage(packageExtension, type);
+                if (result != null) {
+                    this.foundTypes.put(type, result);
+                    return result;
+                }
             }
+            // TODO: validate that this fail fast strategy is relevant.
+            throw new RuntimeException(MessageFormat.format("Type [{0}] not found", type));
         }
-        // TODO: validate that this fail fast strategy is relevant.
-        throw new RuntimeException(MessageFormat.format("Type [{0}] not found", type));
+        return result;
     }
 
     private Class<? extends ActivityPubObject> findClassInPackage(String packageName, String type)
     {
         String fqn = String.format("%s.%s", packageName, type);
         try {
-            return (Class<? extends ActivityPubObject>) getClass().getClassLoader().loadClass(fqn);
+            Class<?> classInPackage = getClass().getClassLoader().loadClass(fqn);
+            if (ActivityPubObject.class.isAssignableFrom(classInPackage)
+                && !Modifier.isAbstract(classInPackage.getModifiers()))
+            {
+                return (Class<? extends ActivityPubObject>) classInPackage;
+            }
         } catch (ClassNotFoundException e) {
-            return null;
+            // The type doesn't exist in this package.
         }
+        return null;
     }
 }
@@ -30,7 +30,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * A custom Jackson Deserializer to deserialize references {@link ActivityPubObjectReference}.
@@ -44,13 +43,12 @@ public class ActivityPubObjectReferenceDeserializer extends JsonDeserializer<Act
     public ActivityPubObjectReference<ActivityPubObject> deserialize(JsonParser jsonParser,
         DeserializationContext deserializationContext) throws IOException, JsonProcessingException
     {
-        ObjectMapper mapper = (ObjectMapper) jsonParser.getCodec();
-
+        // Reuse the current context rather than starting a new root deserialization for each reference.
         ActivityPubObjectReference<ActivityPubObject> objectReference = new ActivityPubObjectReference<>();
         if (jsonParser.currentToken() == JsonToken.START_OBJECT) {
-            objectReference.setObject(mapper.readValue(jsonParser, ActivityPubObject.class));
+            objectReference.setObject(deserializationContext.readValue(jsonParser, ActivityPubObject.class));
         } else {
-            objectReference.setLink(mapper.readValue(jsonParser, URI.class));
+            objectReference.setLink(deserializationContext.readValue(jsonParser, URI.class));
         }
         return objectReference;
     }
@@ -20,21 +20,12 @@
 package org.xwiki.contrib.activitypub.internal.json;
 
 import java.io.IOException;
-import java.net.URI;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
-import org.xwiki.contrib.activitypub.ActivityPubException;
-import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
-import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
-import org.xwiki.resource.ResourceReferenceSerializer;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonSerializer;
@@ -42,8 +33,8 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 
 /**
  * A custom Jackson Serializer for {@link ActivityPubObjectReference}.
- * This serializer only serialize the references with the objects IDs, which means that it also performs the storage
- * when no ID is found for the object to serialize.
+ * This serializer only serialize the references with the objects IDs, which means that the objects must have been
+ * stored before, see {@link NestedObjectsPersister}.
  * The idea here is to avoid serializing big JSON and to avoid having to deal with self-referenced objects by only
  * serializing the references.
  * @version $Id$
@@ -52,24 +43,6 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 @Singleton
 public class ActivityPubObjectReferenceSerializer extends JsonSerializer<ActivityPubObjectReference>
 {
-    // We don't inject it since it might need the serializer itself.
-    private ActivityPubStorage activityPubStorage;
-
-    @Inject
-    private ResourceReferenceSerializer<ActivityPubResourceReference, URI> activityPubResourceReferenceSerializer;
-
-    @Inject
-    @Named("context")
-    private ComponentManager componentManager;
-
-    private ActivityPubStorage getActivityPubStorage() throws ComponentLookupException
-    {
-        if (this.activityPubStorage == null) {
-            this.activityPubStorage = this.componentManager.getInstance(ActivityPubStorage.class);
-        }
-        return this.activityPubStorage;
-    }
-
     @Override
     public void serialize(ActivityPubObjectReference objectReference, JsonGenerator jsonGenerator,
         SerializerProvider serializerProvider) throws IOException
@@ -86,15 +59,10 @@ public class ActivityPubObjectReferenceSerializer extends JsonSerializer<Activit
                 // serialization.
                 if (object.getId() != null) {
                     jsonGenerator.writeString(object.getId().toString());
-                    // it doesn't have an ID: we need to store it and we serialize it as a link to avoid big JSON 
-                    // answers.
                 } else {
-                    try {
-                        URI uri = this.getActivityPubStorage().storeEntity(object);
-                        jsonGenerator.writeString(uri.toASCIIString());
-                    } catch (ActivityPubException | ComponentLookupException e) {
-                        throw new IOException(String.format("Error when serializing [%s]", object.toString()), e);
-                    }
+                    // The objects without ID are stored by NestedObjectsPersister before the serialization.
+                    throw new IOException(
+                        String.format("Error when serializing [%s]: the object has not been stored.", object));
                 }
             }
         }
@@ -0,0 +1,35 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Jackson mixin used to serialize the {@link org.xwiki.contrib.activitypub.entities.ActivityPubObject} in the compact
+ * profiles: the type is written right after the context and the identifier, so that
+ * {@link ActivityPubObjectDeserializer} finds it without having to buffer the other properties.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@JsonPropertyOrder({ "@context", "id", "type" })
+public abstract class CompactActivityPubObjectMixin
+{
+}
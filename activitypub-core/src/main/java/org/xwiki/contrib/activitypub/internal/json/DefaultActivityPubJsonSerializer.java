@@ -44,6 +44,9 @@ public class DefaultActivityPubJsonSerializer implements ActivityPubJsonSerializ
     @Inject
     private ObjectMapperConfiguration objectMapperConfiguration;
 
+    @Inject
+    private NestedObjectsPersister nestedObjectsPersister;
+
     @Override
     public <T extends ActivityPubObject> String serialize(T object) throws ActivityPubException
     {
@@ -55,6 +58,7 @@ public class DefaultActivityPubJsonSerializer implements ActivityPubJsonSerializ
     @Override
     public <T extends ActivityPubObject> void serialize(OutputStream stream, T object) throws ActivityPubException
     {
+        this.nestedObjectsPersister.persist(object);
         try {
             this.objectMapperConfiguration.getObjectMapper().writeValue(stream, object);
         } catch (IOException e) {
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+/**
+ * Store the nested objects of an entity which don't have an identifier yet, before the entity is serialized.
+ * <p>
+ * The references which are not expanded are serialized with the identifier of their object: this pass assigns those
+ * identifiers by storing all the objects which don't have one, in a single unit of work so that they are written
+ * together. It allows {@link ActivityPubObjectReferenceSerializer} to be free of any side effect.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = NestedObjectsPersister.class)
+@Singleton
+public class NestedObjectsPersister
+{
+    // We use a provider since the storage needs the serializers.
+    @Inject
+    private Provider<ActivityPubStorage> storageProvider;
+
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @Inject
+    private ObjectMapperConfiguration objectMapperConfiguration;
+
+    /**
+     * The serialized properties which might contain references, indexed by the class of the entities.
+     */
+    private final Map<Class<?>, List<AnnotatedMember>> referenceAccessors = new ConcurrentHashMap<>();
+
+    /**
+     * Store the nested objects of the given entity which would be serialized as a link but don't have an identifier.
+     *
+     * @param entity the entity which is about to be serialized.
+     * @throws ActivityPubException in case of error while storing the nested objects.
+     */
+    public void persist(ActivityPubObject entity) throws ActivityPubException
+    {
+        List<ActivityPubObject> nestedObjects = new ArrayList<>();
+        this.collect(entity, nestedObjects, Collections.newSetFromMap(new IdentityHashMap<>()));
+        if (!nestedObjects.isEmpty()) {
+            ActivityPubStorage storage = this.storageProvider.get();
+            this.unitOfWork.begin();
+            try {
+                for (ActivityPubObject nestedObject : nestedObjects) {
+                    storage.storeEntity(nestedObject);
+                }
+            } finally {
+                this.unitOfWork.end();
+            }
+        }
+    }
+
+    private void collect(ActivityPubObject entity, List<ActivityPubObject> nestedObjects,
+        Set<ActivityPubObject> visited)
+    {
+        if (visited.add(entity)) {
+            for (AnnotatedMember accessor : this.getReferenceAccessors(entity.getClass())) {
+                Object value = accessor.getValue(entity);
+                if (value instanceof ActivityPubObjectReference) {
+                    this.collect((ActivityPubObjectReference<?>) value, nestedObjects, visited);
+                } else if (value instanceof Collection) {
+                    for (Object item : (Collection<?>) value) {
+                        if (item instanceof ActivityPubObjectReference) {
+                            this.collect((ActivityPubObjectReference<?>) item, nestedObjects, visited);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void collect(ActivityPubObjectReference<?> reference, List<ActivityPubObject> nestedObjects,
+        Set<ActivityPubObject> visited)
+    {
+        ActivityPubObject object = (reference.isLink()) ? null : reference.getObject();
+        if (object != null) {
+            if (reference.isExpand()) {
+                // The object is serialized inline: its own references need to be checked.
+                this.collect(object, nestedObjects, visited);
+            } else if (object.getId() == null && visited.add(object)) {
+                // Storing the object will serialize it, and so will take care of its own references.
+                nestedObjects.add(object);
+            }
+        }
+    }
+
+    private List<AnnotatedMember> getReferenceAccessors(Class<?> entityClass)
+    {
+        return this.referenceAccessors.computeIfAbsent(entityClass, this::findReferenceAccessors);
+    }
+
+    private List<AnnotatedMember> findReferenceAccessors(Class<?> entityClass)
+    {
+        ObjectMapper objectMapper = this.objectMapperConfiguration.getObjectMapper();
+        BeanDescription beanDescription =
+            objectMapper.getSerializationConfig().introspect(objectMapper.constructType(entityClass));
+        List<AnnotatedMember> result = new ArrayList<>();
+        for (BeanPropertyDefinition property : beanDescription.findProperties()) {
+            AnnotatedMember accessor = property.getAccessor();
+            if (accessor != null && (ActivityPubObjectReference.class.isAssignableFrom(accessor.getRawType())
+                || Collection.class.isAssignableFrom(accessor.getRawType())))
+            {
+                accessor.fixAccess(false);
+                result.add(accessor);
+            }
+        }
+        return result;
+    }
+}
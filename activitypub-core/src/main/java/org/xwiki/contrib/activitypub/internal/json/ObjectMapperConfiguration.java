@@ -24,11 +24,15 @@ import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.JSONLDContext;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 import static com.fasterxml.jackson.databind.DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY;
@@ -52,6 +56,12 @@ public class ObjectMapperConfiguration implements Initializable
 
     private ObjectMapper objectMapper;
 
+    private ObjectMapper debugObjectMapper;
+
+    private ObjectMapper binaryStorageObjectMapper;
+
+    private ObjectMapper snapshotObjectMapper;
+
     @Override
     public void initialize()
     {
@@ -63,7 +73,36 @@ public class ObjectMapperConfiguration implements Initializable
         module.addSerializer(ActivityPubObjectReference.class, this.objectReferenceSerializer);
         module.addDeserializer(JSONLDContext.class, this.jsonLDContextDeserializer);
 
-        this.objectMapper = new ObjectMapper()
+        ObjectMapper baseObjectMapper = createObjectMapper(new JsonFactory(), module);
+
+        // The readable profile, for debugging and testing purpose.
+        this.debugObjectMapper = baseObjectMapper.copy()
+            // Order properties alphabetically: easier to test the result.
+            .enable(SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(INDENT_OUTPUT);
+
+        // The compact profile is the one used for the wire: the JSON is neither indented nor sorted, but the type is
+        // put first so that it can be read without buffering the other properties.
+        this.objectMapper = baseObjectMapper
+            .addMixIn(ActivityPubObject.class, CompactActivityPubObjectMixin.class);
+
+        // The storage profile uses the Smile binary format, and the items of the ordered collections are stored
+        // separately from the collection itself.
+        this.binaryStorageObjectMapper = createObjectMapper(new SmileFactory(), module)
+            .addMixIn(ActivityPubObject.class, CompactActivityPubObjectMixin.class)
+            .addMixIn(OrderedCollection.class, StoredOrderedCollectionMixin.class);
+
+        // The snapshots are binary copies of the entities, keeping their resolved references and their items.
+        SimpleModule snapshotModule = new SimpleModule();
+        snapshotModule.addSerializer(ActivityPubObjectReference.class, new SnapshotObjectReferenceSerializer());
+        snapshotModule.addDeserializer(JSONLDContext.class, this.jsonLDContextDeserializer);
+        this.snapshotObjectMapper = createObjectMapper(new SmileFactory(), snapshotModule)
+            .addMixIn(ActivityPubObject.class, CompactActivityPubObjectMixin.class);
+    }
+
+    private ObjectMapper createObjectMapper(JsonFactory jsonFactory, SimpleModule module)
+    {
+        return new ObjectMapper(jsonFactory)
             // we don't want null values field to be serialized
             .setSerializationInclusion(NON_NULL)
             // if the property type is a list, it still accepts a single value: i.e. it doesn't need to be a JSON Array
@@ -76,17 +115,43 @@ public class ObjectMapperConfiguration implements Initializable
             // will be covered by the API: the specification is clear on the fact that anyone can extend it
             // as he/she wants
             .disable(FAIL_ON_UNKNOWN_PROPERTIES)
-            // Order properties alphabetically: easier to test the result.
-            .enable(SORT_PROPERTIES_ALPHABETICALLY)
-            .enable(INDENT_OUTPUT)
             .registerModule(module);
     }
 
     /**
-     * @return a configured object mapper ready to be used.
+     * @return a configured object mapper ready to be used, producing compact JSON to be sent over the wire.
      */
     public ObjectMapper getObjectMapper()
     {
         return this.objectMapper;
     }
+
+    /**
+     * @return a configured object mapper to be used when encoding entities in a binary format for the storage.
+     * @since 1.2
+     */
+    public ObjectMapper getBinaryStorageObjectMapper()
+    {
+        return this.binaryStorageObjectMapper;
+    }
+
+    /**
+     * @return a configured object mapper to be used when copying entities through a binary snapshot: contrarily to the
+     *         other profiles, the resolved references and the items of the collections are kept.
+     * @since 1.2
+     */
+    public ObjectMapper getSnapshotObjectMapper()
+    {
+        return this.snapshotObjectMapper;
+    }
+
+    /**
+     * @return a configured object mapper producing indented JSON with sorted properties, to be used for debugging
+     *         and testing purpose.
+     * @since 1.2
+     */
+    public ObjectMapper getDebugObjectMapper()
+    {
+        return this.debugObjectMapper;
+    }
 }
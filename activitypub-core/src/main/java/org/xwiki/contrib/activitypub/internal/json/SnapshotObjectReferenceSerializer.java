@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * A Jackson serializer for {@link ActivityPubObjectReference} keeping the referenced objects, so that an entity can be
+ * copied by encoding and decoding it.
+ * <p>
+ * Contrarily to {@link ActivityPubObjectReferenceSerializer}, the resolved objects are serialized in place: a
+ * reference is only replaced by its link when its object is already being serialized, to break the cycles between the
+ * resolved objects.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class SnapshotObjectReferenceSerializer extends JsonSerializer<ActivityPubObjectReference>
+{
+    private static final String ANCESTORS_ATTRIBUTE = "activitypub.snapshot.ancestors";
+
+    @Override
+    public void serialize(ActivityPubObjectReference objectReference, JsonGenerator jsonGenerator,
+        SerializerProvider serializerProvider) throws IOException
+    {
+        Set<ActivityPubObject> ancestors =
+            (Set<ActivityPubObject>) serializerProvider.getAttribute(ANCESTORS_ATTRIBUTE);
+        if (ancestors == null) {
+            ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+            serializerProvider.setAttribute(ANCESTORS_ATTRIBUTE, ancestors);
+        }
+        ActivityPubObject object = (objectReference.isLink()) ? null : objectReference.getObject();
+        if (object != null && ancestors.add(object)) {
+            try {
+                // The same provider is used so that the ancestors are known when serializing the nested references.
+                serializerProvider.defaultSerializeValue(object, jsonGenerator);
+            } finally {
+                ancestors.remove(object);
+            }
+        } else if (objectReference.getLink() != null) {
+            jsonGenerator.writeString(objectReference.getLink().toASCIIString());
+        } else {
+            jsonGenerator.writeNull();
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.internal.json.ActivityPubObjectReferenceSerializer;
+import org.xwiki.contrib.activitypub.internal.json.DebugActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonParser;
 import org.xwiki.contrib.activitypub.internal.json.DefaultActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.internal.json.JSONLDContextDeserializer;
@@ -47,7 +48,8 @@ import static org.mockito.Mockito.when;
 
 /**
  * Utility class to use the actual ObjectMapperConfiguration and Parser/Serializer components to perform
- * Serialization/Parsing of the entities.
+ * Serialization/Parsing of the entities. The readable serializer is used so that the results can be compared with the
+ * expected JSON files.
  *
  *
  * @since 1.0
@@ -62,7 +64,10 @@ public class AbstractEntityTest
     protected DefaultActivityPubJsonParser parser;
 
     @InjectMockComponents
-    protected DefaultActivityPubJsonSerializer serializer;
+    protected DebugActivityPubJsonSerializer serializer;
+
+    @InjectMockComponents
+    protected DefaultActivityPubJsonSerializer wireSerializer;
 
     @BeforeComponent
     public void setup(MockitoComponentManager componentManager) throws Exception
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.entities;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test of {@link ActivityPubObjectReference}.
+ *
+ * @version $Id$
+ */
+public class ActivityPubObjectReferenceTest
+{
+    private static final URI NOTE_ID = URI.create("http://domain.org/xwiki/activitypub/Note/42");
+
+    @Test
+    public void equalsOnIdentifier()
+    {
+        ActivityPubObjectReference<Note> link = new ActivityPubObjectReference<Note>().setLink(NOTE_ID);
+        ActivityPubObjectReference<Note> object =
+            new ActivityPubObjectReference<Note>().setObject(new Note().setId(NOTE_ID).setContent("foo"));
+        ActivityPubObjectReference<Note> modifiedObject =
+            new ActivityPubObjectReference<Note>().setObject(new Note().setId(NOTE_ID).setContent("bar"));
+
+        // Resolving a reference doesn't change its identity.
+        assertEquals(link, object);
+        assertEquals(object, modifiedObject);
+        assertEquals(link.hashCode(), object.hashCode());
+        assertEquals(object.hashCode(), modifiedObject.hashCode());
+        assertEquals(new ProxyActor(NOTE_ID), link);
+        assertEquals(link, new ProxyActor(NOTE_ID));
+
+        assertNotEquals(link, new ActivityPubObjectReference<Note>().setLink(URI.create("http://domain.org/other")));
+        assertNotEquals(link, new ActivityPubObjectReference<Note>().setObject(new Note()));
+    }
+
+    @Test
+    public void equalsWithoutIdentifier()
+    {
+        Set<ActivityPubObjectReference<ActivityPubObject>> references = new HashSet<>();
+        references.add(new ActivityPubObjectReference<>().setObject(new Follow()));
+        references.add(new ActivityPubObjectReference<>().setObject(new Accept()));
+        references.add(new ActivityPubObjectReference<>().setObject(new Follow()));
+
+        assertEquals(2, references.size());
+        assertTrue(references.contains(new ActivityPubObjectReference<>().setObject(new Accept())));
+        assertFalse(references.contains(new ActivityPubObjectReference<>().setObject(new Note())));
+        assertEquals(new ActivityPubObjectReference<>(), new ActivityPubObjectReference<>());
+    }
+
+    @Test
+    public void isPublic()
+    {
+        assertTrue(new ProxyActor(URI.create("https://www.w3.org/ns/activitystreams#Public")).isPublic());
+        assertFalse(new ProxyActor(NOTE_ID).isPublic());
+    }
+}
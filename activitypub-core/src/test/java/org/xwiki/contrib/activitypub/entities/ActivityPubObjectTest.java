@@ -19,7 +19,10 @@
  */
 package org.xwiki.contrib.activitypub.entities;
 
+import java.net.URI;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 
 import org.junit.jupiter.api.Test;
@@ -52,4 +55,46 @@ public class ActivityPubObjectTest extends AbstractEntityTest
         ActivityPubException e = assertThrows(ActivityPubException.class, () -> this.parser.parse(json));
         assertEquals("Error while parsing request with unknown type.", e.getMessage());
     }
+
+    @Test
+    void parseWithTypeAfterOtherProperties() throws Exception
+    {
+        String json = "{\"id\": \"https://social.example/alyssa/posts/1\","
+            + "\"object\": {\"content\": \"Hello\", \"type\": \"Note\", \"name\": \"Foo\"},"
+            + "\"type\": \"Create\", \"actor\": \"https://social.example/alyssa/\"}";
+        Note note = new Note().setContent("Hello").setName("Foo");
+        Create expected = new Create()
+            .setActor(new ActivityPubObjectReference<AbstractActor>()
+                .setLink(new URI("https://social.example/alyssa/")))
+            .setObject(note)
+            .setId(new URI("https://social.example/alyssa/posts/1"));
+        assertEquals(expected, this.parser.parse(json));
+    }
+
+    @Test
+    void parseWithoutType() throws Exception
+    {
+        String json = "{\"id\": \"https://social.example/alyssa/posts/1\", \"name\": \"Foo\"}";
+        ActivityPubObject expected = new ActivityPubObject()
+            .setId(new URI("https://social.example/alyssa/posts/1"))
+            .setName("Foo");
+        assertEquals(expected, this.parser.parse(json));
+    }
+
+    @Test
+    void parseAddressing() throws Exception
+    {
+        String json = "{\"id\": \"https://social.example/alyssa/posts/1\","
+            + "\"to\": \"https://www.w3.org/ns/activitystreams#Public\","
+            + "\"cc\": [\"https://social.example/alyssa/followers\", \"https://chatty.example/ben/\"],"
+            + "\"bto\": \"https://chatty.example/eve/\", \"audience\": \"https://chatty.example/group\"}";
+        ActivityPubObject expected = new ActivityPubObject()
+            .setId(new URI("https://social.example/alyssa/posts/1"))
+            .setTo(Collections.singletonList(ProxyActor.getPublicActor()))
+            .setCc(Arrays.asList(new ProxyActor(new URI("https://social.example/alyssa/followers")),
+                new ProxyActor(new URI("https://chatty.example/ben/"))))
+            .setBto(Collections.singletonList(new ProxyActor(new URI("https://chatty.example/eve/"))))
+            .setAudience(Collections.singletonList(new ProxyActor(new URI("https://chatty.example/group"))));
+        assertEquals(expected, this.parser.parse(json));
+    }
 }
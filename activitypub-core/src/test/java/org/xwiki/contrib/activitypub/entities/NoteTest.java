@@ -25,6 +25,7 @@ import java.util.Arrays;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test of {@link Note}.
@@ -44,6 +45,34 @@ public class NoteTest extends AbstractEntityTest
         assertEquals(expectedSerialization, this.serializer.serialize(note));
     }
 
+    @Test
+    void compactSerialization() throws Exception
+    {
+        Note note = new Note()
+            .setId(new URI("http://localhost:8080/xwiki/activitypub/Note/XWiki.Foo-note"))
+            .setName("Foo");
+
+        String expectedSerialization = "{\"@context\":[\"https://www.w3.org/ns/activitystreams\"],"
+            + "\"id\":\"http://localhost:8080/xwiki/activitypub/Note/XWiki.Foo-note\",\"type\":\"Note\","
+            + "\"name\":\"Foo\"}";
+        assertEquals(expectedSerialization, this.wireSerializer.serialize(note));
+        assertEquals(note, this.parser.parse(expectedSerialization));
+    }
+
+    @Test
+    void inReplyToSerialization() throws Exception
+    {
+        Note note = new Note()
+            .setId(new URI("http://localhost:8080/xwiki/activitypub/Note/XWiki.Foo-reply"))
+            .setInReplyTo(new ActivityPubObjectReference<>()
+                .setLink(new URI("http://localhost:8080/xwiki/activitypub/Note/XWiki.Foo-note")));
+
+        String serialization = this.wireSerializer.serialize(note);
+        assertTrue(serialization.contains(
+            "\"inReplyTo\":\"http://localhost:8080/xwiki/activitypub/Note/XWiki.Foo-note\""));
+        assertEquals(note, this.parser.parse(serialization));
+    }
+
     @Test
     void parsing() throws Exception
     {
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.entities;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test of {@link OrderedCollectionPage}.
+ *
+ * @since 1.2
+ * @version $Id$
+ */
+public class OrderedCollectionPageTest extends AbstractEntityTest
+{
+    private static final String OUTBOX_URL = "http://localhost:8080/xwiki/activitypub/Outbox/XWiki.Foo-outbox";
+
+    private OrderedCollectionPage<AbstractActivity> getPage()
+    {
+        OrderedCollectionPage<AbstractActivity> page = new OrderedCollectionPage<AbstractActivity>()
+            .setPartOf(URI.create(OUTBOX_URL))
+            .setNext(URI.create(OUTBOX_URL + "?max_id=http%3A%2F%2Ftest%2Fcreate%2F1"));
+        page.setId(URI.create(OUTBOX_URL + "?page=true"));
+        page.setOrderedItems(Arrays.asList(
+            new ActivityPubObjectReference<AbstractActivity>().setLink(URI.create("http://test/create/2")),
+            new ActivityPubObjectReference<AbstractActivity>().setLink(URI.create("http://test/create/1"))));
+        return page;
+    }
+
+    @Test
+    void serialization() throws Exception
+    {
+        String expectedSerialization = this.readResource("orderedcollectionpage/orderedcollectionpage1.json");
+        assertEquals(expectedSerialization, this.serializer.serialize(getPage()));
+    }
+
+    @Test
+    void parsing() throws Exception
+    {
+        String json = this.readResource("orderedcollectionpage/orderedcollectionpage1.json");
+        assertEquals(getPage(), this.parser.parse(json, OrderedCollectionPage.class));
+        assertEquals(getPage(), this.parser.parse(json));
+    }
+
+    @Test
+    void parsingSummary() throws Exception
+    {
+        // The summaries of the remote collections only link to their first page.
+        String json = "{\"type\": \"OrderedCollection\", \"id\": \"" + OUTBOX_URL + "\", "
+            + "\"totalItems\": 42, \"first\": \"" + OUTBOX_URL + "?page=true\"}";
+        OrderedCollection<AbstractActivity> summary = this.parser.parse(json, OrderedCollection.class);
+        assertEquals(42, summary.getTotalItems());
+        assertEquals(URI.create(OUTBOX_URL + "?page=true"), summary.getFirst());
+    }
+}
@@ -112,6 +112,8 @@ public class PersonTest extends AbstractEntityTest
         assertEquals(2, obtainedPerson.getContext().size());
         assertEquals(URI.create("https://www.w3.org/ns/activitystreams"), obtainedPerson.getContext().get(0));
         assertEquals(URI.create("https://w3id.org/security/v1"), obtainedPerson.getContext().get(1));
+        assertEquals(URI.create("http://mastodon.local/inbox"), obtainedPerson.getEndpoints().getSharedInbox());
+        assertEquals(URI.create("http://mastodon.local/inbox"), obtainedPerson.getSharedInbox());
         assertEquals(1, this.logCapture.size());
         assertEquals("The JsonNode [{\"manuallyApprovesFollowers\":\"as:manuallyApprovesFollowers\"," 
                          + "\"toot\":\"http://joinmastodon.org/ns#\"," 
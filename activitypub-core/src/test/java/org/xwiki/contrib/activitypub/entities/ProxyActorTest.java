@@ -108,8 +108,9 @@ public class ProxyActorTest extends AbstractEntityTest
         when(resolver.resolveReference(proxyActor)).thenReturn(person);
         assertEquals(Collections.singletonList(reference), proxyActor.resolveActors(resolver));
 
+        // The items of the collection are resolved separately, since they might not be loaded with the collection.
         Collection collection = mock(Collection.class);
-        when(collection.getAllItems()).thenReturn(Arrays.asList("foo", "bar", "baz"));
+        when(resolver.resolveItems(collection)).thenReturn(Arrays.asList("foo", "bar", "baz"));
         when(resolver.resolveReference(proxyActor)).thenReturn(collection);
         assertEquals(Arrays.asList("foo", "bar", "baz"), proxyActor.resolveActors(resolver));
     }
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.net.URI;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubObjectReferenceSerializer;
+import org.xwiki.contrib.activitypub.internal.json.JSONLDContextDeserializer;
+import org.xwiki.contrib.activitypub.internal.json.ObjectMapperConfiguration;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ActivityPubObjectCache}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList({ ObjectMapperConfiguration.class, ActivityPubObjectReferenceSerializer.class,
+    JSONLDContextDeserializer.class })
+class ActivityPubObjectCacheTest
+{
+    @InjectMockComponents
+    private ActivityPubObjectCache objectCache;
+
+    @MockComponent
+    private DefaultURLHandler urlHandler;
+
+    @Test
+    void putAndGet()
+    {
+        URI id = URI.create("http://remote.org/users/foo");
+        Person person = new Person().setPreferredUsername("foo").setId(id);
+        this.objectCache.put(person);
+
+        Person cachedPerson = this.objectCache.get(id);
+        assertEquals(person, cachedPerson);
+        assertEquals("foo", cachedPerson.getPreferredUsername());
+        assertNotSame(person, cachedPerson);
+        // The cached instance is decoded once, and then shared.
+        assertSame(cachedPerson, this.objectCache.get(id));
+        assertNull(this.objectCache.get(URI.create("http://remote.org/users/bar")));
+        assertEquals(2, this.objectCache.getHitCount());
+        assertEquals(1, this.objectCache.getMissCount());
+        assertEquals(1, this.objectCache.getSize());
+    }
+
+    @Test
+    void getCopyReturnsCopies()
+    {
+        URI id = URI.create("http://remote.org/users/foo");
+        URI followersId = URI.create("http://remote.org/users/foo/followers");
+        OrderedCollection<Person> followers = new OrderedCollection<Person>()
+            .addItem(new Person().setPreferredUsername("bar").setId(URI.create("http://remote.org/users/bar")));
+        followers.setId(followersId);
+        Person person = new Person()
+            .setPreferredUsername("foo")
+            .setFollowers(new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setLink(followersId))
+            .setId(id);
+        this.objectCache.put(person);
+
+        // Neither the cached object nor its copies are affected by the modifications of the other copies.
+        person.setPreferredUsername("modified");
+        Person firstCopy = this.objectCache.getCopy(id);
+        firstCopy.setName("First");
+        Person secondCopy = this.objectCache.getCopy(id);
+
+        assertNotSame(firstCopy, secondCopy);
+        assertNotSame(this.objectCache.get(id), secondCopy);
+        assertNull(this.objectCache.<Person>get(id).getName());
+        assertEquals("foo", secondCopy.getPreferredUsername());
+        assertNull(secondCopy.getName());
+        assertEquals(followersId, secondCopy.getFollowers().getLink());
+
+        // The resolved references are copied too.
+        this.objectCache.put(followers);
+        OrderedCollection<Person> cachedFollowers = this.objectCache.getCopy(followersId);
+        cachedFollowers.getOrderedItems().clear();
+        assertEquals(1, this.objectCache.<OrderedCollection<Person>>getCopy(followersId).getOrderedItems().size());
+        assertEquals("bar", this.objectCache.<OrderedCollection<Person>>getCopy(followersId).getOrderedItems().get(0)
+            .getObject().getPreferredUsername());
+    }
+
+    @Test
+    void invalidate()
+    {
+        URI id = URI.create("http://remote.org/notes/1");
+        this.objectCache.put(new Note().setId(id));
+        this.objectCache.invalidate(id);
+
+        assertNull(this.objectCache.get(id));
+        assertEquals(0, this.objectCache.getWeight());
+    }
+
+    @Test
+    void evictLeastRecentlyUsed()
+    {
+        // The entries weigh as much as their snapshots: two of those notes fit in the cache, but not three.
+        String content = StringUtils.repeat('a', 6 * 1024 * 1024);
+        URI firstId = URI.create("http://remote.org/notes/first");
+        URI secondId = URI.create("http://remote.org/notes/second");
+        URI thirdId = URI.create("http://remote.org/notes/third");
+        this.objectCache.put(new Note().setContent(content).setId(firstId));
+        this.objectCache.put(new Note().setContent(content).setId(secondId));
+        this.objectCache.get(firstId);
+        long weight = this.objectCache.getWeight();
+
+        // The least recently used note is evicted to make room for the new one.
+        this.objectCache.put(new Note().setContent(content).setId(thirdId));
+
+        assertEquals(thirdId, this.objectCache.get(thirdId).getId());
+        assertNull(this.objectCache.get(secondId));
+        assertEquals(firstId, this.objectCache.get(firstId).getId());
+        assertEquals(1, this.objectCache.getEvictionCount());
+        assertEquals(2, this.objectCache.getSize());
+        assertEquals(weight, this.objectCache.getWeight());
+        assertTrue(weight > 2 * content.length());
+    }
+}
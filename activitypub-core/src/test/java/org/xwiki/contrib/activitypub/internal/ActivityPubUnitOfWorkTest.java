@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal;
+
+import java.net.URI;
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActivityPubUnitOfWork}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class ActivityPubUnitOfWorkTest
+{
+    private static final URI NOTE_ID = URI.create("http://domain.org/xwiki/activitypub/Note/42");
+
+    @InjectMockComponents
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent
+    private ActivityPubStorage storage;
+
+    @BeforeEach
+    void setup(MockitoComponentManager componentManager) throws Exception
+    {
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+        Provider<ActivityPubStorage> storageProvider = componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, Provider.class, ActivityPubStorage.class));
+        when(storageProvider.get()).thenReturn(this.storage);
+    }
+
+    @Test
+    void withoutUnitOfWork()
+    {
+        Note note = new Note().setId(NOTE_ID);
+        this.unitOfWork.register(note);
+
+        assertNull(this.unitOfWork.get(NOTE_ID));
+        assertFalse(this.unitOfWork.defer(note));
+    }
+
+    @Test
+    void identityMap() throws Exception
+    {
+        Note note = new Note().setId(NOTE_ID);
+        this.unitOfWork.begin();
+        this.unitOfWork.register(note);
+        this.unitOfWork.register(new Note().setId(NOTE_ID));
+
+        assertSame(note, this.unitOfWork.get(NOTE_ID));
+        this.unitOfWork.end();
+        assertNull(this.unitOfWork.get(NOTE_ID));
+    }
+
+    @Test
+    void deferUntilOutermostEnd() throws Exception
+    {
+        Note note = new Note().setId(NOTE_ID);
+        this.unitOfWork.begin();
+        this.unitOfWork.begin();
+        assertTrue(this.unitOfWork.defer(note));
+        assertTrue(this.unitOfWork.defer(note));
+        this.unitOfWork.end();
+        verify(this.storage, never()).storeEntities(any());
+
+        // The storage is called while flushing: it must store the entity immediately.
+        when(this.storage.storeEntities(Collections.singletonList(note))).then(invocation -> {
+            assertFalse(this.unitOfWork.defer(note));
+            return Collections.singletonList(NOTE_ID);
+        });
+        this.unitOfWork.end();
+        verify(this.storage, times(1)).storeEntities(Collections.singletonList(note));
+    }
+
+    @Test
+    void flush() throws Exception
+    {
+        Note note = new Note().setId(NOTE_ID);
+        this.unitOfWork.begin();
+        this.unitOfWork.defer(note);
+        this.unitOfWork.flush();
+        verify(this.storage).storeEntities(Collections.singletonList(note));
+
+        // The entity is still part of the unit of work, but it's not dirty anymore.
+        assertSame(note, this.unitOfWork.get(NOTE_ID));
+        this.unitOfWork.end();
+        verify(this.storage, times(1)).storeEntities(any());
+    }
+}
@@ -19,8 +19,13 @@
  */
 package org.xwiki.contrib.activitypub.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.inject.Named;
 import javax.inject.Provider;
@@ -36,9 +41,12 @@ import org.xwiki.contrib.activitypub.ActivityPubClient;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.Accept;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.Person;
 import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
@@ -46,6 +54,7 @@ import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.test.mockito.MockitoComponentManager;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
@@ -76,6 +85,12 @@ public class DefaultActivityPubObjectReferenceResolverTest
     @MockComponent
     private ActivityPubStorage activityPubStorage;
 
+    @MockComponent
+    private ActivityPubObjectCache objectCache;
+
+    @MockComponent
+    private ActivityPubUnitOfWork unitOfWork;
+
     @BeforeEach
     public void setup(MockitoComponentManager componentManager) throws Exception
     {
@@ -110,18 +125,68 @@ public class DefaultActivityPubObjectReferenceResolverTest
     }
 
     @Test
-    public void resolveReferenceObjectNullNotStored() throws Exception
+    public void resolveReferenceRemoteWithAnotherIdentifier() throws Exception
     {
         Accept t = new Accept();
         HttpMethod hm = mock(HttpMethod.class);
-        when(hm.getResponseBodyAsString()).thenReturn("{accept}");
+        InputStream responseBody = new ByteArrayInputStream("{accept}".getBytes(StandardCharsets.UTF_8));
+        when(this.activityPubClient.getResponseBodyAsStream(hm)).thenReturn(responseBody);
         URI uri = URI.create("http://test/create/1");
         ActivityPubObjectReference<ActivityPubObject> reference = new ActivityPubObjectReference<>().setLink(uri);
         when(this.activityPubClient.get(uri)).thenReturn(hm);
-        when(this.activityPubJsonParser.parse("{accept}")).thenReturn(t);
+        when(this.activityPubJsonParser.parse(responseBody)).thenReturn(t);
+        // The object doesn't have the requested identifier.
+        ActivityPubException e = assertThrows(ActivityPubException.class,
+            () -> this.defaultActivityPubObjectReferenceResolver.resolveReference(reference));
+        assertEquals("The object retrieved from [http://test/create/1] has another identifier [null].",
+            e.getMessage());
+        assertNull(reference.getObject());
+        verify(this.activityPubStorage).retrieveEntity(uri);
+        verify(this.objectCache, never()).put(t);
+    }
+
+    @Test
+    public void resolveReferenceNotStoredIsCached() throws Exception
+    {
+        URI uri = URI.create("http://test/create/1");
+        Accept t = new Accept().setId(uri);
+        HttpMethod hm = mock(HttpMethod.class);
+        InputStream responseBody = new ByteArrayInputStream("{accept}".getBytes(StandardCharsets.UTF_8));
+        when(this.activityPubClient.getResponseBodyAsStream(hm)).thenReturn(responseBody);
+        when(this.activityPubClient.get(uri)).thenReturn(hm);
+        when(this.activityPubJsonParser.parse(responseBody)).thenReturn(t);
+        assertSame(t, this.defaultActivityPubObjectReferenceResolver
+            .resolveReference(new ActivityPubObjectReference<>().setLink(uri)));
+        verify(this.objectCache).put(t);
+    }
+
+    @Test
+    public void resolveReferenceCached() throws Exception
+    {
+        Accept t = new Accept();
+        URI uri = URI.create("http://test/create/1");
+        ActivityPubObjectReference<ActivityPubObject> reference = new ActivityPubObjectReference<>().setLink(uri);
+        when(this.objectCache.get(uri)).thenReturn(t);
         assertSame(t, this.defaultActivityPubObjectReferenceResolver.resolveReference(reference));
         assertSame(t, reference.getObject());
-        verify(this.activityPubStorage).retrieveEntity(uri);
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+        verify(this.activityPubClient, never()).get(any());
+    }
+
+    @Test
+    public void resolveReferenceCachedInUnitOfWork() throws Exception
+    {
+        Accept copy = new Accept();
+        URI uri = URI.create("http://test/create/1");
+        copy.setId(uri);
+        ActivityPubObjectReference<ActivityPubObject> reference = new ActivityPubObjectReference<>().setLink(uri);
+        when(this.unitOfWork.isActive()).thenReturn(true);
+        when(this.objectCache.getCopy(uri)).thenReturn(copy);
+
+        // The object might be modified in the unit of work: the shared cached instance is not used.
+        assertSame(copy, this.defaultActivityPubObjectReferenceResolver.resolveReference(reference));
+        verify(this.unitOfWork).register(copy);
+        verify(this.objectCache, never()).get(any());
     }
 
     @Test
@@ -134,6 +199,7 @@ public class DefaultActivityPubObjectReferenceResolverTest
         assertSame(t, this.defaultActivityPubObjectReferenceResolver.resolveReference(reference));
         assertSame(t, reference.getObject());
         verify(this.activityPubClient, never()).get(uri);
+        verify(this.objectCache).put(t);
     }
 
     @Test
@@ -146,4 +212,67 @@ public class DefaultActivityPubObjectReferenceResolverTest
             () -> this.defaultActivityPubObjectReferenceResolver.resolveReference(reference));
         assertEquals("Error when retrieving the ActivityPub information from [http://test/create/1]", e.getMessage());
     }
+
+    @Test
+    public void resolveReferences() throws Exception
+    {
+        URI cachedURI = URI.create("http://test/create/1");
+        URI storedURI = URI.create("http://test/create/2");
+        URI remoteURI = URI.create("http://test/create/3");
+        URI errorURI = URI.create("http://test/create/4");
+        Accept cached = new Accept().setId(cachedURI);
+        Accept stored = new Accept().setId(storedURI);
+        Accept remote = new Accept().setId(remoteURI);
+        Accept loaded = new Accept();
+        when(this.objectCache.get(cachedURI)).thenReturn(cached);
+        when(this.activityPubStorage.retrieveEntities(Arrays.asList(storedURI, remoteURI, errorURI)))
+            .thenReturn(Arrays.asList(stored, null, null));
+        HttpMethod hm = mock(HttpMethod.class);
+        InputStream responseBody = new ByteArrayInputStream("{accept}".getBytes(StandardCharsets.UTF_8));
+        when(this.activityPubClient.get(remoteURI)).thenReturn(hm);
+        when(this.activityPubClient.getResponseBodyAsStream(hm)).thenReturn(responseBody);
+        when(this.activityPubJsonParser.parse(responseBody)).thenReturn(remote);
+        when(this.activityPubClient.get(errorURI)).thenThrow(new IOException(""));
+
+        ActivityPubObjectReference<ActivityPubObject> storedReference =
+            new ActivityPubObjectReference<>().setLink(storedURI);
+        List<ActivityPubObjectReference<ActivityPubObject>> references = Arrays.asList(
+            new ActivityPubObjectReference<>().setObject(loaded),
+            new ActivityPubObjectReference<>().setLink(cachedURI),
+            storedReference,
+            new ActivityPubObjectReference<>().setLink(remoteURI),
+            new ActivityPubObjectReference<>().setLink(errorURI),
+            new ActivityPubObjectReference<>().setLink(storedURI));
+
+        assertEquals(Arrays.asList(loaded, cached, stored, remote, null, stored),
+            this.defaultActivityPubObjectReferenceResolver.resolveReferences(references));
+        assertSame(stored, storedReference.getObject());
+        // The storage is requested once for all the entities which are not cached.
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+        verify(this.activityPubClient, never()).get(storedURI);
+        verify(this.objectCache).put(stored);
+        verify(this.objectCache).put(remote);
+    }
+
+    @Test
+    public void resolveItems() throws Exception
+    {
+        URI followersURI = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-followers");
+        URI follower = URI.create("http://www.xwiki.org/xwiki/activitypub/Person/bar");
+        when(this.activityPubStorage.retrieveItems(followersURI)).thenReturn(Arrays.asList(follower));
+
+        // The items of a stored collection are retrieved from the storage.
+        OrderedCollection<AbstractActor> followers = new OrderedCollection<AbstractActor>().setId(followersURI);
+        assertEquals(Arrays.asList(new ActivityPubObjectReference<AbstractActor>().setLink(follower)),
+            this.defaultActivityPubObjectReferenceResolver.resolveItems(followers));
+
+        // The items of a collection which is not stored are directly returned.
+        Person person = new Person().setId(URI.create("http://remote/person/baz"));
+        OrderedCollection<AbstractActor> remoteFollowers = new OrderedCollection<AbstractActor>()
+            .addItem(person)
+            .setId(URI.create("http://remote/followers"));
+        assertEquals(Arrays.asList(person.getReference()),
+            this.defaultActivityPubObjectReferenceResolver.resolveItems(remoteFollowers));
+        verify(this.activityPubStorage, never()).retrieveItems(URI.create("http://remote/followers"));
+    }
 }
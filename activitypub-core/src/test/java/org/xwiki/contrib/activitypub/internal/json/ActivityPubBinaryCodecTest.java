@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.AbstractEntityTest;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test of {@link ActivityPubBinaryCodec}.
+ *
+ * @version $Id$
+ */
+public class ActivityPubBinaryCodecTest extends AbstractEntityTest
+{
+    @InjectMockComponents
+    private ActivityPubBinaryCodec binaryCodec;
+
+    @Test
+    void encodeAndDecode() throws Exception
+    {
+        Create create = new Create()
+            .setActor(new ActivityPubObjectReference<AbstractActor>()
+                .setLink(new URI("https://social.example/alyssa/")))
+            .setObject(new ActivityPubObjectReference<Note>()
+                .setLink(new URI("https://social.example/alyssa/posts/1")))
+            .setId(new URI("https://social.example/alyssa/posts/2"))
+            .setSummary("Alyssa created a note");
+
+        byte[] content = this.binaryCodec.encode(create);
+        assertEquals(ActivityPubBinaryCodec.FORMAT_VERSION, content[0]);
+        assertTrue(content.length < this.wireSerializer.serialize(create).length());
+        assertEquals(create, this.binaryCodec.decode(content));
+    }
+
+    @Test
+    void decodeUnsupportedFormat()
+    {
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.binaryCodec.decode(new byte[] { 42, 1 }));
+        assertEquals("Unsupported format version [42].", exception.getMessage());
+    }
+}
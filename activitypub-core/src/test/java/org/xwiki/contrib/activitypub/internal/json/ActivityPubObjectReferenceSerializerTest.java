@@ -22,33 +22,20 @@ package org.xwiki.contrib.activitypub.internal.json;
 import java.io.IOException;
 import java.net.URI;
 
-import javax.inject.Named;
-
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.Mock;
-import org.xwiki.component.manager.ComponentManager;
-import org.xwiki.contrib.activitypub.ActivityPubException;
-import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
-import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.entities.Accept;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
-import org.xwiki.resource.ResourceReferenceSerializer;
-import org.xwiki.resource.SerializeResourceReferenceException;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
-import org.xwiki.test.junit5.mockito.MockComponent;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 /**
  * Test of {@link ActivityPubObjectReferenceSerializer}.
@@ -62,22 +49,6 @@ public class ActivityPubObjectReferenceSerializerTest
     @InjectMockComponents
     private ActivityPubObjectReferenceSerializer activityPubObjectReferenceSerializer;
 
-    @MockComponent
-    private ResourceReferenceSerializer<ActivityPubResourceReference, URI> activityPubResourceReferenceSerializer;
-
-    @MockComponent
-    @Named("context")
-    private ComponentManager componentManager;
-
-    @Mock
-    private ActivityPubStorage activityPubStorage;
-
-    @BeforeEach
-    public void setup() throws Exception
-    {
-        when(this.componentManager.getInstance(ActivityPubStorage.class)).thenReturn(this.activityPubStorage);
-    }
-
     @Test
     void serializeIsLink() throws IOException
     {
@@ -92,29 +63,25 @@ public class ActivityPubObjectReferenceSerializerTest
     @Test
     void serializeIsObject() throws Exception
     {
-        Accept object = new Accept();
+        String uriString = "http://newuri";
+        Accept object = new Accept().setId(URI.create(uriString));
         ActivityPubObjectReference<ActivityPubObject> ref = new ActivityPubObjectReference<>().setObject(object);
         JsonGenerator jsonGenerator = mock(JsonGenerator.class);
         SerializerProvider serializeProvider = mock(SerializerProvider.class);
-        String uriString = "http://newuri";
-        when(this.activityPubStorage.storeEntity(object)).thenReturn(URI.create(uriString));
 
         this.activityPubObjectReferenceSerializer.serialize(ref, jsonGenerator, serializeProvider);
         verify(jsonGenerator).writeString(uriString);
     }
 
     @Test
-    void serializeSerializeResourceReferenceException() throws Exception
+    void serializeIsObjectNotStored()
     {
         ActivityPubObjectReference<ActivityPubObject> ref =
             new ActivityPubObjectReference<>().setObject(new Accept());
         JsonGenerator jsonGenerator = mock(JsonGenerator.class);
         SerializerProvider serializeProvider = mock(SerializerProvider.class);
-        when(this.activityPubStorage.storeEntity(any())).thenThrow(new ActivityPubException("Error when storing"));
         IOException e = assertThrows(IOException.class,
             () -> this.activityPubObjectReferenceSerializer.serialize(ref, jsonGenerator, serializeProvider));
-
-        // TODO replace with assertEquals when a proper toString is available on AbstractActivity classes.
-        assertTrue(e.getMessage().startsWith("Error when serializing ["));
+        assertTrue(e.getMessage().endsWith("the object has not been stored."));
     }
 }
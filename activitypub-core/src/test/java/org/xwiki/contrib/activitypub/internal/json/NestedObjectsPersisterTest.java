@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.json;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Announce;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Document;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Test of {@link NestedObjectsPersister}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList({ ObjectMapperConfiguration.class, ActivityPubObjectReferenceSerializer.class,
+    JSONLDContextDeserializer.class })
+public class NestedObjectsPersisterTest
+{
+    @InjectMockComponents
+    private NestedObjectsPersister nestedObjectsPersister;
+
+    @MockComponent
+    private ActivityPubStorage storage;
+
+    @MockComponent
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @Test
+    void persistNestedObjectsWithoutId() throws Exception
+    {
+        Note note = new Note().setContent("Hello");
+        Create create = new Create()
+            .setActor(new ActivityPubObjectReference<AbstractActor>().setLink(URI.create("http://actor")))
+            .setObject(note);
+
+        this.nestedObjectsPersister.persist(create);
+
+        InOrder inOrder = inOrder(this.unitOfWork, this.storage);
+        inOrder.verify(this.unitOfWork).begin();
+        inOrder.verify(this.storage).storeEntity(note);
+        inOrder.verify(this.unitOfWork).end();
+        verify(this.storage, never()).storeEntity(create);
+    }
+
+    @Test
+    void persistObjectsOfExpandedReferences() throws Exception
+    {
+        Document document = new Document().setName("Foo");
+        Create create = new Create().setObject(document);
+        Announce announce = new Announce().setObject(new ActivityPubObjectReference<Create>()
+            .setObject(create)
+            .setExpand(true));
+
+        this.nestedObjectsPersister.persist(announce);
+
+        // The expanded activity is serialized inline: only its own object needs to be stored.
+        verify(this.storage).storeEntity(document);
+        verify(this.storage, never()).storeEntity(create);
+    }
+
+    @Test
+    void persistWithoutNestedObjectToStore() throws Exception
+    {
+        Note note = new Note().setId(URI.create("http://note"));
+        Create create = new Create()
+            .setObject(note)
+            .setId(URI.create("http://create"));
+
+        this.nestedObjectsPersister.persist(create);
+
+        verify(this.storage, never()).storeEntity(any());
+        verifyNoInteractions(this.unitOfWork);
+    }
+}
@@ -19,6 +19,10 @@
  */
 package org.xwiki.contrib.activitypub;
 
+import java.net.URI;
+
+import javax.servlet.http.HttpServletRequest;
+
 import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Role;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
@@ -35,7 +39,8 @@ import org.xwiki.stability.Unstable;
 public interface SignatureService
 {
     /**
-     * Generate the signature of a message send to an external ActivityPub inbox.
+     * Generate the signature of a message send to an external ActivityPub inbox. The {@code Digest} of the body is
+     * added to the request and signed along with its target, host and date.
      *
      * @param postMethod The post method to sign.
      * @param actor the actor who posts the message.
@@ -52,4 +57,38 @@ public interface SignatureService
      * @throws ActivityPubException in case of error during the key generation.
      */
     String getPublicKeyPEM(AbstractActor actor) throws ActivityPubException;
+
+    /**
+     * Verify the HTTP signature of an incoming request. Only the headers of the request are used, so that forged
+     * requests can be rejected before reading their body: the signature of a POST request must then cover its
+     * {@code Digest} header, which is checked against the body with {@link #verifyDigest(HttpServletRequest, byte[])}.
+     *
+     * @param request the request to verify.
+     * @return the identifier of the actor who signed the request.
+     * @throws ActivityPubException if the request is not signed, or if the signature cannot be verified.
+     * @since 1.2
+     */
+    URI verifySignature(HttpServletRequest request) throws ActivityPubException;
+
+    /**
+     * Verify the {@code Digest} header of an incoming request against its body.
+     *
+     * @param request the request to verify.
+     * @param body the raw bytes of the body of the request, as received.
+     * @throws ActivityPubException if the request doesn't have any digest, or if the digest of the body does not
+     *             match the header.
+     * @since 1.2
+     */
+    void verifyDigest(HttpServletRequest request, byte[] body) throws ActivityPubException;
+
+    /**
+     * Forget the keys of an actor which might have been kept in memory, so that they are read again from the key
+     * store the next time they are needed. It must be called when the keys of the actor are issued again, or when
+     * the actor is removed.
+     *
+     * @param actor the actor whose keys are not valid anymore.
+     * @throws ActivityPubException in case of error when finding the keys of the actor.
+     * @since 1.2
+     */
+    void invalidate(AbstractActor actor) throws ActivityPubException;
 }
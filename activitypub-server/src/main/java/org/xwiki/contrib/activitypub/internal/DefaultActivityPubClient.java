@@ -20,7 +20,10 @@
 package org.xwiki.contrib.activitypub.internal;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -28,15 +31,15 @@ import javax.inject.Singleton;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.activitypub.ActivityPubClient;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
@@ -54,7 +57,7 @@ import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
  */
 @Component
 @Singleton
-public class DefaultActivityPubClient implements ActivityPubClient
+public class DefaultActivityPubClient implements ActivityPubClient, Initializable
 {
     private static final String CONTENT_TYPE_HEADER_NAME = "Content-Type";
 
@@ -72,17 +75,14 @@ public class DefaultActivityPubClient implements ActivityPubClient
     @Inject
     private ActivityPubObjectReferenceResolver resolver;
 
-    /**
-     * Default constructor.
-     */
-    public DefaultActivityPubClient()
+    @Inject
+    private ActivityPubHttpClientManager httpClientManager;
+
+    @Override
+    public void initialize() throws InitializationException
     {
-        // The 1000 value is an arbitrarily large value, see https://jira.xwiki.org/browse/XAP-25
-        MultiThreadedHttpConnectionManager httpConnectionManager = new MultiThreadedHttpConnectionManager();
-        HttpConnectionManagerParams params = httpConnectionManager.getParams();
-        params.setMaxTotalConnections(10000);
-        params.setDefaultMaxConnectionsPerHost(10000);
-        this.httpClient = new HttpClient(httpConnectionManager);
+        // The connections are shared with the other outbound requests, and bounded by timeouts.
+        this.httpClient = this.httpClientManager.getHttpClient();
     }
 
     /**
@@ -133,9 +133,18 @@ public class DefaultActivityPubClient implements ActivityPubClient
 
     @Override
     public HttpMethod get(URI uri) throws IOException
+    {
+        return this.get(uri, Collections.emptyMap());
+    }
+
+    @Override
+    public HttpMethod get(URI uri, Map<String, String> headers) throws IOException
     {
         GetMethod getMethod = new GetMethod(uri.toASCIIString());
         getMethod.addRequestHeader("Accept", CONTENT_TYPE_STRICT);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            getMethod.addRequestHeader(header.getKey(), header.getValue());
+        }
         this.httpClient.executeMethod(getMethod);
         return getMethod;
     }
@@ -164,6 +173,12 @@ public class DefaultActivityPubClient implements ActivityPubClient
         return false;
     }
 
+    @Override
+    public InputStream getResponseBodyAsStream(HttpMethod method) throws IOException
+    {
+        return this.httpClientManager.getResponseBodyAsStream(method);
+    }
+
     @Override
     public void checkAnswer(HttpMethod method) throws ActivityPubException
     {
@@ -173,7 +188,7 @@ public class DefaultActivityPubClient implements ActivityPubClient
         } else if (method.getStatusCode() >= 400 && method.getStatusCode() < 600) {
             String responseBody = null;
             try {
-                responseBody = method.getResponseBodyAsString();
+                responseBody = this.httpClientManager.getResponseBodyAsString(method);
             } catch (IOException e) {
                 this.logger.error("Cannot retrieve response body of a request.", e);
             }
@@ -50,6 +50,7 @@ import org.xwiki.contrib.activitypub.ActorHandler;
 import org.xwiki.contrib.activitypub.SignatureService;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
 import org.xwiki.contrib.activitypub.entities.Inbox;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Outbox;
@@ -178,6 +179,9 @@ public class DefaultActorHandler implements ActorHandler
                 String fullname = String.format("%s %s", userProperties.getFirstName(), userProperties.getLastName());
                 DocumentReference dr = this.xWikiUserBridge.getDocumentReference(userReference);
                 actor = this.createActor(new Person(), fullname, dr.getName(), dr.getWikiReference().getName());
+            } else if (isMissingEndpoints(actor)) {
+                DocumentReference dr = this.xWikiUserBridge.getDocumentReference(userReference);
+                this.issueEndpoints(actor, dr.getWikiReference().getName());
             }
             return actor;
         } else {
@@ -200,6 +204,8 @@ public class DefaultActorHandler implements ActorHandler
         if (actor == null) {
             String name = String.format("Wiki %s", login);
             actor = this.createActor(new Service(), name, null, login);
+        } else if (isMissingEndpoints(actor)) {
+            this.issueEndpoints(actor, login);
         }
         return actor;
     }
@@ -232,10 +238,14 @@ public class DefaultActorHandler implements ActorHandler
         this.activityPubStorage.storeEntity(followers);
         actor.setFollowers(new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(followers));
 
+        actor.setEndpoints(new Endpoints().setSharedInbox(this.getSharedInbox(wikiName)));
+
         // We need to store first the actor, so we set the ID which is used for the publickey
         // TODO: this would need to be improved, for example by directly storing the publickey in the DB.
         this.activityPubStorage.storeEntity(actor);
 
+        // The keys of a former actor with the same user or wiki might still be cached.
+        this.signatureService.invalidate(actor);
         PublicKey publicKey = this.initPublicKey(actor);
         actor.setPublicKey(publicKey);
 
@@ -243,6 +253,32 @@ public class DefaultActorHandler implements ActorHandler
         return actor;
     }
 
+    private static boolean isMissingEndpoints(AbstractActor actor)
+    {
+        return actor.getEndpoints() == null || actor.getEndpoints().getSharedInbox() == null;
+    }
+
+    /**
+     * The actors created before the shared inboxes were introduced don't advertise them: they are added the first
+     * time those actors are loaded.
+     */
+    private void issueEndpoints(AbstractActor actor, String wikiName) throws ActivityPubException
+    {
+        actor.setEndpoints(new Endpoints().setSharedInbox(this.getSharedInbox(wikiName)));
+        this.activityPubStorage.storeEntity(actor);
+    }
+
+    private URI getSharedInbox(String wikiName) throws ActivityPubException
+    {
+        try {
+            return this.serializer.serialize(
+                new ActivityPubResourceReference(ActivityPubResourceReference.SHARED_INBOX_TYPE, wikiName));
+        } catch (SerializeResourceReferenceException | UnsupportedResourceReferenceException e) {
+            throw new ActivityPubException(
+                String.format("Error while serializing the reference of the shared inbox of [%s]", wikiName), e);
+        }
+    }
+
     @Override
     public UserReference getXWikiUserReference(Person actor) throws ActivityPubException
     {
@@ -444,7 +480,7 @@ public class DefaultActorHandler implements ActorHandler
         HttpMethod httpMethod = this.activityPubClient.get(actorURI);
         try {
             this.activityPubClient.checkAnswer(httpMethod);
-            return this.jsonParser.parse(httpMethod.getResponseBodyAsStream());
+            return this.jsonParser.parse(this.activityPubClient.getResponseBodyAsStream(httpMethod));
         } catch (ActivityPubException e) {
             this.logger.debug("Error when querying the ActivityPub actor from [{}].", actorURI, e);
         } finally {
@@ -471,6 +507,21 @@ public class DefaultActorHandler implements ActorHandler
         }
     }
 
+    @Override
+    public Endpoints initEndpoints(AbstractActor actor) throws ActivityPubException
+    {
+        String wikiName;
+        if (actor instanceof Service) {
+            wikiName = this.getXWikiWikiReference((Service) actor).getName();
+        } else if (actor instanceof Person && this.isLocalActor(actor)) {
+            wikiName = this.xWikiUserBridge.getDocumentReference(this.getUserReference((Person) actor))
+                .getWikiReference().getName();
+        } else {
+            throw new ActivityPubException(String.format("Cannot find the wiki of the actor [%s].", actor));
+        }
+        return new Endpoints().setSharedInbox(this.getSharedInbox(wikiName));
+    }
+
     @Override
     public PublicKey initPublicKey(AbstractActor actor) throws ActivityPubException
     {
@@ -43,8 +43,8 @@ import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Inbox;
-import org.xwiki.contrib.activitypub.entities.Outbox;
 import org.xwiki.contrib.activitypub.entities.ProxyActor;
+import org.xwiki.contrib.activitypub.internal.delivery.ActivityDeliveryService;
 
 /**
  * Abstract handler for all {@link ActivityHandler}.
@@ -75,6 +75,9 @@ public abstract class AbstractActivityHandler<T extends AbstractActivity> implem
     @Inject
     protected ActivityPubConfiguration activityPubConfiguration;
 
+    @Inject
+    protected ActivityDeliveryService deliveryService;
+
     @Inject
     protected Logger logger;
 
@@ -121,14 +124,11 @@ public abstract class AbstractActivityHandler<T extends AbstractActivity> implem
                 }
             }
 
-            for (ActivityPubObjectReference<AbstractActor> actorReference : targetActors) {
-                try {
-                    resolvedTargets.actorTargets.add(
-                        this.activityPubObjectReferenceResolver.resolveReference(actorReference));
-                } catch (ActivityPubException e) {
-                    // FIXME: for now we only log the error, in the future it would need a specific handling
-                    // to try again later. See XAP-39
-                    this.logger.error("Cannot resolve actor [{}].", actorReference, e);
+            // The target actors are resolved all at once: the actors which cannot be resolved are logged and skipped.
+            // FIXME: in the future it would need a specific handling to try again later. See XAP-39
+            for (AbstractActor actor : this.activityPubObjectReferenceResolver.resolveReferences(targetActors)) {
+                if (actor != null) {
+                    resolvedTargets.actorTargets.add(actor);
                 }
             }
         }
@@ -146,14 +146,27 @@ public abstract class AbstractActivityHandler<T extends AbstractActivity> implem
     }
 
     /**
-     * Helper method to return the actual {@link Outbox} from an {@link AbstractActor}.
-     * @param actor the actor from which to retrieve the outbox
-     * @return a concrete instance of outbox
-     * @throws ActivityPubException in case of error when resolving the reference.
+     * Helper method to append an activity to the inbox of an actor.
+     * @param actor the actor whose inbox should contain the activity
+     * @param activity the activity to append, it must have an ID
+     * @throws ActivityPubException in case of error when storing the activity in the inbox.
+     * @since 1.2
+     */
+    protected void addToInbox(AbstractActor actor, AbstractActivity activity) throws ActivityPubException
+    {
+        this.activityPubStorage.appendItem(actor.getInbox().getLink(), activity.getId());
+    }
+
+    /**
+     * Helper method to append an activity to the outbox of an actor.
+     * @param actor the actor whose outbox should contain the activity
+     * @param activity the activity to append, it must have an ID
+     * @throws ActivityPubException in case of error when storing the activity in the outbox.
+     * @since 1.2
      */
-    protected Outbox getOutbox(AbstractActor actor) throws ActivityPubException
+    protected void addToOutbox(AbstractActor actor, AbstractActivity activity) throws ActivityPubException
     {
-        return this.activityPubObjectReferenceResolver.resolveReference(actor.getOutbox());
+        this.activityPubStorage.appendItem(actor.getOutbox().getLink(), activity.getId());
     }
 
     /**
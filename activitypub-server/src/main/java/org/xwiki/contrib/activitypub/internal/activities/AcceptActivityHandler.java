@@ -20,13 +20,12 @@
 package org.xwiki.contrib.activitypub.internal.activities;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.Collections;
-import java.util.List;
 
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityRequest;
@@ -64,14 +63,7 @@ public class AcceptActivityHandler extends AbstractActivityHandler<Accept>
                 Follow follow = (Follow) object;
                 AbstractActor followingActor =
                     this.activityPubObjectReferenceResolver.resolveReference(follow.getActor());
-                OrderedCollection<AbstractActor> followingActorfollowings =
-                    this.activityPubObjectReferenceResolver.resolveReference(followingActor.getFollowing());
-
-                boolean found = this.isDuplicate(followingActorfollowings, acceptingActor, followingActor);
-                if (!found) {
-                    followingActorfollowings.addItem(acceptingActor);
-                }
-                this.activityPubStorage.storeEntity(followingActorfollowings);
+                this.addToCollection(followingActor.getFollowing(), acceptingActor);
 
                 this.notifier.notify(accept, Collections.singleton(followingActor));
                 this.answer(activityRequest.getResponse(), HttpServletResponse.SC_OK, accept);
@@ -83,26 +75,23 @@ public class AcceptActivityHandler extends AbstractActivityHandler<Accept>
     }
 
     /**
-     * Search for a duplicate in the following list. 
-     * @param list the list of following 
-     * @param acceptingActor the actor being followed.
-     * @param followingActor the actor who follows.
-     * @return true if a duplicate is found.
-     * @throws ActivityPubException In case of error when resolving references.
+     * Append an actor to a followers or following collection, unless it already belongs to it. The membership is
+     * checked on the item record of the collection, without loading the collection nor resolving its items.
+     *
+     * @param collection the reference to the collection.
+     * @param actor the actor to append.
+     * @throws ActivityPubException in case of error when checking or appending the item.
      */
-    private boolean isDuplicate(OrderedCollection<AbstractActor> list, AbstractActor acceptingActor,
-        AbstractActor followingActor) throws ActivityPubException
+    private void addToCollection(ActivityPubObjectReference<OrderedCollection<AbstractActor>> collection,
+        AbstractActor actor) throws ActivityPubException
     {
-        List<ActivityPubObjectReference<AbstractActor>> lst = list.getOrderedItems();
-        boolean found = false;
-        for (ActivityPubObjectReference<AbstractActor> x : lst) {
-            AbstractActor rx = this.activityPubObjectReferenceResolver.resolveReference(x);
-            if (rx.equals(followingActor) || rx.equals(acceptingActor)) {
-                found = true;
-                break;
-            }
+        if (collection == null) {
+            throw new ActivityPubException(String.format("Cannot add [%s] to a missing collection.", actor.getId()));
+        }
+        URI collectionId = collection.getLink();
+        if (!this.activityPubStorage.containsItem(collectionId, actor.getId())) {
+            this.activityPubStorage.appendItem(collectionId, actor.getId());
         }
-        return found;
     }
 
     @Override
@@ -118,24 +107,10 @@ public class AcceptActivityHandler extends AbstractActivityHandler<Accept>
         if (object instanceof Follow) {
             Follow follow = (Follow) object;
             AbstractActor followingActor = this.activityPubObjectReferenceResolver.resolveReference(follow.getActor());
-            OrderedCollection<AbstractActor> acceptingActorFollowers =
-                this.activityPubObjectReferenceResolver.resolveReference(acceptingActor.getFollowers());
-            boolean found = this.isDuplicate(acceptingActorFollowers, acceptingActor, followingActor);
-            if (!found) {
-                acceptingActorFollowers.addItem(followingActor);
-            }
-            this.activityPubStorage.storeEntity(acceptingActorFollowers);
+            this.addToCollection(acceptingActor.getFollowers(), followingActor);
 
             accept.getObject().setExpand(true);
-            HttpMethod postMethod = this.activityPubClient.postInbox(followingActor, accept);
-            try {
-                this.activityPubClient.checkAnswer(postMethod);
-            } catch (ActivityPubException e) {
-                // FIXME: in that case is the final answer still a 200 OK?
-                this.logger.error("Error while posting the accept to the following user.", e);
-            } finally {
-                postMethod.releaseConnection();
-            }
+            this.deliveryService.deliver(accept, Collections.singleton(followingActor));
 
             this.answer(activityRequest.getResponse(), HttpServletResponse.SC_OK, accept);
         } else {
@@ -25,7 +25,6 @@ import java.util.Collections;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityRequest;
@@ -33,9 +32,7 @@ import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Announce;
-import org.xwiki.contrib.activitypub.entities.Inbox;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
-import org.xwiki.contrib.activitypub.entities.Outbox;
 
 /**
  * Specific handler for {@link org.xwiki.contrib.activitypub.entities.Announce} activities.
@@ -59,13 +56,10 @@ public class AnnounceActivityHandler extends AbstractActivityHandler<Announce>
                 announce.getObject().setExpand(true);
             }
             AbstractActor actor = activityRequest.getActor();
-            Inbox inbox = this.getInbox(actor);
-            inbox.addActivity(announce);
-            this.activityPubStorage.storeEntity(inbox);
+            this.addToInbox(actor, announce);
             ActivityPubObject object = this.getOrPersist(announce.getObject());
             ActivityPubObjectReference<OrderedCollection<Announce>> shares = this.getSharesOrInit(object);
-
-            shares.getObject().addItem(announce);
+            this.activityPubStorage.appendItem(shares.getLink(), announce.getId());
 
             this.activityPubStorage.storeEntity(object);
             this.notifier.notify(announce, Collections.singleton(actor));
@@ -90,6 +84,7 @@ public class AnnounceActivityHandler extends AbstractActivityHandler<Announce>
             OrderedCollection<Announce> announces = new OrderedCollection<>();
             this.activityPubStorage.storeEntity(announces);
             shares = new ActivityPubObjectReference<OrderedCollection<Announce>>().setObject(announces);
+            activityPubObject.setShares(shares);
         }
         return shares;
     }
@@ -114,25 +109,12 @@ public class AnnounceActivityHandler extends AbstractActivityHandler<Announce>
         }
 
         AbstractActor actor = activityRequest.getActor();
-        Outbox outbox = this.getOutbox(actor);
-        outbox.addActivity(announce);
-        this.activityPubStorage.storeEntity(outbox);
+        this.addToOutbox(actor, announce);
 
         ResolvedTargets resolvedTargets = this.getTargets(announce);
 
-        for (AbstractActor targetActor : resolvedTargets.getActorTargets()) {
-            announce.getObject().setExpand(true);
-            HttpMethod postMethod = this.activityPubClient.postInbox(targetActor, announce);
-
-            try {
-                this.activityPubClient.checkAnswer(postMethod);
-            } catch (ActivityPubException e) {
-                // FIXME: in that case is the final answer still a 200 OK?
-                this.logger.error("The sharing to followers didn't go well.", e);
-            } finally {
-                postMethod.releaseConnection();
-            }
-        }
+        announce.getObject().setExpand(true);
+        this.deliveryService.deliver(announce, resolvedTargets.getActorTargets());
         this.answer(activityRequest.getResponse(), HttpServletResponse.SC_OK, announce);
     }
 }
@@ -25,15 +25,12 @@ import java.util.Collections;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityRequest;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.Create;
-import org.xwiki.contrib.activitypub.entities.Inbox;
-import org.xwiki.contrib.activitypub.entities.Outbox;
 
 /**
  * Specific handler for {@link Create} activities.
@@ -53,9 +50,7 @@ public class CreateActivityHandler extends AbstractActivityHandler<Create>
                 "The ID of the activity must not be null.");
         } else {
             AbstractActor actor = activityRequest.getActor();
-            Inbox inbox = this.getInbox(actor);
-            inbox.addActivity(create);
-            this.activityPubStorage.storeEntity(inbox);
+            this.addToInbox(actor, create);
             ActivityPubObject entity = this.activityPubObjectReferenceResolver.resolveReference(create.getObject());
             this.activityPubStorage.storeEntity(entity);
             this.notifier.notify(create, Collections.singleton(actor));
@@ -73,25 +68,12 @@ public class CreateActivityHandler extends AbstractActivityHandler<Create>
         }
 
         AbstractActor actor = activityRequest.getActor();
-        Outbox outbox = this.getOutbox(actor);
-        outbox.addActivity(create);
-        this.activityPubStorage.storeEntity(outbox);
+        this.addToOutbox(actor, create);
 
         ResolvedTargets resolvedTargets = this.getTargets(create);
 
-        for (AbstractActor targetActor : resolvedTargets.getActorTargets()) {
-            create.getObject().setExpand(true);
-            HttpMethod postMethod = this.activityPubClient.postInbox(targetActor, create);
-
-            try {
-                this.activityPubClient.checkAnswer(postMethod);
-            } catch (ActivityPubException e) {
-                // FIXME: in that case is the final answer still a 200 OK?
-                this.logger.error("The sharing to followers didn't go well.", e);
-            } finally {
-                postMethod.releaseConnection();
-            }
-        }
+        create.getObject().setExpand(true);
+        this.deliveryService.deliver(create, resolvedTargets.getActorTargets());
         this.answer(activityRequest.getResponse(), HttpServletResponse.SC_OK, create);
     }
 }
@@ -25,14 +25,11 @@ import java.util.Collections;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.httpclient.HttpMethod;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityRequest;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
-import org.xwiki.contrib.activitypub.entities.Inbox;
-import org.xwiki.contrib.activitypub.entities.Outbox;
 import org.xwiki.contrib.activitypub.entities.Update;
 
 /**
@@ -54,9 +51,7 @@ public class UpdateActivityHandler extends AbstractActivityHandler<Update>
                 "The ID of the activity must not be null.");
         } else {
             AbstractActor actor = activityRequest.getActor();
-            Inbox inbox = this.getInbox(actor);
-            inbox.addActivity(update);
-            this.activityPubStorage.storeEntity(inbox);
+            this.addToInbox(actor, update);
             ActivityPubObject entity = this.activityPubObjectReferenceResolver.resolveReference(update.getObject());
             this.activityPubStorage.storeEntity(entity);
             this.notifier.notify(update, Collections.singleton(actor));
@@ -74,25 +69,12 @@ public class UpdateActivityHandler extends AbstractActivityHandler<Update>
         }
 
         AbstractActor actor = activityRequest.getActor();
-        Outbox outbox = this.getOutbox(actor);
-        outbox.addActivity(update);
-        this.activityPubStorage.storeEntity(outbox);
+        this.addToOutbox(actor, update);
 
         ResolvedTargets resolvedTargets = this.getTargets(update);
 
-        for (AbstractActor targetActor : resolvedTargets.getActorTargets()) {
-            update.getObject().setExpand(true);
-            HttpMethod postMethod = this.activityPubClient.postInbox(targetActor, update);
-
-            try {
-                this.activityPubClient.checkAnswer(postMethod);
-            } catch (ActivityPubException e) {
-                // FIXME: in that case is the final answer still a 200 OK?
-                this.logger.error("The sharing to followers didn't go well.", e);
-            } finally {
-                postMethod.releaseConnection();
-            }
-        }
+        update.getObject().setExpand(true);
+        this.deliveryService.deliver(update, resolvedTargets.getActorTargets());
         this.answer(activityRequest.getResponse(), HttpServletResponse.SC_OK, update);
     }
 }
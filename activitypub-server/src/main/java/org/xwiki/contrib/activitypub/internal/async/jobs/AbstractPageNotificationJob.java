@@ -29,6 +29,7 @@ import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.ActorHandler;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
 import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
 import org.xwiki.contrib.activitypub.internal.async.PageChangedRequest;
 import org.xwiki.contrib.activitypub.internal.async.PageChangedStatus;
@@ -63,22 +64,19 @@ public abstract class AbstractPageNotificationJob extends AbstractJob<PageChange
     @Inject
     private ActorHandler actorHandler;
 
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
     @Override
     protected void runInternal()
     {
         PageChangedRequest request = this.getRequest();
         try {
-            UserReference userReference =
-                this.xWikiUserBridge.resolveDocumentReference(request.getAuthorReference());
-            AbstractActor author = this.actorHandler.getActor(userReference);
-            OrderedCollection<AbstractActor> followers =
-                this.objectReferenceResolver.resolveReference(author.getFollowers());
-
-            // ensure the page can be viewed with guest user to not disclose private stuff in a notif
-            boolean guestAccess = this.authorizationManager
-                .hasAccess(Right.VIEW, GUEST_USER, request.getDocumentReference());
-            if (guestAccess && !followers.isEmpty()) {
-                this.proceed(author);
+            this.unitOfWork.begin();
+            try {
+                this.notifyFollowers(request);
+            } finally {
+                this.unitOfWork.end();
             }
         } catch (URISyntaxException | ActivityPubException | IOException e) {
             // FIXME: we have a special handling of errors coming from user reference resolution,
@@ -93,5 +91,22 @@ public abstract class AbstractPageNotificationJob extends AbstractJob<PageChange
         }
     }
 
+    private void notifyFollowers(PageChangedRequest request)
+        throws URISyntaxException, IOException, ActivityPubException
+    {
+        UserReference userReference =
+            this.xWikiUserBridge.resolveDocumentReference(request.getAuthorReference());
+        AbstractActor author = this.actorHandler.getActor(userReference);
+        OrderedCollection<AbstractActor> followers =
+            this.objectReferenceResolver.resolveReference(author.getFollowers());
+
+        // ensure the page can be viewed with guest user to not disclose private stuff in a notif
+        boolean guestAccess = this.authorizationManager
+            .hasAccess(Right.VIEW, GUEST_USER, request.getDocumentReference());
+        if (guestAccess && !this.objectReferenceResolver.resolveItems(followers).isEmpty()) {
+            this.proceed(author);
+        }
+    }
+
     protected abstract void proceed(AbstractActor author) throws URISyntaxException, IOException, ActivityPubException;
 }
@@ -0,0 +1,501 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.delivery;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.AbstractActivity;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
+import org.xwiki.contrib.activitypub.internal.storage.ActivityPubSolrWriter;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Deliver the activities to the inboxes of their recipients, outside of the request which created them.
+ * <p>
+ * Each delivery is persisted in the ActivityPub Solr core before being attempted, so that it survives a restart, and
+ * is removed once the remote server accepted the activity. Deliveries are performed by a bounded pool of workers, with
+ * a limited number of concurrent deliveries per remote host so that a slow or unreachable server cannot monopolize the
+ * pool. Failed deliveries are retried with an exponential backoff.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityDeliveryService.class)
+@Singleton
+public class ActivityDeliveryService implements Initializable, Disposable
+{
+    private static final String CORE_NAME = "activitypub";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String ACTIVITY_FIELD = "activity";
+
+    private static final String INBOX_FIELD = "inbox";
+
+    private static final String EXPAND_FIELD = "expand";
+
+    private static final String WIKI_FIELD = "wiki";
+
+    private static final String ATTEMPTS_FIELD = "attempts";
+
+    private static final String NEXT_ATTEMPT_FIELD = "nextAttempt";
+
+    private static final String DELIVERY_TYPE = "delivery";
+
+    private static final int WORKERS = 8;
+
+    private static final int MAX_CONCURRENT_DELIVERIES_PER_HOST = 2;
+
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final long BASE_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(6);
+
+    private static final long RECOVERY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int RECOVERY_BATCH_SIZE = 100;
+
+    /**
+     * The possible outcomes of a delivery attempt.
+     */
+    enum Outcome
+    {
+        /**
+         * The activity has been accepted by the remote server.
+         */
+        DELIVERED,
+
+        /**
+         * The delivery failed but might succeed later.
+         */
+        RETRY,
+
+        /**
+         * The delivery failed and won't succeed by trying again.
+         */
+        ABANDON
+    }
+
+    @Inject
+    private ActivityPubClient activityPubClient;
+
+    @Inject
+    private ActivityPubStorage activityPubStorage;
+
+    @Inject
+    private ActivityPubObjectReferenceResolver resolver;
+
+    @Inject
+    private ActivityPubSolrWriter solrWriter;
+
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, HostDeliveries> hosts = new HashMap<>();
+
+    private final Set<String> scheduledDeliveries = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * The deliveries running or waiting for a given host.
+     */
+    private static final class HostDeliveries
+    {
+        private int active;
+
+        private final Deque<Delivery> waiting = new ArrayDeque<>();
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // Platform threads are used since the module targets Java 8: the deliveries are mostly waiting for the
+        // network, so the pool is kept small and the per host limit prevents it from being saturated by one server.
+        this.executor = Executors.newScheduledThreadPool(WORKERS, new BasicThreadFactory.Builder()
+            .namingPattern("ActivityPub delivery %d")
+            .daemon(true)
+            .build());
+        schedule(this::recoverDeliveries, RECOVERY_DELAY);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        // The pending deliveries are persisted: they will be recovered on next start.
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Queue the delivery of the given activity to the inboxes of the given targets. This method returns as soon as the
+     * deliveries have been persisted: the activity is posted asynchronously.
+     * <p>
+     * The targets sharing a same shared inbox receive the activity only once, in that shared inbox: the remote server
+     * is then in charge of dispatching it to its recipients.
+     *
+     * @param activity the activity to deliver: it should have been stored already.
+     * @param targets the actors who should receive the activity.
+     * @throws ActivityPubException in case of error when resolving the inbox of a target or when persisting the
+     *             deliveries.
+     */
+    public void deliver(AbstractActivity activity, Collection<? extends AbstractActor> targets)
+        throws ActivityPubException
+    {
+        // The workers read the activity from the storage: it must not wait for the end of the current unit of work.
+        this.unitOfWork.flush();
+        boolean expand = activity.getObject() != null && activity.getObject().isExpand();
+        for (URI inbox : getInboxes(targets)) {
+            Delivery delivery = new Delivery(activity.getId(), inbox, expand);
+            delivery.setWiki(this.wikiDescriptorManager.getCurrentWikiId());
+            persist(delivery);
+            this.scheduledDeliveries.add(delivery.getId());
+            submit(delivery);
+        }
+    }
+
+    private Set<URI> getInboxes(Collection<? extends AbstractActor> targets)
+    {
+        Map<URI, List<AbstractActor>> targetsBySharedInbox = new LinkedHashMap<>();
+        for (AbstractActor target : targets) {
+            targetsBySharedInbox.computeIfAbsent(target.getSharedInbox(), key -> new ArrayList<>()).add(target);
+        }
+
+        // Several targets might share the same inbox: the activity only needs to be posted once there.
+        Set<URI> inboxes = new LinkedHashSet<>();
+        for (Map.Entry<URI, List<AbstractActor>> entry : targetsBySharedInbox.entrySet()) {
+            // The shared inbox is only worth it when it replaces several deliveries.
+            if (entry.getKey() != null && entry.getValue().size() > 1) {
+                inboxes.add(entry.getKey());
+            } else {
+                for (AbstractActor target : entry.getValue()) {
+                    inboxes.add(target.getInbox().getLink());
+                }
+            }
+        }
+        return inboxes;
+    }
+
+    private void persist(Delivery delivery) throws ActivityPubException
+    {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField(ID_FIELD, delivery.getId());
+        document.addField(TYPE_FIELD, DELIVERY_TYPE);
+        document.addField(ACTIVITY_FIELD, delivery.getActivity().toASCIIString());
+        document.addField(INBOX_FIELD, delivery.getInbox().toASCIIString());
+        document.addField(EXPAND_FIELD, String.valueOf(delivery.isExpand()));
+        if (delivery.getWiki() != null) {
+            document.addField(WIKI_FIELD, delivery.getWiki());
+        }
+        document.addField(ATTEMPTS_FIELD, (long) delivery.getAttempts());
+        document.addField(NEXT_ATTEMPT_FIELD, delivery.getNextAttempt());
+        document.addField("updatedDate", new Date());
+        this.solrWriter.add(document);
+    }
+
+    private void schedule(Runnable task, long delay)
+    {
+        try {
+            this.executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The service is being disposed.
+            this.logger.debug("Cannot schedule a task since the delivery service is stopped.", e);
+        }
+    }
+
+    private void schedule(Delivery delivery)
+    {
+        long delay = Math.max(0, delivery.getNextAttempt().getTime() - System.currentTimeMillis());
+        schedule(() -> submit(delivery), delay);
+    }
+
+    private void submit(Delivery delivery)
+    {
+        String host = getHost(delivery);
+        synchronized (this.hosts) {
+            HostDeliveries hostDeliveries = this.hosts.computeIfAbsent(host, key -> new HostDeliveries());
+            if (hostDeliveries.active >= MAX_CONCURRENT_DELIVERIES_PER_HOST) {
+                hostDeliveries.waiting.add(delivery);
+                return;
+            }
+            hostDeliveries.active++;
+        }
+        schedule(() -> run(host, delivery), 0);
+    }
+
+    private void run(String host, Delivery delivery)
+    {
+        try {
+            processInContext(delivery);
+        } finally {
+            Delivery next;
+            synchronized (this.hosts) {
+                HostDeliveries hostDeliveries = this.hosts.get(host);
+                next = hostDeliveries.waiting.poll();
+                if (next == null) {
+                    hostDeliveries.active--;
+                    if (hostDeliveries.active == 0) {
+                        this.hosts.remove(host);
+                    }
+                }
+            }
+            if (next != null) {
+                Delivery nextDelivery = next;
+                schedule(() -> run(host, nextDelivery), 0);
+            }
+        }
+    }
+
+    private void processInContext(Delivery delivery)
+    {
+        // The workers are not request threads: they need their own execution context, targeting the wiki where the
+        // activity has been emitted, for the components used to resolve and sign the activity.
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+            XWikiContext xcontext = this.contextProvider.get();
+            if (xcontext != null) {
+                xcontext.setWikiId(getWiki(delivery));
+            }
+            process(delivery);
+        } catch (ExecutionContextException e) {
+            this.logger.error("Failed to initialize the execution context of the delivery [{}].", delivery, e);
+            handle(delivery, Outcome.RETRY);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private String getWiki(Delivery delivery)
+    {
+        // The deliveries persisted before the wiki was recorded are performed in the main wiki.
+        return (delivery.getWiki() != null) ? delivery.getWiki() : this.wikiDescriptorManager.getMainWikiId();
+    }
+
+    private String getHost(Delivery delivery)
+    {
+        String host = delivery.getInbox().getHost();
+        return (host != null) ? host : "";
+    }
+
+    /**
+     * Attempt the given delivery and handle its outcome: the delivery is either removed, or rescheduled.
+     *
+     * @param delivery the delivery to perform.
+     */
+    void process(Delivery delivery)
+    {
+        handle(delivery, attempt(delivery));
+    }
+
+    private void handle(Delivery delivery, Outcome outcome)
+    {
+        if (outcome == Outcome.RETRY && delivery.getAttempts() + 1 < MAX_ATTEMPTS) {
+            delivery.setAttempts(delivery.getAttempts() + 1);
+            delivery.setNextAttempt(new Date(System.currentTimeMillis() + getRetryDelay(delivery.getAttempts())));
+            try {
+                persist(delivery);
+                schedule(delivery);
+                return;
+            } catch (ActivityPubException e) {
+                this.logger.error("Error while persisting the delivery [{}], it won't be retried.", delivery, e);
+            }
+        } else if (outcome != Outcome.DELIVERED) {
+            this.logger.warn("Giving up the delivery [{}].", delivery);
+        }
+        this.scheduledDeliveries.remove(delivery.getId());
+        this.solrWriter.delete(delivery.getId());
+    }
+
+    private long getRetryDelay(int attempts)
+    {
+        long delay = Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << Math.min(attempts - 1, 20));
+        // The jitter avoids retrying all the deliveries of a same activity at the same time.
+        return delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private Outcome attempt(Delivery delivery)
+    {
+        Outcome result;
+        HttpMethod method = null;
+        try {
+            AbstractActivity activity = this.activityPubStorage.retrieveEntity(delivery.getActivity());
+            if (activity == null) {
+                this.logger.warn("Cannot find the activity of the delivery [{}].", delivery);
+                result = Outcome.ABANDON;
+            } else {
+                if (delivery.isExpand()) {
+                    this.resolver.resolveReference(activity.getObject());
+                    activity.getObject().setExpand(true);
+                }
+                method = this.activityPubClient.post(delivery.getInbox(), activity);
+                this.activityPubClient.checkAnswer(method);
+                result = Outcome.DELIVERED;
+            }
+        } catch (ActivityPubException e) {
+            result = getOutcome(delivery, method, e);
+        } catch (IOException e) {
+            this.logger.debug("Error while posting [{}].", delivery, e);
+            result = Outcome.RETRY;
+        } catch (RuntimeException e) {
+            // An unexpected error must not kill the worker nor leave the delivery unscheduled.
+            this.logger.error("Unexpected error while delivering [{}].", delivery, e);
+            result = Outcome.RETRY;
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+        return result;
+    }
+
+    private Outcome getOutcome(Delivery delivery, HttpMethod method, ActivityPubException e)
+    {
+        Outcome result;
+        if (method == null || !method.isRequestSent()) {
+            result = Outcome.RETRY;
+        } else {
+            int statusCode = method.getStatusCode();
+            if (statusCode >= HttpStatus.SC_OK && statusCode < HttpStatus.SC_MULTIPLE_CHOICES) {
+                // The activity has been accepted, even if the answer is not the one expected by ActivityPub.
+                result = Outcome.DELIVERED;
+            } else if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR || statusCode == TOO_MANY_REQUESTS
+                || statusCode == HttpStatus.SC_REQUEST_TIMEOUT) {
+                result = Outcome.RETRY;
+            } else {
+                result = Outcome.ABANDON;
+            }
+        }
+        this.logger.debug("Error while delivering [{}]: [{}].", delivery, result, e);
+        return result;
+    }
+
+    private void recoverDeliveries()
+    {
+        try {
+            SolrQuery query = new SolrQuery("*:*")
+                .addFilterQuery(String.format("%s:%s", TYPE_FIELD, DELIVERY_TYPE))
+                .addSort(ID_FIELD, SolrQuery.ORDER.asc)
+                .setRows(RECOVERY_BATCH_SIZE);
+            int start = 0;
+            SolrDocumentList documents;
+            do {
+                documents = this.solr.getClient(CORE_NAME).query(query.setStart(start)).getResults();
+                for (SolrDocument document : documents) {
+                    Delivery delivery = toDelivery(document);
+                    if (this.scheduledDeliveries.add(delivery.getId())) {
+                        schedule(delivery);
+                    }
+                }
+                start += documents.size();
+            } while (documents.size() == RECOVERY_BATCH_SIZE);
+        } catch (SolrException | SolrServerException | IOException | RuntimeException e) {
+            this.logger.error("Error while recovering the pending deliveries, trying again later.", e);
+            schedule(this::recoverDeliveries, RECOVERY_DELAY);
+        }
+    }
+
+    private Delivery toDelivery(SolrDocument document)
+    {
+        Delivery delivery = new Delivery(URI.create((String) document.getFieldValue(ACTIVITY_FIELD)),
+            URI.create((String) document.getFieldValue(INBOX_FIELD)),
+            Boolean.parseBoolean((String) document.getFieldValue(EXPAND_FIELD)));
+        delivery.setWiki((String) document.getFieldValue(WIKI_FIELD));
+        Number attempts = (Number) document.getFieldValue(ATTEMPTS_FIELD);
+        if (attempts != null) {
+            delivery.setAttempts(attempts.intValue());
+        }
+        Date nextAttempt = (Date) document.getFieldValue(NEXT_ATTEMPT_FIELD);
+        if (nextAttempt != null) {
+            delivery.setNextAttempt(nextAttempt);
+        }
+        return delivery;
+    }
+}
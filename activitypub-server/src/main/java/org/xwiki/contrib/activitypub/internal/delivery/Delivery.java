@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.delivery;
+
+import java.net.URI;
+import java.util.Date;
+
+import org.xwiki.text.XWikiToStringBuilder;
+
+/**
+ * The delivery of an activity to an inbox. A delivery is persisted until the activity has been accepted by the remote
+ * server, or until it's abandoned.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+public class Delivery
+{
+    private final URI activity;
+
+    private final URI inbox;
+
+    private final boolean expand;
+
+    private String wiki;
+
+    private int attempts;
+
+    private Date nextAttempt;
+
+    /**
+     * Default constructor.
+     *
+     * @param activity the identifier of the activity to deliver.
+     * @param inbox the URI of the inbox where to post the activity.
+     * @param expand {@code true} if the object of the activity should be sent in its expanded form.
+     */
+    public Delivery(URI activity, URI inbox, boolean expand)
+    {
+        this.activity = activity;
+        this.inbox = inbox;
+        this.expand = expand;
+        this.nextAttempt = new Date();
+    }
+
+    /**
+     * @return the identifier of the delivery.
+     */
+    public String getId()
+    {
+        return String.format("delivery:%s#%s", this.activity.toASCIIString(), this.inbox.toASCIIString());
+    }
+
+    /**
+     * @return the identifier of the activity to deliver.
+     */
+    public URI getActivity()
+    {
+        return this.activity;
+    }
+
+    /**
+     * @return the URI of the inbox where to post the activity.
+     */
+    public URI getInbox()
+    {
+        return this.inbox;
+    }
+
+    /**
+     * @return {@code true} if the object of the activity should be sent in its expanded form.
+     */
+    public boolean isExpand()
+    {
+        return this.expand;
+    }
+
+    /**
+     * @return the identifier of the wiki where the activity has been emitted, in which the delivery is performed.
+     */
+    public String getWiki()
+    {
+        return this.wiki;
+    }
+
+    /**
+     * @param wiki the identifier of the wiki where the activity has been emitted, in which the delivery is
+     *            performed.
+     */
+    public void setWiki(String wiki)
+    {
+        this.wiki = wiki;
+    }
+
+    /**
+     * @return the number of failed attempts of delivery.
+     */
+    public int getAttempts()
+    {
+        return this.attempts;
+    }
+
+    /**
+     * @param attempts the number of failed attempts of delivery.
+     */
+    public void setAttempts(int attempts)
+    {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the date after which the delivery should be attempted.
+     */
+    public Date getNextAttempt()
+    {
+        return this.nextAttempt;
+    }
+
+    /**
+     * @param nextAttempt the date after which the delivery should be attempted.
+     */
+    public void setNextAttempt(Date nextAttempt)
+    {
+        this.nextAttempt = nextAttempt;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new XWikiToStringBuilder(this)
+            .append("activity", this.activity)
+            .append("inbox", this.inbox)
+            .append("wiki", this.wiki)
+            .append("attempts", this.attempts)
+            .build();
+    }
+}
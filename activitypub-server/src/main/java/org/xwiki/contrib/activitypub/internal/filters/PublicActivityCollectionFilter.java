@@ -20,16 +20,17 @@
 package org.xwiki.contrib.activitypub.internal.filters;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.entities.AbstractActivity;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
-import org.xwiki.contrib.activitypub.internal.stream.StreamActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.internal.stream.StreamActivityPubObjectReferenceSerializer;
 
 /**
@@ -48,7 +49,7 @@ public class PublicActivityCollectionFilter implements CollectionFilter<OrderedC
     private PublicActivityFilter publicActivityFilter;
 
     @Inject
-    private StreamActivityPubObjectReferenceResolver streamActivityPubObjectReferenceResolver;
+    private ActivityPubObjectReferenceResolver activityPubObjectReferenceResolver;
 
     @Inject
     private StreamActivityPubObjectReferenceSerializer streamActivityPubObjectReferenceSerializer;
@@ -56,8 +57,10 @@ public class PublicActivityCollectionFilter implements CollectionFilter<OrderedC
     @Override
     public OrderedCollection<AbstractActivity> filter(OrderedCollection<AbstractActivity> collection)
     {
-        List<ActivityPubObjectReference<AbstractActivity>> activityList = collection.getOrderedItems().stream()
-            .map(streamActivityPubObjectReferenceResolver.getFunction())
+        // The activities are resolved all at once, instead of reading them one by one.
+        List<ActivityPubObjectReference<AbstractActivity>> activityList =
+            this.activityPubObjectReferenceResolver.resolveReferences(collection.getOrderedItems()).stream()
+            .filter(Objects::nonNull)
             .filter(publicActivityFilter)
             .map(streamActivityPubObjectReferenceSerializer.getFunction())
             .collect(Collectors.toList());
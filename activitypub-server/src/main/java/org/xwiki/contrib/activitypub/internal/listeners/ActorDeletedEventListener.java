@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.listeners;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.SignatureService;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.resource.ResourceReferenceSerializer;
+import org.xwiki.resource.SerializeResourceReferenceException;
+import org.xwiki.resource.UnsupportedResourceReferenceException;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Listen for the deletion of the users and of the wikis, and forget the keys of their actors kept in memory by the
+ * {@link SignatureService}.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component
+@Singleton
+@Named("ActivityPubActorDeletedEventListener")
+public class ActorDeletedEventListener extends AbstractEventListener
+{
+    private static final List<Event> EVENTS = Arrays.asList(new DocumentDeletedEvent(), new WikiDeletedEvent());
+
+    private static final LocalDocumentReference USER_CLASS = new LocalDocumentReference("XWiki", "XWikiUsers");
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SignatureService signatureService;
+
+    @Inject
+    private ActivityPubStorage activityPubStorage;
+
+    @Inject
+    private ResourceReferenceSerializer<ActivityPubResourceReference, URI> serializer;
+
+    @Inject
+    private XWikiUserBridge xWikiUserBridge;
+
+    /**
+     * Default constructor.
+     */
+    public ActorDeletedEventListener()
+    {
+        super("ActivityPubActorDeletedEventListener", EVENTS);
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof WikiDeletedEvent) {
+            this.invalidate("Service", ((WikiDeletedEvent) event).getWikiId());
+        } else {
+            XWikiDocument document = ((XWikiDocument) source).getOriginalDocument();
+            if (document != null && document.getXObject(USER_CLASS) != null) {
+                this.invalidate("Person", this.xWikiUserBridge.getUserLogin(
+                    this.xWikiUserBridge.resolveDocumentReference(document.getDocumentReference())));
+            }
+        }
+    }
+
+    private void invalidate(String actorType, String login)
+    {
+        try {
+            AbstractActor actor = this.activityPubStorage.retrieveEntity(
+                this.serializer.serialize(new ActivityPubResourceReference(actorType, login)));
+            // The actors which have never been used don't have any key.
+            if (actor != null) {
+                this.signatureService.invalidate(actor);
+            }
+        } catch (ActivityPubException | SerializeResourceReferenceException
+            | UnsupportedResourceReferenceException e)
+        {
+            this.logger.warn("Failed to forget the keys of the removed actor [{}]. Cause [{}]", login,
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+}
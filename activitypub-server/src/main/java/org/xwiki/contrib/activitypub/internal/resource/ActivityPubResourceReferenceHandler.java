@@ -19,13 +19,21 @@
  */
 package org.xwiki.contrib.activitypub.internal.resource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -33,6 +41,7 @@ import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -43,20 +52,29 @@ import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
 import org.xwiki.contrib.activitypub.ActivityHandler;
 import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubEntityVersion;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
 import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.ActivityPubQueryResult;
 import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.ActivityRequest;
 import org.xwiki.contrib.activitypub.ActorHandler;
+import org.xwiki.contrib.activitypub.SignatureService;
 import org.xwiki.contrib.activitypub.entities.AbstractActivity;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Follow;
 import org.xwiki.contrib.activitypub.entities.Inbox;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.OrderedCollectionPage;
 import org.xwiki.contrib.activitypub.entities.Outbox;
+import org.xwiki.contrib.activitypub.entities.ProxyActor;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
 import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
 import org.xwiki.contrib.activitypub.internal.filters.CollectionFilter;
 import org.xwiki.resource.AbstractResourceReferenceHandler;
@@ -76,9 +94,25 @@ import org.xwiki.user.UserReference;
  * In case of a GET request for an Actor, the actor is created if not find in the storage: this allows to create lazily
  * the actors.
  *
+ * The GET requests on a stored entity, or on the summary of a collection, are answered with {@code ETag} and
+ * {@code Last-Modified} headers computed by the storage: the conditional requests ({@code If-None-Match} and
+ * {@code If-Modified-Since}) are answered with a 304 status without loading nor serializing the entity. The
+ * {@code Cache-Control} header allows shared caches to keep those responses for a short time. The inbox and outbox
+ * depend on the current user, so they are never cached by shared caches.
+ *
+ * In case of a GET request for an {@link OrderedCollection}, only a summary of the collection is returned, with a link
+ * to its first page: the items are then served by pages of {@link OrderedCollectionPage}, using the {@code max_id}
+ * and {@code min_id} parameters as cursors.
+ *
  * In case of POST request some checks are performed to ensure the user is authorized to do it, and then the activity
  * is sent to the right {@link ActivityHandler}.
  *
+ * The requests posted to an inbox must be signed with an HTTP Signature by the actor of the activity: they are rejected
+ * with a 401 status otherwise.
+ *
+ * The POST requests on the shared inbox ({@code /activitypub/sharedInbox/wikiname}) are dispatched to the inbox of each
+ * local actor addressed by the activity.
+ *
  * @version $Id$
  */
 @Component
@@ -91,6 +125,41 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
 
     private static final String TEXTPLAIN_CONTENTTYPE = "text/plain";
 
+    private static final String PAGE_PARAMETER = "page";
+
+    private static final String MAX_ID_PARAMETER = "max_id";
+
+    private static final String MIN_ID_PARAMETER = "min_id";
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The maximum size of the activities posted in an inbox: a bigger body is rejected without being read entirely.
+     */
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final int FOLLOW_BATCH_SIZE = 100;
+
+    private static final String ETAG_HEADER = "ETag";
+
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+
+    // Shared caches can serve the entities for a short time, and then revalidate them with a conditional request.
+    private static final String PUBLIC_CACHE_CONTROL = "public, max-age=60";
+
+    // The pages of the boxes are filtered according to the current user.
+    private static final String PRIVATE_CACHE_CONTROL = "private, no-cache";
+
+    private static final long SECOND = 1000;
+
     @Inject
     private Logger logger;
 
@@ -122,6 +191,12 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
     @Inject
     private XWikiUserBridge xWikiUserBridge;
 
+    @Inject
+    private SignatureService signatureService;
+
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
     @Override
     public List<ResourceType> getSupportedResourceReferences()
     {
@@ -136,46 +211,16 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
         HttpServletRequest request = ((ServletRequest) this.container.getRequest()).getHttpServletRequest();
         HttpServletResponse response = ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
         try {
-            ActivityPubObject entity =
-                this.activityPubStorage.retrieveEntity(new URI(request.getRequestURL().toString()));
-
-            this.logger.debug("[>>>>>] handle [{}]", request);
-//            this.logger.debug("[>>>>>] request body [{}]", IOUtils.toString(request.getReader()));
-
-            this.issueMissingPublicKey(entity);
-
-            // We didn't manage to retrieve the entity from storage, but it's about an Actor: we lazily create it.
-            if (entity == null && isAboutActor(resourceReference)) {
-                entity = this.actorHandler.getActor(resourceReference);
-            }
-
-            // if the entity is still null, then it's a 404: we don't know about it.
-            if (entity == null) {
-                this.sendErrorResponse(HttpServletResponse.SC_NOT_FOUND,
-                        String.format("The entity of type [%s] and uid [%s] cannot be found.",
-                                resourceReference.getEntityType(), resourceReference.getUuid()));
-
-            // FIXME: we should check the Content-Type and Accept headers
-            // See: https://www.w3.org/TR/activitypub/#client-to-server-interactions for POST and
-            // https://www.w3.org/TR/activitypub/#retrieving-objects for GET
-            // We are in a GET request with an entity: we just serve it.
-            } else if (isGet(request)) {
-                this.handleGetOnExistingEntity(response, entity);
-
-            // We are in a POST request but not in a box: we don't accept those requests.
-            } else if (!isAboutBox(resourceReference)) {
-                this.sendErrorResponse(HttpServletResponse.SC_BAD_REQUEST,
-                    "POST requests are only allowed on inbox or outbox.");
-
-            // We are in a POST request, in a box, but the attributedTo entity is empty: this shouldn't happen
-            // we cannot identify who the box belongs to, so we have to report an error.
-            } else if (!isAttributedTo(entity)) {
-                this.sendErrorResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-                    "This box is not attributed. Please report the error to the administrator.");
-
-            // We are finally in a POST request to a box and we can handle it.
-            } else {
-                this.handleBox(entity);
+            // All the entities handled during the request are shared and written once at the end.
+            this.unitOfWork.begin();
+            try {
+                if (isAboutSharedInbox(resourceReference)) {
+                    this.handleSharedInbox(request, response);
+                } else {
+                    this.handleEntity(resourceReference, request, response);
+                }
+            } finally {
+                this.unitOfWork.end();
             }
         } catch (ActivityPubException | IOException | URISyntaxException e) {
             try {
@@ -190,21 +235,93 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
         chain.handleNext(reference);
     }
 
+    private void handleEntity(ActivityPubResourceReference resourceReference, HttpServletRequest request,
+        HttpServletResponse response) throws ActivityPubException, IOException, URISyntaxException
+    {
+        URI entityId = new URI(request.getRequestURL().toString());
+        ActivityPubEntityVersion version = null;
+        if (hasConditionalHeaders(request) && isGet(request)) {
+            version = this.retrieveEntityVersion(resourceReference, request, entityId);
+            if (version != null && isNotModified(request, version)) {
+                // The client already has the current version: there's no need to load the entity.
+                this.setCacheHeaders(response, version);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        ActivityPubObject entity = this.activityPubStorage.retrieveEntity(entityId);
+
+        this.logger.debug("[>>>>>] handle [{}]", request);
+//        this.logger.debug("[>>>>>] request body [{}]", IOUtils.toString(request.getReader()));
+
+        boolean updated = this.issueMissingPublicKey(entity);
+
+        // We didn't manage to retrieve the entity from storage, but it's about an Actor: we lazily create it.
+        if (entity == null && isAboutActor(resourceReference)) {
+            entity = this.actorHandler.getActor(resourceReference);
+        }
+
+        // if the entity is still null, then it's a 404: we don't know about it.
+        if (entity == null) {
+            this.sendErrorResponse(HttpServletResponse.SC_NOT_FOUND,
+                    String.format("The entity of type [%s] and uid [%s] cannot be found.",
+                            resourceReference.getEntityType(), resourceReference.getUuid()));
+
+        // FIXME: we should check the Content-Type and Accept headers
+        // See: https://www.w3.org/TR/activitypub/#client-to-server-interactions for POST and
+        // https://www.w3.org/TR/activitypub/#retrieving-objects for GET
+        // We are in a GET request with an entity: we just serve it.
+        } else if (isGet(request)) {
+            if (version == null && !updated) {
+                version = this.retrieveEntityVersion(resourceReference, request, entityId);
+            }
+            // The served entity doesn't match the stored version anymore if it has just been updated.
+            this.handleGetOnExistingEntity(request, response, entity, (updated) ? null : version);
+
+        // We are in a POST request but not in a box: we don't accept those requests.
+        } else if (!isAboutBox(resourceReference)) {
+            this.sendErrorResponse(HttpServletResponse.SC_BAD_REQUEST,
+                "POST requests are only allowed on inbox or outbox.");
+
+        // We are in a POST request, in a box, but the attributedTo entity is empty: this shouldn't happen
+        // we cannot identify who the box belongs to, so we have to report an error.
+        } else if (!isAttributedTo(entity)) {
+            this.sendErrorResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "This box is not attributed. Please report the error to the administrator.");
+
+        // We are finally in a POST request to a box and we can handle it.
+        } else {
+            this.handleBox(entity);
+        }
+    }
+
     /**
-     * Generates and store a public key for an {@link AbstractActor} if she/it does not already hvae one.
+     * Generates and store a public key for an {@link AbstractActor} if she/it does not already hvae one. The endpoints
+     * of the actors created before they were introduced are also added.
      *
      * @param entity The entity to possibly update.
+     * @return {@code true} if the entity has been updated.
      * @throws ActivityPubException In case of error during the public key generation or the entity storage.
      */
-    private void issueMissingPublicKey(ActivityPubObject entity) throws ActivityPubException
+    private boolean issueMissingPublicKey(ActivityPubObject entity) throws ActivityPubException
     {
+        boolean result = false;
         if (entity instanceof AbstractActor) {
             AbstractActor abstractActor = (AbstractActor) entity;
             if (abstractActor.getPublicKey() == null) {
                 abstractActor.setPublicKey(this.actorHandler.initPublicKey(abstractActor));
+                result = true;
+            }
+            if (abstractActor.getEndpoints() == null || abstractActor.getEndpoints().getSharedInbox() == null) {
+                abstractActor.setEndpoints(this.actorHandler.initEndpoints(abstractActor));
+                result = true;
+            }
+            if (result) {
                 this.activityPubStorage.storeEntity(abstractActor);
             }
         }
+        return result;
     }
 
     /**
@@ -223,9 +340,16 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
         // resolve the actor with the attributed to reference
         AbstractActor actor = this.objectReferenceResolver.resolveReference(box.getAttributedTo().get(0));
 
-        // Parse the body of the request to retrieve the activity
-        ActivityPubObject object = this.activityPubJsonParser.parse(request.getReader());
-        AbstractActivity activity = getActivity(object);
+        // Parse the body of the request to retrieve the activity: the activities posted in an inbox must be signed
+        AbstractActivity activity;
+        if (box instanceof Inbox) {
+            activity = this.parseSignedActivity(request);
+            if (activity == null) {
+                return;
+            }
+        } else {
+            activity = getActivity(this.activityPubJsonParser.parse(request.getReader()));
+        }
 
         // Create the ActivityRequest and retrieve the handler for it
         ActivityRequest<AbstractActivity> activityRequest = new ActivityRequest<>(actor, activity, request, response);
@@ -246,6 +370,200 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
         }
     }
 
+    /**
+     * Handle a request on the shared inbox: the activity is dispatched to the inbox of each local actor it's addressed
+     * to, so that remote servers can post a single time an activity addressed to several of our actors.
+     *
+     * @param request the request to handle
+     * @param response the response to use
+     * @throws ActivityPubException in case of error while parsing or handling the activity
+     * @throws IOException in case of error during the HTTP response
+     */
+    private void handleSharedInbox(HttpServletRequest request, HttpServletResponse response)
+        throws ActivityPubException, IOException
+    {
+        if (isGet(request)) {
+            this.sendErrorResponse(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+                "Only POST requests are allowed on the shared inbox.");
+        } else {
+            AbstractActivity activity = this.parseSignedActivity(request);
+            if (activity == null) {
+                return;
+            }
+            ActivityHandler<AbstractActivity> handler = this.getHandler(activity);
+
+            for (AbstractActor recipient : this.getLocalRecipients(activity)) {
+                // The response is not given to the handler: a single answer is sent for all the recipients.
+                handler.handleInboxRequest(new ActivityRequest<>(recipient, activity, request, null));
+            }
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+    }
+
+    /**
+     * Parse the activity posted in an inbox, after having checked that the request has been signed by the actor of the
+     * activity. The signature is checked before reading the body, so that forged requests are rejected without paying
+     * for the parsing.
+     *
+     * @param request the request containing the activity
+     * @return the activity or {@code null} if the request is not properly signed: an error response is then already
+     *         sent
+     * @throws ActivityPubException in case of error while parsing the activity
+     * @throws IOException in case of error while reading the request or during the HTTP response
+     */
+    private AbstractActivity parseSignedActivity(HttpServletRequest request) throws ActivityPubException, IOException
+    {
+        URI signer;
+        byte[] body;
+        try {
+            signer = this.signatureService.verifySignature(request);
+            body = readBody(request);
+            if (body == null) {
+                this.sendErrorResponse(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    String.format("The body of the request exceeds the maximum size of [%s] bytes.", MAX_BODY_SIZE));
+                return null;
+            }
+            // The digest is computed on the bytes actually sent, whatever the charset of the request.
+            this.signatureService.verifyDigest(request, body);
+        } catch (ActivityPubException e) {
+            this.logger.debug("Rejecting an unverified request posted to [{}].", request.getRequestURI(), e);
+            this.sendErrorResponse(HttpServletResponse.SC_UNAUTHORIZED,
+                String.format("The signature of the request cannot be verified: [%s].", e.getMessage()));
+            return null;
+        }
+
+        // The JSON of ActivityPub is always encoded in UTF-8, even when the Content-Type doesn't specify it.
+        AbstractActivity activity =
+            getActivity(this.activityPubJsonParser.parse(new String(body, StandardCharsets.UTF_8)));
+        if (activity.getActor() == null || !signer.equals(activity.getActor().getLink())) {
+            this.sendErrorResponse(HttpServletResponse.SC_UNAUTHORIZED,
+                String.format("The request is signed by [%s] who is not the actor of the activity.", signer));
+            return null;
+        }
+        return activity;
+    }
+
+    /**
+     * @return the raw bytes of the body, or {@code null} if the body exceeds {@link #MAX_BODY_SIZE}
+     */
+    private byte[] readBody(HttpServletRequest request) throws IOException
+    {
+        byte[] result = null;
+        if (request.getContentLengthLong() <= MAX_BODY_SIZE) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream input = request.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            boolean tooLarge = false;
+            int read;
+            while (!tooLarge && (read = input.read(buffer)) != -1) {
+                // The declared length cannot be trusted: the size is checked while reading.
+                tooLarge = output.size() + read > MAX_BODY_SIZE;
+                output.write(buffer, 0, read);
+            }
+            result = (tooLarge) ? null : output.toByteArray();
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the local actors to whom the given activity is addressed, in any of its addressing properties.
+     * <p>
+     * The followers collection of the remote sender is not resolved: it's usually big and its items are most of the
+     * time not even exposed. Its local members are instead the local actors following the sender.
+     *
+     * @param activity the activity received in the shared inbox
+     * @return the local actors addressed by the activity
+     */
+    private Set<AbstractActor> getLocalRecipients(AbstractActivity activity)
+    {
+        Set<AbstractActor> result = new LinkedHashSet<>();
+        AbstractActor sender = getRemoteSender(activity);
+        for (ProxyActor proxyActor : getAddressees(activity)) {
+            if (!proxyActor.isPublic()) {
+                try {
+                    if (sender != null && sender.getFollowers() != null
+                        && proxyActor.getLink().equals(sender.getFollowers().getLink()))
+                    {
+                        result.addAll(getLocalFollowers(sender));
+                    } else {
+                        for (ActivityPubObjectReference<AbstractActor> reference
+                            : proxyActor.resolveActors(this.objectReferenceResolver)) {
+                            AbstractActor actor = this.objectReferenceResolver.resolveReference(reference);
+                            if (this.actorHandler.isLocalActor(actor)) {
+                                result.add(actor);
+                            }
+                        }
+                    }
+                } catch (ActivityPubException e) {
+                    this.logger.warn("Cannot resolve the recipients [{}] of an activity posted in the shared "
+                        + "inbox.", proxyActor, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Set<ProxyActor> getAddressees(AbstractActivity activity)
+    {
+        Set<ProxyActor> result = new LinkedHashSet<>();
+        for (List<ProxyActor> addressees : Arrays.asList(activity.getTo(), activity.getCc(), activity.getBto(),
+            activity.getAudience())) {
+            if (addressees != null) {
+                result.addAll(addressees);
+            }
+        }
+        return result;
+    }
+
+    private AbstractActor getRemoteSender(AbstractActivity activity)
+    {
+        AbstractActor result = null;
+        try {
+            AbstractActor sender = this.objectReferenceResolver.resolveReference(activity.getActor());
+            if (sender != null && !this.actorHandler.isLocalActor(sender)) {
+                result = sender;
+            }
+        } catch (ActivityPubException e) {
+            this.logger.warn("Cannot resolve the actor of an activity posted in the shared inbox.", e);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the local actors following the given remote actor: the candidates are the local actors who sent a
+     * follow request, and only the ones whose following collection contains the remote actor are kept, since the
+     * request might have been rejected or undone.
+     *
+     * @param remoteActor the remote actor whose local followers to retrieve
+     * @return the local followers of the remote actor
+     * @throws ActivityPubException in case of error while querying the follow requests or checking the following
+     *             collections
+     */
+    private Set<AbstractActor> getLocalFollowers(AbstractActor remoteActor) throws ActivityPubException
+    {
+        Set<AbstractActor> result = new LinkedHashSet<>();
+        Set<URI> candidates = new LinkedHashSet<>();
+        ActivityPubQuery query = new ActivityPubQuery()
+            .setType(new Follow().getType())
+            .setObject(remoteActor.getId())
+            .setLimit(FOLLOW_BATCH_SIZE);
+        ActivityPubQueryResult<Follow> follows;
+        do {
+            follows = this.activityPubStorage.query(query);
+            for (Follow follow : follows.getAll()) {
+                AbstractActor follower = this.objectReferenceResolver.resolveReference(follow.getActor());
+                if (follower != null && candidates.add(follower.getId()) && this.actorHandler.isLocalActor(follower)
+                    && follower.getFollowing() != null
+                    && this.activityPubStorage.containsItem(follower.getFollowing().getLink(), remoteActor.getId()))
+                {
+                    result.add(follower);
+                }
+            }
+            query.setOffset(query.getOffset() + follows.size());
+        } while (follows.size() == FOLLOW_BATCH_SIZE);
+        return result;
+    }
+
     /**
      * Ensure that the given {@link ActivityPubObject} has an attributedTo parameter filled.
      * @param entity the object that needs an attributedTo parameter.
@@ -267,6 +585,16 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
             || "outbox".equalsIgnoreCase(resourceReference.getEntityType());
     }
 
+    /**
+     * Check that the given resource reference is about the shared inbox.
+     * @param resourceReference the reference to check
+     * @return {@code true} iff the type of the reference is the shared inbox.
+     */
+    private boolean isAboutSharedInbox(ActivityPubResourceReference resourceReference)
+    {
+        return ActivityPubResourceReference.SHARED_INBOX_TYPE.equalsIgnoreCase(resourceReference.getEntityType());
+    }
+
     /**
      * Ensure that the request method is a GET.
      * @param request the request to test
@@ -277,49 +605,216 @@ public class ActivityPubResourceReferenceHandler extends AbstractResourceReferen
         return "get".equalsIgnoreCase(request.getMethod());
     }
 
+    /**
+     * @param request the request to test
+     * @return {@code true} if the request is about a page of a collection.
+     */
+    private boolean isPageRequest(HttpServletRequest request)
+    {
+        return request.getParameter(PAGE_PARAMETER) != null || request.getParameter(MAX_ID_PARAMETER) != null
+            || request.getParameter(MIN_ID_PARAMETER) != null;
+    }
+
+    private boolean hasConditionalHeaders(HttpServletRequest request)
+    {
+        return request.getHeader(IF_NONE_MATCH_HEADER) != null || request.getHeader(IF_MODIFIED_SINCE_HEADER) != null;
+    }
+
+    private ActivityPubEntityVersion retrieveEntityVersion(ActivityPubResourceReference resourceReference,
+        HttpServletRequest request, URI entityId) throws ActivityPubException
+    {
+        ActivityPubEntityVersion result = null;
+        // The pages are built on the fly: they don't have a stored version. The boxes are served according to the
+        // current user, so they cannot be shared between users.
+        if (!isPageRequest(request) && !isAboutBox(resourceReference)) {
+            result = this.activityPubStorage.retrieveEntityVersion(entityId);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate the conditional headers of the request: as specified by RFC 7232, {@code If-Modified-Since} is ignored
+     * when {@code If-None-Match} is present.
+     *
+     * @param request the request to test
+     * @param version the current version of the requested entity
+     * @return {@code true} if the client already has the current version of the entity.
+     */
+    private boolean isNotModified(HttpServletRequest request, ActivityPubEntityVersion version)
+    {
+        boolean result = false;
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            for (String entityTag : ifNoneMatch.split(",")) {
+                // The weak comparison is used for If-None-Match.
+                String tag = StringUtils.removeStart(entityTag.trim(), "W/");
+                if ("*".equals(tag) || tag.equals(version.getEntityTag())) {
+                    result = true;
+                    break;
+                }
+            }
+        } else if (version.getLastModified() != null) {
+            try {
+                long ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE_HEADER);
+                // The HTTP dates don't have a precision below the second.
+                result = ifModifiedSince >= 0
+                    && version.getLastModified().getTime() / SECOND <= ifModifiedSince / SECOND;
+            } catch (IllegalArgumentException e) {
+                // An invalid date is ignored.
+                this.logger.debug("Invalid [{}] header: [{}]", IF_MODIFIED_SINCE_HEADER,
+                    request.getHeader(IF_MODIFIED_SINCE_HEADER));
+            }
+        }
+        return result;
+    }
+
+    private void setCacheHeaders(HttpServletResponse response, ActivityPubEntityVersion version)
+    {
+        if (version != null) {
+            response.setHeader(ETAG_HEADER, version.getEntityTag());
+            if (version.getLastModified() != null) {
+                response.setDateHeader(LAST_MODIFIED_HEADER, version.getLastModified().getTime());
+            }
+            response.setHeader(CACHE_CONTROL_HEADER, PUBLIC_CACHE_CONTROL);
+        } else {
+            response.setHeader(CACHE_CONTROL_HEADER, PRIVATE_CACHE_CONTROL);
+        }
+    }
+
     /**
      * Serialize the given entity in the response and set the headers.
+     * @param request the request servlet to use.
      * @param response the response servlet to use.
      * @param entity the entity to serialize.
+     * @param version the stored version of the entity, or {@code null} if it's not known.
      * @throws IOException in case of error during the HTTP response.
      * @throws ActivityPubException in case of error during the serialization.
      */
-    private void handleGetOnExistingEntity(HttpServletResponse response, ActivityPubObject entity)
-        throws IOException, ActivityPubException
+    private void handleGetOnExistingEntity(HttpServletRequest request, HttpServletResponse response,
+        ActivityPubObject entity, ActivityPubEntityVersion version) throws IOException, ActivityPubException
     {
-        response.setStatus(HttpServletResponse.SC_OK);
-        response.setContentType(ActivityPubClient.CONTENT_TYPE_STRICT);
-        response.setCharacterEncoding(StandardCharsets.UTF_8.toString());
-
+        // Without a known version, the response is not cached: e.g. the pages of the boxes depend on the user.
+        this.setCacheHeaders(response, version);
         // FIXME: check if the entity is an actor and redirect if the content type is not activitypub compliant
-        // if the entity is an inbox or an outbox we filtered out some content
-        if (entity instanceof Inbox) {
-            this.handleGetOnBox(response, (Inbox) entity);
-        } else if (entity instanceof Outbox) {
-            this.handleGetOnBox(response, (Outbox) entity);
+        // the ordered collections are served by pages
+        if (entity instanceof OrderedCollection) {
+            this.handleGetOnOrderedCollection(request, response, (OrderedCollection<ActivityPubObject>) entity);
         // else we directly serialize the entity
         } else {
-            this.activityPubJsonSerializer.serialize(response.getOutputStream(), entity);
+            this.sendEntity(response, entity);
+        }
+    }
+
+    /**
+     * Serve an ordered collection: without any paging parameter only a summary of the collection is sent, with the
+     * number of its items counted by the storage and a link to its first page. The pages are built from the items
+     * index of the storage, using the {@code max_id} and {@code min_id} parameters as cursors, so the collection is
+     * never serialized entirely.
+     */
+    private void handleGetOnOrderedCollection(HttpServletRequest request, HttpServletResponse response,
+        OrderedCollection<ActivityPubObject> collection) throws IOException, ActivityPubException
+    {
+        String collectionURL = request.getRequestURL().toString();
+        String maxId = request.getParameter(MAX_ID_PARAMETER);
+        String minId = request.getParameter(MIN_ID_PARAMETER);
+        if (!isPageRequest(request)) {
+            // Only the owner of a box can know how many activities it contains, the others only see the public ones.
+            boolean publicOnly = (collection instanceof Inbox || collection instanceof Outbox) && !isOwner(collection);
+            long totalItems = this.activityPubStorage.countItems(URI.create(collectionURL), publicOnly);
+            collection.setOrderedItems(Collections.emptyList());
+            collection.setTotalItems(Math.toIntExact(totalItems));
+            collection.setFirst(getPageURI(collectionURL, PAGE_PARAMETER, Boolean.TRUE.toString()));
+            this.sendEntity(response, collection);
+        } else {
+            try {
+                URI maxItem = (maxId != null) ? new URI(maxId) : null;
+                URI minItem = (minId != null) ? new URI(minId) : null;
+                if (collection instanceof Inbox || collection instanceof Outbox) {
+                    OrderedCollectionPage<AbstractActivity> page = this.getPage(request, maxItem, minItem);
+                    this.sendEntity(response, this.filterBoxPage(collection, page));
+                } else {
+                    this.sendEntity(response, this.getPage(request, maxItem, minItem));
+                }
+            } catch (URISyntaxException e) {
+                this.sendErrorResponse(HttpServletResponse.SC_BAD_REQUEST,
+                    String.format("Invalid paging parameter: [%s].", e.getInput()));
+            }
+        }
+    }
+
+    private <T extends ActivityPubObject> OrderedCollectionPage<T> getPage(HttpServletRequest request, URI maxItem,
+        URI minItem) throws ActivityPubException
+    {
+        String collectionURL = request.getRequestURL().toString();
+        List<URI> items =
+            this.activityPubStorage.retrieveItems(URI.create(collectionURL), maxItem, minItem, PAGE_SIZE);
+        List<ActivityPubObjectReference<T>> references = new ArrayList<>();
+        for (URI item : items) {
+            references.add(new ActivityPubObjectReference<T>().setLink(item));
+        }
+        OrderedCollectionPage<T> page = new OrderedCollectionPage<T>().setPartOf(URI.create(collectionURL));
+        page.setId(URI.create(String.format("%s?%s", collectionURL, request.getQueryString())));
+        page.setOrderedItems(references);
+
+        if (!items.isEmpty()) {
+            // The items are sent from the most recent to the oldest: the next page contains the older items.
+            boolean fullPage = items.size() == PAGE_SIZE;
+            if (fullPage || minItem != null) {
+                page.setNext(getPageURI(collectionURL, MAX_ID_PARAMETER, items.get(items.size() - 1).toString()));
+            }
+            if (maxItem != null || (fullPage && minItem != null)) {
+                page.setPrev(getPageURI(collectionURL, MIN_ID_PARAMETER, items.get(0).toString()));
+            }
+        }
+        return page;
+    }
+
+    private URI getPageURI(String collectionURL, String parameter, String value) throws ActivityPubException
+    {
+        try {
+            return new URI(String.format("%s?%s=%s", collectionURL, parameter,
+                URLEncoder.encode(value, StandardCharsets.UTF_8.toString())));
+        } catch (URISyntaxException | UnsupportedEncodingException e) {
+            throw new ActivityPubException(String.format("Error while building the URI of a page of [%s].",
+                collectionURL), e);
         }
     }
 
     /**
      * Filter to keep only public activities if the logged-in users is not an owner of the inbox/outbox.
      */
-    private void handleGetOnBox(HttpServletResponse response, OrderedCollection<AbstractActivity> box)
-        throws ActivityPubException, IOException
+    private OrderedCollection<AbstractActivity> filterBoxPage(OrderedCollection<?> box,
+        OrderedCollectionPage<AbstractActivity> page) throws ActivityPubException
+    {
+        OrderedCollection<AbstractActivity> filteredPage;
+        if (isOwner(box)) {
+            filteredPage = page;
+        } else {
+            filteredPage = this.publicActivityCollectionFilter.filter(page);
+        }
+        return filteredPage;
+    }
+
+    /**
+     * @param box an inbox or an outbox
+     * @return {@code true} if the current user is authorized to act for the actor owning the box
+     * @throws ActivityPubException in case of error when resolving the owner of the box
+     */
+    private boolean isOwner(OrderedCollection<?> box) throws ActivityPubException
     {
-        OrderedCollection<AbstractActivity> filteredBox;
         // resolve the actor with the attributed to reference
         AbstractActor actor = this.objectReferenceResolver.resolveReference(box.getAttributedTo().get(0));
         UserReference userReference = this.xWikiUserBridge.getCurrentUserReference();
+        return this.actorHandler.isAuthorizedToActFor(userReference, actor);
+    }
 
-        if (this.actorHandler.isAuthorizedToActFor(userReference, actor)) {
-            filteredBox = box;
-        } else {
-            filteredBox = this.publicActivityCollectionFilter.filter(box);
-        }
-        this.activityPubJsonSerializer.serialize(response.getOutputStream(), filteredBox);
+    private void sendEntity(HttpServletResponse response, ActivityPubObject entity)
+        throws IOException, ActivityPubException
+    {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(ActivityPubClient.CONTENT_TYPE_STRICT);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.toString());
+        this.activityPubJsonSerializer.serialize(response.getOutputStream(), entity);
     }
 
     /**
@@ -19,37 +19,62 @@
  */
 package org.xwiki.contrib.activitypub.internal.signature;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActorHandler;
 import org.xwiki.contrib.activitypub.CryptoService;
 import org.xwiki.contrib.activitypub.SignatureService;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
-import org.xwiki.crypto.params.cipher.asymmetric.PrivateKeyParameters;
 import org.xwiki.crypto.pkix.params.CertifiedKeyPair;
 import org.xwiki.crypto.store.FileStoreReference;
 import org.xwiki.crypto.store.KeyStore;
@@ -61,13 +86,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Default implementation of the signature service.
+ * <p>
+ * The keys of the actors are kept in a bounded cache once decoded, so that signing a request doesn't require to read
+ * and parse the key store.
  *
  * @version $Id$
  * @since 1.1
  */
 @Component
 @Singleton
-public class DefaultSignatureService implements SignatureService
+public class DefaultSignatureService implements SignatureService, Initializable, Disposable
 {
     /**
      * Protected date provider class.
@@ -87,6 +115,50 @@ public class DefaultSignatureService implements SignatureService
         }
     }
 
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private static final int KEYS_CACHE_SIZE = 1000;
+
+    private static final String SIGNATURE_HEADER = "Signature";
+
+    private static final String DATE_HEADER = "Date";
+
+    private static final String DIGEST_HEADER = "Digest";
+
+    private static final String REQUEST_TARGET = "(request-target)";
+
+    private static final String HEADERS_SEPARATOR = " ";
+
+    /**
+     * The headers which must be signed in a POST request: without the digest, the signature could be replayed with
+     * another body.
+     */
+    private static final List<String> POST_SIGNED_HEADERS = Arrays.asList(REQUEST_TARGET, "host",
+        DATE_HEADER.toLowerCase(Locale.ROOT), DIGEST_HEADER.toLowerCase(Locale.ROOT));
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final long MAX_CLOCK_SKEW = TimeUnit.HOURS.toMillis(12);
+
+    private static final Pattern SIGNATURE_PARAMETER = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    /**
+     * The keys of an actor, decoded lazily from the key pair stored on disk.
+     */
+    private static final class ActorKeys
+    {
+        private final CertifiedKeyPair keyPair;
+
+        private volatile PrivateKey privateKey;
+
+        private volatile String publicKeyPEM;
+
+        ActorKeys(CertifiedKeyPair keyPair)
+        {
+            this.keyPair = keyPair;
+        }
+    }
+
     private DateProvider dateProvider = new DateProvider();
 
     @Inject
@@ -102,6 +174,35 @@ public class DefaultSignatureService implements SignatureService
     @Inject
     private Environment environment;
 
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private RemotePublicKeyStore remotePublicKeyStore;
+
+    private Cache<ActorKeys> keysCache;
+
+    private final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+
+    private File keysDirectory;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.keysCache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("activitypub.signature.keys", KEYS_CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Error while creating the cache of the ActivityPub keys.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.keysCache.dispose();
+    }
+
     @Override
     public void generateSignature(HttpMethod postMethod, AbstractActor actor)
             throws ActivityPubException
@@ -109,53 +210,136 @@ public class DefaultSignatureService implements SignatureService
         String date = this.dateProvider.getFormatedDate();
 
         try {
-            URI postMethodURI = postMethod.getURI();
+            org.apache.commons.httpclient.URI postMethodURI = postMethod.getURI();
             String uriPath = postMethodURI.getPath();
             String host = postMethodURI.getHost();
-            String signatureStr = String.format("(request-target): post %s\nhost: %s\ndate: %s", uriPath, host, date);
+            String digest = String.format("%s=%s", DIGEST_ALGORITHM, this.getDigest(this.getBody(postMethod)));
+            String signatureStr = String.format("(request-target): post %s\nhost: %s\ndate: %s\ndigest: %s", uriPath,
+                host, date, digest);
 
             byte[] bytess = this.sign(actor, signatureStr);
             String signatureB64 = Base64.getEncoder().encodeToString(bytess);
-            String actorAPURL = actor.getId().toASCIIString();
-            String signature = String.format("keyId=\"%s\",headers=\"(request-target) host date\",signature=\"%s\"",
-                actorAPURL, signatureB64);
-            postMethod.addRequestHeader("Signature", signature);
-            postMethod.addRequestHeader("Date", date);
+            String signature = String.format("keyId=\"%s\",headers=\"%s\",signature=\"%s\"", this.getKeyId(actor),
+                String.join(HEADERS_SEPARATOR, POST_SIGNED_HEADERS), signatureB64);
+            postMethod.addRequestHeader(SIGNATURE_HEADER, signature);
+            postMethod.addRequestHeader(DATE_HEADER, date);
+            postMethod.addRequestHeader(DIGEST_HEADER, digest);
         } catch (URIException e) {
             throw new ActivityPubException("Error while retrieving the URI from post method", e);
         }
 
     }
 
-    private CertifiedKeyPair getCertifiedKeyPair(AbstractActor actor) throws ActivityPubException
+    private String getKeyId(AbstractActor actor)
+    {
+        // The actors created before their key was described are identified by themselves.
+        if (actor.getPublicKey() != null && actor.getPublicKey().getId() != null) {
+            return actor.getPublicKey().getId();
+        } else {
+            return actor.getId().toASCIIString();
+        }
+    }
+
+    private byte[] getBody(HttpMethod method) throws ActivityPubException
+    {
+        byte[] result = new byte[0];
+        if (method instanceof EntityEnclosingMethod) {
+            RequestEntity entity = ((EntityEnclosingMethod) method).getRequestEntity();
+            if (entity != null) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try {
+                    entity.writeRequest(body);
+                } catch (IOException e) {
+                    throw new ActivityPubException("Error while reading the body of the request to sign.", e);
+                }
+                result = body.toByteArray();
+            }
+        }
+        return result;
+    }
+
+    private String getDigest(byte[] body) throws ActivityPubException
+    {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new ActivityPubException("Error while computing the digest of a request.", e);
+        }
+    }
+
+    /**
+     * Retrieve the keys of the given actor: they are read from the key store only if they're not in the cache yet.
+     */
+    private ActorKeys getActorKeys(AbstractActor actor) throws ActivityPubException
     {
         DocumentReference dr = this.actorHandlerProvider
                 .get()
                 .getStoreDocument(actor);
 
-        CertifiedKeyPair stored;
-        try {
-            stored = this.keyStore.retrieve(this.buildFileStoreReference(dr));
-        } catch (KeyStoreException e) {
-            stored = null;
+        String cacheKey = getCacheKey(dr);
+        ActorKeys keys = this.keysCache.get(cacheKey);
+        if (keys == null) {
+            CertifiedKeyPair stored;
+            try {
+                stored = this.keyStore.retrieve(this.buildFileStoreReference(dr));
+            } catch (KeyStoreException e) {
+                stored = null;
+            }
+
+            if (stored == null) {
+                stored = this.initKeys(dr);
+            }
+            keys = new ActorKeys(stored);
+            this.keysCache.set(cacheKey, keys);
         }
+        return keys;
+    }
+
+    private static String getCacheKey(DocumentReference storeDocument)
+    {
+        return storeDocument.toString();
+    }
+
+    @Override
+    public void invalidate(AbstractActor actor) throws ActivityPubException
+    {
+        this.keysCache.remove(getCacheKey(this.actorHandlerProvider.get().getStoreDocument(actor)));
+    }
 
-        if (stored != null) {
-            return stored;
+    private PrivateKey getPrivateKey(AbstractActor actor) throws NoSuchAlgorithmException, InvalidKeySpecException,
+        ActivityPubException
+    {
+        ActorKeys keys = this.getActorKeys(actor);
+        PrivateKey key = keys.privateKey;
+        if (key == null) {
+            byte[] encoded = keys.keyPair.getPrivateKey().getEncoded();
+            KeyFactory rsa = KeyFactory.getInstance("RSA");
+            key = rsa.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            keys.privateKey = key;
         }
+        return key;
+    }
 
-        return this.initKeys(dr);
+    /**
+     * @return a {@link Signature} instance dedicated to the current thread: they are not thread-safe, but they can be
+     *          reused once initialized with a new key.
+     */
+    private Signature getSignature() throws NoSuchAlgorithmException
+    {
+        Signature signature = this.signatures.get();
+        if (signature == null) {
+            signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            this.signatures.set(signature);
+        }
+        return signature;
     }
 
     private byte[] sign(AbstractActor actor, String signedString)
         throws ActivityPubException
     {
         try {
-            PrivateKeyParameters pk = this.getCertifiedKeyPair(actor).getPrivateKey();
-            byte[] encoded = pk.getEncoded();
-            KeyFactory rsa = KeyFactory.getInstance("RSA");
-            PrivateKey key = rsa.generatePrivate(new PKCS8EncodedKeySpec(encoded));
-            Signature sign = Signature.getInstance("SHA256withRSA");
+            PrivateKey key = this.getPrivateKey(actor);
+            Signature sign = this.getSignature();
             sign.initSign(key);
             sign.update(signedString.getBytes(UTF_8));
             return sign.sign();
@@ -179,25 +363,156 @@ public class DefaultSignatureService implements SignatureService
 
     private FileStoreReference buildFileStoreReference(DocumentReference user)
     {
-        File permDir = this.environment.getPermanentDirectory();
-        File apKeysDir = new File(permDir, "activitypub");
-        apKeysDir.mkdirs();
-        File activitypub = new File(apKeysDir, String.format("%s.key", user.toString()));
+        File activitypub = new File(this.getKeysDirectory(), String.format("%s.key", user.toString()));
         return new FileStoreReference(activitypub);
     }
 
+    private synchronized File getKeysDirectory()
+    {
+        if (this.keysDirectory == null) {
+            File permDir = this.environment.getPermanentDirectory();
+            File apKeysDir = new File(permDir, "activitypub");
+            apKeysDir.mkdirs();
+            this.keysDirectory = apKeysDir;
+        }
+        return this.keysDirectory;
+    }
+
     @Override
     public String getPublicKeyPEM(AbstractActor actor) throws ActivityPubException
     {
-        byte[] encoded = this
-                .getCertifiedKeyPair(actor)
-                .getPublicKey()
-                .getEncoded();
+        ActorKeys keys = this.getActorKeys(actor);
+        String pem = keys.publicKeyPEM;
+        if (pem == null) {
+            byte[] encoded = keys.keyPair.getPublicKey().getEncoded();
+            pem = String.format("-----BEGIN PUBLIC KEY-----\n"
+                            + "%s\n"
+                            + "-----END PUBLIC KEY-----\n",
+                    Base64.getEncoder().encodeToString(encoded));
+            keys.publicKeyPEM = pem;
+        }
+        return pem;
+    }
 
-        return String.format("-----BEGIN PUBLIC KEY-----\n"
-                        + "%s\n"
-                        + "-----END PUBLIC KEY-----\n",
-                Base64.getEncoder().encodeToString(encoded));
+    @Override
+    public URI verifySignature(HttpServletRequest request) throws ActivityPubException
+    {
+        String header = request.getHeader(SIGNATURE_HEADER);
+        if (header == null) {
+            throw new ActivityPubException("The request is not signed.");
+        }
+        Map<String, String> parameters = new HashMap<>();
+        Matcher matcher = SIGNATURE_PARAMETER.matcher(header);
+        while (matcher.find()) {
+            parameters.put(matcher.group(1), matcher.group(2));
+        }
+        String keyId = parameters.get("keyId");
+        String signature = parameters.get("signature");
+        if (keyId == null || signature == null) {
+            throw new ActivityPubException(String.format("Invalid signature header [%s].", header));
+        }
+        // Only the date is signed when the headers are not specified.
+        String signedHeaders = parameters.getOrDefault("headers", DATE_HEADER);
+        List<String> headers = Arrays.asList(signedHeaders.toLowerCase(Locale.ROOT).split(HEADERS_SEPARATOR));
+        if ("post".equalsIgnoreCase(request.getMethod()) && !headers.containsAll(POST_SIGNED_HEADERS)) {
+            throw new ActivityPubException(String.format("The signature of a POST request must cover the headers [%s].",
+                String.join(HEADERS_SEPARATOR, POST_SIGNED_HEADERS)));
+        }
+        this.checkDate(request, headers);
+        byte[] signingString = this.getSigningString(request, headers).getBytes(UTF_8);
+
+        try {
+            byte[] signatureBytes = Base64.getDecoder().decode(signature);
+            URI keyURI = new URI(keyId);
+            RemotePublicKeyStore.ActorPublicKey publicKey = this.remotePublicKeyStore.getPublicKey(keyURI, false);
+            if (!this.verify(publicKey.getPublicKey(), signingString, signatureBytes)) {
+                // The key might have been rotated since it has been retrieved.
+                publicKey = this.remotePublicKeyStore.getPublicKey(keyURI, true);
+                if (!this.verify(publicKey.getPublicKey(), signingString, signatureBytes)) {
+                    throw new ActivityPubException(
+                        String.format("The signature cannot be verified with the key [%s].", keyId));
+                }
+            }
+            return publicKey.getOwner();
+        } catch (IllegalArgumentException | URISyntaxException e) {
+            throw new ActivityPubException(String.format("Invalid signature header [%s].", header), e);
+        }
+    }
+
+    private void checkDate(HttpServletRequest request, List<String> signedHeaders) throws ActivityPubException
+    {
+        if (signedHeaders.contains(DATE_HEADER.toLowerCase(Locale.ROOT))) {
+            String date = request.getHeader(DATE_HEADER);
+            try {
+                long time = ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                if (Math.abs(System.currentTimeMillis() - time) > MAX_CLOCK_SKEW) {
+                    throw new ActivityPubException(String.format("The date of the request [%s] is too old.", date));
+                }
+            } catch (NullPointerException | DateTimeParseException e) {
+                throw new ActivityPubException(String.format("Invalid date header [%s].", date), e);
+            }
+        }
+    }
+
+    private String getSigningString(HttpServletRequest request, List<String> signedHeaders)
+        throws ActivityPubException
+    {
+        StringBuilder result = new StringBuilder();
+        for (String name : signedHeaders) {
+            if (result.length() > 0) {
+                result.append('\n');
+            }
+            result.append(name).append(": ");
+            if (REQUEST_TARGET.equals(name)) {
+                result.append(request.getMethod().toLowerCase(Locale.ROOT)).append(' ').append(request.getRequestURI());
+                if (request.getQueryString() != null) {
+                    result.append('?').append(request.getQueryString());
+                }
+            } else {
+                String value = request.getHeader(name);
+                if (value == null) {
+                    throw new ActivityPubException(String.format("The signed header [%s] is missing.", name));
+                }
+                result.append(value);
+            }
+        }
+        return result.toString();
+    }
+
+    private boolean verify(PublicKey key, byte[] signingString, byte[] signature) throws ActivityPubException
+    {
+        try {
+            Signature verifier = this.getSignature();
+            verifier.initVerify(key);
+            verifier.update(signingString);
+            return verifier.verify(signature);
+        } catch (SignatureException e) {
+            return false;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new ActivityPubException("Error while verifying a signature.", e);
+        }
+    }
+
+    @Override
+    public void verifyDigest(HttpServletRequest request, byte[] body) throws ActivityPubException
+    {
+        String digest = request.getHeader(DIGEST_HEADER);
+        if (digest == null) {
+            throw new ActivityPubException("The request does not have any Digest header.");
+        }
+        String expected = null;
+        for (String value : digest.split(",")) {
+            String[] parts = value.trim().split("=", 2);
+            if (parts.length == 2 && DIGEST_ALGORITHM.equalsIgnoreCase(parts[0])) {
+                expected = parts[1];
+            }
+        }
+        if (expected == null) {
+            throw new ActivityPubException(String.format("Unsupported digest [%s].", digest));
+        }
+        if (!this.getDigest(body).equals(expected)) {
+            throw new ActivityPubException("The digest of the body does not match the Digest header.");
+        }
     }
 
     /**
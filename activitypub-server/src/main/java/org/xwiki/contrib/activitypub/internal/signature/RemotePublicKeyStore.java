@@ -0,0 +1,244 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.signature;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
+
+/**
+ * Retrieve the public keys used to verify the signatures of the incoming requests.
+ * <p>
+ * The keys are decoded from the {@code publicKey} property of their owner and kept in a bounded cache for a limited
+ * time. When a signature cannot be verified with a cached key, the key can be fetched again from its owner, to handle
+ * key rotations.
+ * <p>
+ * The owner must be the document identified by the key identifier without its fragment, and its key must have the
+ * requested identifier: a server cannot provide the key of another actor.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = RemotePublicKeyStore.class)
+@Singleton
+public class RemotePublicKeyStore implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    private static final long TIME_TO_LIVE = TimeUnit.DAYS.toMillis(1);
+
+    private static final long MIN_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String PEM_HEADER = "-----BEGIN PUBLIC KEY-----";
+
+    private static final String PEM_FOOTER = "-----END PUBLIC KEY-----";
+
+    /**
+     * A decoded public key with its owner.
+     */
+    public static final class ActorPublicKey
+    {
+        private final URI owner;
+
+        private final PublicKey publicKey;
+
+        private final long retrievalTime;
+
+        ActorPublicKey(URI owner, PublicKey publicKey)
+        {
+            this.owner = owner;
+            this.publicKey = publicKey;
+            this.retrievalTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the identifier of the actor who owns the key.
+         */
+        public URI getOwner()
+        {
+            return this.owner;
+        }
+
+        /**
+         * @return the decoded public key.
+         */
+        public PublicKey getPublicKey()
+        {
+            return this.publicKey;
+        }
+    }
+
+    @Inject
+    private ActivityPubObjectReferenceResolver resolver;
+
+    @Inject
+    private ActivityPubClient activityPubClient;
+
+    @Inject
+    private ActivityPubJsonParser jsonParser;
+
+    @Inject
+    private ActivityPubObjectCache objectCache;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<ActorPublicKey> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(
+                new LRUCacheConfiguration("activitypub.signature.remotekeys", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Error while creating the cache of the ActivityPub remote keys.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * Retrieve the public key with the given identifier.
+     *
+     * @param keyId the identifier of the key, as given in the signature of a request.
+     * @param refresh {@code true} to ignore the cached key and the stored owner and to fetch the key from its owner:
+     *            to avoid being used to flood the remote servers, a key is not fetched again if it has been retrieved
+     *            less than a minute ago.
+     * @return the decoded public key.
+     * @throws ActivityPubException in case of error when retrieving or decoding the key.
+     */
+    public ActorPublicKey getPublicKey(URI keyId, boolean refresh) throws ActivityPubException
+    {
+        String cacheKey = keyId.toString();
+        ActorPublicKey result = this.cache.get(cacheKey);
+        long age = (result != null) ? System.currentTimeMillis() - result.retrievalTime : 0;
+        if (result == null || age > TIME_TO_LIVE || (refresh && age > MIN_REFRESH_INTERVAL)) {
+            AbstractActor owner = this.getOwner(keyId, refresh);
+            this.checkPublicKey(keyId, owner);
+            result = new ActorPublicKey(owner.getId(), this.decode(owner.getPublicKey().getPublicKeyPem()));
+            this.cache.set(cacheKey, result);
+        }
+        return result;
+    }
+
+    private AbstractActor getOwner(URI keyId, boolean refresh) throws ActivityPubException
+    {
+        ActivityPubObject owner;
+        URI ownerId;
+        try {
+            // The key is generally described in the document of its owner, identified by a fragment.
+            ownerId = new URI(keyId.getScheme(), keyId.getSchemeSpecificPart(), null);
+            if (refresh) {
+                // The owner is fetched directly from its server: the cached one is outdated.
+                this.objectCache.invalidate(ownerId);
+                owner = this.fetch(ownerId);
+            } else {
+                owner = this.resolver.resolveReference(new ActivityPubObjectReference<>().setLink(ownerId));
+            }
+        } catch (URISyntaxException e) {
+            throw new ActivityPubException(String.format("Invalid key identifier [%s].", keyId), e);
+        }
+        if (!(owner instanceof AbstractActor)) {
+            throw new ActivityPubException(String.format("The key [%s] is not owned by an actor.", keyId));
+        }
+        if (!ownerId.equals(owner.getId())) {
+            throw new ActivityPubException(String.format("The key [%s] is described by another actor [%s].", keyId,
+                owner.getId()));
+        }
+        return (AbstractActor) owner;
+    }
+
+    private void checkPublicKey(URI keyId, AbstractActor owner) throws ActivityPubException
+    {
+        if (owner.getPublicKey() == null || owner.getPublicKey().getPublicKeyPem() == null) {
+            throw new ActivityPubException(String.format("The actor [%s] does not have any public key.",
+                owner.getId()));
+        }
+        if (!keyId.toString().equals(owner.getPublicKey().getId())) {
+            throw new ActivityPubException(String.format("The key of the actor [%s] is [%s], not [%s].",
+                owner.getId(), owner.getPublicKey().getId(), keyId));
+        }
+        if (!owner.getId().toString().equals(owner.getPublicKey().getOwner())) {
+            throw new ActivityPubException(String.format("The key [%s] is owned by [%s], not by [%s].", keyId,
+                owner.getPublicKey().getOwner(), owner.getId()));
+        }
+    }
+
+    private ActivityPubObject fetch(URI ownerId) throws ActivityPubException
+    {
+        HttpMethod method = null;
+        try {
+            method = this.activityPubClient.get(ownerId);
+            this.activityPubClient.checkAnswer(method);
+            return this.jsonParser.parse(this.activityPubClient.getResponseBodyAsStream(method));
+        } catch (IOException e) {
+            throw new ActivityPubException(String.format("Error while retrieving the key owner [%s].", ownerId), e);
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    private PublicKey decode(String pem) throws ActivityPubException
+    {
+        String base64 = pem.replace(PEM_HEADER, "").replace(PEM_FOOTER, "").replaceAll("\\s", "");
+        try {
+            byte[] encoded = Base64.getDecoder().decode(base64);
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (IllegalArgumentException | NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new ActivityPubException("Error while decoding a public key.", e);
+        }
+    }
+}
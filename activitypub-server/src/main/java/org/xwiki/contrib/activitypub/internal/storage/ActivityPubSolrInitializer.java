@@ -20,6 +20,8 @@
 package org.xwiki.contrib.activitypub.internal.storage;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,11 +30,16 @@ import javax.inject.Singleton;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.schema.AnalyzerDefinition;
 import org.apache.solr.client.solrj.request.schema.FieldTypeDefinition;
 import org.apache.solr.client.solrj.request.schema.SchemaRequest;
 import org.apache.solr.client.solrj.response.schema.SchemaResponse;
+import org.apache.solr.schema.BinaryField;
+import org.apache.solr.schema.BoolField;
 import org.apache.solr.schema.DatePointField;
 import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.LongPointField;
+import org.apache.solr.schema.TextField;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.search.solr.SolrCoreInitializer;
 import org.xwiki.search.solr.SolrException;
@@ -53,6 +60,15 @@ public class ActivityPubSolrInitializer implements SolrCoreInitializer
     private static final String CONTENT = "content";
     private static final String STRING_TYPE = "string";
     private static final String DATE_TYPE = "pdate";
+    private static final String LONG_TYPE = "plong";
+    private static final String BINARY_TYPE = "binary";
+    private static final String BOOLEAN_TYPE = "boolean";
+    private static final String HANDLE_PREFIX_TYPE = "activitypub_handle_prefix";
+    private static final String TEXT_PREFIX_TYPE = "activitypub_text_prefix";
+    private static final String CLASS = "class";
+    private static final String LOWER_CASE_FILTER = "solr.LowerCaseFilterFactory";
+    private static final String MIN_GRAM_SIZE = "1";
+    private static final String MAX_GRAM_SIZE = "64";
 
     @Override
     public String getCoreName()
@@ -68,9 +84,33 @@ public class ActivityPubSolrInitializer implements SolrCoreInitializer
 //            if (!this.schemaAlreadyExists(response)) {
             this.createFieldTypes(client);
             this.createField(client, CONTENT, STRING_TYPE);
+            this.createStoredOnlyField(client, "binaryContent", BINARY_TYPE);
+            this.createStoredOnlyField(client, "contentHash", STRING_TYPE);
             this.createField(client, TYPE, STRING_TYPE);
             // FIXME: we should rely on the constant introduced by the new SolR API once it will be released.
             this.createField(client, "updatedDate", DATE_TYPE);
+            this.createField(client, "collection", STRING_TYPE);
+            this.createField(client, "item", STRING_TYPE);
+            this.createField(client, "itemIndex", LONG_TYPE);
+            this.createField(client, "activity", STRING_TYPE);
+            this.createField(client, "inbox", STRING_TYPE);
+            this.createField(client, "expand", STRING_TYPE);
+            this.createField(client, "attempts", LONG_TYPE);
+            this.createField(client, "nextAttempt", DATE_TYPE);
+            this.createField(client, "wiki", STRING_TYPE);
+            this.createStoredOnlyField(client, "remoteETag", STRING_TYPE);
+            this.createStoredOnlyField(client, "remoteLastModified", STRING_TYPE);
+            this.createField(client, ActorDirectory.HANDLE_FIELD, HANDLE_PREFIX_TYPE);
+            this.createField(client, ActorDirectory.DOMAIN_FIELD, HANDLE_PREFIX_TYPE);
+            this.createField(client, ActorDirectory.DISPLAY_NAME_FIELD, TEXT_PREFIX_TYPE);
+            // The same field holds the actor of the directory entries and the actor of the activities.
+            this.createField(client, ActorDirectory.ACTOR_FIELD, STRING_TYPE);
+            this.createField(client, IndexedEntityFields.OBJECT_FIELD, STRING_TYPE);
+            this.createMultiValuedField(client, IndexedEntityFields.ATTRIBUTED_TO_FIELD, STRING_TYPE);
+            this.createField(client, IndexedEntityFields.IN_REPLY_TO_FIELD, STRING_TYPE);
+            this.createField(client, IndexedEntityFields.PUBLISHED_FIELD, DATE_TYPE);
+            this.createMultiValuedField(client, IndexedEntityFields.AUDIENCE_FIELD, STRING_TYPE);
+            this.createField(client, IndexedEntityFields.PUBLIC_FIELD, BOOLEAN_TYPE);
 //            }
         } catch (SolrServerException | IOException | org.apache.solr.common.SolrException e)
         {
@@ -82,13 +122,63 @@ public class ActivityPubSolrInitializer implements SolrCoreInitializer
     // Note that we also need the change from
     // https://github.com/xwiki/xwiki-platform/commit/4fc3a7102ee2ea2beae612ebd67f9089a52aa7c4
     private void createFieldTypes(SolrClient client) throws IOException, SolrServerException
+    {
+        this.createFieldType(client, DATE_TYPE, DatePointField.class.getName());
+        this.createFieldType(client, LONG_TYPE, LongPointField.class.getName());
+        this.createFieldType(client, BINARY_TYPE, BinaryField.class.getName(), false);
+        this.createFieldType(client, BOOLEAN_TYPE, BoolField.class.getName());
+        // The handles and domains are indexed as a whole, while the names are indexed word by word.
+        this.createPrefixFieldType(client, HANDLE_PREFIX_TYPE, "solr.KeywordTokenizerFactory");
+        this.createPrefixFieldType(client, TEXT_PREFIX_TYPE, "solr.StandardTokenizerFactory");
+    }
+
+    /**
+     * Create a text field type whose values are indexed with all their prefixes (edge n-grams), so that the prefix
+     * searches don't need any wildcard: the query is only lower-cased and matched against the indexed prefixes.
+     */
+    private void createPrefixFieldType(SolrClient client, String name, String tokenizer)
+    {
+        try {
+            FieldTypeDefinition definition = new FieldTypeDefinition();
+            Map<String, Object> typeAttributes = new HashMap<>();
+            typeAttributes.put(FieldType.TYPE_NAME, name);
+            typeAttributes.put(FieldType.CLASS_NAME, TextField.class.getName());
+            definition.setAttributes(typeAttributes);
+
+            Map<String, Object> edgeNGramFilter = new HashMap<>();
+            edgeNGramFilter.put(CLASS, "solr.EdgeNGramFilterFactory");
+            edgeNGramFilter.put("minGramSize", MIN_GRAM_SIZE);
+            edgeNGramFilter.put("maxGramSize", MAX_GRAM_SIZE);
+            AnalyzerDefinition indexAnalyzer = new AnalyzerDefinition();
+            indexAnalyzer.setTokenizer(Collections.singletonMap(CLASS, tokenizer));
+            indexAnalyzer.setFilters(Arrays.asList(Collections.singletonMap(CLASS, LOWER_CASE_FILTER),
+                edgeNGramFilter));
+            definition.setIndexAnalyzer(indexAnalyzer);
+
+            AnalyzerDefinition queryAnalyzer = new AnalyzerDefinition();
+            queryAnalyzer.setTokenizer(Collections.singletonMap(CLASS, tokenizer));
+            queryAnalyzer.setFilters(Collections.singletonList(Collections.singletonMap(CLASS, LOWER_CASE_FILTER)));
+            definition.setQueryAnalyzer(queryAnalyzer);
+
+            new SchemaRequest.AddFieldType(definition).process(client);
+        } catch (Exception e) {
+
+        }
+    }
+
+    private void createFieldType(SolrClient client, String name, String className)
+    {
+        this.createFieldType(client, name, className, true);
+    }
+
+    private void createFieldType(SolrClient client, String name, String className, boolean docValues)
     {
         try {
             FieldTypeDefinition definition = new FieldTypeDefinition();
             Map<String, Object> typeAttributes = new HashMap<>();
-            typeAttributes.put(FieldType.TYPE_NAME, DATE_TYPE);
-            typeAttributes.put(FieldType.CLASS_NAME, DatePointField.class.getName());
-            typeAttributes.put("docValues", true);
+            typeAttributes.put(FieldType.TYPE_NAME, name);
+            typeAttributes.put(FieldType.CLASS_NAME, className);
+            typeAttributes.put("docValues", docValues);
             definition.setAttributes(typeAttributes);
             new SchemaRequest.AddFieldType(definition).process(client);
         } catch (Exception e) {
@@ -107,6 +197,31 @@ public class ActivityPubSolrInitializer implements SolrCoreInitializer
         }
     }
 
+    private void createMultiValuedField(SolrClient client, String name, String type)
+    {
+        try {
+            Map<String, Object> fieldAttributes = new HashMap<>();
+            fieldAttributes.put(NAME, name);
+            fieldAttributes.put(TYPE, type);
+            fieldAttributes.put("multiValued", true);
+            new SchemaRequest.AddField(fieldAttributes).process(client);
+        } catch (Exception e) {
+        }
+    }
+
+    private void createStoredOnlyField(SolrClient client, String name, String type)
+    {
+        try {
+            Map<String, Object> fieldAttributes = new HashMap<>();
+            fieldAttributes.put(NAME, name);
+            fieldAttributes.put(TYPE, type);
+            fieldAttributes.put("indexed", false);
+            fieldAttributes.put("stored", true);
+            new SchemaRequest.AddField(fieldAttributes).process(client);
+        } catch (Exception e) {
+        }
+    }
+
     private boolean schemaAlreadyExists(SchemaResponse.FieldsResponse response)
     {
         String content = CONTENT;
@@ -0,0 +1,468 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+
+/**
+ * Write-behind pipeline for the ActivityPub Solr core.
+ * <p>
+ * Documents are pushed in a bounded queue and written by a dedicated thread in batches: each batch is sent with a
+ * single {@code add} call followed by a single soft commit, so concurrent writers share the cost of a commit instead
+ * of each paying for a hard one. A hard commit is still performed periodically, even if no other write comes, and
+ * when the component is disposed.
+ * Until a document has been committed, it's kept in memory so that it can be read back with
+ * {@link #getPendingDocument(String)}. Deletions are performed by the same thread, after the queued documents have been
+ * written.
+ * <p>
+ * The callers are never told that a write failed: a batch which cannot be written, e.g. because Solr is temporarily
+ * unavailable, is kept in memory and written again after a delay growing with the failures, until it succeeds. The
+ * queued documents and deletions wait for it, so that they are still applied in order, and the queue eventually blocks
+ * the writers if Solr stays unavailable.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActivityPubSolrWriter.class)
+@Singleton
+public class ActivityPubSolrWriter implements Initializable, Disposable
+{
+    static final String CORE_NAME = "activitypub";
+
+    private static final String ID_FIELD = "id";
+
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long FLUSH_INTERVAL = 100;
+
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long HARD_COMMIT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long DISPOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private Logger logger;
+
+    private final BlockingQueue<SolrInputDocument> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Map<String, SolrInputDocument> pendingDocuments = new ConcurrentHashMap<>();
+
+    private final Set<String> pendingDeletions = ConcurrentHashMap.newKeySet();
+
+    private final Object flushLock = new Object();
+
+    private volatile boolean running;
+
+    private Thread flusherThread;
+
+    private long lastHardCommit;
+
+    private boolean uncommittedWrites;
+
+    /**
+     * The last batch which could not be written: it's written again before the documents queued after it.
+     */
+    private List<SolrInputDocument> failedBatch = Collections.emptyList();
+
+    private long retryDelay;
+
+    private long nextRetryTime;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.lastHardCommit = System.currentTimeMillis();
+        this.running = true;
+        this.flusherThread = new Thread(this::runFlusher, "ActivityPub Solr writer");
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.running = false;
+        synchronized (this.flushLock) {
+            this.flushLock.notifyAll();
+        }
+        try {
+            this.flusherThread.join(DISPOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.flushLock) {
+            // Last chance to write the pending changes: no one will retry them afterwards.
+            if (!flushAll()) {
+                this.logger.error("The pending changes of the ActivityPub Solr core could not be written, [{}] "
+                    + "documents and [{}] deletions are lost.", this.pendingDocuments.size(),
+                    this.pendingDeletions.size());
+            }
+            if (this.uncommittedWrites) {
+                commit(true);
+            }
+        }
+    }
+
+    /**
+     * Queue the given document to be written in Solr. This call blocks only if the queue is full, i.e. if Solr cannot
+     * keep up with the writes.
+     *
+     * @param document the document to write.
+     * @throws ActivityPubException if the thread is interrupted while waiting for space in the queue, or if the
+     *             pipeline is stopped and the document cannot be written.
+     */
+    public void add(SolrInputDocument document) throws ActivityPubException
+    {
+        String id = (String) document.getFieldValue(ID_FIELD);
+        if (!this.running) {
+            // The pipeline has been stopped: there's no one left to flush the queue.
+            this.writeNow(Collections.singletonList(document));
+            return;
+        }
+        this.markPending(document);
+        try {
+            this.queue.put(document);
+        } catch (InterruptedException e) {
+            this.pendingDocuments.remove(id, document);
+            Thread.currentThread().interrupt();
+            throw new ActivityPubException(String.format("Interrupted while queuing the document [%s].", id), e);
+        }
+    }
+
+    /**
+     * Queue the given documents to be written in Solr together: unless they exceed the size of a batch, they are
+     * written with a single {@code add} call followed by a single commit.
+     *
+     * @param documents the documents to write.
+     * @throws ActivityPubException if the thread is interrupted while waiting for space in the queue, or if the
+     *             pipeline is stopped and the documents cannot be written.
+     */
+    public void addAll(Collection<SolrInputDocument> documents) throws ActivityPubException
+    {
+        if (!this.running) {
+            this.writeNow(new ArrayList<>(documents));
+            return;
+        }
+        List<SolrInputDocument> batch = new ArrayList<>(documents);
+        int queued = 0;
+        // Holding the lock prevents the flusher from splitting the documents between several batches.
+        synchronized (this.flushLock) {
+            while (queued < batch.size() && this.queue.offer(batch.get(queued))) {
+                this.markPending(batch.get(queued++));
+            }
+        }
+        // The queue is full: the flusher needs the lock to make room for the remaining documents.
+        for (SolrInputDocument document : batch.subList(queued, batch.size())) {
+            this.add(document);
+        }
+    }
+
+    private void writeNow(List<SolrInputDocument> documents) throws ActivityPubException
+    {
+        synchronized (this.flushLock) {
+            if (!write(documents)) {
+                throw new ActivityPubException(
+                    String.format("Error while writing [%s] documents in Solr.", documents.size()));
+            }
+            commit(true);
+        }
+    }
+
+    private void markPending(SolrInputDocument document)
+    {
+        String id = (String) document.getFieldValue(ID_FIELD);
+        this.pendingDeletions.remove(id);
+        this.pendingDocuments.put(id, document);
+    }
+
+    /**
+     * Queue the deletion of the document with the given identifier. The deletion is performed after the documents
+     * queued so far have been written: until then, the document might still be returned by Solr queries.
+     *
+     * @param id the identifier of the document to delete.
+     */
+    public void delete(String id)
+    {
+        if (!this.running) {
+            synchronized (this.flushLock) {
+                if (execute(client -> client.deleteById(id), 1)) {
+                    commit(true);
+                } else {
+                    this.logger.error("Error while deleting the document [{}] from Solr.", id);
+                }
+            }
+            return;
+        }
+        this.pendingDocuments.remove(id);
+        this.pendingDeletions.add(id);
+    }
+
+    /**
+     * Retrieve a document that has been queued but not yet committed.
+     *
+     * @param id the identifier of the document.
+     * @return the pending document or {@code null} if there's no pending write for this identifier.
+     */
+    public SolrDocument getPendingDocument(String id)
+    {
+        SolrDocument result = null;
+        SolrInputDocument inputDocument = this.pendingDocuments.get(id);
+        if (inputDocument != null) {
+            result = toSolrDocument(inputDocument);
+        }
+        return result;
+    }
+
+    /**
+     * Check if the deletion of a document has been queued but not yet committed: until then, the document might still
+     * be returned by Solr.
+     *
+     * @param id the identifier of the document.
+     * @return {@code true} if there's a pending deletion for this identifier.
+     */
+    public boolean isPendingDeletion(String id)
+    {
+        return this.pendingDeletions.contains(id);
+    }
+
+    /**
+     * Retrieve the documents that have been queued but not yet committed and which contains the given field value.
+     *
+     * @param fieldName the name of the field to check.
+     * @param value the expected value of the field.
+     * @return the pending documents matching the given field value.
+     */
+    public List<SolrDocument> getPendingDocuments(String fieldName, Object value)
+    {
+        List<SolrDocument> result = new ArrayList<>();
+        for (SolrInputDocument inputDocument : this.pendingDocuments.values()) {
+            if (value.equals(inputDocument.getFieldValue(fieldName))) {
+                result.add(toSolrDocument(inputDocument));
+            }
+        }
+        return result;
+    }
+
+    private SolrDocument toSolrDocument(SolrInputDocument inputDocument)
+    {
+        SolrDocument result = new SolrDocument();
+        for (String fieldName : inputDocument.getFieldNames()) {
+            result.setField(fieldName, inputDocument.getFieldValue(fieldName));
+        }
+        return result;
+    }
+
+    /**
+     * Write and commit all the documents queued so far, including the ones which previously failed to be written.
+     *
+     * @return {@code true} if all the documents and deletions have been written, {@code false} if some of them are
+     *         still pending because of an error
+     */
+    public boolean flush()
+    {
+        synchronized (this.flushLock) {
+            return flushAll();
+        }
+    }
+
+    private void runFlusher()
+    {
+        while (this.running) {
+            synchronized (this.flushLock) {
+                try {
+                    if (this.queue.isEmpty() || !this.failedBatch.isEmpty()) {
+                        // Waiting here gives the time for concurrent writers to fill the next batch.
+                        this.flushLock.wait(FLUSH_INTERVAL);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (System.currentTimeMillis() >= this.nextRetryTime) {
+                    flushAll();
+                }
+                if (this.uncommittedWrites && isHardCommitDue()) {
+                    // No write might come after a burst: the soft-committed documents still need to be persisted.
+                    commit(true);
+                }
+            }
+        }
+    }
+
+    private boolean flushAll()
+    {
+        // The deletions are performed only after the documents queued before them have been written.
+        boolean result = flushQueue() && flushDeletions();
+        if (result) {
+            this.retryDelay = 0;
+        } else {
+            this.retryDelay = Math.min(Math.max(this.retryDelay * 2, FLUSH_INTERVAL), MAX_RETRY_DELAY);
+            this.nextRetryTime = System.currentTimeMillis() + this.retryDelay;
+            this.logger.warn("Error while writing in Solr, the pending changes will be written again in [{}] ms.",
+                this.retryDelay);
+        }
+        return result;
+    }
+
+    private boolean flushQueue()
+    {
+        boolean result = this.failedBatch.isEmpty() || flushBatch(this.failedBatch);
+        while (result && !this.queue.isEmpty()) {
+            List<SolrInputDocument> batch = new ArrayList<>(Math.min(this.queue.size(), MAX_BATCH_SIZE));
+            this.queue.drainTo(batch, MAX_BATCH_SIZE);
+            result = flushBatch(batch);
+        }
+        return result;
+    }
+
+    private boolean flushBatch(List<SolrInputDocument> batch)
+    {
+        boolean result = write(batch);
+        if (result) {
+            commit(isHardCommitDue());
+            for (SolrInputDocument document : batch) {
+                this.pendingDocuments.remove(document.getFieldValue(ID_FIELD), document);
+            }
+            this.failedBatch = Collections.emptyList();
+        } else {
+            // The documents stay pending, so that they can still be read until they're written.
+            this.failedBatch = batch;
+        }
+        return result;
+    }
+
+    private boolean flushDeletions()
+    {
+        boolean result = true;
+        if (!this.pendingDeletions.isEmpty()) {
+            List<String> ids = new ArrayList<>(this.pendingDeletions);
+            result = execute(client -> client.deleteById(ids), ids.size());
+            if (result) {
+                commit(isHardCommitDue());
+                this.pendingDeletions.removeAll(ids);
+            }
+        }
+        return result;
+    }
+
+    private boolean isHardCommitDue()
+    {
+        return System.currentTimeMillis() - this.lastHardCommit > HARD_COMMIT_INTERVAL;
+    }
+
+    private boolean write(List<SolrInputDocument> batch)
+    {
+        return execute(client -> client.add(batch), batch.size());
+    }
+
+    private boolean execute(SolrOperation operation, int size)
+    {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                operation.execute(getSolrClient());
+                this.uncommittedWrites = true;
+                return true;
+            } catch (SolrException | SolrServerException | IOException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    this.logger.error("Error while writing [{}] documents in Solr.", size, e);
+                } else {
+                    this.logger.warn("Error while writing [{}] documents in Solr (attempt [{}]), retrying.",
+                        size, attempt, e);
+                    pause(attempt * FLUSH_INTERVAL);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void commit(boolean hardCommit)
+    {
+        try {
+            if (hardCommit) {
+                getSolrClient().commit();
+                this.lastHardCommit = System.currentTimeMillis();
+                this.uncommittedWrites = false;
+            } else {
+                // Soft commit: the documents become visible without paying for an fsync.
+                getSolrClient().commit(true, true, true);
+            }
+        } catch (SolrException | SolrServerException | IOException e) {
+            this.logger.error("Error while committing the ActivityPub Solr core.", e);
+        }
+    }
+
+    private void pause(long delay)
+    {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SolrClient getSolrClient() throws SolrException
+    {
+        return this.solr.getClient(CORE_NAME);
+    }
+
+    /**
+     * An operation to perform on the Solr client.
+     */
+    @FunctionalInterface
+    private interface SolrOperation
+    {
+        void execute(SolrClient client) throws SolrServerException, IOException;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActorDirectoryEntry;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.contrib.activitypub.webfinger.entities.Link;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+
+/**
+ * Directory of the actors known by the current instance, used to search them by handle, name or domain.
+ * <p>
+ * Each actor has its own document in the ActivityPub Solr core, indexed with edge n-grams so that a prefix search is
+ * a plain term lookup, whatever the number of actors in the directory. The entries are updated each time an actor or
+ * a WebFinger record is stored: the name of the actor is only known from the actor itself, while its handle can come
+ * from both.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActorDirectory.class)
+@Singleton
+public class ActorDirectory
+{
+    static final String DIRECTORY_TYPE = "actorDirectory";
+
+    static final String HANDLE_FIELD = "handle";
+
+    static final String DISPLAY_NAME_FIELD = "displayName";
+
+    static final String DOMAIN_FIELD = "domain";
+
+    static final String ACTOR_FIELD = "actor";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String ACCT_PREFIX = "acct:";
+
+    private static final String HANDLE_SEPARATOR = "@";
+
+    private static final String SELF_REL = "self";
+
+    private static final int HANDLE_BOOST = 3;
+
+    private static final int DISPLAY_NAME_BOOST = 2;
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private ActivityPubSolrWriter solrWriter;
+
+    /**
+     * Add or update the directory entry of the given actor.
+     *
+     * @param actor the actor which has been stored.
+     * @throws ActivityPubException in case of error when queuing the entry.
+     */
+    public void index(AbstractActor actor) throws ActivityPubException
+    {
+        URI id = actor.getId();
+        if (id != null && id.getAuthority() != null && StringUtils.isNotBlank(actor.getPreferredUsername())) {
+            String username = StringUtils.substringBefore(actor.getPreferredUsername(), HANDLE_SEPARATOR);
+            this.index(username + HANDLE_SEPARATOR + id.getAuthority(), actor.getName(), id);
+        }
+    }
+
+    /**
+     * Add or update the directory entry of the actor described by the given WebFinger record.
+     *
+     * @param jsonResourceDescriptor the WebFinger record which has been stored.
+     * @throws ActivityPubException in case of error when reading the existing entry or when queuing the new one.
+     */
+    public void index(JSONResourceDescriptor jsonResourceDescriptor) throws ActivityPubException
+    {
+        String handle = StringUtils.removeStart(jsonResourceDescriptor.getSubject(), ACCT_PREFIX);
+        URI actor = getSelfLink(jsonResourceDescriptor);
+        if (StringUtils.contains(handle, HANDLE_SEPARATOR) && actor != null) {
+            SolrDocument entry = this.getEntryDocument(handle);
+            String existingActor = (entry != null) ? (String) entry.getFieldValue(ACTOR_FIELD) : null;
+            // The records of the local actors are stored each time they are served: only write the changes.
+            if (!Objects.equals(existingActor, actor.toASCIIString())) {
+                String displayName = (entry != null) ? (String) entry.getFieldValue(DISPLAY_NAME_FIELD) : null;
+                this.index(handle, displayName, actor);
+            }
+        }
+    }
+
+    private void index(String handle, String displayName, URI actor) throws ActivityPubException
+    {
+        SolrInputDocument inputDocument = new SolrInputDocument();
+        inputDocument.addField(ID_FIELD, this.getEntryId(handle));
+        inputDocument.addField(TYPE_FIELD, DIRECTORY_TYPE);
+        inputDocument.addField(HANDLE_FIELD, handle);
+        inputDocument.addField(DOMAIN_FIELD, StringUtils.substringAfterLast(handle, HANDLE_SEPARATOR));
+        if (StringUtils.isNotBlank(displayName)) {
+            inputDocument.addField(DISPLAY_NAME_FIELD, displayName);
+        }
+        inputDocument.addField(ACTOR_FIELD, actor.toASCIIString());
+        this.solrWriter.add(inputDocument);
+    }
+
+    /**
+     * Search the actors whose handle, name or domain contain words starting with the words of the query. The matches
+     * on the handle rank first, then the ones on the name and finally the ones on the domain.
+     *
+     * @param query the words to look for, e.g. the beginning of a handle.
+     * @param offset the index of the first result to return.
+     * @param limit the maximum number of results to return.
+     * @return the matching entries, ordered by relevance.
+     * @throws ActivityPubException in case of error when performing the query.
+     */
+    public List<ActorDirectoryEntry> search(String query, int offset, int limit) throws ActivityPubException
+    {
+        String[] words = StringUtils.split(this.normalize(query));
+        if (words == null || words.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> clauses = new ArrayList<>(words.length);
+        for (String word : words) {
+            String escapedWord = ClientUtils.escapeQueryChars(word);
+            clauses.add(String.format("(%1$s:%2$s^%3$d OR %4$s:%2$s^%5$d OR %6$s:%2$s)", HANDLE_FIELD, escapedWord,
+                HANDLE_BOOST, DISPLAY_NAME_FIELD, DISPLAY_NAME_BOOST, DOMAIN_FIELD));
+        }
+        SolrQuery solrQuery = new SolrQuery(String.join(" AND ", clauses))
+            .addFilterQuery(String.format("%s:%s", TYPE_FIELD, DIRECTORY_TYPE))
+            .setFields(HANDLE_FIELD, DISPLAY_NAME_FIELD, ACTOR_FIELD)
+            .addSort("score", SolrQuery.ORDER.desc)
+            .addSort(ID_FIELD, SolrQuery.ORDER.asc)
+            .setStart(Math.max(offset, 0))
+            .setRows(limit);
+        try {
+            List<ActorDirectoryEntry> result = new ArrayList<>();
+            for (SolrDocument solrDocument : this.solr.getClient(ActivityPubSolrWriter.CORE_NAME).query(solrQuery)
+                .getResults()) {
+                result.add(new ActorDirectoryEntry((String) solrDocument.getFieldValue(HANDLE_FIELD),
+                    (String) solrDocument.getFieldValue(DISPLAY_NAME_FIELD),
+                    URI.create((String) solrDocument.getFieldValue(ACTOR_FIELD))));
+            }
+            return result;
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(String.format("Error while searching the actors matching [%s].", query), e);
+        }
+    }
+
+    private String normalize(String query)
+    {
+        String result = StringUtils.trimToEmpty(query).toLowerCase(Locale.ROOT);
+        result = StringUtils.removeStart(result, ACCT_PREFIX);
+        return StringUtils.removeStart(result, HANDLE_SEPARATOR);
+    }
+
+    /**
+     * @param jsonResourceDescriptor a WebFinger record.
+     * @return the actor described by the record, or {@code null} if it doesn't have any {@code self} link.
+     */
+    static URI getSelfLink(JSONResourceDescriptor jsonResourceDescriptor)
+    {
+        URI result = null;
+        if (jsonResourceDescriptor.getLinks() != null) {
+            for (Link link : jsonResourceDescriptor.getLinks()) {
+                if (SELF_REL.equals(link.getRel()) && link.getHref() != null) {
+                    result = link.getHref();
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private SolrDocument getEntryDocument(String handle) throws ActivityPubException
+    {
+        String id = this.getEntryId(handle);
+        try {
+            SolrDocument result = this.solrWriter.getPendingDocument(id);
+            if (result == null) {
+                result = this.solr.getClient(ActivityPubSolrWriter.CORE_NAME).getById(id);
+            }
+            return result;
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(String.format("Error while retrieving the directory entry [%s].", id), e);
+        }
+    }
+
+    private String getEntryId(String handle)
+    {
+        // The handles are case insensitive: the same actor must not get several entries.
+        return DIRECTORY_TYPE + ':' + handle.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubBinaryCodec;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerException;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
+import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+
+/**
+ * Fill the {@link ActorDirectory} with the WebFinger records and the actors stored before it was introduced.
+ * <p>
+ * The backfill is performed once, in background, the first time the directory is needed: a marker document is stored
+ * when it's done, so that it's not performed again after a restart. Until then, the callers are expected to fall back
+ * on the former search of the WebFinger records.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = ActorDirectoryBackfill.class)
+@Singleton
+public class ActorDirectoryBackfill implements Initializable, Disposable
+{
+    static final String MARKER_ID = "actorDirectory:backfill";
+
+    private static final String MARKER_TYPE = "actorDirectoryBackfill";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String CONTENT_FIELD = "content";
+
+    private static final String BINARY_CONTENT_FIELD = "binaryContent";
+
+    private static final String WEBFINGER_TYPE = "webfinger";
+
+    /**
+     * The records come first: the names learnt from the actors then complete the entries created from the records.
+     */
+    private static final List<String> BACKFILLED_TYPES = Arrays.asList(WEBFINGER_TYPE, "Person", "Service");
+
+    private static final int PAGE_SIZE = 500;
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private ActivityPubSolrWriter solrWriter;
+
+    @Inject
+    private ActorDirectory actorDirectory;
+
+    @Inject
+    private ActivityPubBinaryCodec binaryCodec;
+
+    @Inject
+    private ActivityPubJsonParser jsonParser;
+
+    @Inject
+    private WebfingerJsonParser webfingerJsonParser;
+
+    @Inject
+    private Logger logger;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile boolean done;
+
+    private ExecutorService executor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("ActivityPub actor directory backfill %d")
+            .daemon(true)
+            .build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Check if the backfill has been performed, and schedule it otherwise.
+     *
+     * @return {@code true} if the directory contains all the actors known by the current instance.
+     */
+    public boolean isDone()
+    {
+        if (!this.done) {
+            this.done = this.hasMarker();
+            if (!this.done && this.started.compareAndSet(false, true)) {
+                try {
+                    this.executor.execute(this::run);
+                } catch (RejectedExecutionException e) {
+                    this.started.set(false);
+                    this.logger.debug("Cannot schedule the backfill of the actor directory right now.", e);
+                }
+            }
+        }
+        return this.done;
+    }
+
+    private boolean hasMarker()
+    {
+        boolean result = false;
+        try {
+            SolrDocument marker = this.solrWriter.getPendingDocument(MARKER_ID);
+            if (marker == null) {
+                marker = this.getSolrClient().getById(MARKER_ID);
+            }
+            result = marker != null && !marker.isEmpty();
+        } catch (SolrException | SolrServerException | IOException e) {
+            this.logger.debug("Error while checking if the actor directory has been filled.", e);
+        }
+        return result;
+    }
+
+    /**
+     * Perform the backfill. In case of error, it's performed again the next time the directory is needed.
+     */
+    void run()
+    {
+        try {
+            for (String type : BACKFILLED_TYPES) {
+                this.backfill(type);
+            }
+            // The writes are performed in order: the marker is only committed after the entries.
+            SolrInputDocument marker = new SolrInputDocument();
+            marker.addField(ID_FIELD, MARKER_ID);
+            marker.addField(TYPE_FIELD, MARKER_TYPE);
+            this.solrWriter.add(marker);
+            this.done = true;
+        } catch (SolrException | SolrServerException | IOException | ActivityPubException e) {
+            this.logger.warn("Error while filling the actor directory: [{}].", ExceptionUtils.getRootCauseMessage(e));
+            this.logger.debug("Full stack trace of the actor directory error: ", e);
+            this.started.set(false);
+        }
+    }
+
+    private void backfill(String type) throws SolrException, SolrServerException, IOException, ActivityPubException
+    {
+        // The directory entries have their own type: the documents of the given type are not altered while browsing.
+        SolrQuery solrQuery = new SolrQuery(String.format("%s:%s", TYPE_FIELD, type))
+            .setFields(ID_FIELD, CONTENT_FIELD, BINARY_CONTENT_FIELD)
+            .setSort(ID_FIELD, SolrQuery.ORDER.asc)
+            .setRows(PAGE_SIZE);
+        int start = 0;
+        long numFound;
+        do {
+            solrQuery.setStart(start);
+            SolrDocumentList results = this.getSolrClient().query(solrQuery).getResults();
+            for (SolrDocument solrDocument : results) {
+                this.index(solrDocument, WEBFINGER_TYPE.equals(type));
+            }
+            numFound = results.getNumFound();
+            start += PAGE_SIZE;
+        } while (start < numFound);
+    }
+
+    private void index(SolrDocument solrDocument, boolean webfinger) throws ActivityPubException
+    {
+        JSONResourceDescriptor jsonResourceDescriptor = null;
+        ActivityPubObject entity = null;
+        try {
+            if (webfinger) {
+                jsonResourceDescriptor =
+                    this.webfingerJsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+            } else {
+                entity = this.parseEntity(solrDocument);
+            }
+        } catch (WebfingerException | ActivityPubException e) {
+            // A document which cannot be read anymore must not prevent the others to enter the directory.
+            this.logger.warn("Cannot add [{}] to the actor directory: [{}].", solrDocument.getFieldValue(ID_FIELD),
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        if (jsonResourceDescriptor != null) {
+            this.actorDirectory.index(jsonResourceDescriptor);
+        } else if (entity instanceof AbstractActor) {
+            this.actorDirectory.index((AbstractActor) entity);
+        }
+    }
+
+    private ActivityPubObject parseEntity(SolrDocument solrDocument) throws ActivityPubException
+    {
+        ActivityPubObject result;
+        Object binaryContent = solrDocument.getFieldValue(BINARY_CONTENT_FIELD);
+        if (binaryContent instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) binaryContent).duplicate();
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            result = this.binaryCodec.decode(content);
+        } else if (binaryContent != null) {
+            result = this.binaryCodec.decode((byte[]) binaryContent);
+        } else {
+            // The document has been stored before the binary format was introduced.
+            result = this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+        }
+        return result;
+    }
+
+    private SolrClient getSolrClient() throws SolrException
+    {
+        return this.solr.getClient(ActivityPubSolrWriter.CORE_NAME);
+    }
+}
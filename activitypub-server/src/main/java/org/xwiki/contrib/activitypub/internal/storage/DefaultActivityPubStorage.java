@@ -21,39 +21,65 @@ package org.xwiki.contrib.activitypub.internal.storage;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
 
-import org.apache.commons.lang3.time.DateUtils;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubEntityVersion;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
-import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.ActivityPubQueryResult;
 import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.ActorDirectoryEntry;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Inbox;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Outbox;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
 import org.xwiki.contrib.activitypub.internal.DefaultURLHandler;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubBinaryCodec;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerException;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonSerializer;
 import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.contrib.activitypub.webfinger.entities.Link;
 import org.xwiki.resource.ResourceReferenceSerializer;
 import org.xwiki.resource.SerializeResourceReferenceException;
 import org.xwiki.resource.UnsupportedResourceReferenceException;
@@ -62,7 +88,8 @@ import org.xwiki.search.solr.SolrException;
 
 /**
  * Default implementation of {@link ActivityPubStorage}.
- * Only keep the information in memory for now.
+ * The information are stored in the activitypub Solr core, the writes being performed asynchronously by
+ * {@link ActivityPubSolrWriter}.
  *
  * @version $Id$
  */
@@ -75,10 +102,31 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
 
     private static final String ID_FIELD = "id";
     private static final String CONTENT_FIELD = "content";
+    private static final String BINARY_CONTENT_FIELD = "binaryContent";
+    private static final String CONTENT_HASH_FIELD = "contentHash";
     private static final String UPDATEDDATE_FIELD = "updatedDate";
     private static final String TYPE_FIELD = "type";
+    private static final String COLLECTION_FIELD = "collection";
+    private static final String ITEM_FIELD = "item";
+    private static final String ITEM_INDEX_FIELD = "itemIndex";
+    private static final String REMOTE_ETAG_FIELD = "remoteETag";
+    private static final String REMOTE_LAST_MODIFIED_FIELD = "remoteLastModified";
 
     private static final String WEBFINGER_TYPE = "webfinger";
+    private static final String WEBFINGER_ACCT_PREFIX = "acct:";
+    private static final String WEBFINGER_SELF_REL = "self";
+    private static final String COLLECTION_ITEM_TYPE = "collectionItem";
+
+    private static final String QUERY_FIELD_FORMAT = "%s:%s";
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    private static final String ENTITY_TAG_FORMAT = "\"%s\"";
+
+    private static final Set<String> COLLECTION_TYPES = new HashSet<>(Arrays.asList(
+        "orderedcollection", INBOX_SUFFIX_ID, OUTBOX_SUFFIX_ID));
+
+    private static final int ITEMS_PAGE_SIZE = 1000;
+
+    private static final int ENTITIES_PAGE_SIZE = 500;
 
     @Inject
     private ResourceReferenceSerializer<ActivityPubResourceReference, URI> serializer;
@@ -87,7 +135,7 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
     private ActivityPubJsonParser jsonParser;
 
     @Inject
-    private ActivityPubJsonSerializer jsonSerializer;
+    private ActivityPubBinaryCodec binaryCodec;
 
     @Inject
     private ActivityPubObjectReferenceResolver resolver;
@@ -107,6 +155,38 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
     @Inject
     private Solr solr;
 
+    @Inject
+    private ActivityPubSolrWriter solrWriter;
+
+    @Inject
+    private ActivityPubObjectCache objectCache;
+
+    @Inject
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @Inject
+    private RemoteEntityRefresher refresher;
+
+    @Inject
+    private ActorDirectory actorDirectory;
+
+    @Inject
+    private ActorDirectoryBackfill actorDirectoryBackfill;
+
+    @Inject
+    private LegacyEntityMigration legacyEntityMigration;
+
+    @Inject
+    private IndexedEntityFields indexedFields;
+
+    private final AtomicLong lastItemIndex = new AtomicLong();
+
+    /**
+     * Prevent a legacy collection to be migrated by the {@link LegacyEntityMigration} after it has been migrated and
+     * then modified.
+     */
+    private final Object legacyMigrationLock = new Object();
+
     private SolrClient getSolrClient() throws SolrException
     {
         return this.solr.getClient("activitypub");
@@ -123,55 +203,133 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
         }
     }
 
-    private void storeInformation(ActivityPubObject entity)
-        throws ActivityPubException, SolrException, IOException, SolrServerException
+    private void storeInformation(ActivityPubObject entity) throws ActivityPubException
+    {
+        this.storeInformation(entity, new Date());
+    }
+
+    private void storeInformation(ActivityPubObject entity, Date updatedDate) throws ActivityPubException
+    {
+        this.storeInformation(entity, updatedDate, null, null);
+    }
+
+    private void storeInformation(ActivityPubObject entity, Date updatedDate, String remoteETag,
+        String remoteLastModified) throws ActivityPubException
+    {
+        this.solrWriter.add(this.createDocument(entity, updatedDate, remoteETag, remoteLastModified));
+        this.afterStore(entity);
+    }
+
+    private SolrInputDocument createDocument(ActivityPubObject entity, Date updatedDate, String remoteETag,
+        String remoteLastModified) throws ActivityPubException
     {
         SolrInputDocument inputDocument = new SolrInputDocument();
         inputDocument.addField(ID_FIELD, entity.getId().toASCIIString());
         inputDocument.addField(TYPE_FIELD, entity.getType());
-        inputDocument.addField(CONTENT_FIELD, this.jsonSerializer.serialize(entity));
-        inputDocument.addField(UPDATEDDATE_FIELD, new Date());
-        this.getSolrClient().add(inputDocument);
-        this.getSolrClient().commit();
+        // The entity is only stored in binary: the JSON content is still read for the documents stored before.
+        byte[] binaryContent = this.binaryCodec.encode(entity);
+        inputDocument.addField(BINARY_CONTENT_FIELD, binaryContent);
+        // The hash is computed once here, and used as entity tag each time the entity is served.
+        inputDocument.addField(CONTENT_HASH_FIELD, this.getContentHash(binaryContent));
+        inputDocument.addField(UPDATEDDATE_FIELD, updatedDate);
+        this.indexedFields.addFields(inputDocument, entity);
+        // The validators returned by the remote server, to refresh the entity with a conditional request.
+        if (remoteETag != null) {
+            inputDocument.addField(REMOTE_ETAG_FIELD, remoteETag);
+        }
+        if (remoteLastModified != null) {
+            inputDocument.addField(REMOTE_LAST_MODIFIED_FIELD, remoteLastModified);
+        }
+        return inputDocument;
+    }
+
+    private void afterStore(ActivityPubObject entity) throws ActivityPubException
+    {
+        this.objectCache.invalidate(entity.getId());
+        if (entity instanceof AbstractActor) {
+            this.actorDirectory.index((AbstractActor) entity);
+        }
     }
 
     @Override
     public URI storeEntity(ActivityPubObject entity) throws ActivityPubException
     {
-        String uuid;
-        try {
-            if (entity.getId() == null) {
-                if (entity instanceof Inbox) {
-                    Inbox inbox = (Inbox) entity;
-                    if (inbox.getAttributedTo() == null || inbox.getAttributedTo().isEmpty()) {
-                        throw new ActivityPubException("Cannot store an inbox without owner.");
-                    }
-                    AbstractActor owner = this.resolver.resolveReference(inbox.getAttributedTo().get(0));
-                    uuid = getActorEntityUID(owner, INBOX_SUFFIX_ID);
-                } else if (entity instanceof Outbox) {
-                    Outbox outbox = (Outbox) entity;
-                    if (outbox.getAttributedTo() == null || outbox.getAttributedTo().isEmpty()) {
-                        throw new ActivityPubException("Cannot store an outbox without owner.");
-                    }
-                    AbstractActor owner = this.resolver.resolveReference(outbox.getAttributedTo().get(0));
-                    uuid = getActorEntityUID(owner, OUTBOX_SUFFIX_ID);
-                } else if (entity instanceof AbstractActor) {
-                    uuid = ((AbstractActor) entity).getPreferredUsername();
-                } else {
-                    // FIXME: we cannot rely on hashCode because of possible collisions and size limitation,
-                    //  but we shouldn't rely on total randomness because of dedup.
-                    uuid = UUID.randomUUID().toString();
+        this.assignId(entity);
+        // During a unit of work, the entity is written once at the end.
+        if (!this.unitOfWork.defer(entity)) {
+            this.storeInformation(entity);
+        }
+        return entity.getId();
+    }
+
+    @Override
+    public List<URI> storeEntities(Collection<? extends ActivityPubObject> entities) throws ActivityPubException
+    {
+        List<URI> result = new ArrayList<>(entities.size());
+        List<ActivityPubObject> storedEntities = new ArrayList<>(entities.size());
+        List<SolrInputDocument> documents = new ArrayList<>(entities.size());
+        Date updatedDate = new Date();
+        // All the documents are created before writing any of them, so that an invalid entity doesn't lead to a
+        // partial write.
+        for (ActivityPubObject entity : entities) {
+            this.assignId(entity);
+            if (!this.unitOfWork.defer(entity)) {
+                storedEntities.add(entity);
+                documents.add(this.createDocument(entity, updatedDate, null, null));
+            }
+            result.add(entity.getId());
+        }
+        if (!documents.isEmpty()) {
+            this.solrWriter.addAll(documents);
+            for (ActivityPubObject entity : storedEntities) {
+                this.afterStore(entity);
+            }
+        }
+        return result;
+    }
+
+    private void assignId(ActivityPubObject entity) throws ActivityPubException
+    {
+        if (entity.getId() == null) {
+            String uuid;
+            if (entity instanceof Inbox) {
+                Inbox inbox = (Inbox) entity;
+                if (inbox.getAttributedTo() == null || inbox.getAttributedTo().isEmpty()) {
+                    throw new ActivityPubException("Cannot store an inbox without owner.");
+                }
+                AbstractActor owner = this.resolver.resolveReference(inbox.getAttributedTo().get(0));
+                uuid = getActorEntityUID(owner, INBOX_SUFFIX_ID);
+            } else if (entity instanceof Outbox) {
+                Outbox outbox = (Outbox) entity;
+                if (outbox.getAttributedTo() == null || outbox.getAttributedTo().isEmpty()) {
+                    throw new ActivityPubException("Cannot store an outbox without owner.");
                 }
+                AbstractActor owner = this.resolver.resolveReference(outbox.getAttributedTo().get(0));
+                uuid = getActorEntityUID(owner, OUTBOX_SUFFIX_ID);
+            } else if (entity instanceof AbstractActor) {
+                uuid = ((AbstractActor) entity).getPreferredUsername();
+            } else {
+                // FIXME: we cannot rely on hashCode because of possible collisions and size limitation,
+                //  but we shouldn't rely on total randomness because of dedup.
+                uuid = UUID.randomUUID().toString();
+            }
+            try {
                 ActivityPubResourceReference resourceReference =
                     new ActivityPubResourceReference(entity.getType(), uuid);
                 entity.setId(this.serializer.serialize(resourceReference));
+            } catch (SerializeResourceReferenceException | UnsupportedResourceReferenceException e) {
+                throw new ActivityPubException(String.format("Error while storing [%s].", entity), e);
             }
+        }
+    }
 
-            this.storeInformation(entity);
-            return entity.getId();
-        } catch (SolrException | SerializeResourceReferenceException | UnsupportedResourceReferenceException
-                     | SolrServerException | IOException e) {
-            throw new ActivityPubException(String.format("Error while storing [%s].", entity), e);
+    private String getContentHash(byte[] content) throws ActivityPubException
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM).digest(content);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ActivityPubException("Error while computing the hash of an entity.", e);
         }
     }
 
@@ -180,29 +338,64 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
         return String.format("%s-%s", actor.getPreferredUsername(), entitySuffix);
     }
 
-    private boolean retrieveSolrDocument(SolrDocument solrDocument)
+    private void refreshIfStale(SolrDocument solrDocument)
     {
-        boolean result = true;
-        if ("person".equalsIgnoreCase((String) solrDocument.getFieldValue(TYPE_FIELD))) {
+        URI id = URI.create((String) solrDocument.getFieldValue(ID_FIELD));
+        Date updatedDate = (Date) solrDocument.getFieldValue(UPDATEDDATE_FIELD);
+        if (!this.urlHandler.belongsToCurrentInstance(id)
+            && this.refresher.isStale((String) solrDocument.getFieldValue(TYPE_FIELD), updatedDate))
+        {
+            // The stale copy is served right away: the refreshed one will be used by the next reads.
+            this.refresher.refresh(id, (String) solrDocument.getFieldValue(REMOTE_ETAG_FIELD),
+                (String) solrDocument.getFieldValue(REMOTE_LAST_MODIFIED_FIELD), this::storeRefreshedEntity);
+        }
+    }
 
-            // if the document is older than one day, and does not belongs to the current instance
-            // then we need to refresh it.
-            Date updatedDate = (Date) solrDocument.getFieldValue(UPDATEDDATE_FIELD);
-            URI id = URI.create((String) solrDocument.getFieldValue(ID_FIELD));
-            result = this.urlHandler.belongsToCurrentInstance(id)
-                || new Date().before(DateUtils.addDays(updatedDate, 1));
+    private void storeRefreshedEntity(URI id, ActivityPubObject entity, String remoteETag,
+        String remoteLastModified) throws ActivityPubException
+    {
+        ActivityPubObject refreshedEntity = entity;
+        if (refreshedEntity == null) {
+            // Not modified: the stored version is kept, only its date and its validators are updated. It's obviously
+            // still stale, but it's being refreshed.
+            refreshedEntity = this.loadEntity(id, false);
+        } else if (refreshedEntity instanceof OrderedCollection) {
+            // The items of the collections are stored separately: they replace the ones of the stale version.
+            this.replaceItems((OrderedCollection<?>) refreshedEntity);
+        }
+        if (refreshedEntity != null) {
+            this.storeInformation(refreshedEntity, new Date(), remoteETag, remoteLastModified);
         }
-        return result;
     }
 
     @Override
     public <T extends ActivityPubObject> T retrieveEntity(URI id) throws ActivityPubException
+    {
+        // The entity might have been loaded and modified in the current unit of work.
+        T result = this.unitOfWork.get(id);
+        if (result == null) {
+            result = this.loadEntity(id);
+            this.unitOfWork.register(result);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T loadEntity(URI id) throws ActivityPubException
+    {
+        return this.loadEntity(id, true);
+    }
+
+    private <T extends ActivityPubObject> T loadEntity(URI id, boolean refreshIfStale) throws ActivityPubException
     {
         T result = null;
         try {
-            SolrDocument solrDocument = this.getSolrClient().getById(id.toASCIIString());
-            if (solrDocument != null && !solrDocument.isEmpty() && retrieveSolrDocument(solrDocument)) {
-                result = (T) this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+            // Read our own writes: the document might not have been committed yet.
+            SolrDocument solrDocument = this.solrWriter.getPendingDocument(id.toASCIIString());
+            if (solrDocument == null) {
+                solrDocument = this.getSolrClient().getById(id.toASCIIString());
+            }
+            if (solrDocument != null) {
+                result = this.loadEntity(solrDocument, refreshIfStale);
             }
             return result;
         } catch (IOException | SolrServerException | SolrException e) {
@@ -211,6 +404,562 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
         }
     }
 
+    @Override
+    public <T extends ActivityPubObject> List<T> retrieveEntities(Collection<URI> ids) throws ActivityPubException
+    {
+        // The entities are gathered by identifier, since the same identifier might be requested several times.
+        Map<URI, T> entities = new HashMap<>();
+        List<String> missingIds = new ArrayList<>();
+        for (URI id : new LinkedHashSet<>(ids)) {
+            // The entity might have been loaded and modified in the current unit of work.
+            T entity = this.unitOfWork.get(id);
+            if (entity == null) {
+                // Read our own writes: the document might not have been committed yet.
+                SolrDocument solrDocument = this.solrWriter.getPendingDocument(id.toASCIIString());
+                if (solrDocument != null) {
+                    entity = this.loadEntity(solrDocument);
+                    this.unitOfWork.register(entity);
+                } else {
+                    missingIds.add(id.toASCIIString());
+                }
+            }
+            entities.put(id, entity);
+        }
+        // The other entities are read with a realtime get of several identifiers at once.
+        for (int start = 0; start < missingIds.size(); start += ENTITIES_PAGE_SIZE) {
+            List<String> page = missingIds.subList(start, Math.min(start + ENTITIES_PAGE_SIZE, missingIds.size()));
+            try {
+                for (SolrDocument solrDocument : this.getSolrClient().getById(page)) {
+                    T entity = this.loadEntity(solrDocument);
+                    if (entity != null) {
+                        this.unitOfWork.register(entity);
+                        entities.put(URI.create((String) solrDocument.getFieldValue(ID_FIELD)), entity);
+                    }
+                }
+            } catch (IOException | SolrServerException | SolrException e) {
+                throw new ActivityPubException(
+                    String.format("Error when trying to retrieve the entities of ids [%s]", page), e);
+            }
+        }
+        List<T> result = new ArrayList<>(ids.size());
+        for (URI id : ids) {
+            result.add(entities.get(id));
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T loadEntity(SolrDocument solrDocument) throws ActivityPubException
+    {
+        return this.loadEntity(solrDocument, true);
+    }
+
+    private <T extends ActivityPubObject> T loadEntity(SolrDocument solrDocument, boolean refreshIfStale)
+        throws ActivityPubException
+    {
+        T result = null;
+        if (!solrDocument.isEmpty()) {
+            result = this.parseEntity(solrDocument);
+            if (refreshIfStale) {
+                this.refreshIfStale(solrDocument);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public ActivityPubEntityVersion retrieveEntityVersion(URI id) throws ActivityPubException
+    {
+        String entityId = id.toASCIIString();
+        ActivityPubEntityVersion result = null;
+        try {
+            SolrDocument solrDocument = this.solrWriter.getPendingDocument(entityId);
+            if (solrDocument == null) {
+                solrDocument = this.getSolrClient().getById(entityId);
+            }
+            // The documents stored before the hash was introduced don't have a version until they are stored again.
+            if (solrDocument != null && solrDocument.getFieldValue(CONTENT_HASH_FIELD) != null) {
+                String contentHash = (String) solrDocument.getFieldValue(CONTENT_HASH_FIELD);
+                Date updatedDate = (Date) solrDocument.getFieldValue(UPDATEDDATE_FIELD);
+                String type = (String) solrDocument.getFieldValue(TYPE_FIELD);
+                if (type != null && COLLECTION_TYPES.contains(type.toLowerCase(Locale.ROOT))) {
+                    result = this.getCollectionVersion(entityId, contentHash, updatedDate);
+                } else {
+                    result = new ActivityPubEntityVersion(String.format(ENTITY_TAG_FORMAT, contentHash), updatedDate);
+                }
+            }
+        } catch (IOException | SolrServerException | SolrException e) {
+            throw new ActivityPubException(
+                String.format("Error when trying to retrieve the version of the entity [%s]", id), e);
+        }
+        return result;
+    }
+
+    /**
+     * The items of a collection are stored separately: the version of the collection depends on its last item and
+     * on the number of its items, so that it changes when an item is added or removed.
+     */
+    private ActivityPubEntityVersion getCollectionVersion(String collectionId, String contentHash, Date updatedDate)
+        throws SolrException, SolrServerException, IOException
+    {
+        ActivityPubEntityVersion result = null;
+        // The items which are not committed yet cannot be taken into account.
+        if (this.solrWriter.getPendingDocuments(COLLECTION_FIELD, collectionId).isEmpty()) {
+            SolrQuery solrQuery = this.getItemsQuery(collectionId)
+                .addField(UPDATEDDATE_FIELD)
+                .setSort(ITEM_INDEX_FIELD, SolrQuery.ORDER.desc)
+                .setRows(1);
+            SolrDocumentList results = this.getSolrClient().query(solrQuery).getResults();
+            String entityTag = String.format("%s-%s", contentHash, results.getNumFound());
+            Date lastModified = updatedDate;
+            if (!results.isEmpty()) {
+                SolrDocument lastItem = results.get(0);
+                entityTag = String.format("%s-%s", entityTag, this.getItemIndex(lastItem));
+                Date itemDate = (Date) lastItem.getFieldValue(UPDATEDDATE_FIELD);
+                if (itemDate != null && (lastModified == null || itemDate.after(lastModified))) {
+                    lastModified = itemDate;
+                }
+            }
+            result = new ActivityPubEntityVersion(String.format(ENTITY_TAG_FORMAT, entityTag), lastModified);
+        }
+        return result;
+    }
+
+    private <T extends ActivityPubObject> T parseEntity(SolrDocument solrDocument) throws ActivityPubException
+    {
+        T result;
+        byte[] binaryContent = this.getBinaryContent(solrDocument);
+        if (binaryContent == null) {
+            // The document has been stored before the binary format was introduced: it's converted by the
+            // LegacyEntityMigration, and read as it is until then.
+            result = (T) this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+        } else {
+            result = this.binaryCodec.decode(binaryContent);
+        }
+        // The items are not loaded with the collection: they are retrieved only by the callers iterating them. The
+        // ones still contained by the legacy collections are retrieved from their document until it's migrated.
+        if (result instanceof OrderedCollection && !((OrderedCollection<?>) result).getOrderedItems().isEmpty()) {
+            ((OrderedCollection<?>) result).setOrderedItems(Collections.emptyList());
+        }
+        return result;
+    }
+
+    private boolean isLegacyMigrationDone()
+    {
+        return this.legacyEntityMigration.isDone(this::migrateLegacyDocument);
+    }
+
+    private void migrateLegacyDocument(SolrDocument solrDocument, ActivityPubObject entity)
+        throws ActivityPubException
+    {
+        String id = (String) solrDocument.getFieldValue(ID_FIELD);
+        try {
+            synchronized (this.legacyMigrationLock) {
+                if (this.findLegacyDocument(id) != null) {
+                    this.migrateLegacyEntity(solrDocument, entity);
+                }
+            }
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(String.format("Error while migrating the legacy entity [%s].", id), e);
+        }
+    }
+
+    /**
+     * Store again an entity stored before the binary format was introduced. The collections stored before their items
+     * were stored separately still contain their items: they are moved in their own documents.
+     *
+     * @param solrDocument the legacy document
+     * @param entity the entity parsed from its JSON content
+     */
+    private void migrateLegacyEntity(SolrDocument solrDocument, ActivityPubObject entity) throws ActivityPubException
+    {
+        if (entity instanceof OrderedCollection) {
+            OrderedCollection<?> collection = (OrderedCollection<?>) entity;
+            this.migrateItems(collection);
+            collection.setOrderedItems(Collections.emptyList());
+        }
+        // Keep the date of the document so that its refresh is not altered.
+        Date updatedDate = (Date) solrDocument.getFieldValue(UPDATEDDATE_FIELD);
+        this.storeInformation(entity, (updatedDate != null) ? updatedDate : new Date(),
+            (String) solrDocument.getFieldValue(REMOTE_ETAG_FIELD),
+            (String) solrDocument.getFieldValue(REMOTE_LAST_MODIFIED_FIELD));
+    }
+
+    private byte[] getBinaryContent(SolrDocument solrDocument)
+    {
+        Object fieldValue = solrDocument.getFieldValue(BINARY_CONTENT_FIELD);
+        byte[] result;
+        if (fieldValue instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) fieldValue).duplicate();
+            result = new byte[buffer.remaining()];
+            buffer.get(result);
+        } else {
+            result = (byte[]) fieldValue;
+        }
+        return result;
+    }
+
+    private void replaceItems(OrderedCollection<?> collection) throws ActivityPubException
+    {
+        Set<URI> items = new HashSet<>();
+        for (ActivityPubObjectReference<?> reference : collection.getOrderedItems()) {
+            items.add(reference.getLink());
+        }
+        // The items which are still part of the collection are stored again with their new index.
+        for (URI item : this.retrieveItems(collection.getId())) {
+            if (!items.contains(item)) {
+                this.removeItem(collection.getId(), item);
+            }
+        }
+        this.migrateItems(collection);
+    }
+
+    private void migrateItems(OrderedCollection<?> collection) throws ActivityPubException
+    {
+        long index = 0;
+        for (ActivityPubObjectReference<?> reference : collection.getOrderedItems()) {
+            URI item = reference.getLink();
+            if (item != null) {
+                // Small indexes: the migrated items are always placed before the ones appended afterwards.
+                this.appendItem(collection.getId(), item, index++);
+            }
+        }
+    }
+
+    @Override
+    public void appendItem(URI collection, URI item) throws ActivityPubException
+    {
+        this.migrateLegacyCollection(collection);
+        this.appendItem(collection, item, this.nextItemIndex());
+    }
+
+    private void appendItem(URI collection, URI item, long index) throws ActivityPubException
+    {
+        SolrInputDocument inputDocument = new SolrInputDocument();
+        inputDocument.addField(ID_FIELD, this.getItemDocumentId(collection.toASCIIString(), item));
+        inputDocument.addField(TYPE_FIELD, COLLECTION_ITEM_TYPE);
+        inputDocument.addField(COLLECTION_FIELD, collection.toASCIIString());
+        inputDocument.addField(ITEM_FIELD, item.toASCIIString());
+        inputDocument.addField(ITEM_INDEX_FIELD, index);
+        inputDocument.addField(UPDATEDDATE_FIELD, new Date());
+        this.solrWriter.add(inputDocument);
+    }
+
+    @Override
+    public boolean containsItem(URI collection, URI item) throws ActivityPubException
+    {
+        String collectionId = collection.toASCIIString();
+        try {
+            return this.retrieveItemIndex(collectionId, item) != null
+                || this.retrieveLegacyItems(collectionId).contains(item);
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while checking if [%s] belongs to the collection [%s].", item, collection), e);
+        }
+    }
+
+    /**
+     * The items of a legacy collection are moved in their own documents before the collection is modified, so that
+     * they keep their order and are not altered by the migration afterwards.
+     *
+     * @param collection the identifier of the collection.
+     */
+    private void migrateLegacyCollection(URI collection) throws ActivityPubException
+    {
+        try {
+            synchronized (this.legacyMigrationLock) {
+                SolrDocument solrDocument = this.getLegacyDocument(collection.toASCIIString());
+                if (solrDocument != null) {
+                    this.migrateLegacyEntity(solrDocument,
+                        this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD)));
+                }
+            }
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while migrating the legacy collection [%s].", collection), e);
+        }
+    }
+
+    /**
+     * @param collectionId the identifier of a collection.
+     * @return the items still contained by the document of the collection, if it's a legacy one which has not been
+     *     migrated yet, or an empty list otherwise.
+     */
+    private List<URI> retrieveLegacyItems(String collectionId)
+        throws SolrException, SolrServerException, IOException, ActivityPubException
+    {
+        List<URI> result = new ArrayList<>();
+        SolrDocument solrDocument = this.getLegacyDocument(collectionId);
+        if (solrDocument != null) {
+            ActivityPubObject entity = this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+            if (entity instanceof OrderedCollection) {
+                for (ActivityPubObjectReference<?> reference : ((OrderedCollection<?>) entity).getOrderedItems()) {
+                    if (reference.getLink() != null) {
+                        result.add(reference.getLink());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The documents stored before the binary format was introduced are the only entities without a binary content.
+     * They can only remain until the {@link LegacyEntityMigration} is done.
+     *
+     * @param id the identifier of the document.
+     * @return the document if it's a legacy one, {@code null} otherwise.
+     */
+    private SolrDocument getLegacyDocument(String id) throws SolrException, SolrServerException, IOException
+    {
+        return (this.isLegacyMigrationDone()) ? null : this.findLegacyDocument(id);
+    }
+
+    private SolrDocument findLegacyDocument(String id) throws SolrException, SolrServerException, IOException
+    {
+        SolrDocument result = this.solrWriter.getPendingDocument(id);
+        if (result == null) {
+            result = this.getSolrClient().getById(id);
+        }
+        boolean legacy = result != null && !result.isEmpty() && this.getBinaryContent(result) == null
+            && result.getFieldValue(CONTENT_FIELD) != null;
+        if (!legacy) {
+            result = null;
+        }
+        return result;
+    }
+
+    @Override
+    public void removeItem(URI collection, URI item) throws ActivityPubException
+    {
+        this.migrateLegacyCollection(collection);
+        this.solrWriter.delete(this.getItemDocumentId(collection.toASCIIString(), item));
+    }
+
+    /**
+     * The index is based on the time so that the ordering is kept after a restart, the counter is only used to
+     * ensure that the index is strictly increasing.
+     *
+     * @return a new index for an item.
+     */
+    private long nextItemIndex()
+    {
+        long timeIndex = System.currentTimeMillis() * 1000;
+        return this.lastItemIndex.updateAndGet(last -> Math.max(timeIndex, last + 1));
+    }
+
+    @Override
+    public List<URI> retrieveItems(URI collection) throws ActivityPubException
+    {
+        String collectionId = collection.toASCIIString();
+        Map<String, SolrDocument> itemDocuments = new HashMap<>();
+        List<URI> result;
+        try {
+            // The items of a legacy collection come first, as they will once migrated.
+            result = this.retrieveLegacyItems(collectionId);
+            SolrQuery solrQuery = this.getItemsQuery(collectionId)
+                .setSort(ITEM_INDEX_FIELD, SolrQuery.ORDER.asc)
+                .setRows(ITEMS_PAGE_SIZE);
+            int start = 0;
+            long numFound;
+            do {
+                solrQuery.setStart(start);
+                SolrDocumentList results = this.getSolrClient().query(solrQuery).getResults();
+                for (SolrDocument solrDocument : results) {
+                    itemDocuments.put((String) solrDocument.getFieldValue(ID_FIELD), solrDocument);
+                }
+                numFound = results.getNumFound();
+                start += ITEMS_PAGE_SIZE;
+            } while (start < numFound);
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while retrieving the items of the collection [%s].", collection), e);
+        }
+
+        // Take into account the items which are not committed yet.
+        for (SolrDocument solrDocument : this.solrWriter.getPendingDocuments(COLLECTION_FIELD, collectionId)) {
+            itemDocuments.put((String) solrDocument.getFieldValue(ID_FIELD), solrDocument);
+        }
+        itemDocuments.keySet().removeIf(this.solrWriter::isPendingDeletion);
+
+        itemDocuments.values().stream()
+            .sorted(Comparator.comparingLong(this::getItemIndex))
+            .map(solrDocument -> URI.create((String) solrDocument.getFieldValue(ITEM_FIELD)))
+            .filter(item -> !result.contains(item))
+            .forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public List<URI> retrieveItems(URI collection, URI maxItem, URI minItem, int limit) throws ActivityPubException
+    {
+        String collectionId = collection.toASCIIString();
+        List<URI> result = Collections.emptyList();
+        try {
+            if (this.getLegacyDocument(collectionId) != null) {
+                // The legacy items don't have an index yet: the page is taken from the whole list of items.
+                result = this.getPage(this.retrieveItems(collection), maxItem, minItem, limit);
+            } else {
+                Long maxIndex = (maxItem != null) ? this.retrieveItemIndex(collectionId, maxItem) : null;
+                Long minIndex = (minItem != null) ? this.retrieveItemIndex(collectionId, minItem) : null;
+                if ((maxItem == null || maxIndex != null) && (minItem == null || minIndex != null)) {
+                    result = this.retrieveItems(collectionId, minIndex, maxIndex, limit);
+                }
+            }
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while retrieving a page of the items of the collection [%s].", collection), e);
+        }
+        return result;
+    }
+
+    private List<URI> getPage(List<URI> items, URI maxItem, URI minItem, int limit)
+    {
+        List<URI> result = new ArrayList<>();
+        int begin = (minItem != null) ? items.indexOf(minItem) + 1 : 0;
+        int end = (maxItem != null) ? items.indexOf(maxItem) : items.size();
+        if ((minItem == null || begin > 0) && (maxItem == null || end >= 0) && begin < end) {
+            // Same order as the pages of indexed items: the items directly following the lower bound if it's the
+            // only one, the ones directly preceding the upper bound otherwise, the most recent first.
+            if (maxItem == null && minItem != null) {
+                result.addAll(items.subList(begin, Math.min(end, begin + limit)));
+            } else {
+                result.addAll(items.subList(Math.max(begin, end - limit), end));
+            }
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
+    private List<URI> retrieveItems(String collectionId, Long minIndex, Long maxIndex, int limit)
+        throws SolrException, SolrServerException, IOException
+    {
+        // With only a lower bound we want the items directly following it, so we need to browse the index in the
+        // order of appending.
+        boolean ascending = (maxIndex == null && minIndex != null);
+        SolrQuery solrQuery = this.getItemsQuery(collectionId)
+            .addFilterQuery(String.format("%s:{%s TO %s}", ITEM_INDEX_FIELD,
+                (minIndex != null) ? minIndex : "*", (maxIndex != null) ? maxIndex : "*"))
+            .setSort(ITEM_INDEX_FIELD, (ascending) ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc)
+            .setRows(limit);
+        Map<String, SolrDocument> itemDocuments = new HashMap<>();
+        for (SolrDocument solrDocument : this.getSolrClient().query(solrQuery).getResults()) {
+            itemDocuments.put((String) solrDocument.getFieldValue(ID_FIELD), solrDocument);
+        }
+
+        // Take into account the items which are not committed yet.
+        long lowerBound = (minIndex != null) ? minIndex : Long.MIN_VALUE;
+        long upperBound = (maxIndex != null) ? maxIndex : Long.MAX_VALUE;
+        for (SolrDocument solrDocument : this.solrWriter.getPendingDocuments(COLLECTION_FIELD, collectionId)) {
+            long index = this.getItemIndex(solrDocument);
+            if (index > lowerBound && index < upperBound) {
+                itemDocuments.put((String) solrDocument.getFieldValue(ID_FIELD), solrDocument);
+            }
+        }
+        itemDocuments.keySet().removeIf(this.solrWriter::isPendingDeletion);
+
+        Comparator<SolrDocument> comparator = Comparator.comparingLong(this::getItemIndex);
+        List<URI> result = itemDocuments.values().stream()
+            .sorted((ascending) ? comparator : comparator.reversed())
+            .limit(limit)
+            .map(solrDocument -> URI.create((String) solrDocument.getFieldValue(ITEM_FIELD)))
+            .collect(Collectors.toList());
+        if (ascending) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+
+    @Override
+    public long countItems(URI collection, boolean publicOnly) throws ActivityPubException
+    {
+        String collectionId = collection.toASCIIString();
+        try {
+            SolrQuery solrQuery;
+            long legacyCount = 0;
+            if (publicOnly) {
+                // Count the public entities which are items of the collection.
+                solrQuery = new SolrQuery(String.format("{!join from=%s to=%s}+%s +%s", ITEM_FIELD, ID_FIELD,
+                    String.format(QUERY_FIELD_FORMAT, TYPE_FIELD, COLLECTION_ITEM_TYPE),
+                    String.format(QUERY_FIELD_FORMAT, COLLECTION_FIELD, ClientUtils.escapeQueryChars(collectionId))))
+                    .addFilterQuery(String.format(QUERY_FIELD_FORMAT, IndexedEntityFields.PUBLIC_FIELD, Boolean.TRUE));
+            } else {
+                solrQuery = this.getItemsQuery(collectionId);
+                // The items of a legacy collection are only indexed once it's migrated: until then, its public items
+                // cannot be counted.
+                legacyCount = this.retrieveLegacyItems(collectionId).size();
+            }
+            return legacyCount + this.getSolrClient().query(solrQuery.setRows(0)).getResults().getNumFound();
+        } catch (SolrException | SolrServerException | IOException e) {
+            throw new ActivityPubException(
+                String.format("Error while counting the items of the collection [%s].", collection), e);
+        }
+    }
+
+    private SolrQuery getItemsQuery(String collectionId)
+    {
+        return new SolrQuery("*:*")
+            .addFilterQuery(String.format(QUERY_FIELD_FORMAT, TYPE_FIELD, COLLECTION_ITEM_TYPE))
+            .addFilterQuery(
+                String.format(QUERY_FIELD_FORMAT, COLLECTION_FIELD, ClientUtils.escapeQueryChars(collectionId)))
+            .setFields(ID_FIELD, ITEM_FIELD, ITEM_INDEX_FIELD);
+    }
+
+    private Long retrieveItemIndex(String collectionId, URI item)
+        throws SolrException, SolrServerException, IOException
+    {
+        String id = this.getItemDocumentId(collectionId, item);
+        Long result = null;
+        // The item might have been removed but not committed yet.
+        SolrDocument solrDocument = null;
+        if (!this.solrWriter.isPendingDeletion(id)) {
+            solrDocument = this.solrWriter.getPendingDocument(id);
+            if (solrDocument == null) {
+                solrDocument = this.getSolrClient().getById(id);
+            }
+        }
+        if (solrDocument != null && !solrDocument.isEmpty()) {
+            result = this.getItemIndex(solrDocument);
+        }
+        return result;
+    }
+
+    private long getItemIndex(SolrDocument solrDocument)
+    {
+        return ((Number) solrDocument.getFieldValue(ITEM_INDEX_FIELD)).longValue();
+    }
+
+    private String getItemDocumentId(String collectionId, URI item)
+    {
+        return String.format("%s#%s", collectionId, item.toASCIIString());
+    }
+
+    @Override
+    public <T extends ActivityPubObject> ActivityPubQueryResult<T> query(ActivityPubQuery query)
+        throws ActivityPubException
+    {
+        SolrQuery solrQuery = this.indexedFields.getSolrQuery(query)
+            .setFields(ID_FIELD, TYPE_FIELD, BINARY_CONTENT_FIELD, CONTENT_FIELD, UPDATEDDATE_FIELD,
+                REMOTE_ETAG_FIELD, REMOTE_LAST_MODIFIED_FIELD);
+        try {
+            SolrDocumentList documents = this.getSolrClient().query(solrQuery).getResults();
+            List<URI> ids = new ArrayList<>(documents.size());
+            for (SolrDocument solrDocument : documents) {
+                ids.add(URI.create((String) solrDocument.getFieldValue(ID_FIELD)));
+            }
+            return new ActivityPubQueryResult<>(documents.getNumFound(), ids, index -> {
+                // The entity might have been loaded and modified in the current unit of work.
+                T result = this.unitOfWork.get(ids.get(index));
+                if (result == null) {
+                    result = this.parseEntity(documents.get(index));
+                    this.unitOfWork.register(result);
+                }
+                return result;
+            });
+        } catch (IOException | SolrServerException | SolrException e) {
+            throw new ActivityPubException(String.format("Error while performing the query [%s].", solrQuery), e);
+        }
+    }
+
     @Override
     public void storeWebFinger(JSONResourceDescriptor jsonResourceDescriptor) throws ActivityPubException
     {
@@ -220,24 +969,90 @@ public class DefaultActivityPubStorage implements ActivityPubStorage
             inputDocument.addField(TYPE_FIELD, WEBFINGER_TYPE);
             inputDocument.addField(CONTENT_FIELD, this.webfingerJsonSerializer.serialize(jsonResourceDescriptor));
             inputDocument.addField(UPDATEDDATE_FIELD, new Date());
-            this.getSolrClient().add(inputDocument);
-            this.getSolrClient().commit();
-        } catch (IOException | SolrException | SolrServerException e) {
+            this.solrWriter.add(inputDocument);
+            this.actorDirectory.index(jsonResourceDescriptor);
+        } catch (IOException e) {
             throw new ActivityPubException(
                 String.format("Error while storing WebFinger record [%s]", jsonResourceDescriptor), e);
         }
     }
 
+    @Override
+    public JSONResourceDescriptor retrieveWebFinger(String subject, Date updatedSince) throws ActivityPubException
+    {
+        JSONResourceDescriptor result = null;
+        try {
+            SolrDocument solrDocument = this.solrWriter.getPendingDocument(subject);
+            if (solrDocument == null) {
+                solrDocument = this.getSolrClient().getById(subject);
+            }
+            if (solrDocument != null && WEBFINGER_TYPE.equals(solrDocument.getFieldValue(TYPE_FIELD))) {
+                Date updatedDate = (Date) solrDocument.getFieldValue(UPDATEDDATE_FIELD);
+                if (updatedSince == null || (updatedDate != null && !updatedDate.before(updatedSince))) {
+                    result = this.webfingerJsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+                }
+            }
+        } catch (SolrException | SolrServerException | IOException | WebfingerException e) {
+            throw new ActivityPubException(
+                String.format("Error while retrieving the WebFinger record [%s].", subject), e);
+        }
+        return result;
+    }
+
     @Override
     public List<JSONResourceDescriptor> searchWebFinger(String query, int limit) throws ActivityPubException
+    {
+        List<JSONResourceDescriptor> result;
+        if (this.actorDirectoryBackfill.isDone()) {
+            result = new ArrayList<>();
+            for (ActorDirectoryEntry entry : this.actorDirectory.search(query, 0, limit)) {
+                Link selfLink = new Link()
+                    .setRel(WEBFINGER_SELF_REL)
+                    .setType(ActivityPubClient.CONTENT_TYPE_STRICT)
+                    .setHref(entry.getActor());
+                result.add(new JSONResourceDescriptor()
+                    .setSubject(WEBFINGER_ACCT_PREFIX + entry.getHandle())
+                    .setLinks(Collections.singletonList(selfLink)));
+            }
+        } else {
+            // The directory is still being filled with the records stored before it was introduced.
+            result = this.searchWebFingerRecords(query, 0, limit);
+        }
+        return result;
+    }
+
+    @Override
+    public List<ActorDirectoryEntry> searchActors(String query, int offset, int limit) throws ActivityPubException
+    {
+        List<ActorDirectoryEntry> result;
+        if (this.actorDirectoryBackfill.isDone()) {
+            result = this.actorDirectory.search(query, offset, limit);
+        } else {
+            // Only the handles are known from the records: the names are found once the directory is filled.
+            result = new ArrayList<>();
+            for (JSONResourceDescriptor jsonResourceDescriptor : this.searchWebFingerRecords(query, offset, limit)) {
+                URI actor = ActorDirectory.getSelfLink(jsonResourceDescriptor);
+                if (actor != null) {
+                    result.add(new ActorDirectoryEntry(
+                        StringUtils.removeStart(jsonResourceDescriptor.getSubject(), WEBFINGER_ACCT_PREFIX), null,
+                        actor));
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<JSONResourceDescriptor> searchWebFingerRecords(String query, int offset, int limit)
+        throws ActivityPubException
     {
         List<JSONResourceDescriptor> result = new ArrayList<>();
+        String queryString = String.format("filter(type:%s) AND id:*%s*", WEBFINGER_TYPE,
+            ClientUtils.escapeQueryChars(StringUtils.trimToEmpty(query)));
+        SolrQuery solrQuery = new SolrQuery(queryString)
+            .setStart(Math.max(offset, 0))
+            .setRows(limit);
         try {
-            String queryString = String.format("filter(type:%s) AND id:*%s*", WEBFINGER_TYPE, query);
-            SolrQuery solrQuery = new SolrQuery(queryString).setRows(limit);
-            QueryResponse queryResponse = this.getSolrClient().query(solrQuery);
-            SolrDocumentList results = queryResponse.getResults();
-            for (SolrDocument solrDocument : results) {
+            for (SolrDocument solrDocument : this.getSolrClient().query(solrQuery).getResults()) {
                 result.add(this.webfingerJsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD)));
             }
         } catch (SolrException | SolrServerException | IOException | WebfingerException e) {
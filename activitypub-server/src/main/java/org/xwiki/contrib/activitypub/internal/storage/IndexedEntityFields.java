@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.net.URI;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.entities.AbstractActivity;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.ProxyActor;
+
+/**
+ * Extract the fields of the entities which are indexed to be queried, and convert the {@link ActivityPubQuery} on
+ * these fields.
+ * <p>
+ * Only the identifiers of the referenced entities are indexed. The {@code public} flag is indexed for all the
+ * entities: it's also used to restrict the queries to the entity documents, since the same core contains the
+ * collection items, the WebFinger records and the delivery state.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = IndexedEntityFields.class)
+@Singleton
+public class IndexedEntityFields
+{
+    static final String ACTOR_FIELD = "actor";
+
+    static final String ATTRIBUTED_TO_FIELD = "attributedTo";
+
+    static final String OBJECT_FIELD = "object";
+
+    static final String IN_REPLY_TO_FIELD = "inReplyTo";
+
+    static final String PUBLISHED_FIELD = "published";
+
+    static final String AUDIENCE_FIELD = "audience";
+
+    static final String PUBLIC_FIELD = "public";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String QUERY_FIELD_FORMAT = "%s:%s";
+
+    private static final String RANGE_WILDCARD = "*";
+
+    /**
+     * Add the indexed fields of the given entity to its document.
+     *
+     * @param inputDocument the document of the entity.
+     * @param entity the entity to index.
+     */
+    public void addFields(SolrInputDocument inputDocument, ActivityPubObject entity)
+    {
+        if (entity instanceof AbstractActivity) {
+            AbstractActivity activity = (AbstractActivity) entity;
+            addField(inputDocument, ACTOR_FIELD, activity.getActor());
+            addField(inputDocument, OBJECT_FIELD, activity.getObject());
+        }
+        if (entity.getAttributedTo() != null) {
+            for (ActivityPubObjectReference<?> author : entity.getAttributedTo()) {
+                addField(inputDocument, ATTRIBUTED_TO_FIELD, author);
+            }
+        }
+        addField(inputDocument, IN_REPLY_TO_FIELD, entity.getInReplyTo());
+        if (entity.getPublished() != null) {
+            inputDocument.addField(PUBLISHED_FIELD, entity.getPublished());
+        }
+        boolean isPublic = false;
+        List<ProxyActor> audience = entity.getTo();
+        if (audience != null) {
+            for (ProxyActor recipient : audience) {
+                addField(inputDocument, AUDIENCE_FIELD, recipient);
+                isPublic |= recipient.isPublic();
+            }
+        }
+        inputDocument.addField(PUBLIC_FIELD, isPublic);
+    }
+
+    private void addField(SolrInputDocument inputDocument, String fieldName, ActivityPubObjectReference<?> reference)
+    {
+        URI id = null;
+        if (reference != null && reference.isLink()) {
+            id = reference.getLink();
+        } else if (reference != null && reference.getObject() != null) {
+            id = reference.getObject().getId();
+        }
+        if (id != null) {
+            inputDocument.addField(fieldName, id.toASCIIString());
+        }
+    }
+
+    /**
+     * Convert the given query to a Solr query on the indexed fields.
+     *
+     * @param query the criteria of the query.
+     * @return the Solr query, including the paging and the sorting.
+     */
+    public SolrQuery getSolrQuery(ActivityPubQuery query)
+    {
+        SolrQuery solrQuery = new SolrQuery("*:*");
+        solrQuery.addFilterQuery(String.format(QUERY_FIELD_FORMAT, PUBLIC_FIELD,
+            (query.isPublicOnly()) ? Boolean.TRUE.toString() : RANGE_WILDCARD));
+        addFilterQuery(solrQuery, TYPE_FIELD, query.getType());
+        addFilterQuery(solrQuery, ACTOR_FIELD, query.getActor());
+        addFilterQuery(solrQuery, ATTRIBUTED_TO_FIELD, query.getAttributedTo());
+        addFilterQuery(solrQuery, OBJECT_FIELD, query.getObject());
+        addFilterQuery(solrQuery, IN_REPLY_TO_FIELD, query.getInReplyTo());
+        addFilterQuery(solrQuery, AUDIENCE_FIELD, query.getAudience());
+        if (query.getPublishedAfter() != null || query.getPublishedBefore() != null) {
+            // Both bounds are excluded.
+            String range = String.format("{%s TO %s}", formatDate(query.getPublishedAfter()),
+                formatDate(query.getPublishedBefore()));
+            solrQuery.addFilterQuery(String.format(QUERY_FIELD_FORMAT, PUBLISHED_FIELD, range));
+        }
+        SolrQuery.ORDER order = (query.isAscending()) ? SolrQuery.ORDER.asc : SolrQuery.ORDER.desc;
+        return solrQuery
+            .addSort(PUBLISHED_FIELD, order)
+            .addSort(ID_FIELD, order)
+            .setStart(Math.max(query.getOffset(), 0))
+            .setRows(Math.max(query.getLimit(), 0));
+    }
+
+    private void addFilterQuery(SolrQuery solrQuery, String fieldName, Object value)
+    {
+        if (value != null) {
+            String stringValue = (value instanceof URI) ? ((URI) value).toASCIIString() : value.toString();
+            solrQuery.addFilterQuery(
+                String.format(QUERY_FIELD_FORMAT, fieldName, ClientUtils.escapeQueryChars(stringValue)));
+        }
+    }
+
+    private String formatDate(Date date)
+    {
+        return (date != null) ? DateTimeFormatter.ISO_INSTANT.format(date.toInstant()) : RANGE_WILDCARD;
+    }
+}
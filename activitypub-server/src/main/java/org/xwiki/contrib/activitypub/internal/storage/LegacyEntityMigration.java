@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.search.solr.SolrException;
+
+/**
+ * Convert the entities stored in JSON, before the binary format and the separate storage of the collection items were
+ * introduced.
+ * <p>
+ * The migration is performed once, in background, the first time the storage needs to know if it's done: a marker
+ * document is stored at the end, so that it's not performed again after a restart. Until then, the storage reads the
+ * legacy documents as they are, without writing anything, and the legacy collections are only converted before being
+ * modified.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = LegacyEntityMigration.class)
+@Singleton
+public class LegacyEntityMigration implements Initializable, Disposable
+{
+    static final String MARKER_ID = "storage:legacyMigration";
+
+    private static final String MARKER_TYPE = "legacyMigration";
+
+    private static final String ID_FIELD = "id";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String CONTENT_FIELD = "content";
+
+    private static final int PAGE_SIZE = 500;
+
+    @Inject
+    private Solr solr;
+
+    @Inject
+    private ActivityPubSolrWriter solrWriter;
+
+    @Inject
+    private ActivityPubJsonParser jsonParser;
+
+    @Inject
+    private Logger logger;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile boolean done;
+
+    private ExecutorService executor;
+
+    /**
+     * Convert a legacy document.
+     */
+    @FunctionalInterface
+    interface DocumentMigrator
+    {
+        /**
+         * @param solrDocument the legacy document
+         * @param entity the entity parsed from its JSON content
+         * @throws ActivityPubException in case of error when storing the converted entity
+         */
+        void migrate(SolrDocument solrDocument, ActivityPubObject entity) throws ActivityPubException;
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("ActivityPub legacy entity migration %d")
+            .daemon(true)
+            .build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Check if the migration has been performed, and schedule it otherwise.
+     *
+     * @param migrator the conversion of each legacy document, used if the migration has to be scheduled
+     * @return {@code true} if there's no legacy document anymore.
+     */
+    public boolean isDone(DocumentMigrator migrator)
+    {
+        if (!this.done) {
+            this.done = this.hasMarker();
+            if (!this.done && this.started.compareAndSet(false, true)) {
+                try {
+                    this.executor.execute(() -> this.run(migrator));
+                } catch (RejectedExecutionException e) {
+                    this.started.set(false);
+                    this.logger.debug("Cannot schedule the migration of the legacy entities right now.", e);
+                }
+            }
+        }
+        return this.done;
+    }
+
+    private boolean hasMarker()
+    {
+        boolean result = false;
+        try {
+            SolrDocument marker = this.solrWriter.getPendingDocument(MARKER_ID);
+            if (marker == null) {
+                marker = this.getSolrClient().getById(MARKER_ID);
+            }
+            result = marker != null && !marker.isEmpty();
+        } catch (SolrException | SolrServerException | IOException e) {
+            this.logger.debug("Error while checking if the legacy entities have been migrated.", e);
+        }
+        return result;
+    }
+
+    /**
+     * Perform the migration. In case of error, it's performed again the next time the storage checks it.
+     *
+     * @param migrator the conversion of each legacy document
+     */
+    void run(DocumentMigrator migrator)
+    {
+        try {
+            this.migrateDocuments(migrator);
+            // The writes are performed in order: the marker is only committed after the converted entities.
+            SolrInputDocument marker = new SolrInputDocument();
+            marker.addField(ID_FIELD, MARKER_ID);
+            marker.addField(TYPE_FIELD, MARKER_TYPE);
+            this.solrWriter.add(marker);
+            this.done = true;
+        } catch (SolrException | SolrServerException | IOException | ActivityPubException e) {
+            this.logger.warn("Error while migrating the legacy entities: [{}].", ExceptionUtils.getRootCauseMessage(e));
+            this.logger.debug("Full stack trace of the legacy entities migration error: ", e);
+            this.started.set(false);
+        }
+    }
+
+    private void migrateDocuments(DocumentMigrator migrator)
+        throws SolrException, SolrServerException, IOException, ActivityPubException
+    {
+        // Only the legacy entities and the WebFinger records have a JSON content. The converted entities don't match
+        // the query anymore once committed: the documents are browsed with a cursor, which is not affected by it.
+        SolrQuery solrQuery = new SolrQuery(String.format("%s:[* TO *]", CONTENT_FIELD))
+            .addFilterQuery(String.format("-%s:webfinger", TYPE_FIELD))
+            .setSort(ID_FIELD, SolrQuery.ORDER.asc)
+            .setRows(PAGE_SIZE);
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        boolean lastPage;
+        do {
+            solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse response = this.getSolrClient().query(solrQuery);
+            for (SolrDocument solrDocument : response.getResults()) {
+                this.migrate(solrDocument, migrator);
+            }
+            // The cursor doesn't move anymore once all the documents have been returned.
+            lastPage = cursorMark.equals(response.getNextCursorMark());
+            cursorMark = response.getNextCursorMark();
+        } while (!lastPage);
+    }
+
+    private void migrate(SolrDocument solrDocument, DocumentMigrator migrator) throws ActivityPubException
+    {
+        ActivityPubObject entity = null;
+        try {
+            entity = this.jsonParser.parse((String) solrDocument.getFieldValue(CONTENT_FIELD));
+        } catch (ActivityPubException e) {
+            // A document which cannot be read anymore must not prevent the others to be migrated.
+            this.logger.warn("Cannot migrate the legacy entity [{}]: [{}].", solrDocument.getFieldValue(ID_FIELD),
+                ExceptionUtils.getRootCauseMessage(e));
+        }
+        if (entity != null) {
+            migrator.migrate(solrDocument, entity);
+        }
+    }
+
+    private SolrClient getSolrClient() throws SolrException
+    {
+        return this.solr.getClient(ActivityPubSolrWriter.CORE_NAME);
+    }
+}
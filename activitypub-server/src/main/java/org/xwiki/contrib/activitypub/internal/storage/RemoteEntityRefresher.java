@@ -0,0 +1,289 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Refresh the stored copies of the remote entities in background.
+ * <p>
+ * A stored remote entity is considered stale once its refresh delay is elapsed. The delay is configured in seconds in
+ * {@code xwiki.properties} with {@code activitypub.storage.refreshDelay} (one day by default), and can be overridden
+ * per entity type with e.g. {@code activitypub.storage.refreshDelay.note}. A negative delay disables the refresh. The
+ * stale copy is still served while it's being refreshed: the refresh is a conditional GET relying on the
+ * {@code ETag} and {@code Last-Modified} values returned by the remote server the last time. The refresh is performed
+ * in its own execution context, targeting the wiki where it has been requested.
+ *
+ * @version $Id$
+ * @since 1.2
+ */
+@Component(roles = RemoteEntityRefresher.class)
+@Singleton
+public class RemoteEntityRefresher implements Initializable, Disposable
+{
+    static final String REFRESH_DELAY_PROPERTY = "activitypub.storage.refreshDelay";
+
+    static final long DEFAULT_REFRESH_DELAY = TimeUnit.DAYS.toSeconds(1);
+
+    private static final String ETAG_HEADER = "ETag";
+
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    private static final int WORKERS = 2;
+
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private static final long FAILURE_RETRY_DELAY = TimeUnit.MINUTES.toMillis(15);
+
+    private static final int MAX_FAILURES = 10000;
+
+    /**
+     * Called when a remote entity has been refreshed.
+     */
+    @FunctionalInterface
+    public interface RefreshCallback
+    {
+        /**
+         * @param id the identifier of the refreshed entity.
+         * @param entity the new version of the entity, or {@code null} if it has not been modified.
+         * @param entityTag the {@code ETag} of the entity, or {@code null} if the remote server didn't provide it.
+         * @param lastModified the {@code Last-Modified} date of the entity, or {@code null} if the remote server
+         *            didn't provide it.
+         * @throws ActivityPubException in case of error while storing the refreshed entity.
+         */
+        void refreshed(URI id, ActivityPubObject entity, String entityTag, String lastModified)
+            throws ActivityPubException;
+    }
+
+    @Inject
+    private Provider<ActivityPubClient> activityPubClientProvider;
+
+    @Inject
+    private ActivityPubJsonParser jsonParser;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, Long> refreshDelays = new ConcurrentHashMap<>();
+
+    private final Set<URI> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final Map<URI, Long> failures = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // When the queue is full the refresh is dropped: it will be requested again on the next read.
+        this.executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), new BasicThreadFactory.Builder()
+                .namingPattern("ActivityPub refresh %d")
+                .daemon(true)
+                .build());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @param type the type of the entity.
+     * @param updatedDate the date when the entity has been stored or refreshed for the last time.
+     * @return {@code true} if the refresh delay of the entity is elapsed.
+     */
+    public boolean isStale(String type, Date updatedDate)
+    {
+        long refreshDelay = getRefreshDelay(type);
+        return refreshDelay >= 0
+            && (updatedDate == null || System.currentTimeMillis() - updatedDate.getTime() >= refreshDelay);
+    }
+
+    private long getRefreshDelay(String type)
+    {
+        String key = (type != null) ? type.toLowerCase(Locale.ROOT) : "";
+        return this.refreshDelays.computeIfAbsent(key, typeKey -> {
+            Long delay = this.configuration.getProperty(REFRESH_DELAY_PROPERTY, DEFAULT_REFRESH_DELAY);
+            if (!typeKey.isEmpty()) {
+                delay = this.configuration.getProperty(REFRESH_DELAY_PROPERTY + '.' + typeKey, delay);
+            }
+            if (delay == null) {
+                delay = DEFAULT_REFRESH_DELAY;
+            }
+            return (delay < 0) ? -1 : TimeUnit.SECONDS.toMillis(delay);
+        });
+    }
+
+    /**
+     * Schedule the refresh of a remote entity. Nothing is done if the entity is already being refreshed, or if its
+     * last refresh failed recently.
+     *
+     * @param id the identifier of the entity to refresh.
+     * @param entityTag the {@code ETag} of the stored version, or {@code null} if it's unknown.
+     * @param lastModified the {@code Last-Modified} date of the stored version, or {@code null} if it's unknown.
+     * @param callback the callback to store the refreshed entity.
+     */
+    public void refresh(URI id, String entityTag, String lastModified, RefreshCallback callback)
+    {
+        Long lastFailure = this.failures.get(id);
+        if (lastFailure != null && System.currentTimeMillis() - lastFailure < FAILURE_RETRY_DELAY) {
+            return;
+        }
+        if (this.refreshing.add(id)) {
+            String wiki = this.wikiDescriptorManager.getCurrentWikiId();
+            try {
+                this.executor.execute(() -> run(id, wiki, entityTag, lastModified, callback));
+            } catch (RejectedExecutionException e) {
+                this.refreshing.remove(id);
+                this.logger.debug("Cannot schedule the refresh of [{}] right now.", id, e);
+            }
+        }
+    }
+
+    /**
+     * Perform the refresh of a remote entity.
+     *
+     * @param id the identifier of the entity to refresh.
+     * @param wiki the wiki where the refresh has been requested.
+     * @param entityTag the {@code ETag} of the stored version, or {@code null} if it's unknown.
+     * @param lastModified the {@code Last-Modified} date of the stored version, or {@code null} if it's unknown.
+     * @param callback the callback to store the refreshed entity.
+     */
+    void run(URI id, String wiki, String entityTag, String lastModified, RefreshCallback callback)
+    {
+        try {
+            // The workers are not request threads: they need their own execution context for the components used to
+            // parse and store the refreshed entity.
+            this.executionContextManager.initialize(new ExecutionContext());
+            XWikiContext xcontext = this.contextProvider.get();
+            if (xcontext != null) {
+                xcontext.setWikiId((wiki != null) ? wiki : this.wikiDescriptorManager.getMainWikiId());
+            }
+            performRefresh(id, entityTag, lastModified, callback, this.activityPubClientProvider.get());
+            this.failures.remove(id);
+        } catch (IOException | ActivityPubException | ExecutionContextException | RuntimeException e) {
+            // The stale copy is kept: it's better than no copy at all.
+            this.logger.warn("Error while refreshing the remote entity [{}]: [{}].", id, e.getMessage());
+            this.logger.debug("Full stack trace of the refresh error: ", e);
+            if (this.failures.size() >= MAX_FAILURES) {
+                this.failures.clear();
+            }
+            this.failures.put(id, System.currentTimeMillis());
+        } finally {
+            this.execution.removeContext();
+            this.refreshing.remove(id);
+        }
+    }
+
+    private void performRefresh(URI id, String entityTag, String lastModified, RefreshCallback callback,
+        ActivityPubClient activityPubClient) throws IOException, ActivityPubException
+    {
+        Map<String, String> headers = new HashMap<>();
+        if (entityTag != null) {
+            headers.put("If-None-Match", entityTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        HttpMethod method = activityPubClient.get(id, headers);
+        try {
+            if (method.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                // The validators might be omitted from a 304 response: the previous ones are still valid then.
+                callback.refreshed(id, null, getHeaderValue(method, ETAG_HEADER, entityTag),
+                    getHeaderValue(method, LAST_MODIFIED_HEADER, lastModified));
+            } else {
+                activityPubClient.checkAnswer(method);
+                ActivityPubObject entity = this.jsonParser.parse(activityPubClient.getResponseBodyAsStream(method));
+                // A remote server must not be able to replace the entity of another identifier.
+                if (entity == null || !id.equals(entity.getId())) {
+                    throw new ActivityPubException(
+                        String.format("The remote server did not return the entity [%s].", id));
+                }
+                callback.refreshed(id, entity, getHeaderValue(method, ETAG_HEADER, null),
+                    getHeaderValue(method, LAST_MODIFIED_HEADER, null));
+            }
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    private String getHeaderValue(HttpMethod method, String name, String defaultValue)
+    {
+        Header header = method.getResponseHeader(name);
+        return (header != null) ? header.getValue() : defaultValue;
+    }
+}
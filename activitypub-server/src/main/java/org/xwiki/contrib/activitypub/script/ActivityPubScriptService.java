@@ -23,11 +23,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -58,8 +58,8 @@ import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Person;
 import org.xwiki.contrib.activitypub.entities.ProxyActor;
 import org.xwiki.contrib.activitypub.entities.Service;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
 import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
-import org.xwiki.contrib.activitypub.internal.stream.StreamActivityPubObjectReferenceResolver;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.script.service.ScriptService;
@@ -138,7 +138,7 @@ public class ActivityPubScriptService implements ScriptService
     private AuthorizationManager authorizationManager;
 
     @Inject
-    private StreamActivityPubObjectReferenceResolver streamActivityPubObjectReferenceResolver;
+    private ActivityPubObjectCache objectCache;
 
     private void checkAuthentication() throws ActivityPubException
     {
@@ -260,9 +260,11 @@ public class ActivityPubScriptService implements ScriptService
                 return result.setMessage("activitypub.follow.followYourself");
             }
 
-            Optional<Stream<AbstractActor>> oaas = this.getAbstractActorStream(currentActor);
-            Optional<Boolean> aBoolean = oaas.map(s -> s.anyMatch(f -> Objects.equals(f, remoteActor)));
-            if (aBoolean.orElse(false)) {
+            // The membership is checked without loading the whole following collection.
+            ActivityPubObjectReference<OrderedCollection<AbstractActor>> following = currentActor.getFollowing();
+            if (following != null
+                && this.activityPubStorage.containsItem(following.getLink(), remoteActor.getId()))
+            {
                 // can't follow the same user twice.
                 return result.setMessage("activitypub.follow.alreadyFollowed");
             }
@@ -470,37 +472,7 @@ public class ActivityPubScriptService implements ScriptService
      */
     public List<AbstractActor> following(AbstractActor actor)
     {
-        try {
-            Optional<Stream<AbstractActor>> abstractActorStream = this.getAbstractActorStream(actor);
-            if (abstractActorStream.isPresent()) {
-                return abstractActorStream.get().filter(Objects::nonNull).collect(Collectors.toList());
-            }
-        } catch (ActivityPubException e) {
-            this.logger.warn(GET_CURRENT_ACTOR_ERR_MSG, ExceptionUtils.getRootCauseMessage(e));
-        } catch (Exception e) {
-            this.logger.warn(GET_CURRENT_ACTOR_UNEXPECTED_ERR_MSG, ExceptionUtils.getRootCauseMessage(e));
-        }
-        return Collections.emptyList();
-    }
-
-    /**
-     * Return a stream of abstract actors following the actor.
-     * @param actor The actor.
-     * @return An optional stram of actor.
-     * @throws ActivityPubException In case of error during the resolution of actors.
-     */
-    private Optional<Stream<AbstractActor>> getAbstractActorStream(AbstractActor actor)
-        throws ActivityPubException
-    {
-        Stream<AbstractActor> abstractActorStream = null;
-        ActivityPubObjectReference<OrderedCollection<AbstractActor>> following = actor.getFollowing();
-        if (following != null) {
-            OrderedCollection<AbstractActor> activityPubObjectReferences =
-                this.activityPubObjectReferenceResolver.resolveReference(following);
-            abstractActorStream = activityPubObjectReferences.getOrderedItems().stream()
-                .map(this.streamActivityPubObjectReferenceResolver.getFunction());
-        }
-        return Optional.ofNullable(abstractActorStream);
+        return (actor != null) ? this.resolveActors(actor.getFollowing()) : Collections.emptyList();
     }
 
     /**
@@ -508,15 +480,20 @@ public class ActivityPubScriptService implements ScriptService
      * @return the list of actors following the current user.
      */
     public List<AbstractActor> followers(AbstractActor actor)
+    {
+        return (actor != null) ? this.resolveActors(actor.getFollowers()) : Collections.emptyList();
+    }
+
+    private List<AbstractActor> resolveActors(ActivityPubObjectReference<OrderedCollection<AbstractActor>> reference)
     {
         try {
-            ActivityPubObjectReference<OrderedCollection<AbstractActor>> followers = actor.getFollowers();
-            if (followers != null) {
-                OrderedCollection<AbstractActor> activityPubObjectReferences =
-                    this.activityPubObjectReferenceResolver.resolveReference(followers);
-                return activityPubObjectReferences.getOrderedItems().stream()
-                    .map(this.streamActivityPubObjectReferenceResolver.getFunction())
-                    .filter(Objects::nonNull).collect(Collectors.toList());
+            if (reference != null) {
+                OrderedCollection<AbstractActor> collection =
+                    this.activityPubObjectReferenceResolver.resolveReference(reference);
+                // The actors are resolved all at once, instead of reading them one by one.
+                return this.activityPubObjectReferenceResolver
+                    .resolveReferences(this.activityPubObjectReferenceResolver.resolveItems(collection))
+                    .stream().filter(Objects::nonNull).collect(Collectors.toList());
             }
         } catch (ActivityPubException e) {
             this.logger.warn(GET_CURRENT_ACTOR_ERR_MSG, ExceptionUtils.getRootCauseMessage(e));
@@ -566,4 +543,21 @@ public class ActivityPubScriptService implements ScriptService
     {
         return this.activityPubStorage.isStorageReady();
     }
+
+    /**
+     * @return the statistics of the cache of the resolved objects: the number of {@code hits}, {@code misses} and
+     *     {@code evictions}, the {@code size} in entries and the {@code weight} in bytes
+     * @since 1.2
+     */
+    @Unstable
+    public Map<String, Long> getObjectCacheStatistics()
+    {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", this.objectCache.getHitCount());
+        statistics.put("misses", this.objectCache.getMissCount());
+        statistics.put("evictions", this.objectCache.getEvictionCount());
+        statistics.put("size", (long) this.objectCache.getSize());
+        statistics.put("weight", this.objectCache.getWeight());
+        return statistics;
+    }
 }
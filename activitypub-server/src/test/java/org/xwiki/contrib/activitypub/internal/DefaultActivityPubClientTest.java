@@ -19,7 +19,9 @@
  */
 package org.xwiki.contrib.activitypub.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -44,6 +46,7 @@ import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -73,6 +76,9 @@ public class DefaultActivityPubClientTest
     @MockComponent
     private ActivityPubJsonSerializer activityPubJsonSerializer;
 
+    @MockComponent
+    private ActivityPubHttpClientManager httpClientManager;
+
     private URI uri;
 
     @BeforeEach
@@ -93,6 +99,15 @@ public class DefaultActivityPubClientTest
         assertEquals(CLIENT_CONTENT_TYPE, httpMethod.getRequestHeader("Accept").getValue());
     }
 
+    @Test
+    public void getResponseBodyAsStream() throws IOException
+    {
+        HttpMethod method = mock(GetMethod.class);
+        InputStream responseBody = new ByteArrayInputStream(new byte[0]);
+        when(this.httpClientManager.getResponseBodyAsStream(method)).thenReturn(responseBody);
+        assertSame(responseBody, this.activityPubClient.getResponseBodyAsStream(method));
+    }
+
     @Test
     public void post() throws Exception
     {
@@ -211,7 +226,7 @@ public class DefaultActivityPubClientTest
         when(method.isRequestSent()).thenReturn(true);
         when(method.getName()).thenReturn("GET");
         when(method.getStatusCode()).thenReturn(404);
-        when(method.getResponseBodyAsString()).thenReturn("Document not found.");
+        when(this.httpClientManager.getResponseBodyAsString(method)).thenReturn("Document not found.");
         activityPubException = assertThrows(ActivityPubException.class, () -> {
             this.activityPubClient.checkAnswer(method);
         });
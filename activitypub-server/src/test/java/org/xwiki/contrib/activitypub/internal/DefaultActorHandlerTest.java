@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.activitypub.internal;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.util.Arrays;
@@ -34,6 +35,7 @@ import org.jsoup.nodes.Element;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.xwiki.contrib.activitypub.ActivityPubClient;
 import org.xwiki.contrib.activitypub.ActivityPubConfiguration;
@@ -45,6 +47,7 @@ import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.SignatureService;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
 import org.xwiki.contrib.activitypub.entities.Inbox;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Outbox;
@@ -82,6 +85,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -189,10 +193,28 @@ public class DefaultActorHandlerTest
     public void getActorWithStoredPerson() throws Exception
     {
         AbstractActor expectedActor = new Person().setPreferredUsername("XWiki.Foo");
+        expectedActor.setEndpoints(new Endpoints().setSharedInbox(URI.create("http://domain.org/sharedInbox")));
         when(this.activityPubStorage.retrieveEntity(this.fooUserURI)).thenReturn(expectedActor);
 
+        assertSame(expectedActor, this.actorHandler.getActor(this.fooUserReference));
         verify(this.activityPubStorage, never()).storeEntity(any());
+    }
+
+    @Test
+    public void getActorWithStoredPersonWithoutEndpoints() throws Exception
+    {
+        AbstractActor expectedActor = new Person().setPreferredUsername("XWiki.Foo");
+        when(this.activityPubStorage.retrieveEntity(this.fooUserURI)).thenReturn(expectedActor);
+        when(this.xWikiUserBridge.getDocumentReference(this.fooUserReference))
+            .thenReturn(new DocumentReference("xwiki", "XWiki", "Foo"));
+        URI sharedInbox = URI.create("http://domain.org/xwiki/activitypub/sharedInbox/xwiki");
+        when(this.serializer.serialize(new ActivityPubResourceReference("sharedInbox", "xwiki")))
+            .thenReturn(sharedInbox);
+
+        // The actors created before the shared inboxes were introduced get them when they are loaded.
         assertSame(expectedActor, this.actorHandler.getActor(this.fooUserReference));
+        assertEquals(sharedInbox, expectedActor.getEndpoints().getSharedInbox());
+        verify(this.activityPubStorage).storeEntity(expectedActor);
     }
 
     @Test
@@ -204,6 +226,9 @@ public class DefaultActorHandlerTest
         when(this.activityPubIdentifierService
             .createIdentifier(eq(new Person().setName("Foo Foo")), eq("Foo"), eq("xwiki")))
             .thenReturn("Foo");
+        URI sharedInbox = URI.create("http://domain.org/xwiki/activitypub/sharedInbox/xwiki");
+        when(this.serializer.serialize(new ActivityPubResourceReference("sharedInbox", "xwiki")))
+            .thenReturn(sharedInbox);
 
         PublicKey publicKey = new PublicKey().setPublicKeyPem("...")
             .setId(GENERIC_ACTOR_ID + "#main-key")
@@ -221,6 +246,7 @@ public class DefaultActorHandlerTest
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
             .setFollowing(
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
+            .setEndpoints(new Endpoints().setSharedInbox(sharedInbox))
             .setName("Foo Foo")
             .setId(new URI(GENERIC_ACTOR_ID));
 
@@ -237,6 +263,11 @@ public class DefaultActorHandlerTest
 
         // Total number of call
         verify(this.activityPubStorage, times(6)).storeEntity(any());
+
+        // The keys of a former user with the same name are not reused from the cache.
+        InOrder inOrder = inOrder(this.signatureService);
+        inOrder.verify(this.signatureService).invalidate(obtainedActor);
+        inOrder.verify(this.signatureService).getPublicKeyPEM(obtainedActor);
     }
 
     @Test
@@ -248,8 +279,33 @@ public class DefaultActorHandlerTest
         when(this.serializer.serialize(resourceReference)).thenReturn(uri);
 
         Service actor = mock(Service.class);
+        when(actor.getEndpoints()).thenReturn(new Endpoints().setSharedInbox(URI.create("http://foowiki/inbox")));
         when(this.activityPubStorage.retrieveEntity(uri)).thenReturn(actor);
         assertSame(actor, this.actorHandler.getActor(wikiReference));
+        verify(this.activityPubStorage, never()).storeEntity(any());
+    }
+
+    @Test
+    public void initEndpoints() throws Exception
+    {
+        URI sharedInbox = URI.create("http://domain.org/xwiki/activitypub/sharedInbox/FooWiki");
+        when(this.serializer.serialize(new ActivityPubResourceReference("sharedInbox", "FooWiki")))
+            .thenReturn(sharedInbox);
+        Service service = new Service().setPreferredUsername("FooWiki");
+        assertEquals(new Endpoints().setSharedInbox(sharedInbox), this.actorHandler.initEndpoints(service));
+
+        Person person = new Person().setPreferredUsername("Foo");
+        person.setId(this.fooUserURI);
+        when(this.defaultURLHandler.belongsToCurrentInstance(this.fooUserURI)).thenReturn(true);
+        when(this.xWikiUserBridge.getDocumentReference(this.fooUserReference))
+            .thenReturn(new DocumentReference("FooWiki", "XWiki", "Foo"));
+        assertEquals(new Endpoints().setSharedInbox(sharedInbox), this.actorHandler.initEndpoints(person));
+
+        Person remotePerson = new Person().setPreferredUsername("Bar");
+        remotePerson.setId(URI.create("http://remote.org/users/bar"));
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.actorHandler.initEndpoints(remotePerson));
+        assertEquals("Cannot find the wiki of the actor [" + remotePerson + "].", exception.getMessage());
     }
 
     @Test
@@ -260,6 +316,9 @@ public class DefaultActorHandlerTest
         when(this.activityPubIdentifierService
             .createIdentifier(eq(new Service().setName("Wiki FooWiki")), eq(null), eq("FooWiki")))
             .thenReturn("FooWiki.xwiki");
+        URI sharedInbox = URI.create("http://domain.org/xwiki/activitypub/sharedInbox/FooWiki");
+        when(this.serializer.serialize(new ActivityPubResourceReference("sharedInbox", "FooWiki")))
+            .thenReturn(sharedInbox);
 
         PublicKey publicKey = new PublicKey().setPublicKeyPem("...")
             .setId(GENERIC_ACTOR_ID + "#main-key")
@@ -277,6 +336,7 @@ public class DefaultActorHandlerTest
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
             .setFollowing(
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
+            .setEndpoints(new Endpoints().setSharedInbox(sharedInbox))
             .setName("Wiki FooWiki")
             .setId(new URI(GENERIC_ACTOR_ID));
 
@@ -339,6 +399,9 @@ public class DefaultActorHandlerTest
         when(this.activityPubIdentifierService
             .createIdentifier(eq(new Person().setName("Foo Foo")), eq("Foo"), eq("xwiki")))
             .thenReturn("Foo");
+        URI sharedInbox = URI.create("http://domain.org/xwiki/activitypub/sharedInbox/xwiki");
+        when(this.serializer.serialize(new ActivityPubResourceReference("sharedInbox", "xwiki")))
+            .thenReturn(sharedInbox);
 
         PublicKey publicKey = new PublicKey().setPublicKeyPem("...")
             .setId(GENERIC_ACTOR_ID + "#main-key")
@@ -357,6 +420,7 @@ public class DefaultActorHandlerTest
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
             .setFollowing(
                 new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setObject(new OrderedCollection<>()))
+            .setEndpoints(new Endpoints().setSharedInbox(sharedInbox))
             .setName("Foo Foo")
             .setId(new URI(GENERIC_ACTOR_ID));
 
@@ -377,7 +441,9 @@ public class DefaultActorHandlerTest
         String remoteActorUrl = "http://www.xwiki.org/xwiki/activitypub/Person/Foobar";
         GetMethod getMethod = mock(GetMethod.class);
         when(this.activityPubClient.get(new URI(remoteActorUrl))).thenReturn(getMethod);
-        when(this.jsonParser.parse(getMethod.getResponseBodyAsStream())).thenReturn(person);
+        InputStream responseBody = mock(InputStream.class);
+        when(this.activityPubClient.getResponseBodyAsStream(getMethod)).thenReturn(responseBody);
+        when(this.jsonParser.parse(responseBody)).thenReturn(person);
         assertSame(person, this.actorHandler.getActor(remoteActorUrl));
     }
 
@@ -417,7 +483,9 @@ public class DefaultActorHandlerTest
 
         GetMethod getMethodActor = mock(GetMethod.class);
         when(this.activityPubClient.get(new URI(remoteActorUrl))).thenReturn(getMethodActor);
-        when(this.jsonParser.parse(getMethodActor.getResponseBodyAsStream())).thenReturn(person);
+        InputStream responseBody = mock(InputStream.class);
+        when(this.activityPubClient.getResponseBodyAsStream(getMethodActor)).thenReturn(responseBody);
+        when(this.jsonParser.parse(responseBody)).thenReturn(person);
         assertSame(person, this.actorHandler.getActor(remoteProfileUrl));
         assertSame(person, this.actorHandler.getActor(remoteActorUrl));
     }
@@ -21,6 +21,8 @@ package org.xwiki.contrib.activitypub.internal.activities;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.servlet.ServletOutputStream;
@@ -38,7 +40,10 @@ import org.xwiki.contrib.activitypub.ActivityPubNotifier;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.ActorHandler;
+import org.xwiki.contrib.activitypub.entities.AbstractCollection;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.internal.delivery.ActivityDeliveryService;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -83,6 +88,9 @@ public class AbstractHandlerTest
     @MockComponent
     protected ActivityPubConfiguration activityPubConfiguration;
 
+    @MockComponent
+    protected ActivityDeliveryService deliveryService;
+
     @Mock
     protected PostMethod postMethod;
 
@@ -90,6 +98,21 @@ public class AbstractHandlerTest
     {
         when(this.servletResponse.getOutputStream()).thenReturn(this.responseOutput);
         when(this.activityPubClient.postInbox(any(), any())).thenReturn(this.postMethod);
+        // Resolve the references one by one, so that the tests only need to mock the resolution of each reference.
+        when(this.activityPubObjectReferenceResolver.resolveReferences(any())).then(invocation -> {
+            List<ActivityPubObject> result = new ArrayList<>();
+            for (ActivityPubObjectReference<ActivityPubObject> reference
+                : (List<ActivityPubObjectReference<ActivityPubObject>>) invocation.getArgument(0)) {
+                try {
+                    result.add(this.activityPubObjectReferenceResolver.resolveReference(reference));
+                } catch (ActivityPubException e) {
+                    result.add(null);
+                }
+            }
+            return result;
+        });
+        when(this.activityPubObjectReferenceResolver.resolveItems(any())).then(
+            invocation -> new ArrayList<>(((AbstractCollection<?>) invocation.getArgument(0)).getAllItems()));
     }
 
     protected void verifyResponse(int code, String message) throws IOException
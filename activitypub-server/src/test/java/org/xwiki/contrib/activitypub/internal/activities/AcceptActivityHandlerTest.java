@@ -20,7 +20,6 @@
 package org.xwiki.contrib.activitypub.internal.activities;
 
 import java.net.URI;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 
@@ -46,7 +45,6 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -96,9 +94,12 @@ public class AcceptActivityHandlerTest extends AbstractHandlerTest
     void handleInbox() throws Exception
     {
         Person followedPerson = new Person()
-            .setPreferredUsername("Followed");
+            .setPreferredUsername("Followed")
+            .setId(URI.create("http://followed"));
 
-        OrderedCollection<AbstractActor> following = new OrderedCollection<>().setName("following");
+        OrderedCollection<AbstractActor> following = new OrderedCollection<>()
+            .setName("following")
+            .setId(URI.create("http://following/collection"));
         Person followingPerson = new Person()
             .setPreferredUsername("Following")
             .setFollowing(following.getReference());
@@ -115,67 +116,65 @@ public class AcceptActivityHandlerTest extends AbstractHandlerTest
         when(this.activityPubObjectReferenceResolver.resolveReference(
             (ActivityPubObjectReference<Follow>) accept.getObject())).thenReturn(follow);
         when(this.activityPubObjectReferenceResolver.resolveReference(follow.getActor())).thenReturn(followingPerson);
-        when(this.activityPubObjectReferenceResolver.resolveReference(followingPerson.getFollowing()))
-            .thenReturn(following);
 
         this.handler.handleInboxRequest(
             new ActivityRequest<>(followingPerson, accept, this.servletRequest, this.servletResponse));
         verifyResponse(accept);
-        assertEquals(Collections.singletonList(followedPerson.getReference()), following.getOrderedItems());
-        verify(this.activityPubStorage).storeEntity(following);
+        verify(this.activityPubStorage).appendItem(URI.create("http://following/collection"),
+            URI.create("http://followed"));
         verify(this.notifier).notify(accept, Collections.singleton(followingPerson));
     }
 
     @Test
     void handleInboxDuplicate() throws Exception
     {
-        OrderedCollection<AbstractActor> followers = new OrderedCollection<>().setName("followers");
-        UserReference followedRef = mock(UserReference.class);
         Person followedPerson = new Person()
-                                    .setPreferredUsername("Followed")
-                                    .setFollowers(followers.getReference());
+            .setPreferredUsername("Followed")
+            .setId(URI.create("http://followed"));
 
+        OrderedCollection<AbstractActor> following = new OrderedCollection<>()
+            .setName("following")
+            .setId(URI.create("http://following/collection"));
         Person followingPerson = new Person()
-                                     .setPreferredUsername("Following");
+            .setPreferredUsername("Following")
+            .setFollowing(following.getReference());
 
         Follow follow = new Follow()
-                            .setActor(followingPerson.getReference())
-                            .setObject(followedPerson.getReference());
+            .setActor(followingPerson.getReference())
+            .setObject(followedPerson.getReference());
 
         Accept accept = new Accept()
-                            .setActor(followedPerson.getReference())
-                            .setObject(follow.getReference());
+            .setActor(followedPerson.getReference())
+            .setObject(follow.getReference())
+            .setId(URI.create("http://id"));
         when(this.activityPubObjectReferenceResolver.resolveReference(accept.getActor())).thenReturn(followedPerson);
         when(this.activityPubObjectReferenceResolver.resolveReference(
             (ActivityPubObjectReference<Follow>) accept.getObject())).thenReturn(follow);
         when(this.activityPubObjectReferenceResolver.resolveReference(follow.getActor())).thenReturn(followingPerson);
-        when(this.activityPubObjectReferenceResolver.resolveReference(followedPerson.getFollowers()))
-            .thenReturn(followers);
-
-        OrderedCollection orderedCollection = mock(OrderedCollection.class);
-        when(this.activityPubObjectReferenceResolver.resolveReference(followingPerson.getFollowing())).thenReturn(orderedCollection);
-        ActivityPubObjectReference<AbstractActor> abstractActorActivityPubObjectReference =
-            new ActivityPubObjectReference<>();
-        when(orderedCollection.getOrderedItems()).thenReturn(Arrays.asList(
-            abstractActorActivityPubObjectReference));
-        when(this.activityPubObjectReferenceResolver.resolveReference(abstractActorActivityPubObjectReference))
-            .thenReturn(followingPerson);
-        this.handler
-            .handleInboxRequest(new ActivityRequest<Accept>(followedPerson, accept.setId(URI.create("http://id"))));
-        verify(orderedCollection, times(0)).addItem(followedPerson);
+        when(this.activityPubStorage.containsItem(URI.create("http://following/collection"),
+            URI.create("http://followed"))).thenReturn(true);
+
+        this.handler.handleInboxRequest(new ActivityRequest<>(followedPerson, accept));
+        verify(this.activityPubStorage, never()).appendItem(any(), any());
+        // The membership is checked without loading the collection.
+        verify(this.activityPubObjectReferenceResolver, never()).resolveReference(followingPerson.getFollowing());
+        verify(this.notifier).notify(accept, Collections.singleton(followingPerson));
     }
 
     @Test
     void handleOutbox() throws Exception
     {
-        OrderedCollection<AbstractActor> followers = new OrderedCollection<>().setName("followers");
+        OrderedCollection<AbstractActor> followers = new OrderedCollection<>()
+            .setName("followers")
+            .setId(URI.create("http://followers/collection"));
         UserReference followedRef = mock(UserReference.class);
         Person followedPerson = new Person()
             .setPreferredUsername("Followed")
             .setFollowers(followers.getReference());
 
         Person followingPerson = new Person()
-            .setPreferredUsername("Following");
+            .setPreferredUsername("Following")
+            .setId(URI.create("http://following"));
 
         Follow follow = new Follow()
             .setActor(followingPerson.getReference())
@@ -188,18 +187,14 @@ public class AcceptActivityHandlerTest extends AbstractHandlerTest
         when(this.activityPubObjectReferenceResolver.resolveReference(
             (ActivityPubObjectReference<Follow>) accept.getObject())).thenReturn(follow);
         when(this.activityPubObjectReferenceResolver.resolveReference(follow.getActor())).thenReturn(followingPerson);
-        when(this.activityPubObjectReferenceResolver.resolveReference(followedPerson.getFollowers()))
-            .thenReturn(followers);
         when(this.actorHandler.getXWikiUserReference(followedPerson)).thenReturn(followedRef);
 
         this.handler.handleOutboxRequest(
             new ActivityRequest<>(followedPerson, accept, this.servletRequest, this.servletResponse));
         verifyResponse(accept);
-        assertEquals(Collections.singletonList(followingPerson.getReference()), followers.getOrderedItems());
-        verify(this.activityPubStorage).storeEntity(followers);
+        verify(this.activityPubStorage).appendItem(URI.create("http://followers/collection"),
+            URI.create("http://following"));
         verify(this.notifier, never()).notify(eq(accept), any(Set.class));
-        verify(this.activityPubClient).checkAnswer(any());
-        verify(this.activityPubClient).postInbox(followingPerson, accept);
-        verify(this.postMethod).releaseConnection();
+        verify(this.deliveryService).deliver(accept, Collections.singleton(followingPerson));
     }
 }
@@ -19,7 +19,6 @@ package org.xwiki.contrib.activitypub.internal.activities;/*
  */
 
 import java.net.URI;
-import java.util.ArrayList;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -98,6 +97,7 @@ class AnnounceActivityHandlerTest extends AbstractHandlerTest
 
         ActivityPubObjectReference<OrderedCollection<Announce>> shares = new ActivityPubObjectReference<>();
         OrderedCollection<Announce> sharesCollection = new OrderedCollection<>();
+        sharesCollection.setId(URI.create("http://shares/1"));
         shares.setObject(sharesCollection);
         Document document = new Document();
         document.setShares(shares);
@@ -110,19 +110,12 @@ class AnnounceActivityHandlerTest extends AbstractHandlerTest
                 (ActivityPubObjectReference<Document>) announce.getObject())).thenReturn(document);
         when(this.activityPubObjectReferenceResolver.resolveReference(receiver.getFollowing())).thenReturn(following);
 
-        Inbox inbox = new Inbox();
-        when(this.activityPubObjectReferenceResolver.resolveReference(inboxRef)).thenReturn(inbox);
-
         this.handler.handleInboxRequest(
                 new ActivityRequest<>(receiver, announce, this.servletRequest, this.servletResponse));
 
         this.verifyResponse(announce);
-        assertEquals(announce, new ArrayList<>(inbox.getAllActivities()).get(0));
-        verify(this.activityPubStorage).storeEntity(inbox);
-        assertEquals(new URI("http://www.xwiki.org"), sharesCollection
-                .getOrderedItems()
-                .get(0)
-                .getLink());
+        verify(this.activityPubStorage).appendItem(URI.create("http://inbox/1"), announce.getId());
+        verify(this.activityPubStorage).appendItem(URI.create("http://shares/1"), announce.getId());
         verify(this.activityPubStorage).storeEntity(document);
         verify(this.notifier).notify(eq(announce), eq(singleton(receiver)));
     }
@@ -161,8 +154,6 @@ class AnnounceActivityHandlerTest extends AbstractHandlerTest
         when(this.activityPubObjectReferenceResolver.resolveReference(follow.getActor())).thenReturn(sender);
         when(this.activityPubObjectReferenceResolver.resolveReference(receiver.getFollowers()))
                 .thenReturn(followers);
-        Outbox outbox = new Outbox();
-        when(this.activityPubObjectReferenceResolver.resolveReference(outboxRef)).thenReturn(outbox);
         when(this.actorHandler.getXWikiUserReference(receiver)).thenReturn(followedRef);
         Person to = new Person().setName("TO");
         when(this.activityPubObjectReferenceResolver.resolveReference(pa)).thenReturn(to);
@@ -171,8 +162,7 @@ class AnnounceActivityHandlerTest extends AbstractHandlerTest
         this.handler.handleOutboxRequest(
                 new ActivityRequest<>(receiver, announce, this.servletRequest, this.servletResponse));
         this.verifyResponse(announce);
-        verify(this.activityPubStorage).storeEntity(outbox);
-        verify(this.activityPubClient).postInbox(to, announce);
-        verify(this.activityPubClient).checkAnswer(any());
+        verify(this.activityPubStorage).appendItem(URI.create("http://outbox/1"), announce.getId());
+        verify(this.deliveryService).deliver(announce, singleton(to));
     }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ package org.xwiki.contrib.activitypub.internal.activities;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -43,11 +44,9 @@ import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.user.UserReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -88,15 +87,11 @@ public class CreateActivityHandlerTest extends AbstractHandlerTest
         Create activity = new Create().setObject(new Note()).setId(new URI("http://www.xwiki.org"));
         Person actor = new Person()
             .setPreferredUsername("XWiki.Foo")
-            .setInbox(new ActivityPubObjectReference<Inbox>());
-        Inbox inbox = new Inbox();
-        when(this.activityPubObjectReferenceResolver.resolveReference(actor.getInbox())).thenReturn(inbox);
+            .setInbox(new ActivityPubObjectReference<Inbox>().setLink(URI.create("http://foo/inbox")));
 
         this.handler.handleInboxRequest(
             new ActivityRequest<>(actor, activity, this.servletRequest, this.servletResponse));
-        assertEquals(1, inbox.getAllActivities().size());
-        assertTrue(inbox.getAllActivities().contains(activity));
-        verify(this.activityPubStorage).storeEntity(inbox);
+        verify(this.activityPubStorage).appendItem(URI.create("http://foo/inbox"), activity.getId());
         verify(this.notifier).notify(activity, Collections.singleton(actor));
         verifyResponse(activity);
     }
@@ -108,9 +103,7 @@ public class CreateActivityHandlerTest extends AbstractHandlerTest
         UserReference userReference = mock(UserReference.class);
         Person actor = new Person()
             .setPreferredUsername("XWiki.Foo")
-            .setOutbox(new ActivityPubObjectReference<Outbox>());
-        Outbox outbox = new Outbox();
-        when(this.activityPubObjectReferenceResolver.resolveReference(actor.getOutbox())).thenReturn(outbox);
+            .setOutbox(new ActivityPubObjectReference<Outbox>().setLink(URI.create("http://foo/outbox")));
         when(this.actorHandler.getXWikiUserReference(actor)).thenReturn(userReference);
 
         when(this.activityPubStorage.storeEntity(activity)).then(invocationOnMock -> {
@@ -121,9 +114,7 @@ public class CreateActivityHandlerTest extends AbstractHandlerTest
         this.handler.handleOutboxRequest(
             new ActivityRequest<>(actor, activity, this.servletRequest, this.servletResponse));
         verify(this.activityPubStorage).storeEntity(activity);
-        assertEquals(1, outbox.getAllActivities().size());
-        assertTrue(outbox.getAllActivities().contains(activity));
-        verify(this.activityPubStorage).storeEntity(outbox);
+        verify(this.activityPubStorage).appendItem(URI.create("http://foo/outbox"), activity.getId());
         verify(this.notifier, never()).notify(any(), any());
         verifyResponse(activity);
     }
@@ -158,22 +149,15 @@ public class CreateActivityHandlerTest extends AbstractHandlerTest
         when(this.activityPubObjectReferenceResolver.resolveReference(followersRef)).thenReturn(followers);
         Person actor = new Person()
                            .setPreferredUsername("XWiki.Foo")
-                           .setOutbox(new ActivityPubObjectReference<Outbox>())
+                           .setOutbox(new ActivityPubObjectReference<Outbox>().setLink(URI.create("http://foo/outbox")))
                            .setFollowers(followersRef);
-        Outbox outbox = new Outbox();
-        when(this.activityPubObjectReferenceResolver.resolveReference(actor.getOutbox())).thenReturn(outbox);
         when(this.actorHandler.getXWikiUserReference(actor)).thenReturn(userReference);
 
         this.handler.handleOutboxRequest(
             new ActivityRequest<>(actor, activity, this.servletRequest, this.servletResponse));
-        assertEquals(1, outbox.getAllActivities().size());
-        assertTrue(outbox.getAllActivities().contains(activity));
-        verify(this.activityPubStorage).storeEntity(outbox);
+        verify(this.activityPubStorage).appendItem(URI.create("http://foo/outbox"), activity.getId());
         verify(this.notifier, never()).notify(any(), any());
         this.verifyResponse(activity);
-        verify(this.activityPubClient, times(2)).checkAnswer(any());
-        verify(this.activityPubClient).postInbox(follower1, activity);
-        verify(this.activityPubClient).postInbox(follower2, activity);
-        verify(this.postMethod, times(2)).releaseConnection();
+        verify(this.deliveryService).deliver(activity, new HashSet<>(Arrays.asList(follower1, follower2)));
     }
 }
@@ -21,6 +21,7 @@ package org.xwiki.contrib.activitypub.internal.activities;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -156,8 +157,6 @@ public class RejectActivityHandlerTest extends AbstractHandlerTest
         verifyResponse(reject);
         assertEquals(new ArrayList<>(), followers.getOrderedItems());
         verify(this.notifier, never()).notify(eq(reject), any(Set.class));
-        verify(this.activityPubClient).checkAnswer(any());
-        verify(this.activityPubClient).postInbox(followingPerson, reject);
-        verify(this.postMethod).releaseConnection();
+        verify(this.deliveryService).deliver(reject, Collections.singleton(followingPerson));
     }
 }
@@ -21,6 +21,7 @@ package org.xwiki.contrib.activitypub.internal.async.jobs;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 
@@ -35,6 +36,7 @@ import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.ActivityRequest;
 import org.xwiki.contrib.activitypub.ActorHandler;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.AbstractCollection;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Document;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
@@ -131,6 +133,8 @@ class PageUpdatedNotificationJobTest
         when(this.xWikiUserBridge.resolveDocumentReference(this.document.getAuthorReference()))
             .thenReturn(this.authorReference);
         when(this.actorHandler.getActor(this.authorReference)).thenReturn(this.person);
+        when(this.objectReferenceResolver.resolveItems(any())).then(
+            invocation -> new ArrayList<>(((AbstractCollection<?>) invocation.getArgument(0)).getAllItems()));
     }
 
     @Test
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.delivery;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
+import org.xwiki.contrib.activitypub.entities.Inbox;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.internal.storage.ActivityPubSolrWriter;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActivityDeliveryService}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActivityDeliveryServiceTest
+{
+    private static final URI ACTIVITY = URI.create("http://xwiki.org/create/1");
+
+    private static final URI INBOX = URI.create("http://mastodon.social/users/foo/inbox");
+
+    @InjectMockComponents
+    private ActivityDeliveryService deliveryService;
+
+    @MockComponent
+    private ActivityPubClient activityPubClient;
+
+    @MockComponent
+    private ActivityPubStorage activityPubStorage;
+
+    @MockComponent
+    private ActivityPubObjectReferenceResolver resolver;
+
+    @MockComponent
+    private ActivityPubSolrWriter solrWriter;
+
+    @MockComponent
+    private Solr solr;
+
+    @MockComponent
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Mock
+    private HttpMethod postMethod;
+
+    private Create create;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        this.create = new Create().setObject(new Note()).setId(ACTIVITY);
+        when(this.activityPubStorage.retrieveEntity(ACTIVITY)).thenReturn(this.create);
+        when(this.activityPubClient.post(INBOX, this.create)).thenReturn(this.postMethod);
+        when(this.postMethod.isRequestSent()).thenReturn(true);
+        when(this.wikiDescriptorManager.getCurrentWikiId()).thenReturn("foo");
+    }
+
+    private Person createActor(URI inbox)
+    {
+        return new Person().setInbox(new ActivityPubObjectReference<Inbox>().setLink(inbox));
+    }
+
+    @Test
+    public void deliver() throws Exception
+    {
+        // The activity is not found so that the deliveries are dropped right after being persisted.
+        when(this.activityPubStorage.retrieveEntity(ACTIVITY)).thenReturn(null);
+        URI otherInbox = URI.create("http://xwiki.org/inbox");
+        List<AbstractActor> targets = Arrays.asList(createActor(INBOX), createActor(otherInbox), createActor(INBOX));
+
+        this.deliveryService.deliver(this.create, targets);
+
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(2)).add(captor.capture());
+        List<SolrInputDocument> documents = captor.getAllValues();
+        assertEquals("delivery:http://xwiki.org/create/1#http://mastodon.social/users/foo/inbox",
+            documents.get(0).getFieldValue("id"));
+        assertEquals("delivery", documents.get(0).getFieldValue("type"));
+        assertEquals(ACTIVITY.toString(), documents.get(0).getFieldValue("activity"));
+        assertEquals(INBOX.toString(), documents.get(0).getFieldValue("inbox"));
+        assertEquals(0L, documents.get(0).getFieldValue("attempts"));
+        assertEquals("foo", documents.get(0).getFieldValue("wiki"));
+        assertEquals(otherInbox.toString(), documents.get(1).getFieldValue("inbox"));
+    }
+
+    @Test
+    public void deliverToSharedInbox() throws Exception
+    {
+        when(this.activityPubStorage.retrieveEntity(ACTIVITY)).thenReturn(null);
+        URI sharedInbox = URI.create("http://mastodon.social/inbox");
+        URI otherSharedInbox = URI.create("http://xwiki.org/xwiki/activitypub/sharedInbox/xwiki");
+        URI otherInbox = URI.create("http://xwiki.org/inbox");
+        List<AbstractActor> targets = Arrays.asList(
+            createActor(INBOX).setEndpoints(new Endpoints().setSharedInbox(sharedInbox)),
+            createActor(URI.create("http://mastodon.social/users/bar/inbox"))
+                .setEndpoints(new Endpoints().setSharedInbox(sharedInbox)),
+            createActor(otherInbox).setEndpoints(new Endpoints().setSharedInbox(otherSharedInbox)));
+
+        this.deliveryService.deliver(this.create, targets);
+
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(2)).add(captor.capture());
+        List<SolrInputDocument> documents = captor.getAllValues();
+        assertEquals(sharedInbox.toString(), documents.get(0).getFieldValue("inbox"));
+        // A single recipient doesn't need the shared inbox.
+        assertEquals(otherInbox.toString(), documents.get(1).getFieldValue("inbox"));
+    }
+
+    @Test
+    public void processDelivered() throws Exception
+    {
+        Delivery delivery = new Delivery(ACTIVITY, INBOX, true);
+
+        this.deliveryService.process(delivery);
+
+        verify(this.resolver).resolveReference(this.create.getObject());
+        verify(this.activityPubClient).checkAnswer(this.postMethod);
+        verify(this.postMethod).releaseConnection();
+        verify(this.solrWriter).delete(delivery.getId());
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void processRetry() throws Exception
+    {
+        doThrow(new ActivityPubException("503")).when(this.activityPubClient).checkAnswer(this.postMethod);
+        when(this.postMethod.getStatusCode()).thenReturn(503);
+        Delivery delivery = new Delivery(ACTIVITY, INBOX, false);
+
+        long before = System.currentTimeMillis();
+        this.deliveryService.process(delivery);
+
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(captor.capture());
+        assertEquals(1L, captor.getValue().getFieldValue("attempts"));
+        assertEquals(1, delivery.getAttempts());
+        assertTrue(delivery.getNextAttempt().getTime() >= before + 30000);
+        verify(this.postMethod).releaseConnection();
+        verify(this.solrWriter, never()).delete(any());
+    }
+
+    @Test
+    public void processUnexpectedError() throws Exception
+    {
+        when(this.activityPubClient.post(INBOX, this.create)).thenThrow(new IllegalStateException("Unexpected"));
+        Delivery delivery = new Delivery(ACTIVITY, INBOX, false);
+
+        this.deliveryService.process(delivery);
+
+        assertEquals(1, delivery.getAttempts());
+        verify(this.solrWriter).add(any());
+        verify(this.solrWriter, never()).delete(any());
+    }
+
+    @Test
+    public void processAbandon() throws Exception
+    {
+        doThrow(new ActivityPubException("404")).when(this.activityPubClient).checkAnswer(this.postMethod);
+        when(this.postMethod.getStatusCode()).thenReturn(404);
+        Delivery delivery = new Delivery(ACTIVITY, INBOX, false);
+
+        this.deliveryService.process(delivery);
+
+        verify(this.solrWriter).delete(delivery.getId());
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void processLastAttempt() throws Exception
+    {
+        when(this.postMethod.isRequestSent()).thenReturn(false);
+        doThrow(new ActivityPubException("Not sent")).when(this.activityPubClient).checkAnswer(this.postMethod);
+        Delivery delivery = new Delivery(ACTIVITY, INBOX, false);
+        delivery.setAttempts(7);
+
+        this.deliveryService.process(delivery);
+
+        verify(this.solrWriter).delete(delivery.getId());
+        verify(this.solrWriter, never()).add(any());
+    }
+}
@@ -29,7 +29,6 @@ import org.xwiki.contrib.activitypub.entities.AbstractActivity;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Collection;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
-import org.xwiki.contrib.activitypub.internal.stream.StreamActivityPubObjectReferenceResolver;
 import org.xwiki.contrib.activitypub.internal.stream.StreamActivityPubObjectReferenceSerializer;
 import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.junit5.mockito.ComponentTest;
@@ -50,7 +49,7 @@ import static org.mockito.Mockito.when;
  * @since 1.2
  */
 @ComponentTest
-@ComponentList({ StreamActivityPubObjectReferenceSerializer.class, StreamActivityPubObjectReferenceResolver.class })
+@ComponentList(StreamActivityPubObjectReferenceSerializer.class)
 public class PublicActivityCollectionFilterTest
 {
     @InjectMockComponents
@@ -81,12 +80,13 @@ public class PublicActivityCollectionFilterTest
         ActivityPubObjectReference<AbstractActivity> ref1 = mock(ActivityPubObjectReference.class);
         ActivityPubObjectReference<AbstractActivity> ref2 = mock(ActivityPubObjectReference.class);
         ActivityPubObjectReference<AbstractActivity> ref3 = mock(ActivityPubObjectReference.class);
+        ActivityPubObjectReference<AbstractActivity> ref4 = mock(ActivityPubObjectReference.class);
         AbstractActivity activity1 = mock(AbstractActivity.class);
         AbstractActivity activity2 = mock(AbstractActivity.class);
         AbstractActivity activity3 = mock(AbstractActivity.class);
-        when(this.resolver.resolveReference(ref1)).thenReturn(activity1);
-        when(this.resolver.resolveReference(ref2)).thenReturn(activity2);
-        when(this.resolver.resolveReference(ref3)).thenReturn(activity3);
+        // The references which cannot be resolved are ignored.
+        when(this.resolver.resolveReferences(Arrays.asList(ref1, ref2, ref3, ref4)))
+            .thenReturn(Arrays.asList(activity1, activity2, activity3, null));
         when(activity1.getReference()).thenReturn((ActivityPubObjectReference) ref1);
         when(activity2.getReference()).thenReturn((ActivityPubObjectReference) ref2);
         when(activity3.getReference()).thenReturn((ActivityPubObjectReference) ref3);
@@ -96,7 +96,7 @@ public class PublicActivityCollectionFilterTest
         when(this.publicActivityFilter.test(activity3)).thenReturn(true);
 
         List<ActivityPubObjectReference<AbstractActivity>> expected = Arrays.asList(ref1, ref3);
-        when(activityCollection.getOrderedItems()).thenReturn(Arrays.asList(ref1, ref2, ref3));
+        when(activityCollection.getOrderedItems()).thenReturn(Arrays.asList(ref1, ref2, ref3, ref4));
         OrderedCollection<AbstractActivity> obtainedActivity = publicActivityCollectionFilter.filter(activityCollection);
         verify(obtainedActivity).setOrderedItems(expected);
         assertSame(activityCollection, obtainedActivity);
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.listeners;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.SignatureService;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.entities.Service;
+import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.resource.ResourceReferenceSerializer;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.user.UserReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActorDeletedEventListener}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActorDeletedEventListenerTest
+{
+    @InjectMockComponents
+    private ActorDeletedEventListener listener;
+
+    @MockComponent
+    private SignatureService signatureService;
+
+    @MockComponent
+    private ActivityPubStorage activityPubStorage;
+
+    @MockComponent
+    private ResourceReferenceSerializer<ActivityPubResourceReference, URI> serializer;
+
+    @MockComponent
+    private XWikiUserBridge xWikiUserBridge;
+
+    @RegisterExtension
+    LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    private XWikiDocument mockDeletedDocument(DocumentReference documentReference, boolean user)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        XWikiDocument originalDocument = mock(XWikiDocument.class);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+        when(originalDocument.getDocumentReference()).thenReturn(documentReference);
+        if (user) {
+            when(originalDocument.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        }
+        return document;
+    }
+
+    @Test
+    public void onUserDeleted() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("xwiki", "XWiki", "Foo");
+        UserReference userReference = mock(UserReference.class);
+        when(this.xWikiUserBridge.resolveDocumentReference(documentReference)).thenReturn(userReference);
+        when(this.xWikiUserBridge.getUserLogin(userReference)).thenReturn("xwiki:XWiki.Foo");
+        URI actorId = URI.create("http://domain.org/xwiki/activitypub/Person/xwiki%3AXWiki.Foo");
+        when(this.serializer.serialize(new ActivityPubResourceReference("Person", "xwiki:XWiki.Foo")))
+            .thenReturn(actorId);
+        Person actor = new Person();
+        when(this.activityPubStorage.retrieveEntity(actorId)).thenReturn(actor);
+
+        this.listener.onEvent(new DocumentDeletedEvent(documentReference),
+            mockDeletedDocument(documentReference, true), null);
+
+        verify(this.signatureService).invalidate(actor);
+    }
+
+    @Test
+    public void onPageDeleted() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("xwiki", "Main", "WebHome");
+
+        this.listener.onEvent(new DocumentDeletedEvent(documentReference),
+            mockDeletedDocument(documentReference, false), null);
+
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+        verify(this.signatureService, never()).invalidate(any());
+    }
+
+    @Test
+    public void onWikiDeleted() throws Exception
+    {
+        URI actorId = URI.create("http://domain.org/xwiki/activitypub/Service/foo");
+        when(this.serializer.serialize(new ActivityPubResourceReference("Service", "foo"))).thenReturn(actorId);
+        Service actor = new Service();
+        when(this.activityPubStorage.retrieveEntity(actorId)).thenReturn(actor);
+
+        this.listener.onEvent(new WikiDeletedEvent("foo"), "foo", null);
+
+        verify(this.signatureService).invalidate(actor);
+    }
+
+    @Test
+    public void onWikiDeletedWithError() throws Exception
+    {
+        URI actorId = URI.create("http://domain.org/xwiki/activitypub/Service/foo");
+        when(this.serializer.serialize(new ActivityPubResourceReference("Service", "foo"))).thenReturn(actorId);
+        when(this.activityPubStorage.retrieveEntity(actorId)).thenThrow(new ActivityPubException("Unavailable"));
+
+        this.listener.onEvent(new WikiDeletedEvent("foo"), "foo", null);
+
+        verify(this.signatureService, never()).invalidate(any());
+        assertEquals("Failed to forget the keys of the removed actor [foo]. Cause [ActivityPubException: Unavailable]",
+            this.logCapture.getMessage(0));
+    }
+}
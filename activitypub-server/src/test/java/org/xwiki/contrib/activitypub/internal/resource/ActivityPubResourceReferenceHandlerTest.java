@@ -20,20 +20,27 @@
 package org.xwiki.contrib.activitypub.internal.resource;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import javax.inject.Provider;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
@@ -42,23 +49,32 @@ import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
 import org.xwiki.contrib.activitypub.ActivityHandler;
 import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubEntityVersion;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
 import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.ActivityPubQueryResult;
 import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
 import org.xwiki.contrib.activitypub.ActivityRequest;
 import org.xwiki.contrib.activitypub.ActorHandler;
+import org.xwiki.contrib.activitypub.SignatureService;
 import org.xwiki.contrib.activitypub.entities.AbstractActivity;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
 import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Endpoints;
+import org.xwiki.contrib.activitypub.entities.Follow;
 import org.xwiki.contrib.activitypub.entities.Inbox;
 import org.xwiki.contrib.activitypub.entities.OrderedCollection;
+import org.xwiki.contrib.activitypub.entities.OrderedCollectionPage;
 import org.xwiki.contrib.activitypub.entities.Outbox;
 import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.entities.ProxyActor;
+import org.xwiki.contrib.activitypub.entities.PublicKey;
 import org.xwiki.contrib.activitypub.internal.XWikiUserBridge;
 import org.xwiki.contrib.activitypub.internal.filters.CollectionFilter;
 import org.xwiki.resource.ResourceReferenceHandlerChain;
@@ -74,6 +90,9 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.api.User;
 
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
@@ -111,6 +130,9 @@ public class ActivityPubResourceReferenceHandlerTest
     @MockComponent
     private XWikiUserBridge xWikiUserBridge;
 
+    @MockComponent
+    private SignatureService signatureService;
+
     @InjectComponentManager
     private MockitoComponentManager componentManager;
 
@@ -150,6 +172,43 @@ public class ActivityPubResourceReferenceHandlerTest
         when(contextProvider.get()).thenReturn(this.xWikiContext);
     }
 
+    private void mockRequestBody(String body) throws IOException
+    {
+        ByteArrayInputStream input = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        when(this.servletRequest.getInputStream()).thenReturn(new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return input.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+            {
+                return input.read(buffer, offset, length);
+            }
+
+            @Override
+            public boolean isFinished()
+            {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener)
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
     private void verifyResponse(int code, String message) throws IOException
     {
         verify(servletResponse, times(1)).setStatus(code);
@@ -200,6 +259,28 @@ public class ActivityPubResourceReferenceHandlerTest
         verify(handlerChain, times(1)).handleNext(resourceReference);
     }
 
+    @Test
+    void handleGetStoredActorWithoutEndpoints() throws Exception
+    {
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("person", "Foo");
+        String requestURL = "http://domain.org/xwiki/activitypub/Person/Foo";
+        Person person = new Person().setPreferredUsername("Foo");
+        person.setPublicKey(new PublicKey());
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(person);
+        Endpoints endpoints = new Endpoints().setSharedInbox(URI.create("http://domain.org/xwiki/activitypub/inbox"));
+        when(this.actorHandler.initEndpoints(person)).thenReturn(endpoints);
+        when(servletRequest.getMethod()).thenReturn("GET");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        // The actors created before the shared inboxes were introduced get them the next time they are served.
+        assertSame(endpoints, person.getEndpoints());
+        verify(this.activityPubStorage).storeEntity(person);
+        verify(this.actorHandler, never()).initPublicKey(any());
+        this.verifyResponse(person);
+    }
+
     @Test
     void handletGetStoredEntity() throws Exception
     {
@@ -214,6 +295,87 @@ public class ActivityPubResourceReferenceHandlerTest
         verify(handlerChain, times(1)).handleNext(resourceReference);
     }
 
+    @Test
+    void handleGetStoredEntityWithVersion() throws Exception
+    {
+        Create create = new Create().setName("Create 42");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("create", "42");
+        URI requestURI = new URI("http://domain.org/xwiki/activitypub/Create/42");
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURI.toString()));
+        when(this.activityPubStorage.retrieveEntity(requestURI)).thenReturn(create);
+        Date lastModified = new Date();
+        when(this.activityPubStorage.retrieveEntityVersion(requestURI))
+            .thenReturn(new ActivityPubEntityVersion("\"v1\"", lastModified));
+        when(this.servletRequest.getMethod()).thenReturn("GET");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(create);
+        verify(this.servletResponse).setHeader("ETag", "\"v1\"");
+        verify(this.servletResponse).setDateHeader("Last-Modified", lastModified.getTime());
+        verify(this.servletResponse).setHeader("Cache-Control", "public, max-age=60");
+    }
+
+    @Test
+    void handleGetNotModified() throws Exception
+    {
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("create", "42");
+        URI requestURI = new URI("http://domain.org/xwiki/activitypub/Create/42");
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURI.toString()));
+        when(this.activityPubStorage.retrieveEntityVersion(requestURI))
+            .thenReturn(new ActivityPubEntityVersion("\"v1\"", new Date()));
+        when(this.servletRequest.getMethod()).thenReturn("GET");
+        when(this.servletRequest.getHeader("If-None-Match")).thenReturn("\"v0\", W/\"v1\"");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        verify(this.servletResponse).setStatus(304);
+        verify(this.servletResponse).setHeader("ETag", "\"v1\"");
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+        verify(this.activityPubJsonSerializer, never()).serialize(any(ServletOutputStream.class), any());
+        verify(this.handlerChain).handleNext(resourceReference);
+    }
+
+    @Test
+    void handleGetNotModifiedSince() throws Exception
+    {
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("create", "42");
+        URI requestURI = new URI("http://domain.org/xwiki/activitypub/Create/42");
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURI.toString()));
+        Date lastModified = new Date(1600000000500L);
+        when(this.activityPubStorage.retrieveEntityVersion(requestURI))
+            .thenReturn(new ActivityPubEntityVersion("\"v1\"", lastModified));
+        when(this.servletRequest.getMethod()).thenReturn("GET");
+        when(this.servletRequest.getHeader("If-Modified-Since")).thenReturn("Sun, 13 Sep 2020 12:26:40 GMT");
+        when(this.servletRequest.getDateHeader("If-Modified-Since")).thenReturn(1600000000000L);
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        verify(this.servletResponse).setStatus(304);
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+    }
+
+    @Test
+    void handleGetModified() throws Exception
+    {
+        Create create = new Create().setName("Create 42");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("create", "42");
+        URI requestURI = new URI("http://domain.org/xwiki/activitypub/Create/42");
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURI.toString()));
+        when(this.activityPubStorage.retrieveEntity(requestURI)).thenReturn(create);
+        when(this.activityPubStorage.retrieveEntityVersion(requestURI))
+            .thenReturn(new ActivityPubEntityVersion("\"v2\"", new Date()));
+        when(this.servletRequest.getMethod()).thenReturn("GET");
+        when(this.servletRequest.getHeader("If-None-Match")).thenReturn("\"v1\"");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(create);
+        verify(this.servletResponse).setHeader("ETag", "\"v2\"");
+        // The version is only retrieved once.
+        verify(this.activityPubStorage).retrieveEntityVersion(requestURI);
+    }
+
     @Test
     void handlePostOutsideBox() throws Exception
     {
@@ -257,20 +419,244 @@ public class ActivityPubResourceReferenceHandlerTest
         when(servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
         when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
 
-        Create create = new Create().setName("Create 42");
-        BufferedReader requestReader = new BufferedReader(new StringReader("{create:42}"));
-        when(servletRequest.getReader()).thenReturn(requestReader);
-        when(activityPubJsonParser.parse(requestReader)).thenReturn(create);
+        URI remoteActor = URI.create("http://remote.org/users/bar");
+        Create create = new Create().setActor(new ActivityPubObjectReference<AbstractActor>().setLink(remoteActor))
+            .setName("Create 42");
+        this.mockRequestBody("{create:42}");
+        when(this.signatureService.verifySignature(servletRequest)).thenReturn(remoteActor);
+        when(activityPubJsonParser.parse("{create:42}")).thenReturn(create);
         ActivityHandler<Create> activityHandler = this.componentManager
             .registerMockComponent(new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
 
         this.handler.handle(resourceReference, this.handlerChain);
 
+        verify(this.signatureService).verifyDigest(servletRequest, "{create:42}".getBytes(StandardCharsets.UTF_8));
         verify(activityHandler, times(1))
             .handleInboxRequest(new ActivityRequest<>(person, create, servletRequest, servletResponse));
         verify(handlerChain, times(1)).handleNext(resourceReference);
     }
 
+    @Test
+    void handlePostInboxNotSigned() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("Foo");
+        ActivityPubObjectReference<AbstractActor> actorReference =
+            new ActivityPubObjectReference<AbstractActor>().setObject(person);
+        when(this.objectReferenceResolver.resolveReference(actorReference)).thenReturn(person);
+        Inbox inbox = new Inbox().setAttributedTo(Collections.singletonList(actorReference));
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("inbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/Inbox/42";
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
+        when(this.signatureService.verifySignature(servletRequest))
+            .thenThrow(new ActivityPubException("The request is not signed."));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(401, "The signature of the request cannot be verified: [The request is not signed.].");
+        verify(servletRequest, never()).getInputStream();
+        verify(handlerChain, times(1)).handleNext(resourceReference);
+    }
+
+    @Test
+    void handlePostInboxWithNonASCIIContent() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("Foo");
+        ActivityPubObjectReference<AbstractActor> actorReference =
+            new ActivityPubObjectReference<AbstractActor>().setObject(person);
+        when(this.objectReferenceResolver.resolveReference(actorReference)).thenReturn(person);
+        Inbox inbox = new Inbox().setAttributedTo(Collections.singletonList(actorReference));
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("inbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/Inbox/42";
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
+
+        URI remoteActor = URI.create("http://remote.org/users/bar");
+        Create create = new Create().setActor(new ActivityPubObjectReference<AbstractActor>().setLink(remoteActor))
+            .setName("Créé");
+        // The request doesn't specify any charset: the reader of the servlet would decode it as ISO-8859-1.
+        this.mockRequestBody("{name:Créé}");
+        when(this.signatureService.verifySignature(servletRequest)).thenReturn(remoteActor);
+        when(activityPubJsonParser.parse("{name:Créé}")).thenReturn(create);
+        ActivityHandler<Create> activityHandler = this.componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        // The digest is checked against the bytes which have been sent.
+        verify(this.signatureService).verifyDigest(servletRequest, "{name:Créé}".getBytes(StandardCharsets.UTF_8));
+        verify(servletRequest, never()).getReader();
+        verify(activityHandler)
+            .handleInboxRequest(new ActivityRequest<>(person, create, servletRequest, servletResponse));
+    }
+
+    @Test
+    void handlePostInboxTooLarge() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("Foo");
+        ActivityPubObjectReference<AbstractActor> actorReference =
+            new ActivityPubObjectReference<AbstractActor>().setObject(person);
+        when(this.objectReferenceResolver.resolveReference(actorReference)).thenReturn(person);
+        Inbox inbox = new Inbox().setAttributedTo(Collections.singletonList(actorReference));
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("inbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/Inbox/42";
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
+        when(this.signatureService.verifySignature(servletRequest))
+            .thenReturn(URI.create("http://remote.org/users/bar"));
+        // The declared length is missing: the size is only known while reading.
+        when(servletRequest.getContentLengthLong()).thenReturn(-1L);
+        char[] content = new char[1024 * 1024 + 1];
+        Arrays.fill(content, 'a');
+        this.mockRequestBody(new String(content));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(413, "The body of the request exceeds the maximum size of [1048576] bytes.");
+        verify(this.signatureService, never()).verifyDigest(any(), any());
+        verify(this.activityPubJsonParser, never()).parse(anyString());
+    }
+
+    @Test
+    void handlePostInboxSignedByAnotherActor() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("Foo");
+        ActivityPubObjectReference<AbstractActor> actorReference =
+            new ActivityPubObjectReference<AbstractActor>().setObject(person);
+        when(this.objectReferenceResolver.resolveReference(actorReference)).thenReturn(person);
+        Inbox inbox = new Inbox().setAttributedTo(Collections.singletonList(actorReference));
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("inbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/Inbox/42";
+        when(servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
+
+        URI remoteActor = URI.create("http://remote.org/users/bar");
+        Create create = new Create().setActor(new ActivityPubObjectReference<AbstractActor>().setLink(remoteActor))
+            .setName("Create 42");
+        this.mockRequestBody("{create:42}");
+        when(this.signatureService.verifySignature(servletRequest))
+            .thenReturn(URI.create("http://other.org/users/baz"));
+        when(activityPubJsonParser.parse("{create:42}")).thenReturn(create);
+        ActivityHandler<Create> activityHandler = this.componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(401,
+            "The request is signed by [http://other.org/users/baz] who is not the actor of the activity.");
+        verify(activityHandler, never()).handleInboxRequest(any());
+        verify(handlerChain, times(1)).handleNext(resourceReference);
+    }
+
+    @Test
+    void handlePostSharedInbox() throws Exception
+    {
+        Person localPerson = new Person().setPreferredUsername("Foo");
+        Person remotePerson = new Person().setPreferredUsername("Bar");
+        ProxyActor localProxy = new ProxyActor(URI.create("http://domain.org/xwiki/activitypub/Person/Foo"));
+        ProxyActor remoteProxy = new ProxyActor(URI.create("http://remote.org/users/bar"));
+        when(this.objectReferenceResolver.resolveReference(localProxy)).thenReturn(localPerson);
+        when(this.objectReferenceResolver.resolveReference(remoteProxy)).thenReturn(remotePerson);
+        when(this.objectReferenceResolver.resolveReference(localPerson.getReference())).thenReturn(localPerson);
+        when(this.objectReferenceResolver.resolveReference(remotePerson.getReference())).thenReturn(remotePerson);
+        when(this.actorHandler.isLocalActor(localPerson)).thenReturn(true);
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("sharedInbox", "xwiki");
+
+        URI remoteActor = URI.create("http://remote.org/users/baz");
+        Create create = new Create().setActor(new ActivityPubObjectReference<AbstractActor>().setLink(remoteActor))
+            .setName("Create 42")
+            .setTo(Arrays.asList(ProxyActor.getPublicActor(), localProxy, remoteProxy));
+        this.mockRequestBody("{create:42}");
+        when(this.signatureService.verifySignature(servletRequest)).thenReturn(remoteActor);
+        when(activityPubJsonParser.parse("{create:42}")).thenReturn(create);
+        ActivityHandler<Create> activityHandler = this.componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        verify(activityHandler).handleInboxRequest(new ActivityRequest<>(localPerson, create, servletRequest, null));
+        verify(activityHandler, never())
+            .handleInboxRequest(new ActivityRequest<>(remotePerson, create, servletRequest, null));
+        verify(this.activityPubStorage, never()).retrieveEntity(any());
+        verify(this.servletResponse).setStatus(202);
+        verify(handlerChain, times(1)).handleNext(resourceReference);
+    }
+
+    @Test
+    void handlePostSharedInboxToFollowers() throws Exception
+    {
+        URI followersURI = URI.create("http://remote.org/users/baz/followers");
+        Person remoteActor = new Person()
+            .setFollowers(new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setLink(followersURI))
+            .setId(URI.create("http://remote.org/users/baz"));
+        URI fooFollowing = URI.create("http://domain.org/xwiki/activitypub/OrderedCollection/foo-following");
+        Person foo = new Person()
+            .setFollowing(new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setLink(fooFollowing))
+            .setId(URI.create("http://domain.org/xwiki/activitypub/Person/Foo"));
+        URI barFollowing = URI.create("http://domain.org/xwiki/activitypub/OrderedCollection/bar-following");
+        Person bar = new Person()
+            .setFollowing(new ActivityPubObjectReference<OrderedCollection<AbstractActor>>().setLink(barFollowing))
+            .setId(URI.create("http://domain.org/xwiki/activitypub/Person/Bar"));
+        ActivityPubObjectReference<AbstractActor> remoteActorReference =
+            new ActivityPubObjectReference<AbstractActor>().setLink(remoteActor.getId());
+        ActivityPubObjectReference<AbstractActor> fooReference =
+            new ActivityPubObjectReference<AbstractActor>().setLink(foo.getId());
+        ActivityPubObjectReference<AbstractActor> barReference =
+            new ActivityPubObjectReference<AbstractActor>().setLink(bar.getId());
+        when(this.objectReferenceResolver.resolveReference(remoteActorReference)).thenReturn(remoteActor);
+        when(this.objectReferenceResolver.resolveReference(fooReference)).thenReturn(foo);
+        when(this.objectReferenceResolver.resolveReference(barReference)).thenReturn(bar);
+        when(this.actorHandler.isLocalActor(foo)).thenReturn(true);
+        when(this.actorHandler.isLocalActor(bar)).thenReturn(true);
+        List<Follow> follows = Arrays.asList(new Follow().setActor(fooReference).setObject(remoteActor),
+            new Follow().setActor(barReference).setObject(remoteActor));
+        when(this.activityPubStorage.query(any())).thenReturn(
+            new ActivityPubQueryResult<>(2, Arrays.asList(URI.create("http://follow/1"), URI.create("http://follow/2")),
+                follows::get));
+        // Bar's follow request has not been accepted.
+        when(this.activityPubStorage.containsItem(fooFollowing, remoteActor.getId())).thenReturn(true);
+        when(servletRequest.getMethod()).thenReturn("POST");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("sharedInbox", "xwiki");
+
+        Create create = new Create().setActor(remoteActorReference)
+            .setName("Create 42")
+            .setTo(Collections.singletonList(ProxyActor.getPublicActor()))
+            .setCc(Collections.singletonList(new ProxyActor(followersURI)));
+        this.mockRequestBody("{create:42}");
+        when(this.signatureService.verifySignature(servletRequest)).thenReturn(remoteActor.getId());
+        when(activityPubJsonParser.parse("{create:42}")).thenReturn(create);
+        ActivityHandler<Create> activityHandler = this.componentManager
+            .registerMockComponent(new DefaultParameterizedType(null, ActivityHandler.class, Create.class));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        verify(activityHandler).handleInboxRequest(new ActivityRequest<>(foo, create, servletRequest, null));
+        verify(activityHandler, never()).handleInboxRequest(new ActivityRequest<>(bar, create, servletRequest, null));
+        ArgumentCaptor<ActivityPubQuery> queryCaptor = ArgumentCaptor.forClass(ActivityPubQuery.class);
+        verify(this.activityPubStorage).query(queryCaptor.capture());
+        assertEquals("Follow", queryCaptor.getValue().getType());
+        assertEquals(remoteActor.getId(), queryCaptor.getValue().getObject());
+        // The followers collection of the sender is never resolved.
+        verify(this.objectReferenceResolver, never()).resolveReference(new ProxyActor(followersURI));
+        verify(this.servletResponse).setStatus(202);
+    }
+
+    @Test
+    void handleGetSharedInbox() throws Exception
+    {
+        when(servletRequest.getMethod()).thenReturn("GET");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("sharedInbox", "xwiki");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(405, "Only POST requests are allowed on the shared inbox.");
+    }
+
     @Test
     void handlePostOutboxNotAuthorized() throws Exception
     {
@@ -359,11 +745,11 @@ public class ActivityPubResourceReferenceHandlerTest
         when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
         when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(inbox);
         when(servletRequest.getMethod()).thenReturn("GET");
-        when(this.publicActivityCollectionFilter.filter(inbox)).thenReturn(inbox);
         this.handler.handle(resourceReference, this.handlerChain);
         this.verifyResponse(inbox);
         verify(handlerChain, times(1)).handleNext(resourceReference);
-        verify(this.publicActivityCollectionFilter).filter(inbox);
+        verify(this.publicActivityCollectionFilter, never()).filter(any());
+        assertEquals(URI.create(requestURL + "?page=true"), inbox.getFirst());
     }
 
     @Test
@@ -377,11 +763,11 @@ public class ActivityPubResourceReferenceHandlerTest
         when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
         when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(outbox);
         when(servletRequest.getMethod()).thenReturn("GET");
-        when(this.publicActivityCollectionFilter.filter(outbox)).thenReturn(outbox);
         this.handler.handle(resourceReference, this.handlerChain);
         this.verifyResponse(outbox);
         verify(handlerChain, times(1)).handleNext(resourceReference);
-        verify(this.publicActivityCollectionFilter).filter(outbox);
+        verify(this.publicActivityCollectionFilter, never()).filter(any());
+        assertEquals(URI.create(requestURL + "?page=true"), outbox.getFirst());
     }
 
     @Test
@@ -428,5 +814,140 @@ public class ActivityPubResourceReferenceHandlerTest
         this.verifyResponse(outbox);
         verify(handlerChain, times(1)).handleNext(resourceReference);
         verify(this.publicActivityCollectionFilter, never()).filter(outbox);
+        verify(this.activityPubStorage).countItems(new URI(requestURL), false);
+    }
+
+    @Test
+    public void handleGetOutboxSummary() throws Exception
+    {
+        Outbox outbox = new Outbox()
+            .setName("Outbox 42");
+        outbox.setAttributedTo(Arrays.asList(mock(ActivityPubObjectReference.class)));
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("outbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/outbox/42";
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(outbox);
+        // A guest only sees the public activities of the outbox.
+        when(this.activityPubStorage.countItems(new URI(requestURL), true)).thenReturn(2L);
+        when(servletRequest.getMethod()).thenReturn("GET");
+        this.handler.handle(resourceReference, this.handlerChain);
+        this.verifyResponse(outbox);
+        assertEquals(2, outbox.getTotalItems());
+        assertEquals(Collections.emptyList(), outbox.getOrderedItems());
+        assertEquals(URI.create(requestURL + "?page=true"), outbox.getFirst());
+        // The boxes depend on the current user: they cannot be kept by shared caches.
+        verify(this.activityPubStorage, never()).retrieveEntityVersion(any());
+        verify(this.servletResponse).setHeader("Cache-Control", "private, no-cache");
+    }
+
+    @Test
+    public void handleGetFollowersSummary() throws Exception
+    {
+        OrderedCollection<AbstractActor> followers = new OrderedCollection<AbstractActor>()
+            .setName("followers");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("orderedcollection", "42");
+        URI requestURI = new URI("http://domain.org/xwiki/activitypub/orderedcollection/42");
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURI.toString()));
+        when(this.activityPubStorage.retrieveEntity(requestURI)).thenReturn(followers);
+        when(this.activityPubStorage.retrieveEntityVersion(requestURI))
+            .thenReturn(new ActivityPubEntityVersion("\"v1\"", new Date()));
+        when(this.activityPubStorage.countItems(requestURI, false)).thenReturn(12000L);
+        when(servletRequest.getMethod()).thenReturn("GET");
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        this.verifyResponse(followers);
+        assertEquals(12000, followers.getTotalItems());
+        verify(this.activityPubStorage, never()).retrieveItems(any());
+        verify(this.servletResponse).setHeader("Cache-Control", "public, max-age=60");
+    }
+
+    @Test
+    public void handleGetOutboxFirstPageGuest() throws Exception
+    {
+        Outbox outbox = new Outbox()
+            .setName("Outbox 42");
+        outbox.setAttributedTo(Arrays.asList(mock(ActivityPubObjectReference.class)));
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("outbox", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/outbox/42";
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.servletRequest.getParameter("page")).thenReturn("true");
+        when(this.servletRequest.getQueryString()).thenReturn("page=true");
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(outbox);
+        when(servletRequest.getMethod()).thenReturn("GET");
+        URI item = URI.create("http://domain.org/xwiki/activitypub/create/1");
+        when(this.activityPubStorage.retrieveItems(new URI(requestURL), null, null, 20))
+            .thenReturn(Collections.singletonList(item));
+        when(this.publicActivityCollectionFilter.filter(any()))
+            .then(invocationOnMock -> invocationOnMock.getArgument(0));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        OrderedCollectionPage<AbstractActivity> expectedPage = new OrderedCollectionPage<AbstractActivity>()
+            .setPartOf(URI.create(requestURL));
+        expectedPage.setId(URI.create(requestURL + "?page=true"));
+        expectedPage.setOrderedItems(
+            Collections.singletonList(new ActivityPubObjectReference<AbstractActivity>().setLink(item)));
+        this.verifyResponse(expectedPage);
+        verify(this.publicActivityCollectionFilter).filter(expectedPage);
+        verify(handlerChain, times(1)).handleNext(resourceReference);
+    }
+
+    @Test
+    public void handleGetFollowersPage() throws Exception
+    {
+        OrderedCollection<AbstractActor> followers = new OrderedCollection<AbstractActor>()
+            .setName("followers");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("orderedcollection", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/orderedcollection/42";
+        String maxId = "http://domain.org/xwiki/activitypub/person/Foo";
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.servletRequest.getParameter("max_id")).thenReturn(maxId);
+        when(this.servletRequest.getQueryString()).thenReturn("max_id=foo");
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(followers);
+        when(servletRequest.getMethod()).thenReturn("GET");
+        List<URI> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            items.add(URI.create("http://domain.org/xwiki/activitypub/person/Bar" + i));
+        }
+        when(this.activityPubStorage.retrieveItems(new URI(requestURL), new URI(maxId), null, 20)).thenReturn(items);
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        ArgumentCaptor<OrderedCollectionPage<AbstractActor>> pageCaptor =
+            ArgumentCaptor.forClass(OrderedCollectionPage.class);
+        verify(this.activityPubJsonSerializer).serialize(eq(this.responseOutput), pageCaptor.capture());
+        OrderedCollectionPage<AbstractActor> page = pageCaptor.getValue();
+        assertEquals(URI.create(requestURL), page.getPartOf());
+        assertEquals(20, page.getOrderedItems().size());
+        assertEquals(URI.create(requestURL + "?max_id=http%3A%2F%2Fdomain.org%2Fxwiki%2Factivitypub%2Fperson%2FBar19"),
+            page.getNext());
+        assertEquals(URI.create(requestURL + "?min_id=http%3A%2F%2Fdomain.org%2Fxwiki%2Factivitypub%2Fperson%2FBar0"),
+            page.getPrev());
+        verify(this.publicActivityCollectionFilter, never()).filter(any());
+    }
+
+    @Test
+    public void handleGetLastPage() throws Exception
+    {
+        OrderedCollection<AbstractActor> followers = new OrderedCollection<AbstractActor>()
+            .setName("followers");
+        ActivityPubResourceReference resourceReference = new ActivityPubResourceReference("orderedcollection", "42");
+        String requestURL = "http://domain.org/xwiki/activitypub/orderedcollection/42";
+        when(this.servletRequest.getRequestURL()).thenReturn(new StringBuffer(requestURL));
+        when(this.servletRequest.getParameter("page")).thenReturn("true");
+        when(this.activityPubStorage.retrieveEntity(new URI(requestURL))).thenReturn(followers);
+        when(servletRequest.getMethod()).thenReturn("GET");
+        URI item = URI.create("http://domain.org/xwiki/activitypub/person/Bar");
+        when(this.activityPubStorage.retrieveItems(new URI(requestURL), null, null, 20))
+            .thenReturn(Collections.singletonList(item));
+
+        this.handler.handle(resourceReference, this.handlerChain);
+
+        ArgumentCaptor<OrderedCollectionPage<AbstractActor>> pageCaptor =
+            ArgumentCaptor.forClass(OrderedCollectionPage.class);
+        verify(this.activityPubJsonSerializer).serialize(eq(this.responseOutput), pageCaptor.capture());
+        assertNull(pageCaptor.getValue().getNext());
+        assertNull(pageCaptor.getValue().getPrev());
     }
 }
@@ -20,32 +20,61 @@
 package org.xwiki.contrib.activitypub.internal.signature;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.junit.jupiter.api.Test;
 import org.mockito.InOrder;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActorHandler;
 import org.xwiki.contrib.activitypub.CryptoService;
 import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.entities.PublicKey;
 import org.xwiki.crypto.params.cipher.asymmetric.PrivateKeyParameters;
+import org.xwiki.crypto.params.cipher.asymmetric.PublicKeyParameters;
 import org.xwiki.crypto.pkix.params.CertifiedKeyPair;
 import org.xwiki.crypto.store.FileStoreReference;
 import org.xwiki.crypto.store.KeyStore;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.matches;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -70,6 +99,12 @@ class DefaultSignatureServiceTest
     @MockComponent
     private ActorHandler actorHandler;
 
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private RemotePublicKeyStore remotePublicKeyStore;
+
     private final static byte[] PK = new byte[]{
         48, -126, 1, 84, 2, 1, 0, 48, 13, 6, 9, 42, -122, 72, -122, -9, 13, 1, 1, 1, 5, 0, 4, -126, 1, 62, 48, -126, 1,
         58, 2, 1, 0, 2, 65, 0, -87, 4, -97, -82, -98, -34, -40, 31, 42, -65, 28, -117, -122, 113, 7, -58, 95, -7, -44,
@@ -87,6 +122,18 @@ class DefaultSignatureServiceTest
         -85, 86, 27, 125, 16, 64, 12, 27, -21, -24, -15, 24, 54, 113, -26, -99, 123, 115, -57, 116
     };
 
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        Map<String, Object> entries = new HashMap<>();
+        when(cache.get(anyString())).thenAnswer(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(cache).set(anyString(), any());
+        doAnswer(invocation -> entries.remove(invocation.<String>getArgument(0))).when(cache).remove(anyString());
+        when(this.cacheManager.createNewCache(any())).thenReturn(cache);
+    }
+
     @Test
     void generateSignature() throws Exception
     {
@@ -111,7 +158,7 @@ class DefaultSignatureServiceTest
         this.signatureService.generateSignature(postMethod, actor);
         InOrder inOrder = inOrder(postMethod, postMethod);
         inOrder.verify(postMethod).addRequestHeader(eq("Signature"), matches(
-            "keyId=\"http:\\/\\/actoruri\\/\",headers=\"\\(request-target\\) host date\","
+            "keyId=\"http:\\/\\/actoruri\\/\",headers=\"\\(request-target\\) host date digest\","
                 + "signature=\"[^\"]*\""));
         inOrder.verify(postMethod).addRequestHeader(eq("Date"), anyString());
     }
@@ -140,7 +187,7 @@ class DefaultSignatureServiceTest
         this.signatureService.generateSignature(postMethod, actor);
         InOrder inOrder = inOrder(postMethod, postMethod);
         inOrder.verify(postMethod).addRequestHeader(eq("Signature"), matches(
-            "keyId=\"http:\\/\\/actoruri\\/\",headers=\"\\(request-target\\) host date\","
+            "keyId=\"http:\\/\\/actoruri\\/\",headers=\"\\(request-target\\) host date digest\","
                 + "signature=\"[^\"]*\""));
         inOrder.verify(postMethod).addRequestHeader(eq("Date"), anyString());
     }
@@ -177,8 +224,214 @@ class DefaultSignatureServiceTest
         this.signatureService.generateSignature(postMethod, actor);
         InOrder inOrder = inOrder(postMethod, postMethod);
         inOrder.verify(postMethod).addRequestHeader(eq("Signature"),
-                eq("keyId=\"http://actoruri/\",headers=\"(request-target) host date\""
-                        + ",signature=\"bdNHx5ahaz5D4SybbFcR/X97b7IdE7umC77+IeJI26ZmM7QqSs09T0wzYQWil8FDJDejepg2WfzW6OGXDDVM0Q==\""));
+                eq("keyId=\"http://actoruri/\",headers=\"(request-target) host date digest\""
+                        + ",signature=\"atMGaoS23DLvvyCpKZHtlYzv386Mnl6xD4Ueq1dFsMHf67sDJ5s4yu692VERNM1pUCoyG7WzPVN"
+                        + "CmHuLFQgMrg==\""));
         inOrder.verify(postMethod).addRequestHeader(eq("Date"), anyString());
+        inOrder.verify(postMethod).addRequestHeader("Digest", "SHA-256=47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=");
+    }
+
+    @Test
+    void generateSignatureWithBody() throws Exception
+    {
+        PostMethod postMethod = new PostMethod("http://targeturi/inbox");
+        postMethod.setRequestEntity(new StringRequestEntity("{}", "application/activity+json", "UTF-8"));
+        Person actor = mock(Person.class);
+        when(actor.getId()).thenReturn(URI.create("http://actoruri/"));
+        when(actor.getPublicKey()).thenReturn(new PublicKey().setId("http://actoruri/#main-key"));
+        DocumentReference documentReference = new DocumentReference("xwiki", "XWiki", "test");
+        when(this.actorHandler.getStoreDocument(actor)).thenReturn(documentReference);
+        CertifiedKeyPair certifiedKeyPair = mock(CertifiedKeyPair.class);
+        when(this.cryptoService.generateCertifiedKeyPair()).thenReturn(certifiedKeyPair);
+        PrivateKeyParameters privateKeyParameters = mock(PrivateKeyParameters.class);
+        when(certifiedKeyPair.getPrivateKey()).thenReturn(privateKeyParameters);
+        when(privateKeyParameters.getEncoded()).thenReturn(PK);
+
+        this.signatureService.generateSignature(postMethod, actor);
+
+        assertEquals("SHA-256=RBNvo1WzZ4oRRq0W9+hknpT7T8If536DEMBg9hyq/4o=",
+            postMethod.getRequestHeader("Digest").getValue());
+        assertTrue(postMethod.getRequestHeader("Signature").getValue()
+            .startsWith("keyId=\"http://actoruri/#main-key\",headers=\"(request-target) host date digest\","));
+    }
+
+    @Test
+    void getPublicKeyPEMUsesCache() throws Exception
+    {
+        Person actor = mock(Person.class);
+        DocumentReference documentReference = new DocumentReference("xwiki", "XWiki", "test");
+        when(this.actorHandler.getStoreDocument(actor)).thenReturn(documentReference);
+        CertifiedKeyPair certifiedKeyPair = mock(CertifiedKeyPair.class);
+        when(this.keyStore.retrieve(any(FileStoreReference.class))).thenReturn(certifiedKeyPair);
+        PublicKeyParameters publicKeyParameters = mock(PublicKeyParameters.class);
+        when(certifiedKeyPair.getPublicKey()).thenReturn(publicKeyParameters);
+        when(publicKeyParameters.getEncoded()).thenReturn(new byte[] { 1, 2, 3 });
+
+        String expected = "-----BEGIN PUBLIC KEY-----\nAQID\n-----END PUBLIC KEY-----\n";
+        assertEquals(expected, this.signatureService.getPublicKeyPEM(actor));
+        assertEquals(expected, this.signatureService.getPublicKeyPEM(actor));
+
+        verify(this.keyStore, times(1)).retrieve(any(FileStoreReference.class));
+        verify(publicKeyParameters, times(1)).getEncoded();
+    }
+
+    @Test
+    void invalidate() throws Exception
+    {
+        Person actor = mock(Person.class);
+        DocumentReference documentReference = new DocumentReference("xwiki", "XWiki", "test");
+        when(this.actorHandler.getStoreDocument(actor)).thenReturn(documentReference);
+        CertifiedKeyPair certifiedKeyPair = mock(CertifiedKeyPair.class);
+        CertifiedKeyPair newCertifiedKeyPair = mock(CertifiedKeyPair.class);
+        when(this.keyStore.retrieve(any(FileStoreReference.class))).thenReturn(certifiedKeyPair, newCertifiedKeyPair);
+        PublicKeyParameters publicKeyParameters = mock(PublicKeyParameters.class);
+        when(certifiedKeyPair.getPublicKey()).thenReturn(publicKeyParameters);
+        when(publicKeyParameters.getEncoded()).thenReturn(new byte[] { 1, 2, 3 });
+        PublicKeyParameters newPublicKeyParameters = mock(PublicKeyParameters.class);
+        when(newCertifiedKeyPair.getPublicKey()).thenReturn(newPublicKeyParameters);
+        when(newPublicKeyParameters.getEncoded()).thenReturn(new byte[] { 4, 5, 6 });
+
+        assertEquals("-----BEGIN PUBLIC KEY-----\nAQID\n-----END PUBLIC KEY-----\n",
+            this.signatureService.getPublicKeyPEM(actor));
+        this.signatureService.invalidate(actor);
+
+        // The keys are read again from the key store.
+        assertEquals("-----BEGIN PUBLIC KEY-----\nBAUG\n-----END PUBLIC KEY-----\n",
+            this.signatureService.getPublicKeyPEM(actor));
+        verify(this.keyStore, times(2)).retrieve(any(FileStoreReference.class));
+    }
+
+    private HttpServletRequest mockSignedRequest(PrivateKey privateKey) throws Exception
+    {
+        return mockSignedRequest(privateKey, "(request-target) host date digest");
+    }
+
+    private HttpServletRequest mockSignedRequest(PrivateKey privateKey, String signedHeaders) throws Exception
+    {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("(request-target)", "post /xwiki/activitypub/Inbox/foo");
+        headers.put("host", "domain.org");
+        headers.put("date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+        headers.put("digest", "SHA-256=RBNvo1WzZ4oRRq0W9+hknpT7T8If536DEMBg9hyq/4o=");
+        StringBuilder signingString = new StringBuilder();
+        for (String name : signedHeaders.split(" ")) {
+            if (signingString.length() > 0) {
+                signingString.append('\n');
+            }
+            signingString.append(name).append(": ").append(headers.get(name));
+        }
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(privateKey);
+        signer.update(signingString.toString().getBytes(StandardCharsets.UTF_8));
+        String signature = Base64.getEncoder().encodeToString(signer.sign());
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getRequestURI()).thenReturn("/xwiki/activitypub/Inbox/foo");
+        when(request.getHeader("host")).thenReturn(headers.get("host"));
+        when(request.getHeader("date")).thenReturn(headers.get("date"));
+        when(request.getHeader("Date")).thenReturn(headers.get("date"));
+        when(request.getHeader("digest")).thenReturn(headers.get("digest"));
+        when(request.getHeader("Digest")).thenReturn(headers.get("digest"));
+        when(request.getHeader("Signature")).thenReturn(String.format(
+            "keyId=\"http://remote.org/users/bar#main-key\",headers=\"%s\",signature=\"%s\"", signedHeaders,
+            signature));
+        return request;
+    }
+
+    @Test
+    void verifySignature() throws Exception
+    {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        URI keyId = URI.create("http://remote.org/users/bar#main-key");
+        URI owner = URI.create("http://remote.org/users/bar");
+        when(this.remotePublicKeyStore.getPublicKey(keyId, false))
+            .thenReturn(new RemotePublicKeyStore.ActorPublicKey(owner, keyPair.getPublic()));
+
+        assertEquals(owner, this.signatureService.verifySignature(mockSignedRequest(keyPair.getPrivate())));
+        verify(this.remotePublicKeyStore, never()).getPublicKey(keyId, true);
+    }
+
+    @Test
+    void verifySignatureWithRotatedKey() throws Exception
+    {
+        KeyPair oldKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        KeyPair newKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        URI keyId = URI.create("http://remote.org/users/bar#main-key");
+        URI owner = URI.create("http://remote.org/users/bar");
+        when(this.remotePublicKeyStore.getPublicKey(keyId, false))
+            .thenReturn(new RemotePublicKeyStore.ActorPublicKey(owner, oldKeyPair.getPublic()));
+        when(this.remotePublicKeyStore.getPublicKey(keyId, true))
+            .thenReturn(new RemotePublicKeyStore.ActorPublicKey(owner, newKeyPair.getPublic()));
+
+        assertEquals(owner, this.signatureService.verifySignature(mockSignedRequest(newKeyPair.getPrivate())));
+    }
+
+    @Test
+    void verifySignatureInvalid() throws Exception
+    {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        KeyPair otherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        URI owner = URI.create("http://remote.org/users/bar");
+        when(this.remotePublicKeyStore.getPublicKey(any(), anyBoolean()))
+            .thenReturn(new RemotePublicKeyStore.ActorPublicKey(owner, keyPair.getPublic()));
+
+        HttpServletRequest request = mockSignedRequest(otherKeyPair.getPrivate());
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.signatureService.verifySignature(request));
+        assertEquals("The signature cannot be verified with the key [http://remote.org/users/bar#main-key].",
+            exception.getMessage());
+    }
+
+    @Test
+    void verifySignatureWithoutDigest() throws Exception
+    {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        HttpServletRequest request = mockSignedRequest(keyPair.getPrivate(), "(request-target) host date");
+
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.signatureService.verifySignature(request));
+        assertEquals("The signature of a POST request must cover the headers [(request-target) host date digest].",
+            exception.getMessage());
+        verify(this.remotePublicKeyStore, never()).getPublicKey(any(), anyBoolean());
+    }
+
+    @Test
+    void verifySignatureNotSigned()
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.signatureService.verifySignature(request));
+        assertEquals("The request is not signed.", exception.getMessage());
+    }
+
+    @Test
+    void verifyDigest() throws Exception
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        ActivityPubException missing = assertThrows(ActivityPubException.class,
+            () -> this.signatureService.verifyDigest(request, "{}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("The request does not have any Digest header.", missing.getMessage());
+
+        when(request.getHeader("Digest")).thenReturn("SHA-256=RBNvo1WzZ4oRRq0W9+hknpT7T8If536DEMBg9hyq/4o=");
+        this.signatureService.verifyDigest(request, "{}".getBytes(StandardCharsets.UTF_8));
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.signatureService.verifyDigest(request, "{ }".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("The digest of the body does not match the Digest header.", exception.getMessage());
+    }
+
+    @Test
+    void verifyDigestOfNonASCIIBody() throws Exception
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        byte[] body = "{\"name\":\"Créé\"}".getBytes(StandardCharsets.UTF_8);
+        when(request.getHeader("Digest")).thenReturn("SHA-256="
+            + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body)));
+
+        // The digest covers the bytes as they have been sent.
+        this.signatureService.verifyDigest(request, body);
+        assertThrows(ActivityPubException.class, () -> this.signatureService.verifyDigest(request,
+            "{\"name\":\"Créé\"}".getBytes(StandardCharsets.ISO_8859_1)));
     }
-}
\ No newline at end of file
+}
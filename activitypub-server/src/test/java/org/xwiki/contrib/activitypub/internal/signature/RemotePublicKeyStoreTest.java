@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.signature;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.entities.PublicKey;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link RemotePublicKeyStore}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class RemotePublicKeyStoreTest
+{
+    private static final URI OWNER = URI.create("http://remote.org/users/bar");
+
+    private static final URI KEY_ID = URI.create("http://remote.org/users/bar#main-key");
+
+    @InjectMockComponents
+    private RemotePublicKeyStore remotePublicKeyStore;
+
+    @MockComponent
+    private ActivityPubObjectReferenceResolver resolver;
+
+    @MockComponent
+    private ActivityPubClient activityPubClient;
+
+    @MockComponent
+    private ActivityPubJsonParser jsonParser;
+
+    @MockComponent
+    private ActivityPubObjectCache objectCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    private KeyPair keyPair;
+
+    private Person owner;
+
+    @BeforeComponent
+    void beforeComponent() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        Map<String, Object> entries = new HashMap<>();
+        when(cache.get(anyString())).thenAnswer(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(cache).set(anyString(), any());
+        when(this.cacheManager.createNewCache(any())).thenReturn(cache);
+    }
+
+    @BeforeEach
+    void setup() throws Exception
+    {
+        this.keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        String pem = String.format("-----BEGIN PUBLIC KEY-----\n%s\n-----END PUBLIC KEY-----\n",
+            Base64.getMimeEncoder().encodeToString(this.keyPair.getPublic().getEncoded()));
+        this.owner = new Person()
+            .setPublicKey(new PublicKey().setId(KEY_ID.toString()).setOwner(OWNER.toString()).setPublicKeyPem(pem))
+            .setId(OWNER);
+        when(this.resolver.resolveReference(new ActivityPubObjectReference<>().setLink(OWNER)))
+            .thenReturn(this.owner);
+    }
+
+    @Test
+    void getPublicKey() throws Exception
+    {
+        RemotePublicKeyStore.ActorPublicKey publicKey = this.remotePublicKeyStore.getPublicKey(KEY_ID, false);
+        assertEquals(OWNER, publicKey.getOwner());
+        assertArrayEquals(this.keyPair.getPublic().getEncoded(), publicKey.getPublicKey().getEncoded());
+
+        assertEquals(publicKey, this.remotePublicKeyStore.getPublicKey(KEY_ID, false));
+        verify(this.resolver, times(1)).resolveReference(any());
+    }
+
+    @Test
+    void getPublicKeyRecentlyRetrievedIsNotRefreshed() throws Exception
+    {
+        RemotePublicKeyStore.ActorPublicKey publicKey = this.remotePublicKeyStore.getPublicKey(KEY_ID, false);
+
+        assertEquals(publicKey, this.remotePublicKeyStore.getPublicKey(KEY_ID, true));
+        verify(this.activityPubClient, never()).get(any());
+    }
+
+    @Test
+    void getPublicKeyRefreshed() throws Exception
+    {
+        HttpMethod method = mock(HttpMethod.class);
+        when(this.activityPubClient.get(OWNER)).thenReturn(method);
+        InputStream responseBody = mock(InputStream.class);
+        when(this.activityPubClient.getResponseBodyAsStream(method)).thenReturn(responseBody);
+        when(this.jsonParser.parse(responseBody)).thenReturn(this.owner);
+
+        RemotePublicKeyStore.ActorPublicKey publicKey = this.remotePublicKeyStore.getPublicKey(KEY_ID, true);
+
+        assertEquals(OWNER, publicKey.getOwner());
+        verify(this.activityPubClient).checkAnswer(method);
+        verify(method).releaseConnection();
+        verify(this.objectCache).invalidate(OWNER);
+        verify(this.resolver, never()).resolveReference(any());
+    }
+
+    @Test
+    void getPublicKeyNotOwnedByActor() throws Exception
+    {
+        URI noteId = URI.create("http://remote.org/notes/1");
+        when(this.resolver.resolveReference(new ActivityPubObjectReference<>().setLink(noteId)))
+            .thenReturn(new Note().setId(noteId));
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.remotePublicKeyStore.getPublicKey(URI.create("http://remote.org/notes/1#key"), false));
+        assertEquals("The key [http://remote.org/notes/1#key] is not owned by an actor.", exception.getMessage());
+    }
+
+    @Test
+    void getPublicKeyDescribedByAnotherActor() throws Exception
+    {
+        // The server of the key returns the document of another actor, with its own key.
+        URI keyId = URI.create("http://remote.org/users/baz#main-key");
+        when(this.resolver.resolveReference(new ActivityPubObjectReference<>().setLink(URI.create(
+            "http://remote.org/users/baz")))).thenReturn(this.owner);
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.remotePublicKeyStore.getPublicKey(keyId, false));
+        assertEquals("The key [http://remote.org/users/baz#main-key] is described by another actor "
+            + "[http://remote.org/users/bar].", exception.getMessage());
+    }
+
+    @Test
+    void getPublicKeyWithAnotherIdentifier() throws Exception
+    {
+        this.owner.getPublicKey().setId("http://remote.org/users/bar#other-key");
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.remotePublicKeyStore.getPublicKey(KEY_ID, false));
+        assertEquals("The key of the actor [http://remote.org/users/bar] is [http://remote.org/users/bar#other-key], "
+            + "not [http://remote.org/users/bar#main-key].", exception.getMessage());
+    }
+
+    @Test
+    void getPublicKeyOwnedByAnotherActor() throws Exception
+    {
+        this.owner.getPublicKey().setOwner("http://remote.org/users/baz");
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.remotePublicKeyStore.getPublicKey(KEY_ID, false));
+        assertEquals("The key [http://remote.org/users/bar#main-key] is owned by [http://remote.org/users/baz], "
+            + "not by [http://remote.org/users/bar].", exception.getMessage());
+    }
+
+    @Test
+    void getPublicKeyRefreshedFromAnotherActor() throws Exception
+    {
+        HttpMethod method = mock(HttpMethod.class);
+        when(this.activityPubClient.get(OWNER)).thenReturn(method);
+        InputStream responseBody = mock(InputStream.class);
+        when(this.activityPubClient.getResponseBodyAsStream(method)).thenReturn(responseBody);
+        when(this.jsonParser.parse(responseBody)).thenReturn(new Person()
+            .setPublicKey(this.owner.getPublicKey())
+            .setId(URI.create("http://remote.org/users/baz")));
+
+        ActivityPubException exception = assertThrows(ActivityPubException.class,
+            () -> this.remotePublicKeyStore.getPublicKey(KEY_ID, true));
+        assertEquals("The key [http://remote.org/users/bar#main-key] is described by another actor "
+            + "[http://remote.org/users/baz].", exception.getMessage());
+    }
+}
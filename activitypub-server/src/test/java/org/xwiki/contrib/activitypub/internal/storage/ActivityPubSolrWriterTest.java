@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActivityPubSolrWriter}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActivityPubSolrWriterTest
+{
+    @InjectMockComponents
+    private ActivityPubSolrWriter solrWriter;
+
+    @MockComponent
+    private Solr solr;
+
+    @Mock
+    private SolrClient solrClient;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        when(this.solr.getClient("activitypub")).thenReturn(this.solrClient);
+    }
+
+    private SolrInputDocument createDocument(String id)
+    {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", id);
+        document.addField("content", "{" + id + "}");
+        return document;
+    }
+
+    @Test
+    public void addAndFlush() throws Exception
+    {
+        this.solrWriter.add(createDocument("foo"));
+        this.solrWriter.flush();
+
+        ArgumentCaptor<Collection<SolrInputDocument>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.solrClient).add(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        assertEquals("foo", captor.getValue().iterator().next().getFieldValue("id"));
+        verify(this.solrClient).commit(true, true, true);
+        assertNull(this.solrWriter.getPendingDocument("foo"));
+    }
+
+    @Test
+    public void addAllInOneBatch() throws Exception
+    {
+        this.solrWriter.addAll(Arrays.asList(createDocument("foo"), createDocument("bar")));
+        this.solrWriter.flush();
+
+        // The documents are not split between several batches.
+        ArgumentCaptor<Collection<SolrInputDocument>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.solrClient).add(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        verify(this.solrClient).commit(true, true, true);
+        assertNull(this.solrWriter.getPendingDocument("foo"));
+    }
+
+    @Test
+    public void getPendingDocument() throws Exception
+    {
+        // Hold the write until we checked that the document is still available.
+        CountDownLatch latch = new CountDownLatch(1);
+        when(this.solrClient.add(anyCollection())).thenAnswer(invocation -> {
+            latch.await(10, TimeUnit.SECONDS);
+            return null;
+        });
+        this.solrWriter.add(createDocument("bar"));
+        SolrDocument pendingDocument = this.solrWriter.getPendingDocument("bar");
+        assertEquals("bar", pendingDocument.getFieldValue("id"));
+        assertEquals("{bar}", pendingDocument.getFieldValue("content"));
+
+        latch.countDown();
+        this.solrWriter.flush();
+        assertNull(this.solrWriter.getPendingDocument("bar"));
+    }
+
+    @Test
+    public void deleteAndFlush() throws Exception
+    {
+        this.solrWriter.add(createDocument("foo"));
+        this.solrWriter.delete("foo");
+        assertNull(this.solrWriter.getPendingDocument("foo"));
+        this.solrWriter.flush();
+
+        verify(this.solrClient).deleteById(Collections.singletonList("foo"));
+        verify(this.solrClient, atLeastOnce()).commit(true, true, true);
+    }
+
+    @Test
+    public void disposeCommits() throws Exception
+    {
+        this.solrWriter.add(createDocument("foo"));
+        this.solrWriter.dispose();
+
+        verify(this.solrClient).add(anyCollection());
+        verify(this.solrClient).commit();
+    }
+
+    @Test
+    public void retryFailedWrites() throws Exception
+    {
+        when(this.solrClient.add(anyCollection())).thenThrow(new IOException("Solr is unavailable"));
+        this.solrWriter.add(createDocument("foo"));
+        this.solrWriter.delete("bar");
+
+        // The failed documents are kept, and can still be read, until they're written.
+        assertFalse(this.solrWriter.flush());
+        assertEquals("{foo}", this.solrWriter.getPendingDocument("foo").getFieldValue("content"));
+        // The deletions wait for the documents queued before them.
+        assertTrue(this.solrWriter.isPendingDeletion("bar"));
+        verify(this.solrClient, never()).deleteById(anyList());
+
+        doReturn(null).when(this.solrClient).add(anyCollection());
+        assertTrue(this.solrWriter.flush());
+
+        assertNull(this.solrWriter.getPendingDocument("foo"));
+        assertFalse(this.solrWriter.isPendingDeletion("bar"));
+        verify(this.solrClient).deleteById(Collections.singletonList("bar"));
+    }
+
+    @Test
+    public void addWhenStoppedFails() throws Exception
+    {
+        this.solrWriter.dispose();
+        when(this.solrClient.add(anyCollection())).thenThrow(new IOException("Solr is unavailable"));
+
+        // There's no one left to write the document again: the caller is told.
+        ActivityPubException exception =
+            assertThrows(ActivityPubException.class, () -> this.solrWriter.add(createDocument("foo")));
+        assertEquals("Error while writing [1] documents in Solr.", exception.getMessage());
+    }
+}
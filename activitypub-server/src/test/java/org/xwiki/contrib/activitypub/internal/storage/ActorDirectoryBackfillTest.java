@@ -0,0 +1,198 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.net.URI;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubBinaryCodec;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerException;
+import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
+import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActorDirectoryBackfill}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActorDirectoryBackfillTest
+{
+    @InjectMockComponents
+    private ActorDirectoryBackfill backfill;
+
+    @MockComponent
+    private Solr solr;
+
+    @MockComponent
+    private ActivityPubSolrWriter solrWriter;
+
+    @MockComponent
+    private ActorDirectory actorDirectory;
+
+    @MockComponent
+    private ActivityPubBinaryCodec binaryCodec;
+
+    @MockComponent
+    private ActivityPubJsonParser jsonParser;
+
+    @MockComponent
+    private WebfingerJsonParser webfingerJsonParser;
+
+    @RegisterExtension
+    LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @Mock
+    private SolrClient solrClient;
+
+    @Mock
+    private QueryResponse emptyResponse;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        when(this.solr.getClient("activitypub")).thenReturn(this.solrClient);
+        when(this.emptyResponse.getResults()).thenReturn(new SolrDocumentList());
+        when(this.solrClient.query(any())).thenReturn(this.emptyResponse);
+    }
+
+    private void mockResults(String type, SolrDocument... solrDocuments) throws Exception
+    {
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        for (SolrDocument solrDocument : solrDocuments) {
+            solrDocumentList.add(solrDocument);
+        }
+        solrDocumentList.setNumFound(solrDocuments.length);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(this.solrClient.query(any())).thenAnswer(invocation -> {
+            SolrQuery solrQuery = invocation.getArgument(0);
+            return solrQuery.getQuery().equals("type:" + type) ? queryResponse : this.emptyResponse;
+        });
+    }
+
+    private SolrDocument createDocument(String id, String field, Object content)
+    {
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", id);
+        solrDocument.setField(field, content);
+        return solrDocument;
+    }
+
+    @Test
+    public void isDoneWithMarker() throws Exception
+    {
+        SolrDocument marker = new SolrDocument();
+        marker.setField("type", "actorDirectoryBackfill");
+        when(this.solrClient.getById("actorDirectory:backfill")).thenReturn(marker);
+
+        assertTrue(this.backfill.isDone());
+        verify(this.solrClient, never()).query(any());
+    }
+
+    @Test
+    public void runWebfingerRecords() throws Exception
+    {
+        mockResults("webfinger", createDocument("acct:foo@xwiki.org", "content", "{webfinger:foo}"),
+            createDocument("acct:bar@xwiki.org", "content", "{webfinger:bar}"));
+        JSONResourceDescriptor jsonResourceDescriptor = new JSONResourceDescriptor();
+        when(this.webfingerJsonParser.parse("{webfinger:foo}")).thenReturn(jsonResourceDescriptor);
+        when(this.webfingerJsonParser.parse("{webfinger:bar}")).thenThrow(new WebfingerException("Invalid"));
+
+        this.backfill.run();
+
+        // A record which cannot be read doesn't prevent the others to be added.
+        verify(this.actorDirectory).index(jsonResourceDescriptor);
+        assertEquals("Cannot add [acct:bar@xwiki.org] to the actor directory: [WebfingerException: Invalid].",
+            this.logCapture.getMessage(0));
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(captor.capture());
+        assertEquals("actorDirectory:backfill", captor.getValue().getFieldValue("id"));
+        assertTrue(this.backfill.isDone());
+    }
+
+    @Test
+    public void runActors() throws Exception
+    {
+        byte[] content = new byte[] { 1 };
+        mockResults("Person", createDocument("http://xwiki.org/actor/foo", "binaryContent", content));
+        Person person = new Person().setPreferredUsername("foo");
+        person.setId(URI.create("http://xwiki.org/actor/foo"));
+        when(this.binaryCodec.decode(content)).thenReturn(person);
+
+        this.backfill.run();
+
+        verify(this.actorDirectory).index(person);
+        assertTrue(this.backfill.isDone());
+    }
+
+    @Test
+    public void runLegacyActors() throws Exception
+    {
+        mockResults("Service", createDocument("http://xwiki.org/actor/bar", "content", "{service:bar}"));
+        Person person = new Person().setPreferredUsername("bar");
+        when(this.jsonParser.parse("{service:bar}")).thenReturn(person);
+
+        this.backfill.run();
+
+        verify(this.actorDirectory).index(person);
+    }
+
+    @Test
+    public void runError() throws Exception
+    {
+        doThrow(new ActivityPubException("Stopped")).when(this.solrWriter).add(any());
+
+        this.backfill.run();
+
+        // The marker is not stored: the backfill is performed again the next time.
+        assertEquals("Error while filling the actor directory: [ActivityPubException: Stopped].",
+            this.logCapture.getMessage(0));
+        verify(this.actorDirectory, never()).index(any(Person.class));
+    }
+}
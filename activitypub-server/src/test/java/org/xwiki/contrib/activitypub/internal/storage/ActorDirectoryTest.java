@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActorDirectoryEntry;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.contrib.activitypub.webfinger.entities.Link;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ActorDirectory}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class ActorDirectoryTest
+{
+    private static final URI ACTOR_ID = URI.create("http://xwiki.org:8080/actor/foo");
+
+    @InjectMockComponents
+    private ActorDirectory actorDirectory;
+
+    @MockComponent
+    private Solr solr;
+
+    @MockComponent
+    private ActivityPubSolrWriter solrWriter;
+
+    @Mock
+    private SolrClient solrClient;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        when(this.solr.getClient("activitypub")).thenReturn(this.solrClient);
+    }
+
+    private JSONResourceDescriptor createJRD(String subject, URI actor)
+    {
+        return new JSONResourceDescriptor()
+            .setSubject(subject)
+            .setLinks(Collections.singletonList(new Link().setRel("self").setHref(actor)));
+    }
+
+    @Test
+    public void indexActor() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("Foo");
+        person.setId(ACTOR_ID);
+        person.setName("Foo Bar");
+
+        this.actorDirectory.index(person);
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(captor.capture());
+        SolrInputDocument document = captor.getValue();
+        assertEquals("actorDirectory:foo@xwiki.org:8080", document.getFieldValue("id"));
+        assertEquals("actorDirectory", document.getFieldValue("type"));
+        assertEquals("Foo@xwiki.org:8080", document.getFieldValue("handle"));
+        assertEquals("xwiki.org:8080", document.getFieldValue("domain"));
+        assertEquals("Foo Bar", document.getFieldValue("displayName"));
+        assertEquals(ACTOR_ID.toString(), document.getFieldValue("actor"));
+    }
+
+    @Test
+    public void indexWebfingerKeepsDisplayName() throws Exception
+    {
+        SolrDocument existing = new SolrDocument();
+        existing.setField("displayName", "Foo Bar");
+        existing.setField("actor", "http://xwiki.org:8080/actor/old");
+        when(this.solrClient.getById("actorDirectory:foo@xwiki.org:8080")).thenReturn(existing);
+
+        this.actorDirectory.index(createJRD("acct:foo@xwiki.org:8080", ACTOR_ID));
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(captor.capture());
+        SolrInputDocument document = captor.getValue();
+        assertEquals("foo@xwiki.org:8080", document.getFieldValue("handle"));
+        assertEquals("Foo Bar", document.getFieldValue("displayName"));
+        assertEquals(ACTOR_ID.toString(), document.getFieldValue("actor"));
+    }
+
+    @Test
+    public void indexWebfingerUnchanged() throws Exception
+    {
+        SolrDocument existing = new SolrDocument();
+        existing.setField("actor", ACTOR_ID.toString());
+        when(this.solrWriter.getPendingDocument("actorDirectory:foo@xwiki.org:8080")).thenReturn(existing);
+
+        this.actorDirectory.index(createJRD("acct:foo@xwiki.org:8080", ACTOR_ID));
+        this.actorDirectory.index(createJRD("acct:foo", ACTOR_ID));
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void search() throws Exception
+    {
+        SolrDocument document = new SolrDocument();
+        document.setField("handle", "foo@xwiki.org:8080");
+        document.setField("actor", ACTOR_ID.toString());
+        SolrDocumentList documents = new SolrDocumentList();
+        documents.add(document);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(documents);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+
+        List<ActorDirectoryEntry> result = this.actorDirectory.search(" @Foo x:8 ", 20, 10);
+        assertEquals(1, result.size());
+        assertEquals("foo@xwiki.org:8080", result.get(0).getHandle());
+        assertNull(result.get(0).getDisplayName());
+        assertEquals(ACTOR_ID, result.get(0).getActor());
+
+        ArgumentCaptor<SolrQuery> captor = ArgumentCaptor.forClass(SolrQuery.class);
+        verify(this.solrClient).query(captor.capture());
+        SolrQuery query = captor.getValue();
+        assertEquals("(handle:foo^3 OR displayName:foo^2 OR domain:foo) "
+            + "AND (handle:x\\:8^3 OR displayName:x\\:8^2 OR domain:x\\:8)", query.getQuery());
+        assertEquals(Arrays.asList("type:actorDirectory"), Arrays.asList(query.getFilterQueries()));
+        assertEquals(Integer.valueOf(20), query.getStart());
+        assertEquals(Integer.valueOf(10), query.getRows());
+        // No wildcard: the prefixes are indexed.
+        assertTrue(!query.getQuery().contains("*"));
+    }
+
+    @Test
+    public void searchEmptyQuery() throws Exception
+    {
+        assertTrue(this.actorDirectory.search(" @ ", 0, 10).isEmpty());
+        verify(this.solrClient, never()).query(any());
+    }
+}
@@ -22,10 +22,13 @@ package org.xwiki.contrib.activitypub.internal.storage;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Named;
@@ -42,26 +45,34 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActivityPubEntityVersion;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
-import org.xwiki.contrib.activitypub.ActivityPubJsonSerializer;
 import org.xwiki.contrib.activitypub.ActivityPubObjectReferenceResolver;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.ActivityPubQueryResult;
 import org.xwiki.contrib.activitypub.ActivityPubResourceReference;
+import org.xwiki.contrib.activitypub.ActorDirectoryEntry;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
 import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
 import org.xwiki.contrib.activitypub.entities.Inbox;
+import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Outbox;
 import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
+import org.xwiki.contrib.activitypub.internal.ActivityPubUnitOfWork;
 import org.xwiki.contrib.activitypub.internal.DefaultURLHandler;
+import org.xwiki.contrib.activitypub.internal.json.ActivityPubBinaryCodec;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonSerializer;
 import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.contrib.activitypub.webfinger.entities.Link;
 import org.xwiki.resource.ResourceReferenceResolver;
 import org.xwiki.resource.ResourceReferenceSerializer;
 import org.xwiki.resource.ResourceType;
 import org.xwiki.search.solr.Solr;
-import org.xwiki.search.solr.SolrException;
 import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
@@ -69,6 +80,7 @@ import org.xwiki.test.junit5.mockito.MockComponent;
 import org.xwiki.test.mockito.MockitoComponentManager;
 import org.xwiki.url.ExtendedURL;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -77,7 +89,11 @@ import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -99,7 +115,7 @@ public class DefaultActivityPubStorageTest
     private ActivityPubJsonParser jsonParser;
 
     @MockComponent
-    private ActivityPubJsonSerializer jsonSerializer;
+    private ActivityPubBinaryCodec binaryCodec;
 
     @MockComponent
     private ActivityPubObjectReferenceResolver resolver;
@@ -119,6 +135,30 @@ public class DefaultActivityPubStorageTest
     @MockComponent
     private WebfingerJsonSerializer webfingerJsonSerializer;
 
+    @MockComponent
+    private ActivityPubSolrWriter solrWriter;
+
+    @MockComponent
+    private ActivityPubObjectCache objectCache;
+
+    @MockComponent
+    private ActivityPubUnitOfWork unitOfWork;
+
+    @MockComponent
+    private RemoteEntityRefresher refresher;
+
+    @MockComponent
+    private ActorDirectory actorDirectory;
+
+    @MockComponent
+    private ActorDirectoryBackfill actorDirectoryBackfill;
+
+    @MockComponent
+    private LegacyEntityMigration legacyEntityMigration;
+
+    @MockComponent
+    private IndexedEntityFields indexedFields;
+
     @Mock
     private SolrClient solrClient;
 
@@ -133,28 +173,36 @@ public class DefaultActivityPubStorageTest
     }
 
     @BeforeEach
-    public void beforeEach() throws SolrException
+    public void beforeEach() throws Exception
     {
         when(this.solrInstance.getClient("activitypub")).thenReturn(solrClient);
+        when(this.binaryCodec.encode(any())).thenReturn(new byte[0]);
+        // By default there's no legacy document anymore.
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(true);
+
+        // By default the collections don't have any item.
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(new SolrDocumentList());
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
     }
 
-    private void verifySolrPutAndPrepareGet(String uid, String content) throws IOException, SolrServerException
+    private void verifySolrPutAndPrepareGet(String uid, byte[] content) throws IOException, SolrServerException
     {
         this.verifySolrPutAndPrepareGet(uid, content, 1);
     }
 
-    private void verifySolrPutAndPrepareGet(String uid, String content, int timeNumber) throws IOException, SolrServerException
+    private void verifySolrPutAndPrepareGet(String uid, byte[] content, int timeNumber) throws IOException, SolrServerException
     {
         ArgumentCaptor<SolrInputDocument> argumentCaptor =
             ArgumentCaptor.forClass(SolrInputDocument.class);
-        verify(this.solrClient, times(timeNumber)).add(argumentCaptor.capture());
+        verify(this.solrWriter, times(timeNumber)).add(argumentCaptor.capture());
         assertEquals(uid, argumentCaptor.getValue().getFieldValue("id"));
-        assertEquals(content, argumentCaptor.getValue().getFieldValue("content"));
-        verify(this.solrClient, times(timeNumber)).commit();
+        assertSame(content, argumentCaptor.getValue().getFieldValue("binaryContent"));
+        assertNull(argumentCaptor.getValue().getFieldValue("content"));
 
         Map<String, Object> fields = new HashMap<>();
         fields.put("id", uid);
-        fields.put("content", content);
+        fields.put("binaryContent", content);
         SolrDocument solrDocument = new SolrDocument(fields);
         when(this.solrClient.getById(uid)).thenReturn(solrDocument);
     }
@@ -165,14 +213,15 @@ public class DefaultActivityPubStorageTest
         // Test store of an entity without id.
         URI uri = new URI("http://mydomain.org/xwiki/activitypub/object/foo");
         ActivityPubObject object1 = new ActivityPubObject().setName("foo");
-        when(this.jsonSerializer.serialize(object1)).thenReturn("{foo}");
-        when(this.jsonParser.parse("{foo}")).thenReturn(object1);
+        byte[] content = "{foo}".getBytes();
+        when(this.binaryCodec.encode(object1)).thenReturn(content);
+        when(this.binaryCodec.decode(content)).thenReturn(object1);
         when(this.serializer.serialize(any())).thenReturn(uri);
 
         URI uid = this.activityPubStorage.storeEntity(object1);
         assertEquals(uid, uri);
         assertEquals(uri, object1.getId());
-        verifySolrPutAndPrepareGet(uid.toASCIIString(), "{foo}");
+        verifySolrPutAndPrepareGet(uid.toASCIIString(), content);
         assertSame(object1, this.activityPubStorage.retrieveEntity(uid));
     }
 
@@ -184,15 +233,16 @@ public class DefaultActivityPubStorageTest
         ActivityPubObject object2 = new ActivityPubObject()
             .setName("foobar")
             .setId(object2URL.toURI());
-        String content = "{foobar}";
-        when(this.jsonSerializer.serialize(object2)).thenReturn(content);
-        when(this.jsonParser.parse(content)).thenReturn(object2);
+        byte[] content = "{foobar}".getBytes();
+        when(this.binaryCodec.encode(object2)).thenReturn(content);
+        when(this.binaryCodec.decode(content)).thenReturn(object2);
         ExtendedURL object2ExtendedURL = new ExtendedURL(object2URL, "xwiki/activitypub");
         when(this.urlResolver.resolve(object2ExtendedURL, new ResourceType("activitypub"), Collections.emptyMap()))
             .thenReturn(new ActivityPubResourceReference("object", "42"));
 
         // ID match server URL
         assertEquals(object2URL.toURI(), this.activityPubStorage.storeEntity(object2));
+        verify(this.objectCache).invalidate(object2URL.toURI());
         verifySolrPutAndPrepareGet(object2URL.toString(), content);
         assertSame(object2, this.activityPubStorage.retrieveEntity(object2URL.toURI()));
     }
@@ -202,10 +252,10 @@ public class DefaultActivityPubStorageTest
     {
         // Test store of an Actor
         URI uid = new URI("http://domain.org/xwiki/activitypub/Person/FooBar");
-        String content = "{user:FooBar}";
+        byte[] content = "{user:FooBar}".getBytes();
         AbstractActor actor = new Person().setPreferredUsername("FooBar");
-        when(this.jsonSerializer.serialize(actor)).thenReturn(content);
-        when(this.jsonParser.parse(content)).thenReturn(actor);
+        when(this.binaryCodec.encode(actor)).thenReturn(content);
+        when(this.binaryCodec.decode(content)).thenReturn(actor);
         when(this.serializer.serialize(new ActivityPubResourceReference("Person", "FooBar"))).thenReturn(uid);
 
         assertEquals(uid, this.activityPubStorage.storeEntity(actor));
@@ -225,14 +275,14 @@ public class DefaultActivityPubStorageTest
         assertEquals("Cannot store an inbox without owner.", activityPubException.getMessage());
 
         URI uid = new URI("http://domain.org/xwiki/activitypub/Inbox/FooBar-inbox");
-        String content = "{inbox:FooBar}";
+        byte[] content = "{inbox:FooBar}".getBytes();
         Person actor = new Person().setPreferredUsername("FooBar");
         ActivityPubObjectReference<AbstractActor> objectReference =
             new ActivityPubObjectReference<AbstractActor>().setObject(actor);
         when(this.resolver.resolveReference(objectReference)).thenReturn(actor);
         Inbox inbox = new Inbox().setAttributedTo(Collections.singletonList(objectReference));
-        when(this.jsonSerializer.serialize(inbox)).thenReturn(content);
-        when(this.jsonParser.parse(content)).thenReturn(inbox);
+        when(this.binaryCodec.encode(inbox)).thenReturn(content);
+        when(this.binaryCodec.decode(content)).thenReturn(inbox);
         when(this.serializer.serialize(new ActivityPubResourceReference("Inbox", "FooBar-inbox"))).thenReturn(uid);
 
         assertEquals(uid, this.activityPubStorage.storeEntity(inbox));
@@ -247,10 +297,10 @@ public class DefaultActivityPubStorageTest
         assertEquals("Cannot store an outbox without owner.", activityPubException.getMessage());
 
         uid = new URI("http://domain.org/xwiki/activitypub/Outbox/FooBar-outbox");
-        content = "{outbox:FooBar}";
+        content = "{outbox:FooBar}".getBytes();
         Outbox outbox = new Outbox().setAttributedTo(Collections.singletonList(objectReference));
-        when(this.jsonSerializer.serialize(outbox)).thenReturn(content);
-        when(this.jsonParser.parse(content)).thenReturn(outbox);
+        when(this.binaryCodec.encode(outbox)).thenReturn(content);
+        when(this.binaryCodec.decode(content)).thenReturn(outbox);
         when(this.serializer.serialize(new ActivityPubResourceReference("Outbox", "FooBar-outbox"))).thenReturn(uid);
 
         assertEquals(uid, this.activityPubStorage.storeEntity(outbox));
@@ -259,6 +309,416 @@ public class DefaultActivityPubStorageTest
         assertSame(outbox, this.activityPubStorage.retrieveEntity(uid));
     }
 
+    @Test
+    public void appendItem() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/Inbox/foo-inbox");
+        URI item = URI.create("http://www.xwiki.org/xwiki/activitypub/Create/42");
+        this.activityPubStorage.appendItem(collection, item);
+        this.activityPubStorage.appendItem(collection, URI.create("http://www.xwiki.org/xwiki/activitypub/Create/43"));
+
+        ArgumentCaptor<SolrInputDocument> argumentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(2)).add(argumentCaptor.capture());
+        SolrInputDocument inputDocument = argumentCaptor.getAllValues().get(0);
+        assertEquals(collection + "#" + item, inputDocument.getFieldValue("id"));
+        assertEquals("collectionItem", inputDocument.getFieldValue("type"));
+        assertEquals(collection.toASCIIString(), inputDocument.getFieldValue("collection"));
+        assertEquals(item.toASCIIString(), inputDocument.getFieldValue("item"));
+        assertTrue((Long) inputDocument.getFieldValue("itemIndex")
+            < (Long) argumentCaptor.getAllValues().get(1).getFieldValue("itemIndex"));
+        // The collection itself is not rewritten.
+        verify(this.solrWriter, never()).getPendingDocument(collection.toASCIIString());
+    }
+
+    @Test
+    public void storeEntityInUnitOfWork() throws Exception
+    {
+        URI id = URI.create("http://www.xwiki.org/xwiki/activitypub/object/42");
+        ActivityPubObject object = new ActivityPubObject().setId(id);
+        when(this.unitOfWork.defer(object)).thenReturn(true);
+
+        assertEquals(id, this.activityPubStorage.storeEntity(object));
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void retrieveEntityInUnitOfWork() throws Exception
+    {
+        URI id = URI.create("http://www.xwiki.org/xwiki/activitypub/object/42");
+        ActivityPubObject object = new ActivityPubObject().setId(id);
+        when(this.unitOfWork.get(id)).thenReturn(object);
+
+        assertSame(object, this.activityPubStorage.retrieveEntity(id));
+        verify(this.solrWriter, never()).getPendingDocument(any());
+    }
+
+    @Test
+    public void containsItem() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-followers");
+        URI follower = URI.create("http://www.xwiki.org/xwiki/activitypub/Person/bar");
+        URI removedFollower = URI.create("http://www.xwiki.org/xwiki/activitypub/Person/baz");
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", collection + "#" + follower);
+        fields.put("itemIndex", 42L);
+        when(this.solrClient.getById(collection + "#" + follower)).thenReturn(new SolrDocument(fields));
+        when(this.solrClient.getById(collection + "#" + removedFollower)).thenReturn(new SolrDocument(fields));
+        when(this.solrWriter.isPendingDeletion(collection + "#" + removedFollower)).thenReturn(true);
+
+        assertTrue(this.activityPubStorage.containsItem(collection, follower));
+        assertFalse(this.activityPubStorage.containsItem(collection, removedFollower));
+        assertFalse(this.activityPubStorage.containsItem(collection,
+            URI.create("http://www.xwiki.org/xwiki/activitypub/Person/other")));
+        // The membership is checked with a realtime get, without querying the items of the collection.
+        verify(this.solrClient, never()).query(any());
+    }
+
+    @Test
+    public void containsItemOfLegacyCollection() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-following");
+        URI followed = URI.create("http://remote.org/users/bar");
+        mockLegacyCollection(collection, followed);
+
+        // The items of the collection are still in its document until it's migrated.
+        assertTrue(this.activityPubStorage.containsItem(collection, followed));
+        assertFalse(this.activityPubStorage.containsItem(collection, URI.create("http://remote.org/users/baz")));
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    private void mockLegacyCollection(URI collection, URI item) throws Exception
+    {
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(false);
+        OrderedCollection<Person> legacyCollection = new OrderedCollection<>();
+        legacyCollection.setId(collection);
+        legacyCollection.addItem(new Person().setId(item));
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", collection.toASCIIString());
+        fields.put("content", "{collection}");
+        when(this.solrClient.getById(collection.toASCIIString())).thenReturn(new SolrDocument(fields));
+        when(this.jsonParser.parse("{collection}")).thenReturn(legacyCollection);
+    }
+
+    @Test
+    public void containsItemOfMigratedCollection() throws Exception
+    {
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(false);
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-following");
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", collection.toASCIIString());
+        fields.put("binaryContent", new byte[0]);
+        when(this.solrClient.getById(collection.toASCIIString())).thenReturn(new SolrDocument(fields));
+
+        assertFalse(this.activityPubStorage.containsItem(collection, URI.create("http://remote.org/users/bar")));
+        verify(this.binaryCodec, never()).decode(any());
+        verify(this.jsonParser, never()).parse(any());
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void appendItemToLegacyCollection() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-following");
+        URI followed = URI.create("http://remote.org/users/bar");
+        URI newFollowed = URI.create("http://remote.org/users/baz");
+        mockLegacyCollection(collection, followed);
+
+        this.activityPubStorage.appendItem(collection, newFollowed);
+
+        // The collection is migrated before being modified, so that its former items come first.
+        ArgumentCaptor<SolrInputDocument> argumentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(3)).add(argumentCaptor.capture());
+        assertEquals(followed.toASCIIString(), argumentCaptor.getAllValues().get(0).getFieldValue("item"));
+        assertEquals(0L, argumentCaptor.getAllValues().get(0).getFieldValue("itemIndex"));
+        assertEquals(collection.toASCIIString(), argumentCaptor.getAllValues().get(1).getFieldValue("id"));
+        assertNull(argumentCaptor.getAllValues().get(1).getFieldValue("content"));
+        assertEquals(newFollowed.toASCIIString(), argumentCaptor.getAllValues().get(2).getFieldValue("item"));
+        assertTrue((Long) argumentCaptor.getAllValues().get(2).getFieldValue("itemIndex") > 0L);
+    }
+
+    @Test
+    public void removeItem() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/OrderedCollection/foo-followers");
+        URI follower = URI.create("http://www.xwiki.org/xwiki/activitypub/Person/bar");
+
+        this.activityPubStorage.removeItem(collection, follower);
+
+        verify(this.solrWriter).delete(collection + "#" + follower);
+    }
+
+    @Test
+    public void retrieveItems() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/Inbox/foo-inbox");
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(createItemDocument(collection, "http://item/1", 1L));
+        solrDocumentList.add(createItemDocument(collection, "http://item/3", 3L));
+        solrDocumentList.setNumFound(2);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+        when(this.solrWriter.getPendingDocuments("collection", collection.toASCIIString()))
+            .thenReturn(Collections.singletonList(createItemDocument(collection, "http://item/2", 2L)));
+
+        assertEquals(Arrays.asList(URI.create("http://item/1"), URI.create("http://item/2"),
+            URI.create("http://item/3")), this.activityPubStorage.retrieveItems(collection));
+
+        ArgumentCaptor<SolrQuery> argumentCaptor = ArgumentCaptor.forClass(SolrQuery.class);
+        verify(this.solrClient).query(argumentCaptor.capture());
+        assertEquals(Arrays.asList("type:collectionItem",
+            "collection:http\\:\\/\\/www.xwiki.org\\/xwiki\\/activitypub\\/Inbox\\/foo\\-inbox"),
+            Arrays.asList(argumentCaptor.getValue().getFilterQueries()));
+    }
+
+    @Test
+    public void retrieveItemsPage() throws Exception
+    {
+        URI collection = URI.create("http://www.xwiki.org/xwiki/activitypub/Outbox/foo-outbox");
+        when(this.solrClient.getById(collection + "#http://item/5"))
+            .thenReturn(createItemDocument(collection, "http://item/5", 5L));
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(createItemDocument(collection, "http://item/4", 4L));
+        solrDocumentList.add(createItemDocument(collection, "http://item/3", 3L));
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+        when(this.solrWriter.getPendingDocuments("collection", collection.toASCIIString())).thenReturn(Arrays.asList(
+            createItemDocument(collection, "http://item/6", 6L),
+            createItemDocument(collection, "http://item/2", 2L),
+            createItemDocument(collection, "http://item/1", 1L)));
+
+        assertEquals(Arrays.asList(URI.create("http://item/4"), URI.create("http://item/3"),
+            URI.create("http://item/2")),
+            this.activityPubStorage.retrieveItems(collection, URI.create("http://item/5"), null, 3));
+
+        ArgumentCaptor<SolrQuery> argumentCaptor = ArgumentCaptor.forClass(SolrQuery.class);
+        verify(this.solrClient).query(argumentCaptor.capture());
+        SolrQuery solrQuery = argumentCaptor.getValue();
+        assertEquals("itemIndex:{* TO 5}", solrQuery.getFilterQueries()[2]);
+        assertEquals(SolrQuery.ORDER.desc, solrQuery.getSorts().get(0).getOrder());
+        assertEquals(3, solrQuery.getRows());
+
+        // Only the pending items appended after the cursor are kept.
+        QueryResponse emptyResponse = mock(QueryResponse.class);
+        when(emptyResponse.getResults()).thenReturn(new SolrDocumentList());
+        when(this.solrClient.query(any())).thenReturn(emptyResponse);
+        assertEquals(Collections.singletonList(URI.create("http://item/6")),
+            this.activityPubStorage.retrieveItems(collection, null, URI.create("http://item/5"), 2));
+
+        // Unknown cursor.
+        assertTrue(this.activityPubStorage.retrieveItems(collection, URI.create("http://item/42"), null, 3).isEmpty());
+    }
+
+    @Test
+    public void retrieveCollectionWithLegacyItems() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/xwiki/activitypub/Inbox/foo-inbox");
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", uri.toASCIIString());
+        fields.put("content", "{inbox}");
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(false);
+        when(this.solrClient.getById(uri.toASCIIString())).thenReturn(new SolrDocument(fields));
+        when(this.jsonParser.parse("{inbox}")).thenAnswer(invocation -> {
+            Inbox inbox = new Inbox();
+            inbox.setId(uri);
+            inbox.addItem(new Create().setId(URI.create("http://item/1")));
+            inbox.addItem(new Create().setId(URI.create("http://item/2")));
+            inbox.addItem(new Create().setId(URI.create("http://item/3")));
+            return inbox;
+        });
+
+        Inbox result = this.activityPubStorage.retrieveEntity(uri);
+        assertEquals(uri, result.getId());
+        // The items are not loaded with the collection.
+        assertTrue(result.getOrderedItems().isEmpty());
+
+        // They are retrieved from the document of the collection until it's migrated.
+        assertEquals(Arrays.asList(URI.create("http://item/1"), URI.create("http://item/2"),
+            URI.create("http://item/3")), this.activityPubStorage.retrieveItems(uri));
+        assertEquals(Arrays.asList(URI.create("http://item/2"), URI.create("http://item/1")),
+            this.activityPubStorage.retrieveItems(uri, URI.create("http://item/3"), null, 2));
+        assertEquals(Collections.singletonList(URI.create("http://item/2")),
+            this.activityPubStorage.retrieveItems(uri, null, URI.create("http://item/1"), 1));
+        assertEquals(3L, this.activityPubStorage.countItems(uri, false));
+
+        // Reading the collection doesn't migrate it.
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void migrateLegacyCollection() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/xwiki/activitypub/Inbox/foo-inbox");
+        Inbox inbox = new Inbox();
+        inbox.setId(uri);
+        inbox.addItem(new Create().setId(URI.create("http://item/1")));
+        Date updatedDate = DateUtils.addDays(new Date(), -2);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", uri.toASCIIString());
+        fields.put("content", "{inbox}");
+        fields.put("updatedDate", updatedDate);
+        SolrDocument solrDocument = new SolrDocument(fields);
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(false);
+        when(this.solrClient.getById(uri.toASCIIString())).thenReturn(solrDocument);
+        byte[] content = "{inbox}".getBytes();
+        when(this.binaryCodec.encode(inbox)).thenReturn(content);
+
+        // The migration is scheduled the first time the storage needs to know if it's done.
+        this.activityPubStorage.containsItem(uri, URI.create("http://item/1"));
+        ArgumentCaptor<LegacyEntityMigration.DocumentMigrator> migratorCaptor =
+            ArgumentCaptor.forClass(LegacyEntityMigration.DocumentMigrator.class);
+        verify(this.legacyEntityMigration, atLeastOnce()).isDone(migratorCaptor.capture());
+        migratorCaptor.getValue().migrate(solrDocument, inbox);
+
+        // The items have been moved in their own documents and the collection has been stored again, keeping its
+        // date.
+        ArgumentCaptor<SolrInputDocument> argumentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(2)).add(argumentCaptor.capture());
+        assertEquals("http://item/1", argumentCaptor.getAllValues().get(0).getFieldValue("item"));
+        assertEquals(0L, argumentCaptor.getAllValues().get(0).getFieldValue("itemIndex"));
+        assertEquals(uri.toASCIIString(), argumentCaptor.getAllValues().get(1).getFieldValue("id"));
+        assertSame(content, argumentCaptor.getAllValues().get(1).getFieldValue("binaryContent"));
+        assertEquals(updatedDate, argumentCaptor.getAllValues().get(1).getFieldValue("updatedDate"));
+        assertTrue(inbox.getOrderedItems().isEmpty());
+    }
+
+    @Test
+    public void migrateAlreadyMigratedCollection() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/xwiki/activitypub/Inbox/foo-inbox");
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", uri.toASCIIString());
+        fields.put("content", "{inbox}");
+        SolrDocument solrDocument = new SolrDocument(fields);
+        // The collection has been migrated before being modified since the migration retrieved it.
+        SolrDocument pendingDocument = new SolrDocument();
+        pendingDocument.setField("id", uri.toASCIIString());
+        pendingDocument.setField("binaryContent", new byte[0]);
+        when(this.solrWriter.getPendingDocument(uri.toASCIIString())).thenReturn(pendingDocument);
+        when(this.legacyEntityMigration.isDone(any())).thenReturn(false);
+
+        this.activityPubStorage.containsItem(uri, URI.create("http://item/1"));
+        ArgumentCaptor<LegacyEntityMigration.DocumentMigrator> migratorCaptor =
+            ArgumentCaptor.forClass(LegacyEntityMigration.DocumentMigrator.class);
+        verify(this.legacyEntityMigration, atLeastOnce()).isDone(migratorCaptor.capture());
+        migratorCaptor.getValue().migrate(solrDocument, new Inbox().setId(uri));
+
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    private SolrDocument createItemDocument(URI collection, String item, long index)
+    {
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", collection + "#" + item);
+        solrDocument.setField("collection", collection.toASCIIString());
+        solrDocument.setField("item", item);
+        solrDocument.setField("itemIndex", index);
+        return solrDocument;
+    }
+
+    @Test
+    public void retrievePendingEntity() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/xwiki/activitypub/object/42");
+        ActivityPubObject object = new ActivityPubObject().setName("foo");
+        byte[] content = "{foo}".getBytes();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", uri.toASCIIString());
+        fields.put("binaryContent", content);
+        when(this.solrWriter.getPendingDocument(uri.toASCIIString())).thenReturn(new SolrDocument(fields));
+        when(this.binaryCodec.decode(content)).thenReturn(object);
+
+        assertSame(object, this.activityPubStorage.retrieveEntity(uri));
+        verify(this.solrClient, never()).getById(uri.toASCIIString());
+        verify(this.solrWriter, never()).add(any());
+    }
+
+    @Test
+    public void storeEntities() throws Exception
+    {
+        URI uri = new URI("http://mydomain.org/xwiki/activitypub/object/foo");
+        URI deferredURI = URI.create("http://www.xwiki.org/xwiki/activitypub/object/42");
+        ActivityPubObject object = new ActivityPubObject().setName("foo");
+        ActivityPubObject deferredObject = new ActivityPubObject().setId(deferredURI);
+        byte[] content = "{foo}".getBytes();
+        when(this.binaryCodec.encode(object)).thenReturn(content);
+        when(this.serializer.serialize(any())).thenReturn(uri);
+        when(this.unitOfWork.defer(deferredObject)).thenReturn(true);
+
+        assertEquals(Arrays.asList(uri, deferredURI),
+            this.activityPubStorage.storeEntities(Arrays.asList(object, deferredObject)));
+        assertEquals(uri, object.getId());
+
+        // The entities which are not deferred are written together.
+        ArgumentCaptor<Collection<SolrInputDocument>> argumentCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.solrWriter).addAll(argumentCaptor.capture());
+        assertEquals(1, argumentCaptor.getValue().size());
+        SolrInputDocument document = argumentCaptor.getValue().iterator().next();
+        assertEquals(uri.toASCIIString(), document.getFieldValue("id"));
+        assertSame(content, document.getFieldValue("binaryContent"));
+        verify(this.solrWriter, never()).add(any());
+        verify(this.objectCache).invalidate(uri);
+        verify(this.objectCache, never()).invalidate(deferredURI);
+    }
+
+    @Test
+    public void retrieveEntities() throws Exception
+    {
+        URI loadedURI = URI.create("http://www.xwiki.org/xwiki/activitypub/object/1");
+        URI pendingURI = URI.create("http://www.xwiki.org/xwiki/activitypub/object/2");
+        URI storedURI = URI.create("http://www.xwiki.org/xwiki/activitypub/object/3");
+        URI missingURI = URI.create("http://www.xwiki.org/xwiki/activitypub/object/4");
+        ActivityPubObject loadedObject = new ActivityPubObject().setId(loadedURI);
+        ActivityPubObject pendingObject = new ActivityPubObject().setId(pendingURI);
+        ActivityPubObject storedObject = new ActivityPubObject().setId(storedURI);
+        when(this.unitOfWork.get(loadedURI)).thenReturn(loadedObject);
+
+        byte[] pendingContent = "{pending}".getBytes();
+        Map<String, Object> pendingFields = new HashMap<>();
+        pendingFields.put("id", pendingURI.toASCIIString());
+        pendingFields.put("binaryContent", pendingContent);
+        when(this.solrWriter.getPendingDocument(pendingURI.toASCIIString()))
+            .thenReturn(new SolrDocument(pendingFields));
+        when(this.binaryCodec.decode(pendingContent)).thenReturn(pendingObject);
+
+        byte[] storedContent = "{stored}".getBytes();
+        Map<String, Object> storedFields = new HashMap<>();
+        storedFields.put("id", storedURI.toASCIIString());
+        storedFields.put("binaryContent", storedContent);
+        SolrDocumentList documentList = new SolrDocumentList();
+        documentList.add(new SolrDocument(storedFields));
+        when(this.solrClient.getById(Arrays.asList(storedURI.toASCIIString(), missingURI.toASCIIString())))
+            .thenReturn(documentList);
+        when(this.binaryCodec.decode(storedContent)).thenReturn(storedObject);
+
+        assertEquals(Arrays.asList(loadedObject, pendingObject, storedObject, null, storedObject),
+            this.activityPubStorage.retrieveEntities(
+                Arrays.asList(loadedURI, pendingURI, storedURI, missingURI, storedURI)));
+        // A single realtime get is performed for the entities which are neither loaded nor pending.
+        verify(this.solrClient, never()).getById(any(String.class));
+        verify(this.unitOfWork).register(pendingObject);
+        verify(this.unitOfWork).register(storedObject);
+    }
+
+    @Test
+    public void retrieveLegacyEntity() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/xwiki/activitypub/object/42");
+        ActivityPubObject object = new ActivityPubObject().setId(uri);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", uri.toASCIIString());
+        fields.put("content", "{foo}");
+        when(this.solrClient.getById(uri.toASCIIString())).thenReturn(new SolrDocument(fields));
+        when(this.jsonParser.parse("{foo}")).thenReturn(object);
+
+        assertSame(object, this.activityPubStorage.retrieveEntity(uri));
+
+        // The document is read as it is: it's converted by the migration.
+        verify(this.solrWriter, never()).add(any());
+        verify(this.binaryCodec, never()).encode(any());
+    }
+
     @Test
     public void retrieveActor() throws Exception
     {
@@ -268,32 +728,186 @@ public class DefaultActivityPubStorageTest
         when(this.urlHandler.belongsToCurrentInstance(uri)).thenReturn(true);
         when(this.solrClient.getById(uri.toASCIIString())).thenReturn(solrDocument);
         when(solrDocument.isEmpty()).thenReturn(false);
-        when(solrDocument.getFieldValue("content")).thenReturn("{person:foo}");
-        when(this.jsonParser.parse("{person:foo}")).thenReturn(person);
+        byte[] content = "{person:foo}".getBytes();
+        when(solrDocument.getFieldValue("binaryContent")).thenReturn(ByteBuffer.wrap(content));
+        when(this.binaryCodec.decode(content)).thenReturn(person);
+        Date updatedDate = DateUtils.addDays(new Date(), -2);
+        when(solrDocument.getFieldValue("type")).thenReturn("person");
+        when(solrDocument.getFieldValue("updatedDate")).thenReturn(updatedDate);
+        when(solrDocument.getFieldValue("remoteETag")).thenReturn("\"v1\"");
+        when(solrDocument.getFieldValue("remoteLastModified")).thenReturn("Wed, 21 Oct 2020 07:28:00 GMT");
 
-        // A person from same domain, recently updated is always retrieved.
+        // An entity from the current instance is never refreshed.
         when(solrDocument.getFieldValue("id")).thenReturn(uri.toASCIIString());
-        when(solrDocument.getFieldValue("type")).thenReturn("person");
-        when(solrDocument.getFieldValue("updatedDate")).thenReturn(new Date());
         assertSame(person, this.activityPubStorage.retrieveEntity(uri));
+        verify(this.refresher, never()).isStale(any(), any());
 
-        // If it comes from another domain but it's recent enough it's still retrieved.
-        when(solrDocument.getFieldValue("id")).thenReturn("http://anotherdomain.fr/person/foo");
+        // A remote entity is not refreshed as long as it's not stale.
+        URI remoteURI = URI.create("http://anotherdomain.fr/person/foo");
+        when(solrDocument.getFieldValue("id")).thenReturn(remoteURI.toASCIIString());
         assertSame(person, this.activityPubStorage.retrieveEntity(uri));
+        verify(this.refresher).isStale("person", updatedDate);
+        verify(this.refresher, never()).refresh(any(), any(), any(), any());
 
-        // Now it comes from another domain but it's two days old: we don't retrieve it.
-        Date oldDate = DateUtils.addDays(new Date(), -2);
-        when(solrDocument.getFieldValue("updatedDate")).thenReturn(oldDate);
-        assertNull(this.activityPubStorage.retrieveEntity(uri));
-
-        // We consider it back on the same domain, even if two days old we retrieve it.
-        when(solrDocument.getFieldValue("id")).thenReturn(uri.toASCIIString());
+        // A stale remote entity is still retrieved, and refreshed in background.
+        when(this.refresher.isStale("person", updatedDate)).thenReturn(true);
         assertSame(person, this.activityPubStorage.retrieveEntity(uri));
+        verify(this.refresher).refresh(eq(remoteURI), eq("\"v1\""), eq("Wed, 21 Oct 2020 07:28:00 GMT"), any());
+    }
 
-        // Now if it comes from another domain but it's not a person, we retrieve the data, even if it's old.
-        when(solrDocument.getFieldValue("id")).thenReturn("http://anotherdomain.fr/person/foo");
-        when(solrDocument.getFieldValue("type")).thenReturn("something");
-        assertSame(person, this.activityPubStorage.retrieveEntity(uri));
+    @Test
+    public void storeRefreshedEntity() throws Exception
+    {
+        URI remoteURI = URI.create("http://anotherdomain.fr/person/foo");
+        SolrDocument solrDocument = mock(SolrDocument.class);
+        when(this.solrClient.getById(remoteURI.toASCIIString())).thenReturn(solrDocument);
+        when(solrDocument.isEmpty()).thenReturn(false);
+        when(solrDocument.getFieldValue("id")).thenReturn(remoteURI.toASCIIString());
+        when(solrDocument.getFieldValue("binaryContent")).thenReturn(new byte[0]);
+        Person storedPerson = new Person().setId(remoteURI);
+        when(this.binaryCodec.decode(any())).thenReturn(storedPerson);
+        when(this.refresher.isStale(any(), any())).thenReturn(true);
+
+        this.activityPubStorage.retrieveEntity(remoteURI);
+        ArgumentCaptor<RemoteEntityRefresher.RefreshCallback> callbackCaptor =
+            ArgumentCaptor.forClass(RemoteEntityRefresher.RefreshCallback.class);
+        verify(this.refresher).refresh(eq(remoteURI), any(), any(), callbackCaptor.capture());
+
+        // The entity has been modified: the new version is stored with its validators.
+        Person refreshedPerson = new Person().setPreferredUsername("foo").setId(remoteURI);
+        when(this.binaryCodec.encode(refreshedPerson)).thenReturn(new byte[] { 1 });
+        callbackCaptor.getValue().refreshed(remoteURI, refreshedPerson, "\"v2\"", null);
+        ArgumentCaptor<SolrInputDocument> documentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(documentCaptor.capture());
+        assertArrayEquals(new byte[] { 1 }, (byte[]) documentCaptor.getValue().getFieldValue("binaryContent"));
+        assertEquals("\"v2\"", documentCaptor.getValue().getFieldValue("remoteETag"));
+        assertNull(documentCaptor.getValue().getFieldValue("remoteLastModified"));
+        verify(this.objectCache).invalidate(remoteURI);
+
+        // The entity has not been modified: the stored version is stored again, with a new date.
+        callbackCaptor.getValue().refreshed(remoteURI, null, "\"v2\"", "Wed, 21 Oct 2020 07:28:00 GMT");
+        verify(this.solrWriter, times(2)).add(documentCaptor.capture());
+        verify(this.binaryCodec).encode(storedPerson);
+        assertEquals("Wed, 21 Oct 2020 07:28:00 GMT",
+            documentCaptor.getValue().getFieldValue("remoteLastModified"));
+        assertNotNull(documentCaptor.getValue().getFieldValue("updatedDate"));
+        // Reloading the stale version doesn't schedule another refresh.
+        verify(this.refresher).isStale(any(), any());
+    }
+
+    @Test
+    public void storeRefreshedCollection() throws Exception
+    {
+        URI remoteURI = URI.create("http://anotherdomain.fr/person/foo/followers");
+        SolrDocument solrDocument = mock(SolrDocument.class);
+        when(this.solrClient.getById(remoteURI.toASCIIString())).thenReturn(solrDocument);
+        when(solrDocument.isEmpty()).thenReturn(false);
+        when(solrDocument.getFieldValue("id")).thenReturn(remoteURI.toASCIIString());
+        when(solrDocument.getFieldValue("binaryContent")).thenReturn(new byte[0]);
+        OrderedCollection<Person> storedCollection = new OrderedCollection<>();
+        storedCollection.setId(remoteURI);
+        when(this.binaryCodec.decode(any())).thenReturn(storedCollection);
+        when(this.refresher.isStale(any(), any())).thenReturn(true);
+
+        this.activityPubStorage.retrieveEntity(remoteURI);
+        ArgumentCaptor<RemoteEntityRefresher.RefreshCallback> callbackCaptor =
+            ArgumentCaptor.forClass(RemoteEntityRefresher.RefreshCallback.class);
+        verify(this.refresher).refresh(eq(remoteURI), any(), any(), callbackCaptor.capture());
+
+        // The stale version contains two items, one of them is not part of the refreshed collection anymore.
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(createItemDocument(remoteURI, "http://anotherdomain.fr/person/bar", 1L));
+        solrDocumentList.add(createItemDocument(remoteURI, "http://anotherdomain.fr/person/baz", 2L));
+        solrDocumentList.setNumFound(2);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+
+        OrderedCollection<Person> refreshedCollection = new OrderedCollection<>();
+        refreshedCollection.setId(remoteURI);
+        refreshedCollection.addItem(new Person().setId(URI.create("http://anotherdomain.fr/person/baz")));
+        refreshedCollection.addItem(new Person().setId(URI.create("http://anotherdomain.fr/person/qux")));
+        callbackCaptor.getValue().refreshed(remoteURI, refreshedCollection, "\"v2\"", null);
+
+        verify(this.solrWriter).delete(remoteURI + "#http://anotherdomain.fr/person/bar");
+        verify(this.solrWriter, never()).delete(remoteURI + "#http://anotherdomain.fr/person/baz");
+        ArgumentCaptor<SolrInputDocument> documentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter, times(3)).add(documentCaptor.capture());
+        assertEquals("http://anotherdomain.fr/person/baz", documentCaptor.getAllValues().get(0).getFieldValue("item"));
+        assertEquals(0L, documentCaptor.getAllValues().get(0).getFieldValue("itemIndex"));
+        assertEquals("http://anotherdomain.fr/person/qux", documentCaptor.getAllValues().get(1).getFieldValue("item"));
+        assertEquals(1L, documentCaptor.getAllValues().get(1).getFieldValue("itemIndex"));
+        assertEquals(remoteURI.toASCIIString(), documentCaptor.getAllValues().get(2).getFieldValue("id"));
+    }
+
+    @Test
+    public void storeEntityContentHash() throws Exception
+    {
+        Create create = new Create().setId(URI.create("http://www.xwiki.org/create/1"));
+        when(this.binaryCodec.encode(create)).thenReturn("{create}".getBytes());
+
+        this.activityPubStorage.storeEntity(create);
+
+        ArgumentCaptor<SolrInputDocument> argumentCaptor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(argumentCaptor.capture());
+        // Base64 of the SHA-256 of the binary content.
+        assertEquals("uzn9DMc37rsD2M-iPV2lj3WHnhJS4mX3DEp5pdiKH0Y",
+            argumentCaptor.getValue().getFieldValue("contentHash"));
+    }
+
+    @Test
+    public void retrieveEntityVersion() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/create/1");
+        assertNull(this.activityPubStorage.retrieveEntityVersion(uri));
+
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", uri.toASCIIString());
+        solrDocument.setField("type", "Create");
+        Date updatedDate = new Date();
+        solrDocument.setField("updatedDate", updatedDate);
+        when(this.solrClient.getById(uri.toASCIIString())).thenReturn(solrDocument);
+        // The document has been stored before the hash has been introduced.
+        assertNull(this.activityPubStorage.retrieveEntityVersion(uri));
+
+        solrDocument.setField("contentHash", "hash");
+        ActivityPubEntityVersion version = this.activityPubStorage.retrieveEntityVersion(uri);
+        assertEquals("\"hash\"", version.getEntityTag());
+        assertSame(updatedDate, version.getLastModified());
+        verify(this.solrClient, never()).query(any());
+    }
+
+    @Test
+    public void retrieveCollectionVersion() throws Exception
+    {
+        URI uri = URI.create("http://www.xwiki.org/outbox/foo");
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", uri.toASCIIString());
+        solrDocument.setField("type", "Outbox");
+        solrDocument.setField("contentHash", "hash");
+        Date updatedDate = DateUtils.addDays(new Date(), -1);
+        solrDocument.setField("updatedDate", updatedDate);
+        when(this.solrClient.getById(uri.toASCIIString())).thenReturn(solrDocument);
+
+        SolrDocument lastItem = new SolrDocument();
+        lastItem.setField("itemIndex", 42L);
+        Date itemDate = new Date();
+        lastItem.setField("updatedDate", itemDate);
+        SolrDocumentList results = new SolrDocumentList();
+        results.add(lastItem);
+        results.setNumFound(3);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(results);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+
+        ActivityPubEntityVersion version = this.activityPubStorage.retrieveEntityVersion(uri);
+        assertEquals("\"hash-3-42\"", version.getEntityTag());
+        assertSame(itemDate, version.getLastModified());
+
+        // The version cannot be computed while some items are not committed.
+        when(this.solrWriter.getPendingDocuments("collection", uri.toASCIIString()))
+            .thenReturn(Collections.singletonList(new SolrDocument()));
+        assertNull(this.activityPubStorage.retrieveEntityVersion(uri));
     }
 
     @Test
@@ -308,37 +922,126 @@ public class DefaultActivityPubStorageTest
         this.activityPubStorage.storeWebFinger(jsonResourceDescriptor);
         ArgumentCaptor<SolrInputDocument> argumentCaptor =
             ArgumentCaptor.forClass(SolrInputDocument.class);
-        verify(this.solrClient).add(argumentCaptor.capture());
+        verify(this.solrWriter).add(argumentCaptor.capture());
         assertEquals(subject, argumentCaptor.getValue().getFieldValue("id"));
         assertEquals(content, argumentCaptor.getValue().getFieldValue("content"));
         assertEquals("webfinger", argumentCaptor.getValue().getFieldValue("type"));
+        verify(this.actorDirectory).index(jsonResourceDescriptor);
+    }
+
+    @Test
+    public void retrieveWebfinger() throws Exception
+    {
+        String subject = "acct:foo@xwiki.org";
+        String content = "{webfinger:foo}";
+        Date updatedDate = new Date(1000);
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", subject);
+        solrDocument.setField("type", "webfinger");
+        solrDocument.setField("content", content);
+        solrDocument.setField("updatedDate", updatedDate);
+        when(this.solrClient.getById(subject)).thenReturn(solrDocument);
+        JSONResourceDescriptor jsonResourceDescriptor = mock(JSONResourceDescriptor.class);
+        when(this.webfingerJsonParser.parse(content)).thenReturn(jsonResourceDescriptor);
+
+        assertSame(jsonResourceDescriptor, this.activityPubStorage.retrieveWebFinger(subject, null));
+        assertSame(jsonResourceDescriptor, this.activityPubStorage.retrieveWebFinger(subject, updatedDate));
+        assertNull(this.activityPubStorage.retrieveWebFinger(subject, new Date(2000)));
+        assertNull(this.activityPubStorage.retrieveWebFinger("acct:bar@xwiki.org", null));
     }
 
     @Test
     public void searchWebfinger() throws Exception
     {
-        String queryParam = "foo";
-        int limit = 42;
-        String queryString = "filter(type:webfinger) AND id:*foo*";
-        SolrQuery solrQuery = new SolrQuery(queryString).setRows(limit);
-        SolrDocumentList solrDocumentList = mock(SolrDocumentList.class);
+        when(this.actorDirectoryBackfill.isDone()).thenReturn(true);
+        URI actor = URI.create("http://xwiki.org/actor/foo");
+        when(this.actorDirectory.search("foo", 0, 42))
+            .thenReturn(Collections.singletonList(new ActorDirectoryEntry("foo@xwiki.org", "Foo", actor)));
+
+        List<JSONResourceDescriptor> result = this.activityPubStorage.searchWebFinger("foo", 42);
+        assertEquals(1, result.size());
+        assertEquals("acct:foo@xwiki.org", result.get(0).getSubject());
+        assertEquals("self", result.get(0).getLinks().get(0).getRel());
+        assertEquals(actor, result.get(0).getLinks().get(0).getHref());
+        verify(this.solrClient, never()).query(any());
+    }
+
+    @Test
+    public void searchWebfingerBeforeBackfill() throws Exception
+    {
+        String content = "{webfinger:foo}";
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("content", content);
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.add(solrDocument);
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        ArgumentCaptor<SolrQuery> queryCaptor = ArgumentCaptor.forClass(SolrQuery.class);
+        when(this.solrClient.query(queryCaptor.capture())).thenReturn(queryResponse);
+        URI actor = URI.create("http://xwiki.org/actor/foo");
+        JSONResourceDescriptor jsonResourceDescriptor = new JSONResourceDescriptor()
+            .setSubject("acct:foo@xwiki.org")
+            .setLinks(Collections.singletonList(new Link().setRel("self").setHref(actor)));
+        when(this.webfingerJsonParser.parse(content)).thenReturn(jsonResourceDescriptor);
+
+        // The directory is not filled yet: the records are searched directly.
+        assertEquals(Collections.singletonList(jsonResourceDescriptor),
+            this.activityPubStorage.searchWebFinger("foo", 42));
+        assertEquals("filter(type:webfinger) AND id:*foo*", queryCaptor.getValue().getQuery());
+        List<ActorDirectoryEntry> entries = this.activityPubStorage.searchActors("foo", 10, 42);
+        assertEquals(1, entries.size());
+        assertEquals("foo@xwiki.org", entries.get(0).getHandle());
+        assertEquals(actor, entries.get(0).getActor());
+        assertEquals(10, queryCaptor.getValue().getStart());
+        verify(this.actorDirectory, never()).search(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void storeActorIndexesIt() throws Exception
+    {
+        Person person = new Person().setPreferredUsername("foo");
+        person.setId(URI.create("http://xwiki.org/actor/foo"));
+
+        this.activityPubStorage.storeEntity(person);
+        verify(this.actorDirectory).index(person);
+    }
+
+    @Test
+    public void query() throws Exception
+    {
+        ActivityPubQuery query = new ActivityPubQuery().setType("Create").setLimit(2);
+        when(this.indexedFields.getSolrQuery(query)).thenReturn(new SolrQuery("*:*").addFilterQuery("type:Create"));
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        solrDocumentList.setNumFound(42);
+        byte[] content1 = new byte[] { 1 };
+        byte[] content2 = new byte[] { 2 };
+        SolrDocument solrDocument1 = new SolrDocument();
+        solrDocument1.setField("id", "http://create/1");
+        solrDocument1.setField("binaryContent", content1);
+        solrDocumentList.add(solrDocument1);
+        SolrDocument solrDocument2 = new SolrDocument();
+        solrDocument2.setField("id", "http://create/2");
+        solrDocument2.setField("binaryContent", content2);
+        solrDocumentList.add(solrDocument2);
         QueryResponse queryResponse = mock(QueryResponse.class);
-        when(this.solrClient.query(any())).thenReturn(queryResponse);
         when(queryResponse.getResults()).thenReturn(solrDocumentList);
-        SolrDocument document1 = mock(SolrDocument.class);
-        SolrDocument document2 = mock(SolrDocument.class);
-        when(solrDocumentList.iterator()).thenReturn(Arrays.asList(document1, document2).iterator());
-        String content1 = "{foo1}";
-        String content2 = "{foo2}";
-        when(document1.getFieldValue("content")).thenReturn(content1);
-        when(document2.getFieldValue("content")).thenReturn(content2);
-        JSONResourceDescriptor json1 = mock(JSONResourceDescriptor.class);
-        JSONResourceDescriptor json2 = mock(JSONResourceDescriptor.class);
-        when(this.webfingerJsonParser.parse(content1)).thenReturn(json1);
-        when(this.webfingerJsonParser.parse(content2)).thenReturn(json2);
-        assertEquals(Arrays.asList(json1, json2), this.activityPubStorage.searchWebFinger(queryParam, limit));
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+        Create create = new Create();
+        when(this.binaryCodec.decode(content2)).thenReturn(create);
+
+        ActivityPubQueryResult<Create> result = this.activityPubStorage.query(query);
+        assertEquals(42, result.getTotalCount());
+        assertEquals(Arrays.asList(URI.create("http://create/1"), URI.create("http://create/2")), result.getIds());
+        // The entities are only parsed when they are accessed.
+        verify(this.binaryCodec, never()).decode(any());
+        assertSame(create, result.get(1));
+        assertSame(create, result.get(1));
+        verify(this.binaryCodec).decode(content2);
+        verify(this.binaryCodec, never()).decode(content1);
+        verify(this.unitOfWork).register(create);
+
         ArgumentCaptor<SolrQuery> argumentCaptor = ArgumentCaptor.forClass(SolrQuery.class);
         verify(this.solrClient).query(argumentCaptor.capture());
-        assertEquals(solrQuery.toString(), argumentCaptor.getValue().toString());
+        assertEquals(Arrays.asList("type:Create"), Arrays.asList(argumentCaptor.getValue().getFilterQueries()));
     }
 }
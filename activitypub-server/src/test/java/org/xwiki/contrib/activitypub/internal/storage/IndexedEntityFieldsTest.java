@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.activitypub.ActivityPubQuery;
+import org.xwiki.contrib.activitypub.entities.AbstractActor;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObjectReference;
+import org.xwiki.contrib.activitypub.entities.Create;
+import org.xwiki.contrib.activitypub.entities.Note;
+import org.xwiki.contrib.activitypub.entities.ProxyActor;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for {@link IndexedEntityFields}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class IndexedEntityFieldsTest
+{
+    private static final URI ACTOR = URI.create("http://xwiki.org/actor/foo");
+
+    private static final URI NOTE = URI.create("http://xwiki.org/note/1");
+
+    @InjectMockComponents
+    private IndexedEntityFields indexedFields;
+
+    @Test
+    public void addFieldsOfActivity()
+    {
+        Date published = new Date(1000);
+        Note note = new Note().setId(NOTE);
+        Create create = new Create()
+            .setActor(new ActivityPubObjectReference<AbstractActor>().setLink(ACTOR))
+            .setObject(note)
+            .setTo(Arrays.asList(ProxyActor.getPublicActor(), new ProxyActor(URI.create("http://xwiki.org/bar"))))
+            .setPublished(published);
+        SolrInputDocument inputDocument = new SolrInputDocument();
+
+        this.indexedFields.addFields(inputDocument, create);
+        assertEquals(ACTOR.toString(), inputDocument.getFieldValue("actor"));
+        assertEquals(NOTE.toString(), inputDocument.getFieldValue("object"));
+        assertEquals(published, inputDocument.getFieldValue("published"));
+        assertEquals(Arrays.asList("https://www.w3.org/ns/activitystreams#Public", "http://xwiki.org/bar"),
+            inputDocument.getFieldValues("audience"));
+        assertEquals(true, inputDocument.getFieldValue("public"));
+        assertNull(inputDocument.getFieldValue("inReplyTo"));
+    }
+
+    @Test
+    public void addFieldsOfReply()
+    {
+        Note note = new Note()
+            .setAttributedTo(
+                Collections.singletonList(new ActivityPubObjectReference<AbstractActor>().setLink(ACTOR)))
+            .setInReplyTo(new ActivityPubObjectReference<>().setLink(NOTE));
+        SolrInputDocument inputDocument = new SolrInputDocument();
+
+        this.indexedFields.addFields(inputDocument, note);
+        assertEquals(Collections.singletonList(ACTOR.toString()), inputDocument.getFieldValues("attributedTo"));
+        assertEquals(NOTE.toString(), inputDocument.getFieldValue("inReplyTo"));
+        assertEquals(false, inputDocument.getFieldValue("public"));
+        assertNull(inputDocument.getFieldValue("actor"));
+        assertNull(inputDocument.getFieldValue("published"));
+    }
+
+    @Test
+    public void getSolrQuery()
+    {
+        ActivityPubQuery query = new ActivityPubQuery()
+            .setType("Create")
+            .setActor(ACTOR)
+            .setInReplyTo(NOTE)
+            .setPublicOnly(true)
+            .setPublishedAfter(new Date(0))
+            .setOffset(10)
+            .setLimit(5);
+
+        SolrQuery solrQuery = this.indexedFields.getSolrQuery(query);
+        assertEquals(Arrays.asList("public:true", "type:Create", "actor:http\\:\\/\\/xwiki.org\\/actor\\/foo",
+            "inReplyTo:http\\:\\/\\/xwiki.org\\/note\\/1", "published:{1970-01-01T00:00:00Z TO *}"),
+            Arrays.asList(solrQuery.getFilterQueries()));
+        assertEquals("published desc,id desc", solrQuery.getSortField());
+        assertEquals(Integer.valueOf(10), solrQuery.getStart());
+        assertEquals(Integer.valueOf(5), solrQuery.getRows());
+    }
+
+    @Test
+    public void getSolrQueryDefault()
+    {
+        SolrQuery solrQuery = this.indexedFields.getSolrQuery(new ActivityPubQuery().setAscending(true));
+        assertEquals(Collections.singletonList("public:*"), Arrays.asList(solrQuery.getFilterQueries()));
+        assertEquals("published asc,id asc", solrQuery.getSortField());
+        assertEquals(Integer.valueOf(ActivityPubQuery.DEFAULT_LIMIT), solrQuery.getRows());
+    }
+}
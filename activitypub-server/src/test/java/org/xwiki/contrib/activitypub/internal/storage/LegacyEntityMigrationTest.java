@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.net.URI;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.ActivityPubObject;
+import org.xwiki.search.solr.Solr;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link LegacyEntityMigration}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+public class LegacyEntityMigrationTest
+{
+    @InjectMockComponents
+    private LegacyEntityMigration migration;
+
+    @MockComponent
+    private Solr solr;
+
+    @MockComponent
+    private ActivityPubSolrWriter solrWriter;
+
+    @MockComponent
+    private ActivityPubJsonParser jsonParser;
+
+    @RegisterExtension
+    LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @Mock
+    private SolrClient solrClient;
+
+    @Mock
+    private LegacyEntityMigration.DocumentMigrator migrator;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        when(this.solr.getClient("activitypub")).thenReturn(this.solrClient);
+        QueryResponse emptyResponse = mockResponse(CursorMarkParams.CURSOR_MARK_START);
+        when(this.solrClient.query(any())).thenReturn(emptyResponse);
+    }
+
+    private QueryResponse mockResponse(String nextCursorMark, SolrDocument... solrDocuments)
+    {
+        SolrDocumentList solrDocumentList = new SolrDocumentList();
+        for (SolrDocument solrDocument : solrDocuments) {
+            solrDocumentList.add(solrDocument);
+        }
+        QueryResponse queryResponse = mock(QueryResponse.class);
+        when(queryResponse.getResults()).thenReturn(solrDocumentList);
+        when(queryResponse.getNextCursorMark()).thenReturn(nextCursorMark);
+        return queryResponse;
+    }
+
+    private SolrDocument createDocument(String id, String content)
+    {
+        SolrDocument solrDocument = new SolrDocument();
+        solrDocument.setField("id", id);
+        solrDocument.setField("content", content);
+        return solrDocument;
+    }
+
+    @Test
+    public void isDoneWithMarker() throws Exception
+    {
+        SolrDocument marker = new SolrDocument();
+        marker.setField("type", "legacyMigration");
+        when(this.solrClient.getById("storage:legacyMigration")).thenReturn(marker);
+
+        assertTrue(this.migration.isDone(this.migrator));
+        verify(this.solrClient, never()).query(any());
+    }
+
+    @Test
+    public void run() throws Exception
+    {
+        SolrDocument first = createDocument("http://xwiki.org/object/1", "{first}");
+        SolrDocument second = createDocument("http://xwiki.org/object/2", "{second}");
+        SolrDocument third = createDocument("http://xwiki.org/object/3", "{third}");
+        QueryResponse firstPage = mockResponse("page2", first, second);
+        QueryResponse lastPage = mockResponse("page2", third);
+        when(this.solrClient.query(any())).thenReturn(firstPage, lastPage);
+        ActivityPubObject firstEntity = new ActivityPubObject().setId(URI.create("http://xwiki.org/object/1"));
+        ActivityPubObject thirdEntity = new ActivityPubObject().setId(URI.create("http://xwiki.org/object/3"));
+        when(this.jsonParser.parse("{first}")).thenReturn(firstEntity);
+        when(this.jsonParser.parse("{second}")).thenThrow(new ActivityPubException("Invalid"));
+        when(this.jsonParser.parse("{third}")).thenReturn(thirdEntity);
+
+        this.migration.run(this.migrator);
+
+        // A document which cannot be read doesn't prevent the others to be migrated.
+        verify(this.migrator).migrate(first, firstEntity);
+        verify(this.migrator).migrate(third, thirdEntity);
+        verify(this.migrator, never()).migrate(eq(second), any());
+        assertEquals("Cannot migrate the legacy entity [http://xwiki.org/object/2]: [ActivityPubException: Invalid].",
+            this.logCapture.getMessage(0));
+        ArgumentCaptor<SolrInputDocument> captor = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.solrWriter).add(captor.capture());
+        assertEquals("storage:legacyMigration", captor.getValue().getFieldValue("id"));
+        assertTrue(this.migration.isDone(this.migrator));
+    }
+
+    @Test
+    public void runError() throws Exception
+    {
+        SolrDocument solrDocument = createDocument("http://xwiki.org/object/1", "{first}");
+        QueryResponse queryResponse = mockResponse(CursorMarkParams.CURSOR_MARK_START, solrDocument);
+        when(this.solrClient.query(any())).thenReturn(queryResponse);
+        ActivityPubObject entity = new ActivityPubObject();
+        when(this.jsonParser.parse("{first}")).thenReturn(entity);
+        doThrow(new ActivityPubException("Stopped")).when(this.migrator).migrate(solrDocument, entity);
+
+        this.migration.run(this.migrator);
+
+        // The marker is not stored: the migration is performed again the next time.
+        assertEquals("Error while migrating the legacy entities: [ActivityPubException: Stopped].",
+            this.logCapture.getMessage(0));
+        verify(this.solrWriter, never()).add(any());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.activitypub.internal.storage;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Date;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.context.internal.DefaultExecution;
+import org.xwiki.contrib.activitypub.ActivityPubClient;
+import org.xwiki.contrib.activitypub.ActivityPubException;
+import org.xwiki.contrib.activitypub.ActivityPubJsonParser;
+import org.xwiki.contrib.activitypub.entities.Person;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link RemoteEntityRefresher}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@ComponentList(DefaultExecution.class)
+public class RemoteEntityRefresherTest
+{
+    private static final URI ID = URI.create("http://mastodon.social/users/foo");
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2020 07:28:00 GMT";
+
+    private static final String WIKI = "foo";
+
+    @InjectMockComponents
+    private RemoteEntityRefresher refresher;
+
+    @MockComponent
+    private ActivityPubClient activityPubClient;
+
+    @MockComponent
+    private ActivityPubJsonParser jsonParser;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    @Mock
+    private XWikiContext xcontext;
+
+    @Mock
+    private HttpMethod method;
+
+    @Mock
+    private RemoteEntityRefresher.RefreshCallback callback;
+
+    private Execution execution;
+
+    @BeforeEach
+    public void setup() throws Exception
+    {
+        when(this.configuration.getProperty("activitypub.storage.refreshDelay", 86400L)).thenReturn(86400L);
+        when(this.activityPubClient.get(eq(ID), anyMap())).thenReturn(this.method);
+
+        // The actual execution is used: only the initializers of its context are left out.
+        this.execution = this.componentManager.getInstance(Execution.class);
+        doAnswer(invocation -> {
+            this.execution.setContext(invocation.getArgument(0));
+            return null;
+        }).when(this.executionContextManager).initialize(any());
+        when(this.contextProvider.get()).thenReturn(this.xcontext);
+    }
+
+    @Test
+    public void isStale()
+    {
+        when(this.configuration.getProperty("activitypub.storage.refreshDelay.note", 86400L)).thenReturn(60L);
+        when(this.configuration.getProperty("activitypub.storage.refreshDelay.service", 86400L)).thenReturn(-1L);
+
+        Date twoDaysAgo = DateUtils.addDays(new Date(), -2);
+        Date twoMinutesAgo = DateUtils.addMinutes(new Date(), -2);
+        assertTrue(this.refresher.isStale("Person", twoDaysAgo));
+        assertFalse(this.refresher.isStale("Person", twoMinutesAgo));
+        assertTrue(this.refresher.isStale("Person", null));
+        assertTrue(this.refresher.isStale("Note", twoMinutesAgo));
+        assertFalse(this.refresher.isStale("Note", new Date()));
+        assertFalse(this.refresher.isStale("Service", twoDaysAgo));
+    }
+
+    @Test
+    public void runModified() throws Exception
+    {
+        Person person = new Person().setId(ID);
+        InputStream responseBody = mock(InputStream.class);
+        when(this.method.getStatusCode()).thenReturn(200);
+        when(this.method.getResponseHeader("ETag")).thenReturn(new Header("ETag", "\"v2\""));
+        when(this.activityPubClient.getResponseBodyAsStream(this.method)).thenReturn(responseBody);
+        when(this.jsonParser.parse(responseBody)).thenReturn(person);
+
+        this.refresher.run(ID, WIKI, ETAG, LAST_MODIFIED, this.callback);
+
+        ArgumentCaptor<Map<String, String>> headersCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(this.activityPubClient).get(eq(ID), headersCaptor.capture());
+        assertEquals(ETAG, headersCaptor.getValue().get("If-None-Match"));
+        assertEquals(LAST_MODIFIED, headersCaptor.getValue().get("If-Modified-Since"));
+        verify(this.activityPubClient).checkAnswer(this.method);
+        verify(this.callback).refreshed(ID, person, "\"v2\"", null);
+        verify(this.method).releaseConnection();
+    }
+
+    @Test
+    public void runNotModified() throws Exception
+    {
+        when(this.method.getStatusCode()).thenReturn(304);
+
+        this.refresher.run(ID, WIKI, ETAG, LAST_MODIFIED, this.callback);
+
+        verify(this.activityPubClient, never()).getResponseBodyAsStream(any());
+        verify(this.callback).refreshed(ID, null, ETAG, LAST_MODIFIED);
+        verify(this.method).releaseConnection();
+    }
+
+    @Test
+    public void runOtherEntity() throws Exception
+    {
+        when(this.method.getStatusCode()).thenReturn(200);
+        when(this.jsonParser.parse((InputStream) any()))
+            .thenReturn(new Person().setId(URI.create("http://mastodon.social/users/bar")));
+
+        this.refresher.run(ID, WIKI, null, null, this.callback);
+
+        verify(this.callback, never()).refreshed(any(), any(), any(), any());
+        verify(this.method).releaseConnection();
+    }
+
+    @Test
+    public void runError() throws Exception
+    {
+        when(this.method.getStatusCode()).thenReturn(410);
+        doThrow(new ActivityPubException("Gone")).when(this.activityPubClient).checkAnswer(this.method);
+
+        this.refresher.run(ID, WIKI, null, null, this.callback);
+
+        verify(this.callback, never()).refreshed(any(), any(), any(), any());
+        verify(this.method).releaseConnection();
+
+        // The refresh is not attempted again right after a failure.
+        this.refresher.refresh(ID, null, null, this.callback);
+        verify(this.activityPubClient).get(eq(ID), anyMap());
+    }
+
+    @Test
+    public void runInExecutionContext() throws Exception
+    {
+        when(this.method.getStatusCode()).thenReturn(304);
+        doAnswer(invocation -> {
+            // The refreshed entity is stored from the context of the wiki where the refresh has been requested.
+            assertNotNull(this.execution.getContext());
+            verify(this.xcontext).setWikiId(WIKI);
+            return null;
+        }).when(this.callback).refreshed(any(), any(), any(), any());
+
+        this.refresher.run(ID, WIKI, ETAG, LAST_MODIFIED, this.callback);
+
+        verify(this.callback).refreshed(ID, null, ETAG, LAST_MODIFIED);
+        assertNull(this.execution.getContext());
+    }
+
+    @Test
+    public void runUnexpectedError() throws Exception
+    {
+        when(this.method.getStatusCode()).thenReturn(304);
+        doThrow(new IllegalStateException("No unit of work")).when(this.callback)
+            .refreshed(any(), any(), any(), any());
+
+        this.refresher.run(ID, WIKI, ETAG, LAST_MODIFIED, this.callback);
+
+        // The unexpected errors are handled as the other failures.
+        assertNull(this.execution.getContext());
+        verify(this.method).releaseConnection();
+        this.refresher.refresh(ID, ETAG, LAST_MODIFIED, this.callback);
+        verify(this.activityPubClient).get(eq(ID), anyMap());
+    }
+}
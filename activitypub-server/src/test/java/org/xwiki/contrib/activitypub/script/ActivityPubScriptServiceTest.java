@@ -23,7 +23,7 @@ import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
 
 import javax.inject.Provider;
 
@@ -49,6 +49,7 @@ import org.xwiki.contrib.activitypub.entities.OrderedCollection;
 import org.xwiki.contrib.activitypub.entities.Person;
 import org.xwiki.contrib.activitypub.entities.ProxyActor;
 import org.xwiki.contrib.activitypub.entities.Service;
+import org.xwiki.contrib.activitypub.internal.ActivityPubObjectCache;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
@@ -127,6 +128,9 @@ class ActivityPubScriptServiceTest
     @MockComponent
     private AuthorizationManager authorizationManager;
 
+    @MockComponent
+    private ActivityPubObjectCache objectCache;
+
     @RegisterExtension
     LogCaptureExtension logCapture = new LogCaptureExtension(ERROR);
 
@@ -183,15 +187,11 @@ class ActivityPubScriptServiceTest
         Person current = mock(Person.class);
         ActivityPubObjectReference mock = mock(ActivityPubObjectReference.class);
         when(current.getFollowing()).thenReturn(mock);
-        OrderedCollection orderedCollection = mock(OrderedCollection.class);
-        when(this.activityPubObjectReferenceResolver.resolveReference(mock)).thenReturn(orderedCollection);
-        List list1 = mock(List.class);
-        when(orderedCollection.getOrderedItems()).thenReturn(list1);
-        Stream stream1 = mock(Stream.class);
-        when(list1.stream()).thenReturn(stream1);
-        Stream stream2 = mock(Stream.class);
-        when(stream1.map(any())).thenReturn(stream2);
-        when(stream2.anyMatch(any())).thenReturn(true);
+        URI followingId = URI.create("http://following");
+        when(mock.getLink()).thenReturn(followingId);
+        URI actorId = URI.create("http://actor");
+        when(actor.getId()).thenReturn(actorId);
+        when(this.activityPubStorage.containsItem(followingId, actorId)).thenReturn(true);
         ActivityPubObjectReference actorReference = mock(ActivityPubObjectReference.class);
         when(actor.getReference()).thenReturn(actorReference);
         when(this.actorHandler.getCurrentActor()).thenReturn(current);
@@ -208,6 +208,8 @@ class ActivityPubScriptServiceTest
         verify(this.activityPubStorage, times(0)).storeEntity(any());
         verify(this.activityPubClient, times(0)).postInbox(eq(actor), any());
         verify(this.activityPubClient, times(0)).checkAnswer(any());
+        // The following collection is not loaded to check the membership.
+        verify(this.activityPubObjectReferenceResolver, never()).resolveReference(mock);
     }
 
     @Test
@@ -234,6 +236,25 @@ class ActivityPubScriptServiceTest
         assertTrue(res.isEmpty());
     }
 
+    @Test
+    void followersResolvedAtOnce() throws Exception
+    {
+        AbstractActor actor = mock(AbstractActor.class);
+        ActivityPubObjectReference followersReference = mock(ActivityPubObjectReference.class);
+        when(actor.getFollowers()).thenReturn(followersReference);
+        OrderedCollection followers = mock(OrderedCollection.class);
+        when(this.activityPubObjectReferenceResolver.resolveReference(followersReference)).thenReturn(followers);
+        List<ActivityPubObjectReference<AbstractActor>> items =
+            Arrays.asList(mock(ActivityPubObjectReference.class), mock(ActivityPubObjectReference.class));
+        when(this.activityPubObjectReferenceResolver.resolveItems(followers)).thenReturn(items);
+        AbstractActor follower = mock(AbstractActor.class);
+        when(this.activityPubObjectReferenceResolver.resolveReferences(items))
+            .thenReturn(Arrays.asList(follower, null));
+
+        assertEquals(Collections.singletonList(follower), this.scriptService.followers(actor));
+        verify(this.activityPubObjectReferenceResolver, never()).resolveReference(items.get(0));
+    }
+
     @Test
     public void publishNoteNoTarget() throws Exception
     {
@@ -452,4 +473,22 @@ class ActivityPubScriptServiceTest
         verify(this.announceActivityHandler, never()).handleOutboxRequest(any(ActivityRequest.class));
         assertEquals(0, this.logCapture.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getObjectCacheStatistics()
+    {
+        when(this.objectCache.getHitCount()).thenReturn(12L);
+        when(this.objectCache.getMissCount()).thenReturn(3L);
+        when(this.objectCache.getEvictionCount()).thenReturn(1L);
+        when(this.objectCache.getSize()).thenReturn(2);
+        when(this.objectCache.getWeight()).thenReturn(2048L);
+
+        Map<String, Long> statistics = this.scriptService.getObjectCacheStatistics();
+
+        assertEquals(12L, statistics.get("hits"));
+        assertEquals(3L, statistics.get("misses"));
+        assertEquals(1L, statistics.get("evictions"));
+        assertEquals(2L, statistics.get("size"));
+        assertEquals(2048L, statistics.get("weight"));
+    }
+}
@@ -22,19 +22,31 @@ package org.xwiki.contrib.activitypub.webfinger.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.internal.ActivityPubHttpClientManager;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerClient;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerException;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
@@ -42,16 +54,40 @@ import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
 
 /**
  * Default implementation of {@link WebfingerClient}.
+ * <p>
+ * The resolved records are kept in memory and in the storage for {@code activitypub.webfinger.cacheTimeToLive}
+ * seconds (one day by default): the remote server is only queried when no fresh record is found. The failures are
+ * remembered for {@code activitypub.webfinger.negativeCacheTimeToLive} seconds (15 minutes by default), so that the
+ * unreachable accounts are not queried each time they are resolved. Concurrent lookups of the same resource share
+ * the same query.
  *
  * @since 1.1
  * @version $Id$
  */
 @Component
 @Singleton
-public class DefaultWebfingerClient implements WebfingerClient
+public class DefaultWebfingerClient implements WebfingerClient, Initializable
 {
+    static final String CACHE_TIME_TO_LIVE_PROPERTY = "activitypub.webfinger.cacheTimeToLive";
+
+    static final String NEGATIVE_CACHE_TIME_TO_LIVE_PROPERTY = "activitypub.webfinger.negativeCacheTimeToLive";
+
+    static final long DEFAULT_CACHE_TIME_TO_LIVE = TimeUnit.DAYS.toSeconds(1);
+
+    static final long DEFAULT_NEGATIVE_CACHE_TIME_TO_LIVE = TimeUnit.MINUTES.toSeconds(15);
+
     private static final Pattern ACTOR_REGEX = Pattern.compile("^@?(?<username>[^@]+)@(?<domain>[^@]+)$");
 
+    private static final String ACCT_PREFIX = "acct:";
+
+    private static final String QUERY_ERROR_MESSAGE = "Error while querying the webfinger resource for %s";
+
+    private static final int MAX_CACHE_ENTRIES = 1000;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
     private HttpClient httpClient;
 
     @Inject
@@ -60,17 +96,41 @@ public class DefaultWebfingerClient implements WebfingerClient
     @Inject
     private ActivityPubStorage activityPubStorage;
 
-    /**
-     * Default constructor for {@link DefaultWebfingerClient}.
-     */
-    public DefaultWebfingerClient()
+    @Inject
+    private ActivityPubHttpClientManager httpClientManager;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, CacheEntry> cache =
+        new LinkedHashMap<String, CacheEntry>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+            {
+                return size() > MAX_CACHE_ENTRIES;
+            }
+        };
+
+    private final Map<String, CompletableFuture<JSONResourceDescriptor>> pendingLookups = new ConcurrentHashMap<>();
+
+    private long timeToLive;
+
+    private long negativeTimeToLive;
+
+    @Override
+    public void initialize() throws InitializationException
     {
-        // The 1000 value is an arbitrarily large value, see https://jira.xwiki.org/browse/XAP-25
-        MultiThreadedHttpConnectionManager httpConnectionManager = new MultiThreadedHttpConnectionManager();
-        HttpConnectionManagerParams params = httpConnectionManager.getParams();
-        params.setMaxTotalConnections(10000);
-        params.setDefaultMaxConnectionsPerHost(10000);
-        this.httpClient = new HttpClient(httpConnectionManager);
+        // The connections are shared with the other outbound requests, and bounded by timeouts.
+        this.httpClient = this.httpClientManager.getHttpClient();
+        this.timeToLive = TimeUnit.SECONDS.toMillis(
+            this.configuration.getProperty(CACHE_TIME_TO_LIVE_PROPERTY, DEFAULT_CACHE_TIME_TO_LIVE));
+        this.negativeTimeToLive = TimeUnit.SECONDS.toMillis(
+            this.configuration.getProperty(NEGATIVE_CACHE_TIME_TO_LIVE_PROPERTY, DEFAULT_NEGATIVE_CACHE_TIME_TO_LIVE));
     }
 
     @Override
@@ -85,32 +145,127 @@ public class DefaultWebfingerClient implements WebfingerClient
         if (matches) {
             String username = match.group("username");
             String domain = match.group("domain");
-            GetMethod get = null;
-            try {
-                String resource = URLEncoder.encode(
-                    String.format("%s@%s", username, domain), "UTF-8");
-                String query = String.format("http://%s/.well-known/webfinger?resource=%s", domain, resource);
-                get = new GetMethod(query);
-                this.httpClient.executeMethod(get);
-
-                InputStream responseBodyAsStream = get.getResponseBodyAsStream();
-                JSONResourceDescriptor jsonResourceDescriptor = this.parser.parse(responseBodyAsStream);
-                this.activityPubStorage.storeWebFinger(jsonResourceDescriptor);
-                return jsonResourceDescriptor;
-            } catch (IOException | ActivityPubException e) {
-                throw new WebfingerException(
-                    String.format("Error while querying the webfinger resource for %s", webfingerResource), e);
-            } finally {
-                if (get != null) {
-                    get.releaseConnection();
-                }
-            }
+            return resolve(String.format("%s@%s", username, domain));
         } else {
             throw new WebfingerException(String.format("[%s] is not a valid webfinger resource", webfingerResource),
                 null);
         }
     }
 
+    private JSONResourceDescriptor resolve(String resource) throws WebfingerException
+    {
+        CacheEntry entry = getCacheEntry(resource);
+        if (entry != null) {
+            return entry.getDescriptor(resource);
+        }
+
+        CompletableFuture<JSONResourceDescriptor> lookup = new CompletableFuture<>();
+        CompletableFuture<JSONResourceDescriptor> pendingLookup = this.pendingLookups.putIfAbsent(resource, lookup);
+        if (pendingLookup != null) {
+            return waitFor(resource, pendingLookup);
+        }
+        try {
+            // A concurrent lookup might have completed between the cache check and the registration of this one.
+            entry = getCacheEntry(resource);
+            JSONResourceDescriptor result = (entry != null) ? entry.getDescriptor(resource) : lookup(resource);
+            lookup.complete(result);
+            return result;
+        } catch (WebfingerException | RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.pendingLookups.remove(resource, lookup);
+        }
+    }
+
+    private JSONResourceDescriptor lookup(String resource) throws WebfingerException
+    {
+        long now = System.currentTimeMillis();
+        try {
+            JSONResourceDescriptor result = retrieveStored(resource, new Date(now - this.timeToLive));
+            if (result == null) {
+                result = query(resource);
+            }
+            putCacheEntry(resource, new CacheEntry(result, null, now + this.timeToLive));
+            return result;
+        } catch (WebfingerException e) {
+            putCacheEntry(resource, new CacheEntry(null, e, now + this.negativeTimeToLive));
+            throw e;
+        }
+    }
+
+    private JSONResourceDescriptor retrieveStored(String resource, Date updatedSince)
+    {
+        String subject = ACCT_PREFIX + resource;
+        try {
+            return this.activityPubStorage.retrieveWebFinger(subject, updatedSince);
+        } catch (ActivityPubException e) {
+            // The record can still be queried from the remote server.
+            this.logger.warn("Error while retrieving the stored webfinger record [{}]: [{}]", subject,
+                ExceptionUtils.getRootCauseMessage(e));
+            return null;
+        }
+    }
+
+    private JSONResourceDescriptor query(String resource) throws WebfingerException
+    {
+        GetMethod get = null;
+        try {
+            String domain = resource.substring(resource.lastIndexOf('@') + 1);
+            String query = String.format("http://%s/.well-known/webfinger?resource=%s", domain,
+                URLEncoder.encode(resource, "UTF-8"));
+            get = new GetMethod(query);
+            this.httpClient.executeMethod(get);
+
+            InputStream responseBodyAsStream = this.httpClientManager.getResponseBodyAsStream(get);
+            JSONResourceDescriptor jsonResourceDescriptor = this.parser.parse(responseBodyAsStream);
+            this.activityPubStorage.storeWebFinger(jsonResourceDescriptor);
+            return jsonResourceDescriptor;
+        } catch (IOException | ActivityPubException e) {
+            throw new WebfingerException(String.format(QUERY_ERROR_MESSAGE, resource), e);
+        } finally {
+            if (get != null) {
+                get.releaseConnection();
+            }
+        }
+    }
+
+    private JSONResourceDescriptor waitFor(String resource, CompletableFuture<JSONResourceDescriptor> pendingLookup)
+        throws WebfingerException
+    {
+        try {
+            return pendingLookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebfingerException(
+                String.format("Interrupted while waiting for the webfinger resource for %s", resource), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WebfingerException) {
+                throw (WebfingerException) e.getCause();
+            }
+            throw new WebfingerException(String.format(QUERY_ERROR_MESSAGE, resource), e.getCause());
+        }
+    }
+
+    private CacheEntry getCacheEntry(String resource)
+    {
+        synchronized (this.cache) {
+            CacheEntry entry = this.cache.get(resource);
+            if (entry != null && entry.expirationTime < System.currentTimeMillis()) {
+                this.cache.remove(resource);
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    private void putCacheEntry(String resource, CacheEntry entry)
+    {
+        synchronized (this.cache) {
+            this.cache.put(resource, entry);
+        }
+    }
+
     @Override
     public boolean testWebFingerConfiguration(String domain) throws WebfingerException
     {
@@ -119,7 +274,7 @@ public class DefaultWebfingerClient implements WebfingerClient
         try {
             this.httpClient.executeMethod(get);
             if (get.getStatusCode() == 400) {
-                String response = get.getResponseBodyAsString();
+                String response = this.httpClientManager.getResponseBodyAsString(get);
                 if (WebfingerResourceReferenceHandler.DEFAULT_ERROR_ANSWER_NO_RESOURCE.equals(response)) {
                     return true;
                 }
@@ -127,6 +282,9 @@ public class DefaultWebfingerClient implements WebfingerClient
         } catch (IOException e) {
             throw new WebfingerException(
                 String.format("Error while testing WebFinger configuration on domain [%s].", domain), e);
+        } finally {
+            // The connections are pooled: they must be given back even if the body has not been read.
+            get.releaseConnection();
         }
         return false;
     }
@@ -139,4 +297,31 @@ public class DefaultWebfingerClient implements WebfingerClient
     {
         this.httpClient = httpClient;
     }
+
+    /**
+     * A resolved record, or the failure of its resolution.
+     */
+    private static final class CacheEntry
+    {
+        private final JSONResourceDescriptor descriptor;
+
+        private final WebfingerException failure;
+
+        private final long expirationTime;
+
+        CacheEntry(JSONResourceDescriptor descriptor, WebfingerException failure, long expirationTime)
+        {
+            this.descriptor = descriptor;
+            this.failure = failure;
+            this.expirationTime = expirationTime;
+        }
+
+        JSONResourceDescriptor getDescriptor(String resource) throws WebfingerException
+        {
+            if (this.failure != null) {
+                throw new WebfingerException(String.format(QUERY_ERROR_MESSAGE, resource), this.failure);
+            }
+            return this.descriptor;
+        }
+    }
 }
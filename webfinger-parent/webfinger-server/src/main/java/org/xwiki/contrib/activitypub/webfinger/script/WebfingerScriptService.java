@@ -33,6 +33,7 @@ import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.activitypub.ActivityPubException;
 import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.ActorDirectoryEntry;
 import org.xwiki.contrib.activitypub.entities.AbstractActor;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerClient;
 import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
@@ -127,6 +128,26 @@ public class WebfingerScriptService implements ScriptService
         }
     }
 
+    /**
+     * Search the actors known by the current instance by handle, name or domain.
+     *
+     * @param query the beginning of the words to look for.
+     * @param offset the index of the first result to return.
+     * @param limit a limit number of result.
+     * @return the matching actors, the most relevant first.
+     * @since 1.2
+     */
+    @Unstable
+    public List<ActorDirectoryEntry> searchActors(String query, int offset, int limit)
+    {
+        try {
+            return this.activityPubStorage.searchActors(query, offset, limit);
+        } catch (ActivityPubException e) {
+            this.logger.error("Error while searching the actors matching [{}]", query, e);
+            return Collections.emptyList();
+        }
+    }
+
     /**
      * Format an url with its port if it's not 80.
      *
@@ -22,6 +22,14 @@ package org.xwiki.contrib.activitypub.webfinger.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Named;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.URIException;
@@ -30,18 +38,28 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.activitypub.ActivityPubStorage;
+import org.xwiki.contrib.activitypub.internal.ActivityPubHttpClientManager;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerException;
 import org.xwiki.contrib.activitypub.webfinger.WebfingerJsonParser;
+import org.xwiki.contrib.activitypub.webfinger.entities.JSONResourceDescriptor;
+import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 import org.xwiki.test.junit5.mockito.MockComponent;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -64,6 +82,27 @@ class DefaultWebfingerClientTest
     @MockComponent
     private WebfingerJsonParser parser;
 
+    @MockComponent
+    private ActivityPubHttpClientManager httpClientManager;
+
+    @MockComponent
+    private ActivityPubStorage storage;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @BeforeComponent
+    void beforeComponent()
+    {
+        when(this.configuration.getProperty(DefaultWebfingerClient.CACHE_TIME_TO_LIVE_PROPERTY,
+            DefaultWebfingerClient.DEFAULT_CACHE_TIME_TO_LIVE))
+            .thenReturn(DefaultWebfingerClient.DEFAULT_CACHE_TIME_TO_LIVE);
+        when(this.configuration.getProperty(DefaultWebfingerClient.NEGATIVE_CACHE_TIME_TO_LIVE_PROPERTY,
+            DefaultWebfingerClient.DEFAULT_NEGATIVE_CACHE_TIME_TO_LIVE))
+            .thenReturn(DefaultWebfingerClient.DEFAULT_NEGATIVE_CACHE_TIME_TO_LIVE);
+    }
+
     @BeforeEach
     public void setup() throws URISyntaxException
     {
@@ -113,4 +152,82 @@ class DefaultWebfingerClientTest
         WebfingerException actual = assertThrows(WebfingerException.class, () -> this.client.get("user@test.org"));
         assertEquals("Error while querying the webfinger resource for user@test.org", actual.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getResponseTooLarge() throws Exception
+    {
+        when(this.httpClientManager.getResponseBodyAsStream(any(GetMethod.class)))
+            .thenThrow(new IOException("Too large"));
+        WebfingerException actual = assertThrows(WebfingerException.class, () -> this.client.get("user@test.org"));
+        assertEquals("Error while querying the webfinger resource for user@test.org", actual.getMessage());
+        verify(this.parser, never()).parse(any(InputStream.class));
+    }
+
+    @Test
+    void getFromStorage() throws Exception
+    {
+        JSONResourceDescriptor jsonResourceDescriptor = mock(JSONResourceDescriptor.class);
+        when(this.storage.retrieveWebFinger(eq("acct:user@test.org"), any(Date.class)))
+            .thenReturn(jsonResourceDescriptor);
+
+        assertSame(jsonResourceDescriptor, this.client.get("@user@test.org"));
+        verify(this.httpClient, never()).executeMethod(any());
+        verify(this.storage, never()).storeWebFinger(any());
+    }
+
+    @Test
+    void getCached() throws Exception
+    {
+        JSONResourceDescriptor jsonResourceDescriptor = mock(JSONResourceDescriptor.class);
+        when(this.parser.parse(nullable(InputStream.class))).thenReturn(jsonResourceDescriptor);
+
+        assertSame(jsonResourceDescriptor, this.client.get("user@test.org"));
+        assertSame(jsonResourceDescriptor, this.client.get("@user@test.org"));
+        verify(this.httpClient).executeMethod(any());
+        verify(this.storage).retrieveWebFinger(eq("acct:user@test.org"), any(Date.class));
+        verify(this.storage).storeWebFinger(jsonResourceDescriptor);
+    }
+
+    @Test
+    void getFailureCached() throws Exception
+    {
+        IOException exception = new IOException("TEST");
+        when(this.httpClient.executeMethod(any())).thenThrow(exception);
+        WebfingerException first = assertThrows(WebfingerException.class, () -> this.client.get("user@test.org"));
+        assertSame(exception, first.getCause());
+
+        WebfingerException second = assertThrows(WebfingerException.class, () -> this.client.get("user@test.org"));
+        assertEquals("Error while querying the webfinger resource for user@test.org", second.getMessage());
+        assertSame(first, second.getCause());
+        verify(this.httpClient).executeMethod(any());
+    }
+
+    @Test
+    void getCoalesced() throws Exception
+    {
+        JSONResourceDescriptor jsonResourceDescriptor = mock(JSONResourceDescriptor.class);
+        when(this.parser.parse(nullable(InputStream.class))).thenReturn(jsonResourceDescriptor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(this.httpClient.executeMethod(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return 200;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<JSONResourceDescriptor> first = executor.submit(() -> this.client.get("user@test.org"));
+            started.await(10, TimeUnit.SECONDS);
+            Future<JSONResourceDescriptor> second = executor.submit(() -> this.client.get("user@test.org"));
+            release.countDown();
+
+            assertSame(jsonResourceDescriptor, first.get(10, TimeUnit.SECONDS));
+            assertSame(jsonResourceDescriptor, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(this.httpClient, times(1)).executeMethod(any());
+        verify(this.storage, times(1)).storeWebFinger(jsonResourceDescriptor);
+    }
+}